@@ -0,0 +1,179 @@
+package com.github.davesters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Sends single commands issued by many threads at the same time to Redis together, as one pipeline.
+ * Callers put their command on a queue and wait. A few writer threads each take everything that is on the queue,
+ * send it as one pipeline over one connection from the pool, and hand every caller its own reply. With many threads
+ * doing small reads and writes at once, this turns one round trip and one pool checkout per command into one per
+ * batch. A single caller with nothing else going on pays one hand-off between threads on top of the round trip.
+ * Batches are sent through the {@link ResilientPool}, so they get the same deadline, retries and circuit breaker as
+ * any other operation. A caller gives up waiting for its reply after the timeout, so it is not stuck if a writer
+ * thread dies. Only commands that can safely be sent twice should go through here, since a batch that fails part
+ * way is retried as a whole.
+ */
+final class AutoPipeline implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AutoPipeline.class.getSimpleName());
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private final ResilientPool pool;
+    private final long timeoutMillis;
+    private final BlockingQueue<Command<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread[] writers;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new AutoPipeline.
+     * @param pool The pool to send batches through
+     * @param threads The number of writer threads, which is also the most connections used at once
+     * @param name The name of the writer threads
+     * @param timeoutMillis How long a caller waits for its reply
+     */
+    AutoPipeline(ResilientPool pool, int threads, String name, long timeoutMillis) {
+        this.pool = pool;
+        this.timeoutMillis = timeoutMillis;
+        this.writers = new Thread[Math.max(1, threads)];
+
+        for (int i = 0; i < this.writers.length; i++) {
+            this.writers[i] = new Thread(this::run, name + "-" + i);
+            this.writers[i].setDaemon(true);
+        }
+    }
+
+    void start() {
+        for (Thread writer : writers) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Send a command with the next batch and wait for its reply.
+     * @param command Queues the command on the pipeline and returns its response
+     * @param <T> The reply type
+     * @return The reply
+     */
+    <T> T execute(Function<PipelineBase, Response<T>> command) {
+        Command<T> pending = new Command<>(command);
+
+        if (closed) {
+            throw new JedisConnectionException("Auto pipeline is closed");
+        }
+        queue.add(pending);
+        // The writers may have stopped between the check and adding the command.
+        if (closed && queue.remove(pending)) {
+            throw new JedisConnectionException("Auto pipeline is closed");
+        }
+
+        try {
+            return pending.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // A command that no writer has taken yet is not sent at all.
+            queue.remove(pending);
+            throw new JedisConnectionException("Timed out waiting for a pipelined command", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JedisConnectionException(e.getCause());
+        }
+    }
+
+    /**
+     * Get the number of commands waiting for a writer to take them.
+     * @return The number of queued commands
+     */
+    int getQueuedCommands() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread writer : writers) {
+            writer.interrupt();
+        }
+
+        List<Command<?>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(command -> command.future.completeExceptionally(
+            new JedisConnectionException("Auto pipeline is closed")));
+    }
+
+    private void run() {
+        List<Command<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            send(batch);
+            batch.clear();
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void send(List<Command<?>> batch) {
+        try {
+            pool.execute(true, jedis -> {
+                Pipeline pipeline = jedis.pipelined();
+                batch.forEach(command -> command.queue(pipeline));
+                pipeline.sync();
+                return null;
+            });
+        } catch (Exception e) {
+            LOG.debug("Error sending {} pipelined commands", batch.size(), e);
+            batch.forEach(command -> command.future.completeExceptionally(e));
+            return;
+        }
+
+        batch.forEach(Command::complete);
+    }
+
+    private static final class Command<T> {
+        private final Function<PipelineBase, Response<T>> command;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private Response<T> response;
+
+        Command(Function<PipelineBase, Response<T>> command) {
+            this.command = command;
+        }
+
+        void queue(PipelineBase pipeline) {
+            this.response = command.apply(pipeline);
+        }
+
+        // A command that failed on its own only fails its own caller.
+        void complete() {
+            try {
+                future.complete(response.get());
+            } catch (JedisDataException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
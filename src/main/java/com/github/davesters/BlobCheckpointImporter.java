@@ -0,0 +1,292 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports the checkpoints and leases of a consumer group from the format the Azure storage checkpoint manager keeps
+ * them in, so a consumer group can be moved over to Redis without processing events again.
+ * The Azure storage checkpoint manager keeps one JSON blob per partition, holding both the lease and the checkpoint.
+ * The blobs can be read from a local directory they were downloaded to, or straight from a blob container using a
+ * SAS URL, which also works against the local storage emulator. Documents are read as they are listed and written to
+ * Redis in large pipelined batches. Partitions that already have a checkpoint or lease in Redis are left alone, so
+ * an import can safely be run again. Imported leases keep their epoch but are expired, so any host can take them.
+ */
+public final class BlobCheckpointImporter implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlobCheckpointImporter.class.getSimpleName());
+    private static final int BATCH_SIZE = 1000;
+    private static final int FETCH_THREADS = 16;
+    private static final int HTTP_TIMEOUT_MILLIS = 30000;
+    private static final int HTTP_OK = 200;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final Pattern BLOB_NAME = Pattern.compile("<Name>([^<]*)</Name>");
+    private static final Pattern NEXT_MARKER = Pattern.compile("<NextMarker>([^<]*)</NextMarker>");
+
+    private final CheckpointStore store;
+    private final boolean ownsStore;
+
+    /**
+     * Create a new BlobCheckpointImporter that imports into the Redis the options point at.
+     * Use the same checkpoint key name the lease manager of the consumer group will use.
+     * @param options The options object
+     */
+    public BlobCheckpointImporter(RedisCheckpointOptions options) {
+        this(new RedisCheckpointStore(options), true);
+    }
+
+    // This is only used in testing to pass in a checkpoint store.
+    BlobCheckpointImporter(CheckpointStore store, boolean ownsStore) {
+        this.store = store;
+        this.ownsStore = ownsStore;
+    }
+
+    /**
+     * Import every lease blob in a directory and its subdirectories, for example a consumer group directory
+     * downloaded from the lease container.
+     * @param directory The directory to import
+     * @return An {@link ImportResult} with the number of documents read and entries imported
+     * @throws IOException If the directory can not be read
+     */
+    public ImportResult importDirectory(Path directory) throws IOException {
+        Batch batch = new Batch();
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                batch.add(file.getFileName().toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+
+        return batch.finish();
+    }
+
+    /**
+     * Import every lease blob in a blob container, for example the lease container of the Azure storage checkpoint
+     * manager. The SAS token needs read and list permissions.
+     * @param containerSasUrl The URL of the container with a SAS token, like
+     *     https://account.blob.core.windows.net/container?sv=...&amp;sig=...
+     * @param prefix Only import blobs whose names start with this, usually the consumer group name and a slash.
+     *     Null to import every blob
+     * @return An {@link ImportResult} with the number of documents read and entries imported
+     * @throws IOException If the container can not be listed
+     */
+    public ImportResult importContainer(String containerSasUrl, String prefix) throws IOException {
+        int query = containerSasUrl.indexOf('?');
+        String containerUrl = query < 0 ? containerSasUrl : containerSasUrl.substring(0, query);
+        String sas = query < 0 ? "" : containerSasUrl.substring(query + 1);
+
+        Batch batch = new Batch();
+        ExecutorService fetchers = Executors.newFixedThreadPool(FETCH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "redis-checkpoint-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            String marker = null;
+            do {
+                String listing = get(containerUrl + "?restype=container&comp=list"
+                    + (prefix == null ? "" : "&prefix=" + encode(prefix))
+                    + (marker == null ? "" : "&marker=" + encode(marker))
+                    + (sas.isEmpty() ? "" : "&" + sas));
+
+                // Blobs of a page are downloaded at the same time, and read in the order they were listed.
+                List<String> names = new ArrayList<>();
+                List<CompletableFuture<String>> documents = new ArrayList<>();
+                Matcher name = BLOB_NAME.matcher(listing);
+                while (name.find()) {
+                    String blobName = unescapeXml(name.group(1));
+                    String blobUrl = containerUrl + '/' + encodePath(blobName) + (sas.isEmpty() ? "" : "?" + sas);
+                    names.add(blobName);
+                    documents.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return get(blobUrl);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, fetchers));
+                }
+
+                for (int i = 0; i < names.size(); i++) {
+                    try {
+                        String blobName = names.get(i);
+                        batch.add(blobName.substring(blobName.lastIndexOf('/') + 1), documents.get(i).join());
+                    } catch (CompletionException e) {
+                        LOG.warn("Error reading blob {}", names.get(i), e.getCause());
+                        batch.skipped++;
+                    }
+                }
+
+                Matcher next = NEXT_MARKER.matcher(listing);
+                marker = next.find() && !next.group(1).isEmpty() ? unescapeXml(next.group(1)) : null;
+            } while (marker != null);
+        } finally {
+            fetchers.shutdownNow();
+        }
+
+        return batch.finish();
+    }
+
+    @Override
+    public void close() {
+        if (this.ownsStore && this.store.connected()) {
+            this.store.close();
+        }
+    }
+
+    // The SAS token is left out of error messages, since it is a secret.
+    private static String get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(HTTP_TIMEOUT_MILLIS);
+        connection.setReadTimeout(HTTP_TIMEOUT_MILLIS);
+
+        try {
+            int status = connection.getResponseCode();
+            if (status != HTTP_OK) {
+                int query = url.indexOf('?');
+                throw new IOException("GET " + (query < 0 ? url : url.substring(0, query)) + " returned " + status);
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+    }
+
+    private static String encodePath(String blobName) {
+        StringBuilder path = new StringBuilder();
+        try {
+            for (String segment : blobName.split("/", -1)) {
+                if (path.length() > 0 || blobName.startsWith("/")) {
+                    path.append('/');
+                }
+                path.append(encode(segment));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return path.toString();
+    }
+
+    private static String unescapeXml(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+            .replace("&amp;", "&");
+    }
+
+    // Collects converted documents and writes them to the store every BATCH_SIZE partitions.
+    private final class Batch {
+        private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+        private final Map<String, CompleteLease> leases = new HashMap<>();
+        private int read;
+        private int skipped;
+        private int checkpointsImported;
+        private int leasesImported;
+
+        Batch() {
+            if (!store.connected()) {
+                store.connect();
+            }
+        }
+
+        // The partition id is taken from the document, or from the blob name for older documents without it.
+        void add(String name, String json) {
+            Map<String, String> document;
+            try {
+                document = JsonObjectReader.parse(json);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Skipping {}, it is not a lease document: {}", name, e.getMessage());
+                skipped++;
+                return;
+            }
+
+            if (!document.containsKey("epoch") && !document.containsKey("offset")) {
+                LOG.warn("Skipping {}, it is not a lease document", name);
+                skipped++;
+                return;
+            }
+
+            String partitionId = document.get("partitionId") == null ? name : document.get("partitionId");
+            String owner = document.get("owner") == null ? "" : document.get("owner");
+            String offset = document.get("offset");
+
+            try {
+                leases.put(partitionId, new RedisLease(partitionId, owner, parseLong(document.get("epoch")), 0));
+                if (offset != null && !offset.isEmpty()) {
+                    checkpoints.put(partitionId,
+                        new Checkpoint(partitionId, offset, parseLong(document.get("sequenceNumber"))));
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Skipping {}, it has an invalid number: {}", name, e.getMessage());
+                leases.remove(partitionId);
+                skipped++;
+                return;
+            }
+
+            read++;
+            if (leases.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        ImportResult finish() {
+            flush();
+            LOG.info("imported {} checkpoints and {} leases from {} documents", checkpointsImported, leasesImported,
+                read);
+            return new ImportResult(read, skipped, checkpointsImported, leasesImported);
+        }
+
+        private void flush() {
+            if (!checkpoints.isEmpty()) {
+                checkpointsImported += store.importCheckpoints(checkpoints);
+            }
+            if (!leases.isEmpty()) {
+                leasesImported += store.importLeases(leases);
+            }
+
+            checkpoints.clear();
+            leases.clear();
+        }
+
+        private long parseLong(String value) {
+            return value == null ? 0 : Long.parseLong(value);
+        }
+    }
+}
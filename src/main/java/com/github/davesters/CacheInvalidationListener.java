@@ -0,0 +1,217 @@
+package com.github.davesters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Listens for Redis server-assisted client side caching invalidation messages.
+ * One connection subscribes to the invalidation channel, and a second connection turns on tracking in broadcast
+ * mode for the key prefix and redirects the invalidation messages to the first. Redis then tells us about every
+ * change to a key with that prefix, no matter which client made it.
+ * Redis forgets the tracking as soon as the second connection goes away, and nothing arrives on the first one to say
+ * so. A watchdog thread checks the second connection every second, and closes both connections if it was lost or
+ * reconnected under a new client id.
+ * If either connection is lost, the caches are told tracking is off until it can be set up again. If the server does
+ * not support tracking (Redis 5 or older), the listener gives up and the caches stay in TTL mode.
+ */
+final class CacheInvalidationListener implements Runnable, NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheInvalidationListener.class.getSimpleName());
+    private static final String CHANNEL = "__redis__:invalidate";
+    private static final long RETRY_INTERVAL_MILLIS = 5000;
+    private static final long WATCH_INTERVAL_MILLIS = 1000;
+
+    private final Supplier<Jedis> connectionFactory;
+    private final String keyPrefix;
+    private final Consumer<String> invalidated;
+    private final Consumer<Boolean> trackingChanged;
+    private final Thread thread;
+    private final Thread watchdog;
+    private final Object connectionLock = new Object();
+
+    private volatile boolean running = true;
+    private volatile Jedis listener;
+    private volatile Jedis tracker;
+    private volatile Long trackerId;
+
+    /**
+     * Create a new CacheInvalidationListener.
+     * @param connectionFactory Creates new, dedicated connections to Redis
+     * @param keyPrefix The prefix of the keys to track
+     * @param invalidated Called with each key that changed, or with null if all keys should be considered changed
+     * @param trackingChanged Called when tracking is turned on or off
+     */
+    CacheInvalidationListener(Supplier<Jedis> connectionFactory, String keyPrefix, Consumer<String> invalidated,
+                              Consumer<Boolean> trackingChanged) {
+        this.connectionFactory = connectionFactory;
+        this.keyPrefix = keyPrefix;
+        this.invalidated = invalidated;
+        this.trackingChanged = trackingChanged;
+        this.thread = new Thread(this, "redis-checkpoint-invalidation");
+        this.thread.setDaemon(true);
+        this.watchdog = new Thread(this::watchTracker, "redis-checkpoint-invalidation-watchdog");
+        this.watchdog.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+        watchdog.start();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                listen();
+            } catch (JedisDataException e) {
+                LOG.info("Redis client tracking is not available. Near cache entries will expire by TTL: {}",
+                    e.getMessage());
+                running = false;
+            } catch (JedisConnectionException e) {
+                if (running) {
+                    LOG.warn("Lost the Redis invalidation connection. Retrying in {}ms", RETRY_INTERVAL_MILLIS, e);
+                }
+            } finally {
+                trackingChanged.accept(false);
+                closeConnections();
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        closeConnections();
+        thread.interrupt();
+        watchdog.interrupt();
+    }
+
+    private void listen() {
+        Jedis subscriber = connectionFactory.get();
+        Jedis tracking = connectionFactory.get();
+        synchronized (connectionLock) {
+            listener = subscriber;
+            tracker = tracking;
+        }
+
+        Long listenerId = (Long) subscriber.sendCommand(Protocol.Command.CLIENT, "ID");
+        subscriber.sendCommand(Protocol.Command.SUBSCRIBE, CHANNEL);
+        Long id = (Long) tracking.sendCommand(Protocol.Command.CLIENT, "ID");
+        tracking.sendCommand(Protocol.Command.CLIENT, "TRACKING", "on", "REDIRECT", listenerId.toString(),
+            "BCAST", "PREFIX", keyPrefix);
+        trackerId = id;
+
+        trackingChanged.accept(true);
+        LOG.debug("Redis client tracking enabled for keys starting with {}", keyPrefix);
+
+        Client client = subscriber.getClient();
+        client.setTimeoutInfinite();
+
+        while (running) {
+            handleMessage(client.getOne());
+        }
+    }
+
+    // Checks that the tracking connection is still the one tracking is turned on for. Jedis quietly reconnects a
+    // closed connection on the next command, so the client id is compared as well. If it was lost, both connections
+    // are closed, which wakes up the listener thread to clear the caches and set up tracking again.
+    private void watchTracker() {
+        while (running) {
+            try {
+                Thread.sleep(WATCH_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            synchronized (connectionLock) {
+                Long expectedId = trackerId;
+                if (expectedId == null || tracker == null) {
+                    continue;
+                }
+
+                if (!expectedId.equals(currentTrackerId())) {
+                    LOG.warn("Lost the Redis tracking connection. Near cache entries will expire by TTL until it is "
+                        + "set up again");
+                    trackingChanged.accept(false);
+                    closeConnections();
+                }
+            }
+        }
+    }
+
+    private Long currentTrackerId() {
+        try {
+            return (Long) tracker.sendCommand(Protocol.Command.CLIENT, "ID");
+        } catch (JedisConnectionException e) {
+            LOG.debug("Error checking the tracking connection", e);
+            return null;
+        }
+    }
+
+    // A message looks like ["message", "__redis__:invalidate", keys]. keys is a list of keys, a single key on
+    // older servers, or null when the whole database was flushed.
+    private void handleMessage(Object reply) {
+        if (!(reply instanceof List)) {
+            return;
+        }
+
+        List<?> message = (List<?>) reply;
+        if (message.size() < 3 || !"message".equals(asString(message.get(0)))) {
+            return;
+        }
+
+        Object keys = message.get(2);
+        if (keys == null) {
+            invalidated.accept(null);
+        } else if (keys instanceof List) {
+            ((List<?>) keys).forEach(key -> invalidated.accept(asString(key)));
+        } else {
+            invalidated.accept(asString(keys));
+        }
+    }
+
+    private void closeConnections() {
+        synchronized (connectionLock) {
+            trackerId = null;
+            closeQuietly(listener);
+            closeQuietly(tracker);
+            listener = null;
+            tracker = null;
+        }
+    }
+
+    private static void closeQuietly(Jedis jedis) {
+        if (jedis == null) {
+            return;
+        }
+
+        try {
+            jedis.close();
+        } catch (JedisConnectionException e) {
+            LOG.debug("Error closing invalidation connection", e);
+        }
+    }
+
+    private static String asString(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : null;
+    }
+}
@@ -0,0 +1,399 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+
+/**
+ * Inspects and changes the checkpoints and leases of many consumer groups at once, without blocking Redis.
+ * Keys are found with SCAN and hashes are read with HSCAN, a page at a time, so no single command walks a whole
+ * keyspace or hash. Writes for a page are sent in one pipeline. Every command is counted against
+ * {@link RedisCheckpointOptions#getAdminOperationsPerSecond()}, so the admin can be run against a production Redis.
+ * Consumer groups are named by their checkpoint key name, and hashes split into shards are found using
+ * {@link RedisCheckpointOptions#getHashShardCount()}.
+ * Stop the event processors of a consumer group before resetting its checkpoints, or their next checkpoint will
+ * overwrite the reset one.
+ * When {@link RedisCheckpointOptions#getSecondaryHostname()} is set, resets are written to the secondary Redis as
+ * well. The hosts only copy checkpoints that move forward to the secondary, so they would never copy a reset.
+ */
+public final class CheckpointAdmin implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckpointAdmin.class.getSimpleName());
+    private static final int SCAN_COUNT = 100;
+    private static final int HISTORY_PAGE_SIZE = 100;
+    private static final StreamEntryID HISTORY_START = new StreamEntryID(0, 0);
+    private static final Pattern SHARD_SUFFIX = Pattern.compile(":\\d+$");
+    private static final List<String> KEY_SUFFIXES = Arrays.asList("_lease", "_history", "_hosts", "_state");
+
+    private final int shardCount;
+    private final ResilientPool pool;
+    private final ResilientPool secondaryPool;
+    private final Throttle throttle;
+    private final Clock clock;
+
+    /**
+     * Create a new CheckpointAdmin that connects to the Redis the options point at.
+     * @param options The options object
+     */
+    public CheckpointAdmin(RedisCheckpointOptions options) {
+        this(options,
+            RedisCheckpointStore.createPool(options, "redis-checkpoint-admin", options.getRedisHostname(),
+                options.getPort(), 1),
+            options.getSecondaryHostname() == null || options.getSecondaryHostname().trim().isEmpty()
+                ? null
+                : RedisCheckpointStore.createPool(options, "redis-checkpoint-admin", options.getSecondaryHostname(),
+                    options.getSecondaryPort(), 1));
+    }
+
+    // This is only used in testing to pass in the connection pools.
+    CheckpointAdmin(RedisCheckpointOptions options, ResilientPool pool, ResilientPool secondaryPool) {
+        this.shardCount = Math.max(1, options.getHashShardCount());
+        this.pool = pool;
+        this.secondaryPool = secondaryPool;
+        this.throttle = new Throttle(options.getAdminOperationsPerSecond());
+        this.clock = options.getClock() != null ? options.getClock() : CoarseClock.INSTANCE;
+    }
+
+    /**
+     * Find the checkpoint key names of all consumer groups with keys matching a pattern. Each name is passed to
+     * the action once, as it is found.
+     * @param pattern A Redis glob-style pattern, like "eph-*"
+     * @param action Called with each checkpoint key name
+     */
+    public synchronized void scanCheckpointKeyNames(String pattern, Consumer<String> action) {
+        Set<String> found = new HashSet<>();
+        ScanParams params = new ScanParams().match(pattern).count(SCAN_COUNT);
+        String cursor = ScanParams.SCAN_POINTER_START;
+
+        do {
+            String pageCursor = cursor;
+            ScanResult<String> page = pool.execute(true, jedis -> jedis.scan(pageCursor, params));
+            throttle.acquire(SCAN_COUNT);
+
+            for (String key : page.getResult()) {
+                String name = checkpointKeyNameOf(key);
+                if (found.add(name)) {
+                    action.accept(name);
+                }
+            }
+
+            cursor = page.getCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+    }
+
+    /**
+     * Read all checkpoints of a consumer group, a page at a time.
+     * @param checkpointKeyName The checkpoint key name of the consumer group
+     * @param action Called with each checkpoint
+     */
+    public synchronized void scanCheckpoints(String checkpointKeyName, Consumer<Checkpoint> action) {
+        scanHashes(checkpointKeyName, (key, page) -> page.forEach(entry ->
+            action.accept(PartitionTable.parseCheckpoint(entry.getKey(), entry.getValue()))));
+    }
+
+    /**
+     * Read all leases of a consumer group, a page at a time.
+     * @param checkpointKeyName The checkpoint key name of the consumer group
+     * @param action Called with each lease
+     */
+    public synchronized void scanLeases(String checkpointKeyName, Consumer<CompleteLease> action) {
+        scanHashes(checkpointKeyName + "_lease", (key, page) -> page.forEach(entry ->
+            action.accept(PartitionTable.parseLease(entry.getKey(), entry.getValue()))));
+    }
+
+    /**
+     * Reset the checkpoints of all partitions of a consumer group to an offset, with a sequence number of 0.
+     * @param checkpointKeyName The checkpoint key name of the consumer group
+     * @param offset The offset, usually {@link InitialCheckpointOffset#START_OF_STREAM} or
+     *     {@link InitialCheckpointOffset#END_OF_STREAM}
+     * @return The number of checkpoints reset
+     */
+    public synchronized int resetCheckpoints(String checkpointKeyName, String offset) {
+        String value = offset + ",0";
+        AtomicInteger reset = new AtomicInteger();
+
+        scanHashes(checkpointKeyName, (key, page) -> {
+            if (page.isEmpty()) {
+                return;
+            }
+
+            Map<String, String> values = new HashMap<>();
+            page.forEach(entry -> values.put(entry.getKey(), value));
+            writeCheckpoints(checkpointKeyName, Collections.singletonMap(key, values));
+            throttle.acquire(values.size());
+            reset.addAndGet(values.size());
+        });
+
+        LOG.info("reset {} checkpoints of {} to {}", reset.get(), checkpointKeyName, offset);
+        return reset.get();
+    }
+
+    /**
+     * Reset the checkpoints of all partitions of a consumer group to the last checkpoint written before a point in
+     * time, using the checkpoint history. Partitions without any history before that time keep their current
+     * checkpoint. See {@link RedisCheckpointOptions#isCheckpointHistoryEnabled()}.
+     * @param checkpointKeyName The checkpoint key name of the consumer group
+     * @param timestamp The point in time to reset to
+     * @return The number of checkpoints reset
+     */
+    public synchronized int resetCheckpoints(String checkpointKeyName, Instant timestamp) {
+        Set<String> partitionIds = new HashSet<>();
+        scanHashes(checkpointKeyName, (key, page) -> page.forEach(entry -> partitionIds.add(entry.getKey())));
+
+        // Walk the history backwards from the timestamp until the latest value of every partition has been found.
+        String historyKey = checkpointKeyName + "_history";
+        Map<String, String> values = new HashMap<>();
+        StreamEntryID end = new StreamEntryID(timestamp.toEpochMilli() - 1, Long.MAX_VALUE);
+        while (end != null && values.size() < partitionIds.size()) {
+            StreamEntryID pageEnd = end;
+            List<StreamEntry> entries = pool.execute(true,
+                jedis -> jedis.xrevrange(historyKey, pageEnd, HISTORY_START, HISTORY_PAGE_SIZE));
+            throttle.acquire(HISTORY_PAGE_SIZE);
+
+            for (StreamEntry entry : entries) {
+                entry.getFields().forEach((partitionId, value) -> {
+                    if (partitionIds.contains(partitionId)) {
+                        values.putIfAbsent(partitionId, value);
+                    }
+                });
+            }
+
+            end = entries.size() < HISTORY_PAGE_SIZE
+                ? null
+                : RedisCheckpointStore.previousId(entries.get(entries.size() - 1).getID());
+        }
+
+        if (values.size() < partitionIds.size()) {
+            LOG.warn("No checkpoint history found before {} for {} partitions of {}. Their checkpoints are not changed",
+                timestamp, partitionIds.size() - values.size(), checkpointKeyName);
+        }
+
+        List<String> ids = new ArrayList<>(values.keySet());
+        for (int start = 0; start < ids.size(); start += SCAN_COUNT) {
+            Map<String, Map<String, String>> shards = new HashMap<>();
+            for (String partitionId : ids.subList(start, Math.min(ids.size(), start + SCAN_COUNT))) {
+                shards.computeIfAbsent(shardKey(checkpointKeyName, partitionId), key -> new HashMap<>())
+                    .put(partitionId, values.get(partitionId));
+            }
+
+            writeCheckpoints(checkpointKeyName, shards);
+            throttle.acquire(Math.min(SCAN_COUNT, ids.size() - start));
+        }
+
+        LOG.info("reset {} checkpoints of {} to {}", values.size(), checkpointKeyName, timestamp);
+        return values.size();
+    }
+
+    /**
+     * Release all leases of a consumer group owned by a host, so other hosts can take them right away. The epochs
+     * are kept. A lease that changes while it is being released, because the host renewed it, is not released.
+     * @param checkpointKeyName The checkpoint key name of the consumer group
+     * @param hostname The name of the host
+     * @return The number of leases released
+     */
+    public synchronized int releaseLeases(String checkpointKeyName, String hostname) {
+        String sha1 = pool.execute(true, jedis -> jedis.scriptLoad(RedisCheckpointStore.COMPARE_AND_SET.getScript()));
+        AtomicInteger released = new AtomicInteger();
+
+        scanHashes(checkpointKeyName + "_lease", (key, page) -> {
+            long now = clock.millis();
+            Map<String, String> owned = new HashMap<>();
+            page.forEach(entry -> {
+                RedisLease lease = PartitionTable.parseLease(entry.getKey(), entry.getValue());
+                if (lease.isOwnedBy(hostname)) {
+                    owned.put(entry.getKey(), entry.getValue());
+                }
+            });
+            if (owned.isEmpty()) {
+                return;
+            }
+
+            // Not idempotent. A retry after a write that made it to Redis would fail the compare.
+            List<Response<Object>> results = pool.execute(false, jedis -> {
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<Object>> responses = new ArrayList<>();
+                owned.forEach((partitionId, value) -> {
+                    long epoch = PartitionTable.parseLease(partitionId, value).getEpoch();
+                    String releasedValue = new RedisLease(partitionId, "", epoch, now).getRedisValue();
+                    responses.add(pipeline.evalsha(sha1, Collections.singletonList(key),
+                        Arrays.asList(partitionId, value, releasedValue)));
+                });
+                pipeline.sync();
+                return responses;
+            });
+            throttle.acquire(owned.size());
+
+            for (Response<Object> result : results) {
+                if (Long.valueOf(1).equals(result.get())) {
+                    released.incrementAndGet();
+                }
+            }
+        });
+
+        LOG.info("released {} leases of {} owned by {}", released.get(), checkpointKeyName, hostname);
+        return released.get();
+    }
+
+    /**
+     * Write the checkpoints and leases of all consumer groups with keys matching a pattern to a file, one JSON
+     * object per line. Each line has the checkpoint key name, a type of "checkpoint" or "lease", the partition id,
+     * and the offset and sequence number of a checkpoint, or the owner, epoch and expiry of a lease.
+     * @param pattern A Redis glob-style pattern, like "eph-*"
+     * @param file The file to write
+     * @return The number of lines written
+     * @throws IOException If the file can not be written
+     */
+    public synchronized long export(String pattern, Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        scanCheckpointKeyNames(pattern, names::add);
+        AtomicLong lines = new AtomicLong();
+
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String name : names) {
+                scanCheckpoints(name, checkpoint -> writeLine(out, lines, "{\"checkpointKeyName\":" + quote(name)
+                    + ",\"type\":\"checkpoint\",\"partitionId\":" + quote(checkpoint.getPartitionId())
+                    + ",\"offset\":" + quote(checkpoint.getOffset())
+                    + ",\"sequenceNumber\":" + checkpoint.getSequenceNumber() + "}"));
+                scanLeases(name, lease -> writeLine(out, lines, "{\"checkpointKeyName\":" + quote(name)
+                    + ",\"type\":\"lease\",\"partitionId\":" + quote(lease.getPartitionId())
+                    + ",\"owner\":" + quote(lease.getOwner())
+                    + ",\"epoch\":" + lease.getEpoch()
+                    + ",\"expireMillis\":" + ((RedisLease) lease).getExpireMillis() + "}"));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        LOG.info("exported {} checkpoints and leases of {} consumer groups to {}", lines.get(), names.size(), file);
+        return lines.get();
+    }
+
+    @Override
+    public void close() {
+        this.pool.close();
+        if (this.secondaryPool != null) {
+            this.secondaryPool.close();
+        }
+    }
+
+    /**
+     * Get the checkpoint key name a key belongs to, by removing the shard number and the suffix of the lease, state,
+     * history and heartbeat keys.
+     * @param key The Redis key
+     * @return The checkpoint key name
+     */
+    static String checkpointKeyNameOf(String key) {
+        String name = SHARD_SUFFIX.matcher(key).replaceFirst("");
+
+        for (String suffix : KEY_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return name;
+    }
+
+    // Reads a hash, and all of its shards, with HSCAN. The action is called with the key and each page of entries.
+    private void scanHashes(String hash, BiConsumer<String, List<Map.Entry<String, String>>> action) {
+        List<String> keys = new ArrayList<>();
+        keys.add(hash);
+        if (shardCount > 1) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                keys.add(hash + ':' + shard);
+            }
+        }
+
+        ScanParams params = new ScanParams().count(SCAN_COUNT);
+        for (String key : keys) {
+            String cursor = ScanParams.SCAN_POINTER_START;
+
+            do {
+                String pageCursor = cursor;
+                ScanResult<Map.Entry<String, String>> page = pool.execute(true,
+                    jedis -> jedis.hscan(key, pageCursor, params));
+                throttle.acquire(SCAN_COUNT);
+
+                action.accept(key, page.getResult());
+                cursor = page.getCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+    }
+
+    // Writes reset checkpoints, grouped by hash key, to the primary and to the secondary if there is one. The partition
+    // states belong to the checkpoints that were reset, so they are deleted.
+    private void writeCheckpoints(String checkpointKeyName, Map<String, Map<String, String>> shards) {
+        String stateKey = checkpointKeyName + "_state";
+        List<ResilientPool> targets = secondaryPool == null
+            ? Collections.singletonList(pool)
+            : Arrays.asList(pool, secondaryPool);
+
+        for (ResilientPool target : targets) {
+            target.execute(true, jedis -> {
+                Pipeline pipeline = jedis.pipelined();
+                shards.forEach((key, values) -> {
+                    pipeline.hset(key, values);
+                    pipeline.hdel(stateKey, values.keySet().toArray(new String[0]));
+                });
+                pipeline.sync();
+                return null;
+            });
+        }
+    }
+
+    private String shardKey(String key, String partitionId) {
+        return shardCount == 1 ? key : key + ':' + PartitionTable.shardOf(partitionId, shardCount);
+    }
+
+    private static void writeLine(Writer out, AtomicLong lines, String line) {
+        try {
+            out.write(line);
+            out.write('\n');
+            lines.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.davesters;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A command line interface to {@link CheckpointAdmin}.
+ * <pre>
+ * java -cp redis-eph-checkpoints.jar:... com.github.davesters.CheckpointAdminCli [options] command [arguments]
+ *
+ * Commands:
+ *   list [pattern]                        List the checkpoint key names of all consumer groups
+ *   show checkpointKeyName                Print all checkpoints and leases of a consumer group
+ *   reset checkpointKeyName start|end     Reset all checkpoints to the start or the end of the stream
+ *   reset checkpointKeyName timestamp     Reset all checkpoints to an ISO-8601 time, like 2020-05-01T10:00:00Z
+ *   release checkpointKeyName hostname    Release all leases owned by a host
+ *   export pattern file                   Write the checkpoints and leases of all consumer groups to a file
+ *
+ * Options:
+ *   --host hostname, --port port, --password password, --database database, --ssl
+ *   --shards count                        The hash shard count the consumer groups use
+ *   --rate operations                     The number of operations per second, 0 to not limit
+ * </pre>
+ */
+public final class CheckpointAdminCli {
+
+    private static final String USAGE = "usage: CheckpointAdminCli [--host hostname] [--port port] "
+        + "[--password password] [--database database] [--ssl] [--shards count] [--rate operations] "
+        + "list [pattern] | show name | reset name start|end|timestamp | release name hostname | export pattern file";
+
+    private CheckpointAdminCli() {
+    }
+
+    /**
+     * Run a command.
+     * @param args The options, command and arguments
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out));
+    }
+
+    /**
+     * Run a command, writing its output to a stream.
+     * @param args The options, command and arguments
+     * @param out The stream to write output to
+     * @return The exit code. 0 on success, 2 if the arguments are not valid
+     */
+    static int run(String[] args, PrintStream out) {
+        RedisCheckpointOptions options = new RedisCheckpointOptions("checkpoint-admin", "localhost");
+        List<String> command = new ArrayList<>();
+
+        try {
+            Iterator<String> arguments = Arrays.asList(args).iterator();
+            while (arguments.hasNext()) {
+                String argument = arguments.next();
+                switch (argument) {
+                    case "--host":
+                        options.setRedisHostname(value(arguments, argument));
+                        break;
+                    case "--port":
+                        options.setPort(Integer.parseInt(value(arguments, argument)));
+                        break;
+                    case "--password":
+                        options.setPassword(value(arguments, argument));
+                        break;
+                    case "--database":
+                        options.setDatabase(Integer.parseInt(value(arguments, argument)));
+                        break;
+                    case "--ssl":
+                        options.setSsl(true);
+                        break;
+                    case "--shards":
+                        options.setHashShardCount(Integer.parseInt(value(arguments, argument)));
+                        break;
+                    case "--rate":
+                        options.setAdminOperationsPerSecond(Integer.parseInt(value(arguments, argument)));
+                        break;
+                    default:
+                        command.add(argument);
+                        break;
+                }
+            }
+
+            validate(command);
+            try (CheckpointAdmin admin = new CheckpointAdmin(options)) {
+                runCommand(admin, command, out);
+            }
+            return 0;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            out.println(e.getMessage());
+            out.println(USAGE);
+            return 2;
+        } catch (IOException e) {
+            out.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    private static void validate(List<String> command) {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("No command given");
+        }
+
+        int arguments = command.size() - 1;
+        switch (command.get(0)) {
+            case "list":
+                require(arguments <= 1);
+                break;
+            case "show":
+                require(arguments == 1);
+                break;
+            case "reset":
+                require(arguments == 2);
+                parseResetTarget(command.get(2));
+                break;
+            case "release":
+            case "export":
+                require(arguments == 2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command.get(0));
+        }
+    }
+
+    private static void runCommand(CheckpointAdmin admin, List<String> command, PrintStream out) throws IOException {
+        switch (command.get(0)) {
+            case "list":
+                admin.scanCheckpointKeyNames(command.size() > 1 ? command.get(1) : "*", out::println);
+                break;
+            case "show":
+                admin.scanCheckpoints(command.get(1), checkpoint -> out.printf("checkpoint %s offset=%s sequence=%d%n",
+                    checkpoint.getPartitionId(), checkpoint.getOffset(), checkpoint.getSequenceNumber()));
+                admin.scanLeases(command.get(1), lease -> out.printf("lease %s owner=%s epoch=%d expires=%s%n",
+                    lease.getPartitionId(), lease.getOwner(), lease.getEpoch(),
+                    Instant.ofEpochMilli(((RedisLease) lease).getExpireMillis())));
+                break;
+            case "reset":
+                Object target = parseResetTarget(command.get(2));
+                int reset = target instanceof Instant
+                    ? admin.resetCheckpoints(command.get(1), (Instant) target)
+                    : admin.resetCheckpoints(command.get(1), (String) target);
+                out.println("reset " + reset + " checkpoints");
+                break;
+            case "release":
+                out.println("released " + admin.releaseLeases(command.get(1), command.get(2)) + " leases");
+                break;
+            case "export":
+                out.println("exported " + admin.export(command.get(1), Paths.get(command.get(2))) + " lines");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command.get(0));
+        }
+    }
+
+    // Returns the offset for start and end, or the Instant to reset to.
+    private static Object parseResetTarget(String target) {
+        switch (target) {
+            case "start":
+                return InitialCheckpointOffset.START_OF_STREAM;
+            case "end":
+                return InitialCheckpointOffset.END_OF_STREAM;
+            default:
+                return Instant.parse(target);
+        }
+    }
+
+    private static String value(Iterator<String> arguments, String option) {
+        if (!arguments.hasNext()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return arguments.next();
+    }
+
+    private static void require(boolean valid) {
+        if (!valid) {
+            throw new IllegalArgumentException("Wrong number of arguments");
+        }
+    }
+}
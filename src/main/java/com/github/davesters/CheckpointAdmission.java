@@ -0,0 +1,65 @@
+package com.github.davesters;
+
+import java.util.Arrays;
+
+/**
+ * Decides per partition if a checkpoint should be written to Redis right away, or kept locally and written with
+ * the next batch. It keeps an exponentially weighted moving average of how long checkpoint writes take for each
+ * partition. Once the average goes over the threshold the partition switches to batched writes, so a slow Redis
+ * does not hold up event processing on every checkpoint. It switches back once the average is below half of the
+ * threshold again, so a partition does not flip back and forth around the threshold.
+ * Partitions are identified by their index in the {@link PartitionTable}.
+ */
+final class CheckpointAdmission {
+
+    private static final double SMOOTHING = 0.2;
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final double thresholdMillis;
+
+    private double[] averageMillis = new double[INITIAL_CAPACITY];
+    private boolean[] coalescing = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Create a new CheckpointAdmission.
+     * @param thresholdMillis The average write latency above which a partition switches to batched writes
+     */
+    CheckpointAdmission(long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * Check if checkpoints for a partition should currently be batched instead of written right away.
+     * @param index The partition index
+     * @return True if the checkpoint should be batched
+     */
+    synchronized boolean shouldCoalesce(int index) {
+        return index < coalescing.length && coalescing[index];
+    }
+
+    /**
+     * Record how long a write of a checkpoint for a partition took, either on its own or as part of a batch.
+     * @param index The partition index
+     * @param latencyMillis How long the write took, including a write that failed
+     */
+    synchronized void record(int index, long latencyMillis) {
+        ensureCapacity(index + 1);
+
+        double average = averageMillis[index] + SMOOTHING * (latencyMillis - averageMillis[index]);
+        averageMillis[index] = average;
+
+        if (average > thresholdMillis) {
+            coalescing[index] = true;
+        } else if (average < thresholdMillis / 2) {
+            coalescing[index] = false;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > averageMillis.length) {
+            int capacity = Math.max(averageMillis.length * 2, size);
+            averageMillis = Arrays.copyOf(averageMillis, capacity);
+            coalescing = Arrays.copyOf(coalescing, capacity);
+        }
+    }
+}
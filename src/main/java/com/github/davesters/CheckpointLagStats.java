@@ -0,0 +1,97 @@
+package com.github.davesters;
+
+/**
+ * How far the checkpoint persisted in Redis for a partition is behind the last checkpoint set for it on this host.
+ * This is how much a host taking over the partition would process again.
+ */
+public final class CheckpointLagStats {
+
+    private final String partitionId;
+    private final String offset;
+    private final long sequenceNumber;
+    private final String persistedOffset;
+    private final long persistedSequenceNumber;
+    private final long persistedAtMillis;
+    private final long pendingAgeMillis;
+
+    CheckpointLagStats(String partitionId, String offset, long sequenceNumber, String persistedOffset,
+                       long persistedSequenceNumber, long persistedAtMillis, long pendingAgeMillis) {
+        this.partitionId = partitionId;
+        this.offset = offset;
+        this.sequenceNumber = sequenceNumber;
+        this.persistedOffset = persistedOffset;
+        this.persistedSequenceNumber = persistedSequenceNumber;
+        this.persistedAtMillis = persistedAtMillis;
+        this.pendingAgeMillis = pendingAgeMillis;
+    }
+
+    /**
+     * The partition id.
+     * @return string
+     */
+    public String getPartitionId() {
+        return partitionId;
+    }
+
+    /**
+     * The offset of the last checkpoint set on this host, or the persisted offset if none has been set.
+     * @return string
+     */
+    public String getOffset() {
+        return offset;
+    }
+
+    /**
+     * The sequence number of the last checkpoint set on this host, or the persisted one if none has been set.
+     * @return long
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * The offset of the last checkpoint known to be in Redis, or null if none is known yet.
+     * @return string
+     */
+    public String getPersistedOffset() {
+        return persistedOffset;
+    }
+
+    /**
+     * The sequence number of the last checkpoint known to be in Redis.
+     * @return long
+     */
+    public long getPersistedSequenceNumber() {
+        return persistedSequenceNumber;
+    }
+
+    /**
+     * When the last checkpoint known to be in Redis was written or read, or 0 if none is known yet.
+     * @return long in epoch milliseconds
+     */
+    public long getPersistedAtMillis() {
+        return persistedAtMillis;
+    }
+
+    /**
+     * How long the oldest checkpoint that has not been written to Redis yet has been waiting, or 0 if there is none.
+     * @return long in milliseconds
+     */
+    public long getPendingAgeMillis() {
+        return pendingAgeMillis;
+    }
+
+    /**
+     * The number of sequence numbers the persisted checkpoint is behind the last checkpoint set.
+     * @return long
+     */
+    public long getSequenceNumberLag() {
+        return persistedOffset == null ? 0 : Math.max(0, sequenceNumber - persistedSequenceNumber);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("partitionId=%s, sequenceNumber=%d, persistedSequenceNumber=%d, lag=%d, pendingAge=%dms",
+            partitionId, sequenceNumber, persistedSequenceNumber, getSequenceNumberLag(), pendingAgeMillis);
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which checkpoints are written to the store, so processors can checkpoint after every batch of events
+ * without writing to the store every time.
+ * A partition's checkpoint is written once it is a number of events past the last written checkpoint, or once the
+ * last written checkpoint is old enough. Checkpoints in between are kept in memory, and the latest one is written
+ * when the partition is flushed, which happens before its lease is released or deleted, and when the lease manager is
+ * closed. When the lease is lost to another host, the latest one is discarded instead, since the new owner may
+ * already be further along. On close, the stored lease of each partition is checked for that first. A background thread writes checkpoints that have been waiting too long, for
+ * partitions that stopped receiving events. The number of events processed again after a crash is bounded by the
+ * event count and the interval.
+ */
+final class CheckpointPolicy implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckpointPolicy.class.getSimpleName());
+
+    private final CheckpointStore store;
+    private final long eventCount;
+    private final long intervalMillis;
+    private final Predicate<String> owned;
+    private final Clock clock;
+    private final Map<String, PartitionState> partitions = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new CheckpointPolicy.
+     * @param store The store to write checkpoints to
+     * @param eventCount Write a checkpoint once it is this many events past the last written one. 0 to not count
+     * @param intervalMillis Write a checkpoint once the last written one is this old. 0 to not wait on time
+     * @param owned Checks if this host still owns the lease of a partition, before {@link #flushAll()} writes it
+     * @param clock The clock the age of checkpoints is measured with
+     */
+    CheckpointPolicy(CheckpointStore store, long eventCount, long intervalMillis, Predicate<String> owned,
+                     Clock clock) {
+        this.store = store;
+        this.eventCount = eventCount;
+        this.intervalMillis = intervalMillis;
+        this.owned = owned;
+        this.clock = clock;
+    }
+
+    /**
+     * Start writing checkpoints that have waited longer than the interval in the background, if it has not started.
+     */
+    synchronized void start() {
+        if (this.intervalMillis <= 0 || this.scheduler != null) {
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-checkpoint-policy");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushExpired, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Take a checkpoint set by a processor, and write it to the store if the policy says it is due.
+     * The first checkpoint of a partition is always written.
+     * @param checkpoint The checkpoint
+     */
+    void update(Checkpoint checkpoint) {
+        PartitionState state = partitions.computeIfAbsent(checkpoint.getPartitionId(), id -> new PartitionState());
+
+        synchronized (state) {
+            long now = clock.millis();
+            state.pending = checkpoint;
+
+            if (!state.written
+                || (eventCount > 0 && checkpoint.getSequenceNumber() - state.writtenSequenceNumber >= eventCount)
+                || (intervalMillis > 0 && now - state.writtenAtMillis >= intervalMillis)) {
+                write(state, now);
+            }
+        }
+    }
+
+    /**
+     * Get the checkpoint of a partition that has not been written to the store yet.
+     * @param partitionId The partition id
+     * @return The latest checkpoint, or null if everything has been written
+     */
+    Checkpoint getPending(String partitionId) {
+        PartitionState state = partitions.get(partitionId);
+        if (state == null) {
+            return null;
+        }
+
+        synchronized (state) {
+            return state.pending;
+        }
+    }
+
+    /**
+     * Write the latest checkpoint of a partition if it has not been written yet, and forget the partition, as it is
+     * about to move to another host.
+     * @param partitionId The partition id
+     */
+    void flush(String partitionId) {
+        PartitionState state = partitions.get(partitionId);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state) {
+            write(state, clock.millis());
+            partitions.remove(partitionId, state);
+        }
+    }
+
+    /**
+     * Drop the checkpoint of a partition that has not been written yet, for when the checkpoint is deleted or the
+     * lease has been lost.
+     * @param partitionId The partition id
+     */
+    void discard(String partitionId) {
+        PartitionState state = partitions.remove(partitionId);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state) {
+            state.pending = null;
+        }
+    }
+
+    /**
+     * Write the checkpoints of all partitions that have not been written yet, for the partitions whose lease this host
+     * still owns. The checkpoints of the others are discarded. Errors are logged, so one partition does not stop the
+     * others from being written.
+     */
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    void flushAll() {
+        for (String partitionId : partitions.keySet()) {
+            try {
+                if (owned.test(partitionId)) {
+                    flush(partitionId);
+                } else {
+                    LOG.debug("lease lost. discarding checkpoint for partition {}", partitionId);
+                    discard(partitionId);
+                }
+            } catch (Exception e) {
+                LOG.warn("Error writing checkpoint for partition {}", partitionId, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            try {
+                this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+
+        flushAll();
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void flushExpired() {
+        long now = clock.millis();
+
+        partitions.forEach((partitionId, state) -> {
+            synchronized (state) {
+                if (state.pending == null || now - state.writtenAtMillis < intervalMillis) {
+                    return;
+                }
+
+                try {
+                    write(state, now);
+                } catch (Exception e) {
+                    LOG.warn("Error writing checkpoint for partition {}", partitionId, e);
+                }
+            }
+        });
+    }
+
+    // Must be called while holding the lock of the state. If the write fails, the checkpoint stays pending.
+    private void write(PartitionState state, long now) {
+        Checkpoint checkpoint = state.pending;
+        if (checkpoint == null) {
+            return;
+        }
+
+        LOG.debug("writing checkpoint for partition {}", checkpoint.getPartitionId());
+        store.setCheckpoint(checkpoint);
+
+        state.pending = null;
+        state.written = true;
+        state.writtenSequenceNumber = checkpoint.getSequenceNumber();
+        state.writtenAtMillis = now;
+    }
+
+    private static final class PartitionState {
+        private Checkpoint pending;
+        private boolean written;
+        private long writtenSequenceNumber;
+        private long writtenAtMillis;
+    }
+}
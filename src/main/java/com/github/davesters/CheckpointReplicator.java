@@ -0,0 +1,349 @@
+package com.github.davesters;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies checkpoints and leases written to the primary Redis over to a secondary Redis in the background, so the
+ * secondary can take over if the primary is lost.
+ * Writes are only put in a map by partition, so the primary write path does not wait on the secondary, and a
+ * partition written many times between two copies is copied once. The map is bounded. Once it is full, writes of
+ * new partitions are dropped and everything is read from the primary and copied over again with the next copy.
+ * Normal writes only move the secondary forward: a checkpoint is only written if its sequence number is not lower
+ * than the one already there, and a lease only if its epoch and expiry are not older. Copies that fail, or arrive out
+ * of order, can never move the secondary back. Rewinds and deletes are deliberate, so they are queued as forced
+ * writes that are copied over whatever the secondary has, and are never dropped when the map is full.
+ * When partition state is replicated, a checkpoint's state is copied in the same script call as the checkpoint, and
+ * only if the checkpoint itself is copied.
+ */
+final class CheckpointReplicator implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckpointReplicator.class.getSimpleName());
+    private static final int MAX_FIELDS_PER_CALL = 500;
+    private static final int CHECKPOINT_ARGUMENTS = 4;
+    private static final int LEASE_ARGUMENTS = 3;
+
+    // The kinds of hashes that are copied. Also passed to the merge script.
+    static final String CHECKPOINTS = "c";
+    static final String LEASES = "l";
+    static final String STATES = "s";
+
+    // Writes fields of the hash in KEYS[1]. ARGV[1] is 'c' for checkpoints, compared by sequence number, or 'l' for
+    // leases, compared by epoch and then expiry. After that come the field, '1' to force the write or '0' to only
+    // write it if it is not older than the value in the hash, and the value, or an empty value to delete the field.
+    // Checkpoints have one more argument for the state in the hash in KEYS[2]: empty to leave it, '-' to delete it,
+    // or the state itself. A value in the hash that can not be parsed is always overwritten.
+    private static final RedisScript MERGE = new RedisScript(
+        "local function newer(kind, value, current) "
+            + "if kind == 'c' then "
+            + "local s1, s0 = string.match(value, ',(%-?%d+)$'), string.match(current, ',(%-?%d+)$') "
+            + "if not s1 or not s0 then return true end "
+            + "return tonumber(s1) >= tonumber(s0) end "
+            + "local e1, x1 = string.match(value, ',(%-?%d+),(%-?%d+)$') "
+            + "local e0, x0 = string.match(current, ',(%-?%d+),(%-?%d+)$') "
+            + "if not e1 or not e0 then return true end "
+            + "e1, x1, e0, x0 = tonumber(e1), tonumber(x1), tonumber(e0), tonumber(x0) "
+            + "return e1 > e0 or (e1 == e0 and x1 >= x0) end "
+            + "local stride = ARGV[1] == 'c' and 4 or 3 "
+            + "local written = 0 "
+            + "for i = 2, #ARGV, stride do "
+            + "local field, value = ARGV[i], ARGV[i + 2] "
+            + "local current = redis.call('HGET', KEYS[1], field) "
+            + "if ARGV[i + 1] == '1' or (value ~= '' and (not current or newer(ARGV[1], value, current))) then "
+            + "if value == '' then redis.call('HDEL', KEYS[1], field) "
+            + "else redis.call('HSET', KEYS[1], field, value) end "
+            + "local state = ARGV[i + 3] "
+            + "if KEYS[2] and state == '-' then redis.call('HDEL', KEYS[2], field) "
+            + "elseif KEYS[2] and state and state ~= '' then redis.call('HSET', KEYS[2], field, state) end "
+            + "written = written + 1 end end "
+            + "return written");
+
+    private final ResilientPool secondary;
+    private final Function<String, String> checkpointKey;
+    private final Function<String, String> leaseKey;
+    private final String stateKey;
+    private final Function<String, Map<String, String>> readPrimary;
+    private final int maxPending;
+    private final Object lock = new Object();
+
+    private Map<String, Pending> checkpoints = new HashMap<>();
+    private Map<String, Pending> leases = new HashMap<>();
+    private long oldestPendingMillis;
+    private boolean resyncNeeded = true;
+    private long lastReplicatedAtMillis;
+    private long resyncs;
+    private long failures;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new CheckpointReplicator. Everything is copied over with the first copy.
+     * @param secondary The pool of the secondary Redis
+     * @param checkpointKey Gives the hash key a partition's checkpoint is stored under
+     * @param leaseKey Gives the hash key a partition's lease is stored under
+     * @param stateKey The hash key partition states are stored under, or null to not copy partition states
+     * @param readPrimary Reads all {@link #CHECKPOINTS}, {@link #LEASES} or {@link #STATES} from the primary
+     * @param maxPending The number of partitions that can wait to be copied before everything is copied again
+     */
+    CheckpointReplicator(ResilientPool secondary, Function<String, String> checkpointKey,
+                         Function<String, String> leaseKey, String stateKey,
+                         Function<String, Map<String, String>> readPrimary, int maxPending) {
+        this.secondary = secondary;
+        this.checkpointKey = checkpointKey;
+        this.leaseKey = leaseKey;
+        this.stateKey = stateKey;
+        this.readPrimary = readPrimary;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Start copying in the background.
+     * @param intervalMillis How often to copy
+     */
+    void start(long intervalMillis) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-checkpoint-replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::replicateQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a checkpoint that was written to the primary.
+     * @param partitionId The partition id
+     * @param value The stored value
+     * @param state The stored state, an empty string if the state was deleted, or null if it was not changed
+     */
+    void checkpointWritten(String partitionId, String value, String state) {
+        synchronized (lock) {
+            queue(checkpoints, partitionId, new Pending(value, state, false));
+        }
+    }
+
+    /**
+     * Queue a checkpoint that was deliberately moved back on the primary, like by a rewind. It is copied even though
+     * the secondary has a newer one.
+     * @param partitionId The partition id
+     * @param value The stored value
+     * @param state The stored state, an empty string if the state was deleted, or null if it was not changed
+     */
+    void checkpointRewound(String partitionId, String value, String state) {
+        synchronized (lock) {
+            queue(checkpoints, partitionId, new Pending(value, state, true));
+        }
+    }
+
+    /**
+     * Queue the delete of a checkpoint and its state.
+     * @param partitionId The partition id
+     */
+    void checkpointDeleted(String partitionId) {
+        synchronized (lock) {
+            queue(checkpoints, partitionId, new Pending(null, "", true));
+        }
+    }
+
+    /**
+     * Queue a lease that was written to the primary.
+     * @param partitionId The partition id
+     * @param value The stored value
+     */
+    void leaseWritten(String partitionId, String value) {
+        synchronized (lock) {
+            queue(leases, partitionId, new Pending(value, null, false));
+        }
+    }
+
+    /**
+     * Queue the delete of a lease.
+     * @param partitionId The partition id
+     */
+    void leaseDeleted(String partitionId) {
+        synchronized (lock) {
+            queue(leases, partitionId, new Pending(null, null, true));
+        }
+    }
+
+    /**
+     * Copy everything that is queued to the secondary now. If the copy fails, the writes stay queued.
+     * @param readPrimary False to skip reading everything from the primary when a resync is needed, for when the
+     *     primary is known to be gone
+     */
+    void replicate(boolean readPrimary) {
+        Map<String, Pending> queuedCheckpoints;
+        Map<String, Pending> queuedLeases;
+        boolean resync;
+        long oldest;
+
+        synchronized (lock) {
+            queuedCheckpoints = checkpoints;
+            queuedLeases = leases;
+            resync = resyncNeeded && readPrimary;
+            oldest = oldestPendingMillis;
+            checkpoints = new HashMap<>();
+            leases = new HashMap<>();
+            resyncNeeded = resyncNeeded && !readPrimary;
+            oldestPendingMillis = 0;
+        }
+
+        try {
+            Map<String, Pending> checkpointBatch = queuedCheckpoints;
+            Map<String, Pending> leaseBatch = queuedLeases;
+
+            if (resync) {
+                LOG.debug("copying all checkpoints and leases to the secondary");
+                Map<String, String> states = stateKey == null ? null : this.readPrimary.apply(STATES);
+                checkpointBatch = readAll(CHECKPOINTS, queuedCheckpoints, states);
+                leaseBatch = readAll(LEASES, queuedLeases, null);
+            }
+
+            merge(CHECKPOINTS, checkpointBatch, checkpointKey);
+            merge(LEASES, leaseBatch, leaseKey);
+        } catch (RuntimeException e) {
+            requeue(queuedCheckpoints, queuedLeases, oldest, resync);
+            throw e;
+        }
+
+        synchronized (lock) {
+            lastReplicatedAtMillis = Instant.now().toEpochMilli();
+            resyncs += resync ? 1 : 0;
+        }
+    }
+
+    /**
+     * Get how far the secondary is behind.
+     * @return A {@link ReplicationStats} object
+     */
+    ReplicationStats getStats() {
+        synchronized (lock) {
+            long lag = oldestPendingMillis == 0 ? 0 : Math.max(0, Instant.now().toEpochMilli() - oldestPendingMillis);
+            return new ReplicationStats(checkpoints.size() + leases.size(), lag, lastReplicatedAtMillis, resyncs,
+                failures);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            try {
+                this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void replicateQuietly() {
+        try {
+            replicate(true);
+        } catch (Exception e) {
+            LOG.warn("Error copying checkpoints to the secondary Redis", e);
+        }
+    }
+
+    // Must be called while holding the lock. Forced writes are never dropped, there is at most one per partition.
+    private void queue(Map<String, Pending> pending, String partitionId, Pending write) {
+        Pending queued = pending.get(partitionId);
+        if (queued == null && !write.forced && checkpoints.size() + leases.size() >= maxPending) {
+            resyncNeeded = true;
+            return;
+        }
+
+        pending.put(partitionId, queued == null ? write : queued.then(write));
+        if (oldestPendingMillis == 0) {
+            oldestPendingMillis = Instant.now().toEpochMilli();
+        }
+    }
+
+    // What is in the primary now is at least as new as anything queued, so it replaces the queued values. Queued
+    // forced writes stay forced, with the value from the primary, and are deletes if the primary has no value.
+    private Map<String, Pending> readAll(String kind, Map<String, Pending> queued, Map<String, String> states) {
+        Map<String, Pending> batch = new HashMap<>();
+        this.readPrimary.apply(kind).forEach((partitionId, value) -> {
+            String state = states == null ? null : states.getOrDefault(partitionId, "");
+            Pending write = queued.get(partitionId);
+            batch.put(partitionId, new Pending(value, state, write != null && write.forced));
+        });
+
+        queued.forEach((partitionId, write) -> {
+            if (write.forced && !batch.containsKey(partitionId)) {
+                batch.put(partitionId, new Pending(null, "", true));
+            }
+        });
+        return batch;
+    }
+
+    // Puts a failed batch back. Anything queued since is newer, so it is applied on top of the failed values.
+    private void requeue(Map<String, Pending> checkpointBatch, Map<String, Pending> leaseBatch, long oldest,
+                         boolean resync) {
+        synchronized (lock) {
+            failures++;
+            resyncNeeded = resyncNeeded || resync;
+            checkpointBatch.forEach((partitionId, write) -> checkpoints.merge(partitionId, write, Pending::then));
+            leaseBatch.forEach((partitionId, write) -> leases.merge(partitionId, write, Pending::then));
+            if (oldest != 0 && (oldestPendingMillis == 0 || oldest < oldestPendingMillis)) {
+                oldestPendingMillis = oldest;
+            }
+        }
+    }
+
+    private void merge(String kind, Map<String, Pending> values, Function<String, String> keyOf) {
+        boolean withState = CHECKPOINTS.equals(kind) && stateKey != null;
+        Map<String, List<String>> argumentsByKey = new HashMap<>();
+        values.forEach((partitionId, write) -> {
+            List<String> arguments = argumentsByKey.computeIfAbsent(keyOf.apply(partitionId), key -> new ArrayList<>());
+            arguments.add(partitionId);
+            arguments.add(write.forced ? "1" : "0");
+            arguments.add(write.value == null ? "" : write.value);
+            if (CHECKPOINTS.equals(kind)) {
+                arguments.add(write.state == null ? "" : write.state.isEmpty() ? "-" : write.state);
+            }
+        });
+
+        int perField = CHECKPOINTS.equals(kind) ? CHECKPOINT_ARGUMENTS : LEASE_ARGUMENTS;
+        argumentsByKey.forEach((key, arguments) -> {
+            List<String> keys = withState ? Arrays.asList(key, stateKey) : Collections.singletonList(key);
+            for (int start = 0; start < arguments.size(); start += MAX_FIELDS_PER_CALL * perField) {
+                int end = Math.min(arguments.size(), start + MAX_FIELDS_PER_CALL * perField);
+                List<String> call = new ArrayList<>();
+                call.add(kind);
+                call.addAll(arguments.subList(start, end));
+
+                secondary.execute(true, jedis -> MERGE.eval(jedis, keys, call));
+            }
+        });
+    }
+
+    // A write waiting to be copied. A null value deletes the field, a null state leaves it as it is and an empty
+    // state deletes it.
+    private static final class Pending {
+        private final String value;
+        private final String state;
+        private final boolean forced;
+
+        Pending(String value, String state, boolean forced) {
+            this.value = value;
+            this.state = state;
+            this.forced = forced;
+        }
+
+        // The write that has the effect of this one followed by the next one. Once forced, it stays forced, since the
+        // secondary may still have a value newer than the next one.
+        Pending then(Pending next) {
+            return new Pending(next.value, next.state != null ? next.state : state, forced || next.forced);
+        }
+    }
+}
@@ -3,13 +3,19 @@ package com.github.davesters;
 import com.microsoft.azure.eventprocessorhost.BaseLease;
 import com.microsoft.azure.eventprocessorhost.Checkpoint;
 import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * A checkpoint store to house checkpoint and lease data.
+ * A checkpoint store to house checkpoint and lease data. Checkpoints and leases are kept in Redis by default, or in a
+ * local file with {@link FileCheckpointStore}. Leases passed to and returned from a store are {@link RedisLease}
+ * objects.
  */
-interface CheckpointStore extends NoExceptionAutoClosable {
+public interface CheckpointStore extends NoExceptionAutoClosable {
 
     /**
      * Connect to the checkpoint store.
@@ -47,6 +53,81 @@ interface CheckpointStore extends NoExceptionAutoClosable {
      */
     Map<String, Checkpoint> getAllCheckpoints();
 
+    /**
+     * Make sure every partition has a lease and a checkpoint, then read all leases and checkpoints. Stores should do
+     * this in as few round trips as they can, as it is what a host does when it starts.
+     * @param partitionIds The partition ids to create leases and checkpoints for
+     * @param initialCheckpointOffset The offset of newly created checkpoints
+     * @param clock The clock leases check their expiry against
+     * @return All leases and checkpoints in the store
+     */
+    default StoreBootstrap bootstrap(List<String> partitionIds, String initialCheckpointOffset, Clock clock) {
+        Map<String, CompleteLease> leases = getAllLeases();
+        Map<String, Checkpoint> checkpoints = getAllCheckpoints();
+
+        for (String partitionId : partitionIds) {
+            if (!leases.containsKey(partitionId)) {
+                setLease(new RedisLease(partitionId, "", 0, 0, clock));
+            }
+            if (!checkpoints.containsKey(partitionId)) {
+                setCheckpoint(new Checkpoint(partitionId, initialCheckpointOffset, 0));
+            }
+        }
+
+        return new StoreBootstrap(getBaseLeases(), getAllCheckpoints(), clock.millis());
+    }
+
+    /**
+     * Get the application state written with the last checkpoint of a partition.
+     * @param partitionId The partition id
+     * @return The state, or null if the partition has none
+     */
+    default byte[] getPartitionState(String partitionId) {
+        Checkpoint checkpoint = getCheckpoint(partitionId);
+        return checkpoint instanceof StatefulCheckpoint ? ((StatefulCheckpoint) checkpoint).getState() : null;
+    }
+
+    /**
+     * Rewind the checkpoints of all partitions to the last checkpoint written before a point in time.
+     * @param timestamp The point in time to rewind to
+     * @return A map of partition id to the rewound Checkpoint objects
+     */
+    default Map<String, Checkpoint> rewindCheckpoints(Instant timestamp) {
+        throw new UnsupportedOperationException("This checkpoint store does not keep a checkpoint history");
+    }
+
+    /**
+     * Add checkpoints to the store, skipping partitions that already have one.
+     * @param checkpoints A map of partition id to the Checkpoint objects to add
+     * @return The number of checkpoints added
+     */
+    default int importCheckpoints(Map<String, Checkpoint> checkpoints) {
+        int imported = 0;
+        for (Checkpoint checkpoint : checkpoints.values()) {
+            if (getCheckpoint(checkpoint.getPartitionId()) == null) {
+                setCheckpoint(checkpoint);
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Add leases to the store, skipping partitions that already have one.
+     * @param leases A map of partition id to the {@link RedisLease} objects to add
+     * @return The number of leases added
+     */
+    default int importLeases(Map<String, CompleteLease> leases) {
+        int imported = 0;
+        for (CompleteLease lease : leases.values()) {
+            if (getLease(lease.getPartitionId()) == null) {
+                setLease(lease);
+                imported++;
+            }
+        }
+        return imported;
+    }
+
     /**
      * Get a lease from the store.
      * @param partitionId the partition id of the lease to get
@@ -54,12 +135,31 @@ interface CheckpointStore extends NoExceptionAutoClosable {
      */
     CompleteLease getLease(String partitionId);
 
+    /**
+     * Get a lease from the store for a caller that can accept a slightly stale answer in exchange for lower
+     * latency. Stores with a replica may hedge the read to it when the primary is slow, and stores with a near
+     * cache may answer from it. Use {@link #getLease(String)} for reads that decide who owns a partition.
+     * @param partitionId the partition id of the lease to get
+     * @return A {@link RedisLease} object.
+     */
+    default CompleteLease getLeaseHedged(String partitionId) {
+        return getLease(partitionId);
+    }
+
     /**
      * Set a lease in the store.
      * @param lease A {@link RedisLease} object to set
      */
     void setLease(CompleteLease lease);
 
+    /**
+     * Set a lease in the store, but only if the stored lease still matches the expected lease.
+     * @param expected The lease as it was last read from the store, or null if no lease was stored
+     * @param lease A {@link RedisLease} object to set
+     * @return True if the lease was set, false if the stored lease had changed
+     */
+    boolean compareAndSetLease(CompleteLease expected, CompleteLease lease);
+
     /**
      * Delete a lease from the store.
      * @param partitionId The partition id of the lease to delete.
@@ -77,4 +177,93 @@ interface CheckpointStore extends NoExceptionAutoClosable {
      * @return A list of all the leases in the form of {@link RedisLease} objects
      */
     List<BaseLease> getBaseLeases();
+
+    /**
+     * Record a heartbeat for a host, and read the heartbeats of all hosts.
+     * @param hostname The name of the host sending the heartbeat
+     * @param expireMillis The time the heartbeat runs out
+     * @return A map of host name to the time its heartbeat runs out
+     */
+    default Map<String, Long> heartbeat(String hostname, long expireMillis) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Remove the leases and checkpoints of partitions that are gone, a few at a time. A partition's lease and
+     * checkpoint are removed when it is not one of the live partitions and its lease ran out before the given time.
+     * Leases that were never taken are kept. Stores that can scan should only look at a page of entries per call,
+     * and carry on where they left off the next call.
+     * @param livePartitionIds The ids of the partitions the event hub has
+     * @param expiredBeforeMillis Only remove leases that ran out before this time
+     * @param budget The number of entries to look at
+     * @return The number of partitions removed
+     */
+    default int sweepOrphans(Set<String> livePartitionIds, long expiredBeforeMillis, int budget) {
+        int removed = 0;
+
+        for (CompleteLease lease : getAllLeases().values()) {
+            if (removed >= budget) {
+                break;
+            }
+
+            long expireMillis = ((RedisLease) lease).getExpireMillis();
+            if (livePartitionIds.contains(lease.getPartitionId()) || expireMillis <= 0
+                || expireMillis >= expiredBeforeMillis) {
+                continue;
+            }
+
+            deleteLease(lease.getPartitionId());
+            deleteCheckpoint(lease.getPartitionId());
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Set the time to live of all keys of the store, so they are removed once no host has used them for that long.
+     * @param ttlMillis The time to live
+     */
+    default void refreshExpiry(long ttlMillis) {
+    }
+
+    /**
+     * Make the secondary store the one all reads and writes go to, after copying everything that has not been
+     * copied to it yet.
+     * @throws UnsupportedOperationException If the store does not replicate to a secondary
+     */
+    default void promoteSecondary() {
+        throw new UnsupportedOperationException("This checkpoint store does not replicate to a secondary");
+    }
+
+    /**
+     * Get how far the secondary store is behind.
+     * @return A {@link ReplicationStats} object, or null if the store does not replicate to a secondary
+     */
+    default ReplicationStats getReplicationStats() {
+        return null;
+    }
+
+    /**
+     * Get how far the persisted checkpoint of each partition is behind the last checkpoint set on this host.
+     * @return A list of {@link CheckpointLagStats}, empty if the store does not track it
+     */
+    default List<CheckpointLagStats> getCheckpointLagStats() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the hit and miss counts of the checkpoint near cache.
+     * @return A {@link NearCacheStats} object, or null if the store has no near cache
+     */
+    default NearCacheStats getCheckpointCacheStats() {
+        return null;
+    }
+
+    /**
+     * Get the hit and miss counts of the lease near cache.
+     * @return A {@link NearCacheStats} object, or null if the store has no near cache
+     */
+    default NearCacheStats getLeaseCacheStats() {
+        return null;
+    }
 }
@@ -0,0 +1,210 @@
+package com.github.davesters;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tracks per partition the last checkpoint set on this host and the last checkpoint known to be in Redis, so it can
+ * be seen how much would be processed again if the partition moved to another host.
+ * Partitions are identified by their index in the {@link PartitionTable}, and every value is kept in an atomic array
+ * slot. Updates take a lock, but reading does not, so it can be sampled as often as needed without slowing down
+ * checkpoint writes. The values of one partition are read one at a time, so a sample taken during an update can mix
+ * values from before and after it.
+ */
+final class CheckpointTelemetry implements CheckpointTelemetryMXBean {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+    private volatile int size;
+
+    /**
+     * Record a checkpoint set on this host.
+     * @param index The partition index
+     * @param partitionId The partition id
+     * @param offset The checkpoint offset
+     * @param sequenceNumber The checkpoint sequence number
+     * @param nowMillis The current time
+     */
+    synchronized void checkpointSet(int index, String partitionId, String offset, long sequenceNumber,
+                                    long nowMillis) {
+        Slots current = ensureCapacity(index + 1);
+
+        current.partitionIds.set(index, partitionId);
+        current.offsets.set(index, offset);
+        current.sequenceNumbers.set(index, sequenceNumber);
+        current.setAtMillis.set(index, nowMillis);
+        if (current.pendingSinceMillis.get(index) == 0) {
+            current.pendingSinceMillis.set(index, nowMillis);
+        }
+    }
+
+    /**
+     * Record a checkpoint that is known to be in Redis, because it was written or read.
+     * @param index The partition index
+     * @param partitionId The partition id
+     * @param offset The checkpoint offset
+     * @param sequenceNumber The checkpoint sequence number
+     * @param nowMillis The current time
+     */
+    synchronized void checkpointPersisted(int index, String partitionId, String offset, long sequenceNumber,
+                                          long nowMillis) {
+        Slots current = ensureCapacity(index + 1);
+
+        current.partitionIds.set(index, partitionId);
+        current.persistedOffsets.set(index, offset);
+        current.persistedSequenceNumbers.set(index, sequenceNumber);
+        current.persistedAtMillis.set(index, nowMillis);
+        if (current.setAtMillis.get(index) == 0 || sequenceNumber >= current.sequenceNumbers.get(index)) {
+            current.pendingSinceMillis.set(index, 0);
+        }
+    }
+
+    /**
+     * Forget a partition, because its checkpoint was deleted.
+     * @param index The partition index
+     */
+    synchronized void remove(int index) {
+        Slots current = slots;
+        if (index >= size) {
+            return;
+        }
+
+        current.partitionIds.set(index, null);
+        current.offsets.set(index, null);
+        current.sequenceNumbers.set(index, 0);
+        current.setAtMillis.set(index, 0);
+        current.pendingSinceMillis.set(index, 0);
+        current.persistedOffsets.set(index, null);
+        current.persistedSequenceNumbers.set(index, 0);
+        current.persistedAtMillis.set(index, 0);
+    }
+
+    /**
+     * Take a sample of every partition.
+     * @param nowMillis The current time
+     * @return A list of {@link CheckpointLagStats}, one for each partition
+     */
+    List<CheckpointLagStats> snapshot(long nowMillis) {
+        Slots current = slots;
+        int count = Math.min(size, current.capacity);
+        List<CheckpointLagStats> stats = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String partitionId = current.partitionIds.get(i);
+            if (partitionId == null) {
+                continue;
+            }
+
+            String persistedOffset = current.persistedOffsets.get(i);
+            long persistedSequenceNumber = current.persistedSequenceNumbers.get(i);
+            boolean set = current.setAtMillis.get(i) != 0;
+            long pendingSinceMillis = current.pendingSinceMillis.get(i);
+
+            stats.add(new CheckpointLagStats(
+                partitionId,
+                set ? current.offsets.get(i) : persistedOffset,
+                set ? current.sequenceNumbers.get(i) : persistedSequenceNumber,
+                persistedOffset,
+                persistedSequenceNumber,
+                current.persistedAtMillis.get(i),
+                pendingSinceMillis == 0 ? 0 : Math.max(0, nowMillis - pendingSinceMillis)));
+        }
+
+        return stats;
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return snapshot(Instant.now().toEpochMilli()).size();
+    }
+
+    @Override
+    public int getPendingPartitionCount() {
+        int count = 0;
+        for (CheckpointLagStats stats : snapshot(Instant.now().toEpochMilli())) {
+            count += stats.getPendingAgeMillis() > 0 || stats.getSequenceNumberLag() > 0 ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Override
+    public long getMaxSequenceNumberLag() {
+        long max = 0;
+        for (CheckpointLagStats stats : snapshot(Instant.now().toEpochMilli())) {
+            max = Math.max(max, stats.getSequenceNumberLag());
+        }
+        return max;
+    }
+
+    @Override
+    public long getMaxPendingAgeMillis() {
+        long max = 0;
+        for (CheckpointLagStats stats : snapshot(Instant.now().toEpochMilli())) {
+            max = Math.max(max, stats.getPendingAgeMillis());
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Long> getSequenceNumberLag() {
+        Map<String, Long> lag = new HashMap<>();
+        snapshot(Instant.now().toEpochMilli()).forEach(stats -> lag.put(stats.getPartitionId(),
+            stats.getSequenceNumberLag()));
+        return lag;
+    }
+
+    // Grows the arrays by copying them into new ones. Readers keep using the old arrays until the new ones are
+    // published, which is fine since nothing is written while the copy is made.
+    private Slots ensureCapacity(int required) {
+        Slots current = slots;
+
+        if (required > current.capacity) {
+            Slots grown = new Slots(Math.max(current.capacity * 2, required));
+            for (int i = 0; i < current.capacity; i++) {
+                grown.partitionIds.set(i, current.partitionIds.get(i));
+                grown.offsets.set(i, current.offsets.get(i));
+                grown.sequenceNumbers.set(i, current.sequenceNumbers.get(i));
+                grown.setAtMillis.set(i, current.setAtMillis.get(i));
+                grown.pendingSinceMillis.set(i, current.pendingSinceMillis.get(i));
+                grown.persistedOffsets.set(i, current.persistedOffsets.get(i));
+                grown.persistedSequenceNumbers.set(i, current.persistedSequenceNumbers.get(i));
+                grown.persistedAtMillis.set(i, current.persistedAtMillis.get(i));
+            }
+            current = grown;
+            slots = grown;
+        }
+
+        size = Math.max(size, required);
+        return current;
+    }
+
+    private static final class Slots {
+        private final int capacity;
+        private final AtomicReferenceArray<String> partitionIds;
+        private final AtomicReferenceArray<String> offsets;
+        private final AtomicLongArray sequenceNumbers;
+        private final AtomicLongArray setAtMillis;
+        private final AtomicLongArray pendingSinceMillis;
+        private final AtomicReferenceArray<String> persistedOffsets;
+        private final AtomicLongArray persistedSequenceNumbers;
+        private final AtomicLongArray persistedAtMillis;
+
+        Slots(int capacity) {
+            this.capacity = capacity;
+            this.partitionIds = new AtomicReferenceArray<>(capacity);
+            this.offsets = new AtomicReferenceArray<>(capacity);
+            this.sequenceNumbers = new AtomicLongArray(capacity);
+            this.setAtMillis = new AtomicLongArray(capacity);
+            this.pendingSinceMillis = new AtomicLongArray(capacity);
+            this.persistedOffsets = new AtomicReferenceArray<>(capacity);
+            this.persistedSequenceNumbers = new AtomicLongArray(capacity);
+            this.persistedAtMillis = new AtomicLongArray(capacity);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.davesters;
+
+import java.util.Map;
+
+/**
+ * Checkpoint lag of the partitions on this host, as exposed over JMX.
+ * See {@link RedisCheckpointOptions#isJmxEnabled()}.
+ */
+public interface CheckpointTelemetryMXBean {
+
+    /**
+     * The number of partitions checkpoints have been set or read for.
+     * @return int
+     */
+    int getPartitionCount();
+
+    /**
+     * The number of partitions with a checkpoint that has not been written to Redis yet.
+     * @return int
+     */
+    int getPendingPartitionCount();
+
+    /**
+     * The largest number of sequence numbers any partition's persisted checkpoint is behind.
+     * @return long
+     */
+    long getMaxSequenceNumberLag();
+
+    /**
+     * The longest time any checkpoint has been waiting to be written to Redis.
+     * @return long in milliseconds
+     */
+    long getMaxPendingAgeMillis();
+
+    /**
+     * The number of sequence numbers each partition's persisted checkpoint is behind.
+     * @return A map of partition id to lag
+     */
+    Map<String, Long> getSequenceNumberLag();
+}
@@ -0,0 +1,74 @@
+package com.github.davesters;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A circuit breaker for calls to Redis.
+ * After a number of failures in a row the breaker opens, and calls fail fast instead of waiting on a Redis that is
+ * not answering. Once the open period is over, a single call is let through to probe Redis. If it works the breaker
+ * closes again, if it fails the breaker stays open for another period. The probe must always end with
+ * {@link #recordSuccess()}, {@link #recordFailure(long)} or {@link #releaseProbe()}, or no call gets through again.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    private volatile long openUntilMillis;
+
+    /**
+     * Create a new CircuitBreaker.
+     * @param failureThreshold The number of failures in a row that open the breaker. 0 or less disables it
+     * @param openMillis How long the breaker stays open before a call is let through again
+     */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Check if enough calls failed in a row to trip the breaker. Calls may then only go through as the probe.
+     * @return True if calls need to claim the probe with {@link #tryProbe(long)}
+     */
+    boolean isTripped() {
+        return failureThreshold > 0 && consecutiveFailures.get() >= failureThreshold;
+    }
+
+    /**
+     * Claim the probe call, if the open period is over and no other call is probing.
+     * @param nowMillis The current time
+     * @return True if the call can be made as the probe, false if it should fail fast
+     */
+    boolean tryProbe(long nowMillis) {
+        return nowMillis >= openUntilMillis && probing.compareAndSet(false, true);
+    }
+
+    /**
+     * Check if the breaker is currently open, without claiming the probe call.
+     * @param nowMillis The current time
+     * @return True if calls are currently failing fast
+     */
+    boolean isOpen(long nowMillis) {
+        return isTripped() && (nowMillis < openUntilMillis || probing.get());
+    }
+
+    void recordSuccess() {
+        consecutiveFailures.set(0);
+        probing.set(false);
+    }
+
+    void recordFailure(long nowMillis) {
+        if (failureThreshold > 0 && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openUntilMillis = nowMillis + openMillis;
+            probing.set(false);
+        }
+    }
+
+    // Lets another call probe, for a probe that ended without a success or failure being recorded.
+    void releaseProbe() {
+        probing.set(false);
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.davesters;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that reads a cached time, updated by a background thread every few milliseconds.
+ * Lease expiry is checked on every lease that is read, and only needs to be accurate to well within a lease duration,
+ * so reading a volatile field is enough and cheaper than asking the system for the time each check. The time follows
+ * the system clock as it is, so a step backwards shows up at the next update rather than freezing the time.
+ * All instances share one background thread, which the lease manager starts with {@link #start()}. Until then, the
+ * time is read from the system on every call, so using leases without a lease manager starts no thread.
+ */
+final class CoarseClock extends Clock {
+
+    /**
+     * The clock used for leases unless another one is set in the options.
+     */
+    static final CoarseClock INSTANCE = new CoarseClock(ZoneOffset.UTC);
+
+    private static final long RESOLUTION_MILLIS = 5;
+
+    private static volatile long nowMillis;
+    private static volatile boolean started;
+
+    private final ZoneId zone;
+
+    private CoarseClock(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    @Override
+    public long millis() {
+        return started ? nowMillis : System.currentTimeMillis();
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId newZone) {
+        return newZone.equals(zone) ? this : new CoarseClock(newZone);
+    }
+
+    /**
+     * Start the background thread that updates the cached time, if it has not started.
+     */
+    static synchronized void start() {
+        if (started) {
+            return;
+        }
+
+        nowMillis = System.currentTimeMillis();
+        Thread thread = new Thread(CoarseClock::run, "redis-checkpoint-clock");
+        thread.setDaemon(true);
+        thread.start();
+        started = true;
+    }
+
+    private static void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            nowMillis = System.currentTimeMillis();
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(RESOLUTION_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
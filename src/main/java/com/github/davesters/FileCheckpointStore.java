@@ -0,0 +1,528 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.BaseLease;
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A checkpoint store that keeps checkpoints and leases in a local memory-mapped file, for a single machine where a
+ * Redis server is not worth running. Pass it to
+ * {@link RedisCheckpointLeaseManager#RedisCheckpointLeaseManager(RedisCheckpointOptions, CheckpointStore)}.
+ * The file has a fixed layout with one record per partition. Each record has two slots, and a write goes to the slot
+ * that does not hold the current value, with a higher generation and a checksum. A write that is cut off by a crash
+ * leaves a slot with a bad checksum, and the other slot is used, so a record is never lost or half written.
+ * Writes lock the record with a file lock, so several hosts on the same machine can share the file. Use one store
+ * per file in each process.
+ * Writes only reach the page cache unless {@link RedisCheckpointOptions#isFileCheckpointSync()} is set, which
+ * survives the process crashing but not the machine.
+ * Checkpoint key names, heartbeats, history and partition state are not supported.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileCheckpointStore.class.getSimpleName());
+
+    private static final int MAGIC = 0x45504843;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_POSITION = 0;
+    private static final int VERSION_POSITION = 4;
+    private static final int PARTITIONS_POSITION = 8;
+    private static final int SLOT_SIZE = 512;
+    private static final int RECORD_SIZE = SLOT_SIZE * 2;
+    private static final int SLOT_HEADER_SIZE = 16;
+    private static final int PAYLOAD_LENGTH_POSITION = 8;
+    private static final int CRC_POSITION = 12;
+    private static final int MAX_PARTITION_ID_BYTES = 64;
+    private static final int MAX_OFFSET_BYTES = 64;
+    private static final int MAX_OWNER_BYTES = 256;
+    private static final byte HAS_CHECKPOINT = 1;
+    private static final byte HAS_LEASE = 2;
+
+    private final Path file;
+    private final RedisCheckpointOptions options;
+    private final Clock clock;
+    private final int maxPartitions;
+    private final Map<String, Integer> records = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    private volatile FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * Create a new FileCheckpointStore. The file is created when the store connects, if it does not exist yet.
+     * @param file The file to keep checkpoints and leases in
+     * @param options The options object
+     */
+    public FileCheckpointStore(Path file, RedisCheckpointOptions options) {
+        this.file = file;
+        this.options = options;
+        this.clock = options.getClock() != null ? options.getClock() : CoarseClock.INSTANCE;
+        this.maxPartitions = options.getFileCheckpointMaxPartitions();
+    }
+
+    @Override
+    public void connect() {
+        synchronized (writeLock) {
+            if (connected()) {
+                return;
+            }
+
+            try {
+                FileChannel opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+                long size = HEADER_SIZE + (long) RECORD_SIZE * maxPartitions;
+
+                MappedByteBuffer mapped;
+
+                // The first host to open the file writes the header.
+                FileLock lock = opened.lock(0, HEADER_SIZE, false);
+                try {
+                    mapped = opened.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    if (mapped.getInt(MAGIC_POSITION) == 0) {
+                        mapped.putInt(VERSION_POSITION, VERSION);
+                        mapped.putInt(PARTITIONS_POSITION, maxPartitions);
+                        mapped.putInt(MAGIC_POSITION, MAGIC);
+                        mapped.force();
+                    }
+                } finally {
+                    lock.release();
+                }
+
+                if (mapped.getInt(MAGIC_POSITION) != MAGIC || mapped.getInt(VERSION_POSITION) != VERSION
+                    || mapped.getInt(PARTITIONS_POSITION) != maxPartitions) {
+                    opened.close();
+                    throw new IllegalStateException(file + " is not a checkpoint file with room for " + maxPartitions
+                        + " partitions");
+                }
+
+                this.buffer = mapped;
+                this.channel = opened;
+                LOG.debug("opened checkpoint file {}", file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error opening checkpoint file " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public boolean connected() {
+        FileChannel current = this.channel;
+        return current != null && current.isOpen();
+    }
+
+    @Override
+    public Checkpoint getCheckpoint(String partitionId) {
+        Record record = read(partitionId);
+        return record == null || !record.hasCheckpoint()
+            ? null
+            : new Checkpoint(partitionId, record.offset, record.sequenceNumber);
+    }
+
+    @Override
+    public void setCheckpoint(Checkpoint checkpoint) {
+        if (checkpoint instanceof StatefulCheckpoint && ((StatefulCheckpoint) checkpoint).getState() != null) {
+            throw new UnsupportedOperationException("This checkpoint store does not keep partition state");
+        }
+
+        update(checkpoint.getPartitionId(), record -> {
+            record.flags |= HAS_CHECKPOINT;
+            record.offset = checkpoint.getOffset();
+            record.sequenceNumber = checkpoint.getSequenceNumber();
+            return true;
+        });
+    }
+
+    @Override
+    public void deleteCheckpoint(String partitionId) {
+        update(partitionId, record -> {
+            record.flags &= ~HAS_CHECKPOINT;
+            record.offset = "";
+            record.sequenceNumber = 0;
+            return true;
+        });
+    }
+
+    @Override
+    public Map<String, Checkpoint> getAllCheckpoints() {
+        Map<String, Checkpoint> checkpoints = new HashMap<>();
+        forEachRecord(record -> {
+            if (record.hasCheckpoint()) {
+                checkpoints.put(record.partitionId,
+                    new Checkpoint(record.partitionId, record.offset, record.sequenceNumber));
+            }
+        });
+        return checkpoints;
+    }
+
+    @Override
+    public CompleteLease getLease(String partitionId) {
+        Record record = read(partitionId);
+        return record == null || !record.hasLease() ? null : record.toLease(clock);
+    }
+
+    @Override
+    public void setLease(CompleteLease lease) {
+        RedisLease redisLease = (RedisLease) lease;
+        update(lease.getPartitionId(), record -> {
+            record.setLease(redisLease);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean compareAndSetLease(CompleteLease expected, CompleteLease lease) {
+        String expectedValue = expected == null ? null : ((RedisLease) expected).getRedisValue();
+        RedisLease redisLease = (RedisLease) lease;
+
+        return update(lease.getPartitionId(), record -> {
+            String current = record.hasLease() ? record.toLease(clock).getRedisValue() : null;
+            if (!Objects.equals(current, expectedValue)) {
+                return false;
+            }
+
+            record.setLease(redisLease);
+            return true;
+        });
+    }
+
+    @Override
+    public void deleteLease(String partitionId) {
+        update(partitionId, record -> {
+            record.flags &= ~HAS_LEASE;
+            record.owner = "";
+            record.epoch = 0;
+            record.expireMillis = 0;
+            return true;
+        });
+    }
+
+    @Override
+    public Map<String, CompleteLease> getAllLeases() {
+        Map<String, CompleteLease> leases = new HashMap<>();
+        forEachRecord(record -> {
+            if (record.hasLease()) {
+                leases.put(record.partitionId, record.toLease(clock));
+            }
+        });
+        return leases;
+    }
+
+    @Override
+    public List<BaseLease> getBaseLeases() {
+        return new ArrayList<>(getAllLeases().values());
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            FileChannel current = this.channel;
+            if (current == null) {
+                return;
+            }
+
+            try {
+                this.buffer.force();
+                current.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing checkpoint file {}", file, e);
+            }
+            this.channel = null;
+            this.buffer = null;
+            this.records.clear();
+        }
+    }
+
+    // Reads the current value of a partition's record, or returns null if the partition has no record.
+    private Record read(String partitionId) {
+        Integer index = records.get(partitionId);
+        if (index == null) {
+            index = findRecord(partitionId);
+        }
+        return index == null ? null : readRecord(index);
+    }
+
+    // Changes a partition's record under its file lock, creating the record if needed. The change is only written if
+    // the updater returns true.
+    private boolean update(String partitionId, Predicate<Record> updater) {
+        synchronized (writeLock) {
+            int index = recordIndexOf(partitionId);
+            long position = recordPosition(index);
+
+            try {
+                FileLock lock = channel.lock(position, RECORD_SIZE, false);
+                try {
+                    Record record = readRecord(index);
+                    if (!updater.test(record)) {
+                        return false;
+                    }
+
+                    writeRecord(index, record);
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error writing checkpoint file " + file, e);
+            }
+        }
+    }
+
+    private int recordIndexOf(String partitionId) {
+        Integer index = records.get(partitionId);
+        if (index != null) {
+            return index;
+        }
+
+        // Another process may be adding partitions too, so look again and take a free record under the header lock.
+        try {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                index = findRecord(partitionId);
+                if (index != null) {
+                    return index;
+                }
+
+                for (int i = 0; i < maxPartitions; i++) {
+                    if (readRecord(i) == null) {
+                        writeRecord(i, new Record(partitionId));
+                        records.put(partitionId, i);
+                        return i;
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing checkpoint file " + file, e);
+        }
+
+        throw new IllegalStateException("Checkpoint file " + file + " has no room for more than " + maxPartitions
+            + " partitions");
+    }
+
+    // Looks for a partition's record, remembering the indexes of all records on the way.
+    private Integer findRecord(String partitionId) {
+        for (int i = 0; i < maxPartitions; i++) {
+            Record record = readRecord(i);
+            if (record == null) {
+                break;
+            }
+
+            records.put(record.partitionId, i);
+            if (record.partitionId.equals(partitionId)) {
+                return i;
+            }
+        }
+        return null;
+    }
+
+    private void forEachRecord(Consumer<Record> action) {
+        for (int i = 0; i < maxPartitions; i++) {
+            Record record = readRecord(i);
+            if (record == null) {
+                return;
+            }
+
+            records.put(record.partitionId, i);
+            action.accept(record);
+        }
+    }
+
+    // Reads the slot of a record with the highest generation and a good checksum. A slot that is being written by
+    // another host fails the checksum, so it is read again until it is either complete or the other slot is newer.
+    private Record readRecord(int index) {
+        ByteBuffer view = mapped().duplicate();
+        long position = recordPosition(index);
+
+        while (true) {
+            long first = validGeneration(view, position);
+            long second = validGeneration(view, position + SLOT_SIZE);
+            if (first < 0 && second < 0) {
+                return null;
+            }
+
+            Record record = Record.decode(view, first > second ? position : position + SLOT_SIZE);
+            if (record != null) {
+                return record;
+            }
+        }
+    }
+
+    // Writes a record to the slot that does not hold its current value, so the current value stays intact until the
+    // new one is complete.
+    private void writeRecord(int index, Record record) {
+        ByteBuffer view = mapped().duplicate();
+        long position = recordPosition(index);
+        long current = Math.max(validGeneration(view, position), validGeneration(view, position + SLOT_SIZE));
+        long generation = Math.max(current, 0) + 1;
+
+        byte[] payload = record.encode();
+        int slot = (int) (position + (generation % 2) * SLOT_SIZE);
+
+        view.putLong(slot, generation);
+        view.putInt(slot + PAYLOAD_LENGTH_POSITION, payload.length);
+        view.position(slot + SLOT_HEADER_SIZE);
+        view.put(payload);
+        view.putInt(slot + CRC_POSITION, checksum(view, slot, payload.length));
+
+        if (this.options.isFileCheckpointSync()) {
+            mapped().force();
+        }
+    }
+
+    private MappedByteBuffer mapped() {
+        MappedByteBuffer current = this.buffer;
+        if (current == null) {
+            throw new IllegalStateException("The checkpoint file is not open");
+        }
+        return current;
+    }
+
+    private static long recordPosition(int index) {
+        return HEADER_SIZE + (long) index * RECORD_SIZE;
+    }
+
+    // Returns the generation of a slot, or -1 if the slot is empty or its checksum does not match.
+    private static long validGeneration(ByteBuffer view, long position) {
+        int slot = (int) position;
+        long generation = view.getLong(slot);
+        int length = view.getInt(slot + PAYLOAD_LENGTH_POSITION);
+
+        if (generation <= 0 || length <= 0 || length > SLOT_SIZE - SLOT_HEADER_SIZE
+            || view.getInt(slot + CRC_POSITION) != checksum(view, slot, length)) {
+            return -1;
+        }
+        return generation;
+    }
+
+    // The checksum covers the generation, the payload length and the payload.
+    private static int checksum(ByteBuffer view, int slot, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer covered = view.duplicate();
+
+        covered.limit(slot + CRC_POSITION).position(slot);
+        crc.update(covered);
+        covered.limit(slot + SLOT_HEADER_SIZE + length).position(slot + SLOT_HEADER_SIZE);
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The checkpoint and lease values of one partition, as kept in a slot.
+     */
+    private static final class Record {
+
+        private final String partitionId;
+        private byte flags;
+        private String offset = "";
+        private long sequenceNumber;
+        private String owner = "";
+        private long epoch;
+        private long expireMillis;
+
+        Record(String partitionId) {
+            this.partitionId = partitionId;
+        }
+
+        boolean hasCheckpoint() {
+            return (flags & HAS_CHECKPOINT) != 0;
+        }
+
+        boolean hasLease() {
+            return (flags & HAS_LEASE) != 0;
+        }
+
+        void setLease(RedisLease lease) {
+            flags |= HAS_LEASE;
+            owner = lease.getOwner();
+            epoch = lease.getEpoch();
+            expireMillis = lease.getExpireMillis();
+        }
+
+        RedisLease toLease(Clock clock) {
+            return new RedisLease(partitionId, owner, epoch, expireMillis, clock);
+        }
+
+        byte[] encode() {
+            byte[] id = bytes(partitionId, MAX_PARTITION_ID_BYTES, "partition id");
+            byte[] offsetBytes = bytes(offset, MAX_OFFSET_BYTES, "offset");
+            byte[] ownerBytes = bytes(owner, MAX_OWNER_BYTES, "owner");
+
+            ByteBuffer out = ByteBuffer.allocate(SLOT_SIZE - SLOT_HEADER_SIZE);
+            out.put(flags);
+            out.putShort((short) id.length).put(id);
+            out.putShort((short) offsetBytes.length).put(offsetBytes);
+            out.putLong(sequenceNumber);
+            out.putShort((short) ownerBytes.length).put(ownerBytes);
+            out.putLong(epoch);
+            out.putLong(expireMillis);
+
+            byte[] payload = new byte[out.position()];
+            out.flip();
+            out.get(payload);
+            return payload;
+        }
+
+        // Decodes the slot at a position, or returns null if it changed while it was being read.
+        @SuppressWarnings("checkstyle:IllegalCatch")
+        static Record decode(ByteBuffer view, long position) {
+            int slot = (int) position;
+            long generation = view.getLong(slot);
+
+            ByteBuffer in = view.duplicate();
+            in.position(slot + SLOT_HEADER_SIZE);
+            in.limit(slot + SLOT_HEADER_SIZE + view.getInt(slot + PAYLOAD_LENGTH_POSITION));
+
+            try {
+                byte flags = in.get();
+                Record record = new Record(string(in));
+                record.flags = flags;
+                record.offset = string(in);
+                record.sequenceNumber = in.getLong();
+                record.owner = string(in);
+                record.epoch = in.getLong();
+                record.expireMillis = in.getLong();
+
+                return validGeneration(view, position) == generation ? record : null;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        private static byte[] bytes(String value, int maxLength, String name) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > maxLength) {
+                throw new IllegalArgumentException("The " + name + " " + value + " is longer than " + maxLength
+                    + " bytes");
+            }
+            return bytes;
+        }
+
+        private static String string(ByteBuffer in) {
+            byte[] bytes = new byte[in.getShort()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.davesters;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps this host's heartbeat up to date in the store, and keeps a local copy of the heartbeats of all hosts.
+ * A host whose heartbeat has run out is considered dead, and its leases can be taken right away instead of waiting
+ * for each of them to expire. Hosts that have never sent a heartbeat are not considered dead, so hosts without
+ * heartbeats enabled fall back to the lease expiry. A host that shuts down cleanly leaves a heartbeat that has already
+ * run out, so the other hosts can take its leases right away.
+ * The heartbeat is written and all heartbeats are read in a single round trip by one background thread.
+ */
+final class HostRegistry implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HostRegistry.class.getSimpleName());
+
+    private final CheckpointStore store;
+    private final String hostname;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final Clock clock;
+
+    private volatile Map<String, Long> heartbeats = Collections.emptyMap();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new HostRegistry.
+     * @param store The store to keep heartbeats in
+     * @param hostname The name of this host
+     * @param intervalMillis How often to send a heartbeat
+     * @param timeoutMillis How long a heartbeat is valid for
+     * @param clock The clock heartbeats are timed with, the same one the lease expiry uses
+     */
+    HostRegistry(CheckpointStore store, String hostname, long intervalMillis, long timeoutMillis, Clock clock) {
+        this.store = store;
+        this.hostname = hostname;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Send the first heartbeat, then keep sending them in the background.
+     */
+    void start() {
+        beat();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-checkpoint-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::beat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check if a host is known to be dead, because its heartbeat has run out.
+     * @param host The host name
+     * @param nowMillis The current time
+     * @return True if the host is dead, false if it is alive or has never sent a heartbeat
+     */
+    boolean isDead(String host, long nowMillis) {
+        Long expireMillis = heartbeats.get(normalize(host));
+        return expireMillis != null && expireMillis <= nowMillis;
+    }
+
+    /**
+     * Get the names of all hosts with a current heartbeat.
+     * @param nowMillis The current time
+     * @return A set of host names, in lower case
+     */
+    Set<String> getLiveHosts(long nowMillis) {
+        Set<String> hosts = new TreeSet<>();
+        heartbeats.forEach((host, expireMillis) -> {
+            if (expireMillis > nowMillis) {
+                hosts.add(host);
+            }
+        });
+        return hosts;
+    }
+
+    /**
+     * Replace the local copy of the heartbeats.
+     * @param values A map of host name to the time its heartbeat runs out
+     */
+    void update(Map<String, Long> values) {
+        Map<String, Long> normalized = new HashMap<>();
+        values.forEach((host, expireMillis) -> normalized.merge(normalize(host), expireMillis, Math::max));
+        this.heartbeats = normalized;
+    }
+
+    @Override
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+
+        // Let the other hosts take over right away instead of waiting for the heartbeat to run out. Removing the
+        // heartbeat would not do, since hosts without a heartbeat are not considered dead.
+        try {
+            store.heartbeat(hostname, clock.millis());
+        } catch (Exception e) {
+            LOG.warn("Error ending heartbeat for {}", hostname, e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void beat() {
+        try {
+            update(store.heartbeat(hostname, clock.millis() + timeoutMillis));
+        } catch (Exception e) {
+            // Keep the last known heartbeats. Our own will run out if this keeps failing, which is what we want.
+            LOG.warn("Error sending heartbeat for {}", hostname, e);
+        }
+    }
+
+    // EPH compares host names ignoring case.
+    private static String normalize(String host) {
+        return host.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.davesters;
+
+/**
+ * What a {@link BlobCheckpointImporter} run did.
+ */
+public final class ImportResult {
+
+    private final int documentsRead;
+    private final int documentsSkipped;
+    private final int checkpointsImported;
+    private final int leasesImported;
+
+    ImportResult(int documentsRead, int documentsSkipped, int checkpointsImported, int leasesImported) {
+        this.documentsRead = documentsRead;
+        this.documentsSkipped = documentsSkipped;
+        this.checkpointsImported = checkpointsImported;
+        this.leasesImported = leasesImported;
+    }
+
+    /**
+     * The number of lease documents read.
+     * @return int
+     */
+    public int getDocumentsRead() {
+        return documentsRead;
+    }
+
+    /**
+     * The number of documents that could not be read or were not lease documents.
+     * @return int
+     */
+    public int getDocumentsSkipped() {
+        return documentsSkipped;
+    }
+
+    /**
+     * The number of checkpoints written. Partitions that already had a checkpoint in Redis are not counted.
+     * @return int
+     */
+    public int getCheckpointsImported() {
+        return checkpointsImported;
+    }
+
+    /**
+     * The number of leases written. Partitions that already had a lease in Redis are not counted.
+     * @return int
+     */
+    public int getLeasesImported() {
+        return leasesImported;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%d, skipped=%d, checkpoints=%d, leases=%d",
+            documentsRead, documentsSkipped, checkpointsImported, leasesImported);
+    }
+}
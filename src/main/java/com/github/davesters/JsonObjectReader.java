@@ -0,0 +1,189 @@
+package com.github.davesters;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a flat JSON object, like the lease blobs the Azure storage checkpoint manager writes, into a map of strings.
+ * Strings, numbers, booleans and null are supported. Nested objects and arrays are skipped. This is only meant for
+ * the small documents the importer reads, so the library does not need a JSON dependency.
+ */
+final class JsonObjectReader {
+
+    private static final int HEX_RADIX = 16;
+    private static final int UNICODE_ESCAPE_LENGTH = 4;
+
+    private final String json;
+    private int position;
+
+    private JsonObjectReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Read a JSON object.
+     * @param json The JSON text
+     * @return A map of each field name to its value as a string, null for a JSON null
+     * @throws IllegalArgumentException If the text is not a JSON object
+     */
+    static Map<String, String> parse(String json) {
+        JsonObjectReader reader = new JsonObjectReader(json);
+        Map<String, String> values = reader.readObject();
+
+        reader.skipWhitespace();
+        if (reader.position != json.length()) {
+            throw reader.error("Unexpected text after the object");
+        }
+
+        return values;
+    }
+
+    private Map<String, String> readObject() {
+        Map<String, String> values = new HashMap<>();
+        expect('{');
+
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return values;
+        }
+
+        while (true) {
+            skipWhitespace();
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            char next = peek();
+            if (next == '{' || next == '[') {
+                skipNested();
+            } else {
+                values.put(name, readValue());
+            }
+
+            skipWhitespace();
+            char separator = next();
+            if (separator == '}') {
+                return values;
+            }
+            if (separator != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private String readValue() {
+        char next = peek();
+        if (next == '"') {
+            return readString();
+        }
+
+        int start = position;
+        while (position < json.length() && ",}] \t\r\n".indexOf(json.charAt(position)) < 0) {
+            position++;
+        }
+
+        String literal = json.substring(start, position);
+        if (literal.isEmpty()) {
+            throw error("Expected a value");
+        }
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = next();
+            switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position + UNICODE_ESCAPE_LENGTH > json.length()) {
+                        throw error("Incomplete unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(
+                            json.substring(position, position + UNICODE_ESCAPE_LENGTH), HEX_RADIX));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    position += UNICODE_ESCAPE_LENGTH;
+                    break;
+                default:
+                    value.append(escaped);
+                    break;
+            }
+        }
+    }
+
+    // Skips a nested object or array, keeping track of strings so brackets inside them are not counted.
+    private void skipNested() {
+        int depth = 0;
+
+        do {
+            char c = next();
+            if (c == '"') {
+                position--;
+                readString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private char peek() {
+        if (position >= json.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        return json.charAt(position);
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
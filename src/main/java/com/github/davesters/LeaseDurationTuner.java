@@ -0,0 +1,75 @@
+package com.github.davesters;
+
+import java.util.Arrays;
+
+/**
+ * Picks the shortest lease duration that is still safe, from how long lease renewals have recently taken.
+ * A lease has to last from one renewal until the next one has landed in Redis, so it must be at least the renew
+ * interval plus the time a renewal takes. The time a renewal takes is taken as the 99th percentile of the recent
+ * renewals, plus the jitter between the median and that percentile, times a safety factor. The result is kept
+ * within the configured bounds. Until enough renewals have been seen, the longest duration is used.
+ */
+final class LeaseDurationTuner {
+
+    private static final int SAMPLE_COUNT = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final double PERCENTILE = 0.99;
+    private static final double MEDIAN = 0.5;
+    private static final int SAFETY_FACTOR = 2;
+
+    private final long renewIntervalMillis;
+    private final long minDurationMillis;
+    private final long maxDurationMillis;
+    private final long[] samples = new long[SAMPLE_COUNT];
+
+    private int count;
+    private int next;
+    private volatile long durationMillis;
+
+    /**
+     * Create a new LeaseDurationTuner.
+     * @param renewIntervalMillis How often EPH renews its leases
+     * @param minDurationMillis The shortest lease duration to use
+     * @param maxDurationMillis The longest lease duration to use
+     */
+    LeaseDurationTuner(long renewIntervalMillis, long minDurationMillis, long maxDurationMillis) {
+        this.renewIntervalMillis = renewIntervalMillis;
+        this.minDurationMillis = Math.min(minDurationMillis, maxDurationMillis);
+        this.maxDurationMillis = maxDurationMillis;
+        this.durationMillis = maxDurationMillis;
+    }
+
+    /**
+     * Record how long a lease renewal took, and pick a new lease duration.
+     * @param latencyMillis How long reading and writing the lease took
+     */
+    synchronized void record(long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % SAMPLE_COUNT;
+        count = Math.min(count + 1, SAMPLE_COUNT);
+
+        if (count >= MIN_SAMPLES) {
+            durationMillis = tune();
+        }
+    }
+
+    /**
+     * Get the lease duration to use right now.
+     * @return long in milliseconds
+     */
+    long getDurationMillis() {
+        return durationMillis;
+    }
+
+    private long tune() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+
+        long p99 = sorted[(int) Math.ceil(PERCENTILE * count) - 1];
+        long p50 = sorted[(int) Math.ceil(MEDIAN * count) - 1];
+        long jitter = p99 - p50;
+        long duration = renewIntervalMillis + SAFETY_FACTOR * (p99 + jitter);
+
+        return Math.max(minDurationMillis, Math.min(maxDurationMillis, duration));
+    }
+}
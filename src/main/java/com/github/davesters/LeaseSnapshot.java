@@ -0,0 +1,115 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.BaseLease;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A point in time view of all the leases in the store, taken from a single read.
+ * EPH reads all leases and then looks at, acquires or steals individual leases based on what it read. The snapshot
+ * lets those follow-up calls use the values that were already read instead of going back to the store for every
+ * partition. Writes made from a snapshot are validated with a compare-and-set against the snapshot value, so a lease
+ * that changed in the meantime is never overwritten.
+ */
+final class LeaseSnapshot {
+
+    private final long takenAtMillis;
+    private final Map<String, RedisLease> leases = new ConcurrentHashMap<>();
+    private final Map<String, Integer> ownerCounts = new HashMap<>();
+    private final Set<String> expiredPartitions = new HashSet<>();
+
+    /**
+     * Create a new LeaseSnapshot.
+     * @param leases All leases as read from the store
+     * @param takenAtMillis The time the leases were read
+     */
+    LeaseSnapshot(List<BaseLease> leases, long takenAtMillis) {
+        this.takenAtMillis = takenAtMillis;
+
+        for (BaseLease baseLease : leases) {
+            RedisLease lease = copy((RedisLease) baseLease);
+            this.leases.put(lease.getPartitionId(), lease);
+
+            if (lease.getExpireMillis() <= takenAtMillis || lease.getOwner().trim().isEmpty()) {
+                this.expiredPartitions.add(lease.getPartitionId());
+            } else {
+                this.ownerCounts.merge(lease.getOwner(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Check if the snapshot is still recent enough to make decisions from.
+     * @param nowMillis The current time
+     * @param maxAgeMillis The maximum age of a snapshot
+     * @return True if the snapshot can be used
+     */
+    boolean isFresh(long nowMillis, long maxAgeMillis) {
+        return nowMillis - takenAtMillis <= maxAgeMillis;
+    }
+
+    /**
+     * Get a copy of the lease for a partition as it was when the snapshot was taken.
+     * @param partitionId The partition id of the lease
+     * @return A {@link RedisLease}, or null if the partition is not in the snapshot
+     */
+    RedisLease getLease(String partitionId) {
+        RedisLease lease = leases.get(partitionId);
+        return lease == null ? null : copy(lease);
+    }
+
+    /**
+     * Record a lease that was successfully written from this snapshot, so later decisions see the new value.
+     * @param lease The lease that was written
+     */
+    void leaseWritten(RedisLease lease) {
+        leases.put(lease.getPartitionId(), copy(lease));
+    }
+
+    /**
+     * Drop a lease from the snapshot. Used when the stored lease is known to have changed.
+     * @param partitionId The partition id of the lease
+     */
+    void invalidate(String partitionId) {
+        leases.remove(partitionId);
+    }
+
+    /**
+     * The number of unexpired leases held by each owner when the snapshot was taken.
+     * @return A map of owner name to lease count
+     */
+    Map<String, Integer> getOwnerCounts() {
+        return Collections.unmodifiableMap(ownerCounts);
+    }
+
+    /**
+     * The number of unexpired leases a host held when the snapshot was taken.
+     * @param owner The host name
+     * @return The lease count
+     */
+    int getLeaseCount(String owner) {
+        return ownerCounts.getOrDefault(owner, 0);
+    }
+
+    /**
+     * The partitions that were expired or had no owner when the snapshot was taken.
+     * @return A set of partition ids
+     */
+    Set<String> getExpiredPartitions() {
+        return Collections.unmodifiableSet(expiredPartitions);
+    }
+
+    long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    private static RedisLease copy(RedisLease lease) {
+        return new RedisLease(lease.getPartitionId(), lease.getOwner(), lease.getEpoch(), lease.getExpireMillis(),
+            lease.getClock());
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.davesters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lease decision made by the lease manager, as recorded by the lease tracer.
+ * See {@link RedisCheckpointOptions#isLeaseTraceEnabled()}.
+ */
+public final class LeaseTraceEvent {
+
+    /**
+     * The kind of lease operation.
+     */
+    public enum Type {
+        ACQUIRE,
+        SKIP,
+        STEAL_DETECTED,
+        RENEW,
+        RELEASE,
+        UPDATE,
+        DELETE
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final long timestampMillis;
+    private final long durationNanos;
+    private final long readNanos;
+    private final String partitionId;
+    private final String storedOwner;
+    private final long storedEpoch;
+    private final long requestedEpoch;
+    private final boolean result;
+    private final String detail;
+
+    /**
+     * Create a new LeaseTraceEvent from a copy of a lease tracer slot.
+     * @param sequence The order the event was recorded in
+     * @param numbers The number fields of the slot, laid out as in {@link LeaseTracer}
+     * @param strings The string fields of the slot, laid out as in {@link LeaseTracer}
+     */
+    LeaseTraceEvent(long sequence, long[] numbers, String[] strings) {
+        this.sequence = sequence;
+        this.type = Type.values()[(int) numbers[LeaseTracer.TYPE]];
+        this.timestampMillis = numbers[LeaseTracer.TIMESTAMP];
+        this.durationNanos = numbers[LeaseTracer.DURATION];
+        this.readNanos = numbers[LeaseTracer.READ];
+        this.partitionId = strings[LeaseTracer.PARTITION];
+        this.storedOwner = strings[LeaseTracer.OWNER];
+        this.storedEpoch = numbers[LeaseTracer.STORED_EPOCH];
+        this.requestedEpoch = numbers[LeaseTracer.REQUESTED_EPOCH];
+        this.result = numbers[LeaseTracer.RESULT] == 1;
+        this.detail = strings[LeaseTracer.DETAIL];
+    }
+
+    /**
+     * The order the event was recorded in. Gaps mean events were overwritten before they were read.
+     * @return long
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * The kind of lease operation.
+     * @return Type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * When the operation started.
+     * @return long in epoch milliseconds
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * How long the whole operation took, including all calls to Redis.
+     * @return long in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * How long reading the stored lease took.
+     * @return long in nanoseconds
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * The partition id of the lease.
+     * @return string
+     */
+    public String getPartitionId() {
+        return partitionId;
+    }
+
+    /**
+     * The owner of the lease as it was in the store when the decision was made.
+     * @return string
+     */
+    public String getStoredOwner() {
+        return storedOwner;
+    }
+
+    /**
+     * The epoch of the lease as it was in the store when the decision was made.
+     * @return long
+     */
+    public long getStoredEpoch() {
+        return storedEpoch;
+    }
+
+    /**
+     * The epoch of the lease EPH asked for.
+     * @return long
+     */
+    public long getRequestedEpoch() {
+        return requestedEpoch;
+    }
+
+    /**
+     * The result returned to EPH, true if the lease was acquired, renewed, updated or deleted.
+     * @return boolean
+     */
+    public boolean getResult() {
+        return result;
+    }
+
+    /**
+     * Why the decision was made, for example "already owned" or "preferred by another host".
+     * @return string
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s partition=%s result=%b (%s) storedOwner=%s storedEpoch=%d requestedEpoch=%d "
+                + "duration=%dus read=%dus",
+            sequence, type, partitionId, result, detail, storedOwner, storedEpoch, requestedEpoch,
+            TimeUnit.NANOSECONDS.toMicros(durationNanos), TimeUnit.NANOSECONDS.toMicros(readNanos));
+    }
+}
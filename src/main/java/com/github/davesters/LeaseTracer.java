@@ -0,0 +1,192 @@
+package com.github.davesters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records lease decisions into a fixed size ring buffer, so the last few thousand can be looked at after a
+ * rebalancing storm. All slots are allocated up front, and recording an event claims a slot with a single atomic
+ * increment and never takes a lock or allocates. Once the buffer is full the oldest events are overwritten.
+ * Each slot carries the sequence number of the event in it, which is cleared while the slot is being written, so a
+ * dump taken while events are recorded skips the slots that change under it instead of returning a mix of two
+ * events.
+ */
+final class LeaseTracer {
+
+    // The layout of a slot, also used by LeaseTraceEvent to read one.
+    static final int NUMBER_FIELDS = 7;
+    static final int TYPE = 0;
+    static final int TIMESTAMP = 1;
+    static final int DURATION = 2;
+    static final int READ = 3;
+    static final int STORED_EPOCH = 4;
+    static final int REQUESTED_EPOCH = 5;
+    static final int RESULT = 6;
+
+    static final int STRING_FIELDS = 3;
+    static final int PARTITION = 0;
+    static final int OWNER = 1;
+    static final int DETAIL = 2;
+
+    private static final int MAX_CAPACITY = 1 << 20;
+    private static final int CONTROL_LIMIT = 0x20;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray stamps;
+    private final AtomicLongArray numbers;
+    private final AtomicReferenceArray<String> strings;
+
+    /**
+     * Create a new LeaseTracer.
+     * @param size The number of events to keep. Rounded up to a power of two
+     */
+    LeaseTracer(int size) {
+        int bounded = Math.max(2, Math.min(size, MAX_CAPACITY));
+        this.capacity = Integer.highestOneBit(bounded - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.stamps = new AtomicLongArray(this.capacity);
+        this.numbers = new AtomicLongArray(this.capacity * NUMBER_FIELDS);
+        this.strings = new AtomicReferenceArray<>(this.capacity * STRING_FIELDS);
+    }
+
+    /**
+     * Record a lease decision.
+     * @param type The kind of lease operation
+     * @param startNanos When the operation started, from {@link System#nanoTime()}
+     * @param readNanos How long reading the stored lease took
+     * @param requested The lease EPH asked for
+     * @param stored The lease as it was in the store, or null if it was not read
+     * @param result The result returned to EPH
+     * @param detail Why the decision was made
+     */
+    void record(LeaseTraceEvent.Type type, long startNanos, long readNanos, RedisLease requested, RedisLease stored,
+                boolean result, String detail) {
+        long durationNanos = System.nanoTime() - startNanos;
+        long timestampMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        int numberBase = slot * NUMBER_FIELDS;
+        int stringBase = slot * STRING_FIELDS;
+
+        stamps.set(slot, 0);
+        numbers.lazySet(numberBase + TYPE, type.ordinal());
+        numbers.lazySet(numberBase + TIMESTAMP, timestampMillis);
+        numbers.lazySet(numberBase + DURATION, durationNanos);
+        numbers.lazySet(numberBase + READ, readNanos);
+        numbers.lazySet(numberBase + STORED_EPOCH, stored == null ? -1 : stored.getEpoch());
+        numbers.lazySet(numberBase + REQUESTED_EPOCH, requested.getEpoch());
+        numbers.lazySet(numberBase + RESULT, result ? 1 : 0);
+        strings.lazySet(stringBase + PARTITION, requested.getPartitionId());
+        strings.lazySet(stringBase + OWNER, stored == null ? null : stored.getOwner());
+        strings.lazySet(stringBase + DETAIL, detail);
+        stamps.set(slot, sequence + 1);
+    }
+
+    /**
+     * Get the events currently in the buffer.
+     * @return A list of events, oldest first
+     */
+    List<LeaseTraceEvent> dump() {
+        long end = next.get();
+        long start = Math.max(0, end - capacity);
+        List<LeaseTraceEvent> events = new ArrayList<>((int) (end - start));
+
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            int numberBase = slot * NUMBER_FIELDS;
+            int stringBase = slot * STRING_FIELDS;
+
+            if (stamps.get(slot) != sequence + 1) {
+                continue;
+            }
+
+            long[] slotNumbers = new long[NUMBER_FIELDS];
+            for (int i = 0; i < NUMBER_FIELDS; i++) {
+                slotNumbers[i] = numbers.get(numberBase + i);
+            }
+            String[] slotStrings = new String[STRING_FIELDS];
+            for (int i = 0; i < STRING_FIELDS; i++) {
+                slotStrings[i] = strings.get(stringBase + i);
+            }
+            LeaseTraceEvent event = new LeaseTraceEvent(sequence, slotNumbers, slotStrings);
+
+            // Skip the event if the slot was overwritten while it was being read.
+            if (stamps.get(slot) == sequence + 1) {
+                events.add(event);
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Format events in the Chrome trace event format, which can be opened in chrome://tracing or Perfetto. Each
+     * partition is shown as its own thread of the host's process.
+     * @param events The events to format
+     * @param hostname The name of this host
+     * @return A JSON string
+     */
+    static String toChromeTrace(List<LeaseTraceEvent> events, String hostname) {
+        StringBuilder json = new StringBuilder("{\"traceEvents\":[");
+        Map<String, Integer> threads = new HashMap<>();
+
+        json.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"tid\":0,\"args\":{\"name\":");
+        appendString(json, hostname).append("}}");
+
+        for (LeaseTraceEvent event : events) {
+            Integer tid = threads.get(event.getPartitionId());
+            if (tid == null) {
+                tid = threads.size() + 1;
+                threads.put(event.getPartitionId(), tid);
+
+                json.append(",{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(tid)
+                    .append(",\"args\":{\"name\":");
+                appendString(json, "partition " + event.getPartitionId()).append("}}");
+            }
+
+            json.append(",{\"name\":\"").append(event.getType()).append("\",\"cat\":\"lease\",\"ph\":\"X\"")
+                .append(",\"pid\":1,\"tid\":").append(tid)
+                .append(",\"ts\":").append(TimeUnit.MILLISECONDS.toMicros(event.getTimestampMillis()))
+                .append(",\"dur\":").append(TimeUnit.NANOSECONDS.toMicros(event.getDurationNanos()))
+                .append(",\"args\":{\"sequence\":").append(event.getSequence())
+                .append(",\"result\":").append(event.getResult())
+                .append(",\"detail\":");
+            appendString(json, event.getDetail())
+                .append(",\"storedOwner\":");
+            appendString(json, event.getStoredOwner())
+                .append(",\"storedEpoch\":").append(event.getStoredEpoch())
+                .append(",\"requestedEpoch\":").append(event.getRequestedEpoch())
+                .append(",\"readMicros\":").append(TimeUnit.NANOSECONDS.toMicros(event.getReadNanos()))
+                .append("}}");
+        }
+
+        return json.append("]}").toString();
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String value) {
+        if (value == null) {
+            return json.append("null");
+        }
+
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < CONTROL_LIMIT) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
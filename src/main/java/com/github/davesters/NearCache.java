@@ -0,0 +1,121 @@
+package com.github.davesters;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local cache of values read from a Redis hash.
+ * While Redis is tracking the hash for us, entries are kept until Redis says the hash changed. When tracking is not
+ * available, entries expire after a short TTL instead.
+ * Every invalidation bumps a version number. A value read from Redis is only cached if no invalidation happened
+ * while it was being read, so a slow read can never put a value back that was already invalidated.
+ */
+final class NearCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final long ttlMillis;
+
+    private volatile boolean tracking;
+
+    /**
+     * Create a new NearCache.
+     * @param ttlMillis How long entries live while tracking is not available
+     */
+    NearCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Get a cached value.
+     * @param field The hash field
+     * @param nowMillis The current time
+     * @return The cached value, or null if it is not cached
+     */
+    String get(String field, long nowMillis) {
+        Entry entry = entries.get(field);
+
+        if (entry == null || entry.expireMillis <= nowMillis) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * The current version of the cache. Take this before reading a value from Redis and pass it to
+     * {@link #put(String, String, long, long)} afterwards.
+     * @return long
+     */
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * Cache a value, unless the cache was invalidated after the given version was taken.
+     * @param field The hash field
+     * @param value The value read from Redis
+     * @param readVersion The version taken before the value was read
+     * @param nowMillis The current time
+     */
+    void put(String field, String value, long readVersion, long nowMillis) {
+        if (value == null) {
+            return;
+        }
+
+        long expireMillis = tracking ? Long.MAX_VALUE : nowMillis + ttlMillis;
+        entries.put(field, new Entry(value, expireMillis));
+
+        // If an invalidation raced with this put, drop the entry again. It might be older than the invalidation.
+        if (version.get() != readVersion) {
+            entries.remove(field);
+        }
+    }
+
+    void invalidate(String field) {
+        version.incrementAndGet();
+        entries.remove(field);
+        invalidations.increment();
+    }
+
+    void invalidateAll() {
+        version.incrementAndGet();
+        entries.clear();
+        invalidations.increment();
+    }
+
+    /**
+     * Switch between tracking and TTL mode. Everything cached so far is dropped, because invalidations may have
+     * been missed while switching.
+     * @param tracking True if Redis is tracking the hash for this cache
+     */
+    void setTracking(boolean tracking) {
+        this.tracking = tracking;
+        invalidateAll();
+    }
+
+    boolean isTracking() {
+        return tracking;
+    }
+
+    NearCacheStats getStats() {
+        return new NearCacheStats(hits.sum(), misses.sum(), invalidations.sum(), entries.size(), tracking);
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long expireMillis;
+
+        private Entry(String value, long expireMillis) {
+            this.value = value;
+            this.expireMillis = expireMillis;
+        }
+    }
+}
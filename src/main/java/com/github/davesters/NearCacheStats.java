@@ -0,0 +1,67 @@
+package com.github.davesters;
+
+/**
+ * Hit and miss counts of a near cache. See {@link RedisCheckpointOptions#isNearCacheEnabled()}.
+ */
+public final class NearCacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long invalidations;
+    private final int size;
+    private final boolean tracking;
+
+    NearCacheStats(long hits, long misses, long invalidations, int size, boolean tracking) {
+        this.hits = hits;
+        this.misses = misses;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.tracking = tracking;
+    }
+
+    /**
+     * The number of reads that were served from the cache.
+     * @return long
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of reads that had to go to Redis.
+     * @return long
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The number of times entries were dropped because Redis said they changed, or because they were written.
+     * @return long
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * The number of entries currently cached.
+     * @return int
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * If Redis is currently tracking the cached keys for us. When false, entries expire after a short TTL instead.
+     * @return boolean
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, invalidations=%d, size=%d, tracking=%b",
+            hits, misses, invalidations, size, tracking);
+    }
+}
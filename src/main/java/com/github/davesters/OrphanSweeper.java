@@ -0,0 +1,99 @@
+package com.github.davesters;
+
+import java.time.Clock;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the leases and checkpoints of partitions that are no longer in the event hub, and keeps the time to live
+ * of the store's keys up to date, in the background.
+ * Each run only looks at a small page of leases, so the cost of a run does not grow with the number of stale
+ * entries, and the memory used only grows with the number of live partitions. A partition is only removed once its
+ * lease has been expired for the retention time, so a partition that is just moving between hosts is never removed.
+ * Nothing is removed until the live partitions are known.
+ */
+final class OrphanSweeper implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrphanSweeper.class.getSimpleName());
+
+    private final CheckpointStore store;
+    private final Supplier<Set<String>> livePartitionIds;
+    private final RedisCheckpointOptions options;
+    private final Clock clock;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new OrphanSweeper.
+     * @param store The store to sweep
+     * @param livePartitionIds Gives the ids of the partitions the event hub has, empty if not known yet
+     * @param options The options object
+     * @param clock The clock lease expiry is checked against
+     */
+    OrphanSweeper(CheckpointStore store, Supplier<Set<String>> livePartitionIds, RedisCheckpointOptions options,
+                  Clock clock) {
+        this.store = store;
+        this.livePartitionIds = livePartitionIds;
+        this.options = options;
+        this.clock = clock;
+    }
+
+    /**
+     * Start sweeping in the background.
+     */
+    void start() {
+        long intervalMillis = this.options.getOrphanSweepIntervalInMillis();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-checkpoint-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::sweepQuietly, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refresh the time to live of the store's keys, and remove the stale partitions in the next page of leases.
+     * @return The number of partitions removed
+     */
+    int sweep() {
+        if (this.options.getKeyTtlInMillis() > 0) {
+            this.store.refreshExpiry(this.options.getKeyTtlInMillis());
+        }
+
+        Set<String> live = this.livePartitionIds.get();
+        if (!this.options.isOrphanSweepEnabled() || live.isEmpty()) {
+            return 0;
+        }
+
+        return this.store.sweepOrphans(live, this.clock.millis() - this.options.getOrphanRetentionInMillis(),
+            this.options.getOrphanSweepBatchSize());
+    }
+
+    @Override
+    public void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            try {
+                this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (Exception e) {
+            LOG.warn("Error sweeping stale partitions", e);
+        }
+    }
+}
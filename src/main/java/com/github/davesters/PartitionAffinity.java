@@ -0,0 +1,164 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.BaseLease;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns every partition a preferred host with rendezvous hashing, so partitions stay with the same host as hosts
+ * come and go. Each partition is preferred by the live host with the highest hash of host and partition id. When a
+ * host joins, it becomes the preferred host of about 1/N of the partitions and all other partitions keep their
+ * preferred host. When a host leaves, only its own partitions move.
+ * The live hosts are the owners of unexpired leases, taken from each read of all leases, plus this host.
+ */
+final class PartitionAffinity {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX_MULTIPLIER_1 = 0xff51afd7ed558ccdL;
+    private static final long MIX_MULTIPLIER_2 = 0xc4ceb9fe1a85ec53L;
+    private static final int MIX_SHIFT = 33;
+    private static final int BYTE_MASK = 0xff;
+
+    private final String hostname;
+    private final long gracePeriodMillis;
+    private final int maxReleases;
+    private final AtomicInteger releasesLeft = new AtomicInteger();
+
+    private volatile List<String> hosts = Collections.emptyList();
+
+    /**
+     * Create a new PartitionAffinity.
+     * @param hostname The name of this host
+     * @param gracePeriodMillis How long a free lease is left for its preferred host before any host may take it
+     * @param maxReleases How many leases may be released to their preferred host between two reads of all leases
+     */
+    PartitionAffinity(String hostname, long gracePeriodMillis, int maxReleases) {
+        this.hostname = hostname;
+        this.gracePeriodMillis = gracePeriodMillis;
+        this.maxReleases = maxReleases;
+    }
+
+    /**
+     * Update the live hosts from a read of all leases.
+     * @param leases All leases as read from the store
+     * @param nowMillis The current time
+     */
+    void update(List<BaseLease> leases, long nowMillis) {
+        Set<String> liveHosts = new TreeSet<>();
+        liveHosts.add(normalize(hostname));
+
+        for (BaseLease baseLease : leases) {
+            RedisLease lease = (RedisLease) baseLease;
+            if (!lease.getOwner().trim().isEmpty() && lease.getExpireMillis() > nowMillis) {
+                liveHosts.add(normalize(lease.getOwner()));
+            }
+        }
+
+        update(liveHosts);
+    }
+
+    /**
+     * Replace the live hosts.
+     * @param liveHosts The names of all live hosts
+     */
+    void update(Collection<String> liveHosts) {
+        List<String> normalized = new ArrayList<>();
+        liveHosts.forEach(host -> normalized.add(normalize(host)));
+
+        this.hosts = Collections.unmodifiableList(normalized);
+        this.releasesLeft.set(maxReleases);
+    }
+
+    /**
+     * Get the live host a partition should be owned by.
+     * @param partitionId The partition id
+     * @return The name of the preferred host, or null if the live hosts are not known yet
+     */
+    String preferredOwner(String partitionId) {
+        String preferred = null;
+        long best = 0;
+
+        for (String host : hosts) {
+            long weight = weight(host, partitionId);
+            if (preferred == null || Long.compareUnsigned(weight, best) > 0) {
+                preferred = host;
+                best = weight;
+            }
+        }
+
+        return preferred;
+    }
+
+    /**
+     * Check if this host should acquire a lease. A lease preferred by this host can always be acquired. A lease
+     * preferred by another host may only be taken once it has been free for the grace period, and is never stolen.
+     * @param storedLease The lease as it is in the store
+     * @param nowMillis The current time
+     * @return True if this host should acquire the lease
+     */
+    boolean shouldAcquire(RedisLease storedLease, long nowMillis) {
+        if (isPreferred(storedLease.getPartitionId()) || storedLease.isOwnedBy(hostname)) {
+            return true;
+        }
+
+        boolean free = storedLease.getOwner().trim().isEmpty() || storedLease.getExpireMillis() <= nowMillis;
+        return free && nowMillis >= storedLease.getExpireMillis() + gracePeriodMillis;
+    }
+
+    /**
+     * Check if this host should hand a lease it owns over to its preferred host. Only a limited number of leases are
+     * released between two reads of all leases, so partitions move gradually.
+     * @param partitionId The partition id of a lease owned by this host
+     * @return True if the lease should be released
+     */
+    boolean shouldRelease(String partitionId) {
+        if (isPreferred(partitionId)) {
+            return false;
+        }
+
+        return releasesLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+    }
+
+    private boolean isPreferred(String partitionId) {
+        String preferred = preferredOwner(partitionId);
+        return preferred == null || preferred.equals(normalize(hostname));
+    }
+
+    // EPH compares host names ignoring case, so the hash does too.
+    private static String normalize(String host) {
+        return host.toLowerCase(Locale.ROOT);
+    }
+
+    // A 64 bit FNV-1a hash of the host and partition id, finished with the murmur3 mixer to spread the bits.
+    // This needs to be the same on every host, so String.hashCode and random seeds are not used.
+    private static long weight(String host, String partitionId) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = fnv(hash, host.getBytes(StandardCharsets.UTF_8));
+        // A zero byte between the two, so "ab" + "c" and "a" + "bc" hash differently.
+        hash *= FNV_PRIME;
+        hash = fnv(hash, partitionId.getBytes(StandardCharsets.UTF_8));
+
+        hash ^= hash >>> MIX_SHIFT;
+        hash *= MIX_MULTIPLIER_1;
+        hash ^= hash >>> MIX_SHIFT;
+        hash *= MIX_MULTIPLIER_2;
+        hash ^= hash >>> MIX_SHIFT;
+        return hash;
+    }
+
+    private static long fnv(long hash, byte[] bytes) {
+        long result = hash;
+        for (byte b : bytes) {
+            result = (result ^ (b & BYTE_MASK)) * FNV_PRIME;
+        }
+        return result;
+    }
+}
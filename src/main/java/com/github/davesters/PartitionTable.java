@@ -0,0 +1,397 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A dense table of checkpoint and lease values indexed by partition.
+ * Event Hub partition ids are small integers ("0".."N-1"), so they are used directly as the index into primitive
+ * arrays. This keeps scans over all partitions cache friendly and avoids a map entry and a wrapper object per
+ * partition. Values are only turned into EPH objects at the API boundary.
+ * Ids that are not plain integers still work, they are just given the next free index.
+ * This class is not thread safe. Callers are expected to hold their own lock.
+ */
+final class PartitionTable {
+
+    private static final int INITIAL_CAPACITY = 32;
+    private static final int MAX_DIRECT_INDEX = 1 << 16;
+    private static final int MAX_DIRECT_INDEX_DIGITS = 5;
+    private static final int RADIX = 10;
+
+    private final Clock clock;
+    private final Map<String, Integer> namedIndexes = new HashMap<>();
+    private final BitSet checkpoints = new BitSet();
+    private final BitSet leases = new BitSet();
+    private final BitSet dirtyCheckpoints = new BitSet();
+
+    private int size;
+    private String[] partitionIds = new String[INITIAL_CAPACITY];
+    private String[] offsets = new String[INITIAL_CAPACITY];
+    private long[] sequenceNumbers = new long[INITIAL_CAPACITY];
+    private String[] pendingStates = new String[INITIAL_CAPACITY];
+    private String[] owners = new String[INITIAL_CAPACITY];
+    private long[] epochs = new long[INITIAL_CAPACITY];
+    private long[] expireMillis = new long[INITIAL_CAPACITY];
+
+    /**
+     * Create a new PartitionTable whose leases use the shared coarse clock.
+     */
+    PartitionTable() {
+        this(CoarseClock.INSTANCE);
+    }
+
+    /**
+     * Create a new PartitionTable.
+     * @param clock The clock leases check their expiry against
+     */
+    PartitionTable(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get the index of a partition, assigning one if this partition has not been seen yet.
+     * @param partitionId The partition id
+     * @return The index of the partition in the table
+     */
+    int indexOf(String partitionId) {
+        int index = parseIndex(partitionId);
+
+        if (index >= 0 && index < size && partitionId.equals(partitionIds[index])) {
+            return index;
+        }
+
+        Integer named = namedIndexes.get(partitionId);
+        if (named != null) {
+            return named;
+        }
+
+        if (index < 0 || (index < size && partitionIds[index] != null)) {
+            index = size;
+            namedIndexes.put(partitionId, index);
+        }
+
+        ensureCapacity(index + 1);
+        partitionIds[index] = partitionId;
+        size = Math.max(size, index + 1);
+
+        return index;
+    }
+
+    /**
+     * The number of slots in use. Every index below this may be passed to the accessor methods.
+     * @return int
+     */
+    int size() {
+        return size;
+    }
+
+    String partitionIdAt(int index) {
+        return partitionIds[index];
+    }
+
+    boolean hasCheckpoint(int index) {
+        return checkpoints.get(index);
+    }
+
+    /**
+     * Set the checkpoint values of a partition.
+     * @param index The index of the partition
+     * @param offset The event hub offset
+     * @param sequenceNumber The event hub sequence number
+     */
+    void putCheckpoint(int index, String offset, long sequenceNumber) {
+        offsets[index] = offset;
+        sequenceNumbers[index] = sequenceNumber;
+        checkpoints.set(index);
+    }
+
+    /**
+     * Parse a checkpoint value as it is stored in Redis into the table.
+     * It will look something like this:
+     * "offset,sequenceNumber"
+     * @param index The index of the partition
+     * @param redisValue The stored value
+     */
+    void putCheckpointValue(int index, String redisValue) {
+        int comma = redisValue.indexOf(',');
+        putCheckpoint(index, redisValue.substring(0, comma), parseLong(redisValue, comma + 1, redisValue.length()));
+    }
+
+    /**
+     * Parse a checkpoint value as it is stored in Redis straight into an EPH Checkpoint object, without touching
+     * the table.
+     * @param partitionId The partition id of the checkpoint
+     * @param redisValue The stored value
+     * @return A Checkpoint
+     */
+    static Checkpoint parseCheckpoint(String partitionId, String redisValue) {
+        int comma = redisValue.indexOf(',');
+        return new Checkpoint(partitionId, redisValue.substring(0, comma),
+            parseLong(redisValue, comma + 1, redisValue.length()));
+    }
+
+    /**
+     * Remove the checkpoint of a partition. Any pending write for it is dropped as well.
+     * @param index The index of the partition
+     */
+    void removeCheckpoint(int index) {
+        offsets[index] = null;
+        pendingStates[index] = null;
+        checkpoints.clear(index);
+        dirtyCheckpoints.clear(index);
+    }
+
+    /**
+     * Set the state of a partition that is to be written with its pending checkpoint.
+     * @param index The index of the partition
+     * @param state The encoded state
+     */
+    void putPendingState(int index, String state) {
+        pendingStates[index] = state;
+    }
+
+    String pendingStateAt(int index) {
+        return pendingStates[index];
+    }
+
+    /**
+     * Forget the pending state of a partition once it is written, unless a newer state was set in the meantime.
+     * @param index The index of the partition
+     * @param written The encoded state that was written
+     */
+    void clearPendingState(int index, String written) {
+        if (pendingStates[index] == written) {
+            pendingStates[index] = null;
+        }
+    }
+
+    String offsetAt(int index) {
+        return offsets[index];
+    }
+
+    long sequenceNumberAt(int index) {
+        return sequenceNumbers[index];
+    }
+
+    /**
+     * Format the checkpoint of a partition the way it is stored in Redis.
+     * @param index The index of the partition
+     * @return A concatenated string.
+     */
+    String checkpointValueAt(int index) {
+        return offsets[index] + ',' + sequenceNumbers[index];
+    }
+
+    /**
+     * Map the checkpoint of a partition to an EPH Checkpoint object.
+     * @param index The index of the partition
+     * @return A Checkpoint, or null if there is no checkpoint for the partition
+     */
+    Checkpoint toCheckpoint(int index) {
+        if (!checkpoints.get(index)) {
+            return null;
+        }
+
+        return new Checkpoint(partitionIds[index], offsets[index], sequenceNumbers[index]);
+    }
+
+    void markDirty(int index) {
+        dirtyCheckpoints.set(index);
+    }
+
+    boolean isDirty(int index) {
+        return dirtyCheckpoints.get(index);
+    }
+
+    /**
+     * Get the next partition with a pending checkpoint write.
+     * @param fromIndex The index to start looking from, inclusive
+     * @return The index of the next dirty partition, or -1 if there are none left
+     */
+    int nextDirty(int fromIndex) {
+        return dirtyCheckpoints.nextSetBit(fromIndex);
+    }
+
+    int dirtyCount() {
+        return dirtyCheckpoints.cardinality();
+    }
+
+    void clearDirty() {
+        dirtyCheckpoints.clear();
+    }
+
+    void clearDirty(int index) {
+        dirtyCheckpoints.clear(index);
+    }
+
+    boolean hasLease(int index) {
+        return leases.get(index);
+    }
+
+    /**
+     * Set the lease values of a partition.
+     * @param index The index of the partition
+     * @param owner The owner of the lease
+     * @param epoch The lease epoch
+     * @param expire The expiration time in millis
+     */
+    void putLease(int index, String owner, long epoch, long expire) {
+        owners[index] = owner;
+        epochs[index] = epoch;
+        expireMillis[index] = expire;
+        leases.set(index);
+    }
+
+    /**
+     * Parse a lease value as it is stored in Redis into the table.
+     * It will look something like this:
+     * "owner,epoch,expirationMillis"
+     * @param index The index of the partition
+     * @param redisValue The stored value
+     */
+    void putLeaseValue(int index, String redisValue) {
+        int lastComma = redisValue.lastIndexOf(',');
+        int epochComma = redisValue.lastIndexOf(',', lastComma - 1);
+
+        putLease(index,
+            redisValue.substring(0, epochComma),
+            parseLong(redisValue, epochComma + 1, lastComma),
+            parseLong(redisValue, lastComma + 1, redisValue.length()));
+    }
+
+    /**
+     * Parse a lease value as it is stored in Redis straight into a {@link RedisLease}, without touching the table.
+     * @param partitionId The partition id of the lease
+     * @param redisValue The stored value
+     * @return A {@link RedisLease}
+     */
+    static RedisLease parseLease(String partitionId, String redisValue) {
+        int lastComma = redisValue.lastIndexOf(',');
+        int epochComma = redisValue.lastIndexOf(',', lastComma - 1);
+
+        return new RedisLease(partitionId,
+            redisValue.substring(0, epochComma),
+            parseLong(redisValue, epochComma + 1, lastComma),
+            parseLong(redisValue, lastComma + 1, redisValue.length()));
+    }
+
+    void removeLease(int index) {
+        owners[index] = null;
+        leases.clear(index);
+    }
+
+    String ownerAt(int index) {
+        return owners[index];
+    }
+
+    long epochAt(int index) {
+        return epochs[index];
+    }
+
+    long expireMillisAt(int index) {
+        return expireMillis[index];
+    }
+
+    /**
+     * Map the lease of a partition to a {@link RedisLease}.
+     * @param index The index of the partition
+     * @return A {@link RedisLease}, or null if there is no lease for the partition
+     */
+    RedisLease toLease(int index) {
+        if (!leases.get(index)) {
+            return null;
+        }
+
+        return new RedisLease(partitionIds[index], owners[index], epochs[index], expireMillis[index], clock);
+    }
+
+    /**
+     * Forget all leases. Used before loading a full set of leases from the store.
+     */
+    void clearLeases() {
+        Arrays.fill(owners, 0, size, null);
+        leases.clear();
+    }
+
+    /**
+     * Forget all checkpoints that do not have a pending write. Used before loading a full set of checkpoints
+     * from the store.
+     */
+    void clearCheckpoints() {
+        for (int i = checkpoints.nextSetBit(0); i >= 0; i = checkpoints.nextSetBit(i + 1)) {
+            if (!dirtyCheckpoints.get(i)) {
+                removeCheckpoint(i);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= partitionIds.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, partitionIds.length * 2);
+        partitionIds = Arrays.copyOf(partitionIds, newCapacity);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        sequenceNumbers = Arrays.copyOf(sequenceNumbers, newCapacity);
+        pendingStates = Arrays.copyOf(pendingStates, newCapacity);
+        owners = Arrays.copyOf(owners, newCapacity);
+        epochs = Arrays.copyOf(epochs, newCapacity);
+        expireMillis = Arrays.copyOf(expireMillis, newCapacity);
+    }
+
+    /**
+     * Get the shard a partition is stored in when the hashes are split into shards. Numeric partition ids are spread
+     * evenly in order, other ids by their hash code. This must give the same answer on every host.
+     * @param partitionId The partition id
+     * @param shardCount The number of shards
+     * @return The shard number, from 0 to shardCount - 1
+     */
+    static int shardOf(String partitionId, int shardCount) {
+        int index = parseIndex(partitionId);
+        return Math.floorMod(index >= 0 ? index : partitionId.hashCode(), shardCount);
+    }
+
+    // Returns the partition id as a direct index if it is a plain, small, non-negative integer. -1 otherwise.
+    private static int parseIndex(String partitionId) {
+        int length = partitionId.length();
+        if (length == 0 || length > MAX_DIRECT_INDEX_DIGITS || (length > 1 && partitionId.charAt(0) == '0')) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = partitionId.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * RADIX + (c - '0');
+        }
+
+        return value < MAX_DIRECT_INDEX ? value : -1;
+    }
+
+    // Parses a long out of part of a string without creating a substring.
+    private static long parseLong(String value, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("Empty number in \"" + value + "\"");
+        }
+
+        boolean negative = value.charAt(from) == '-';
+        long result = 0;
+
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid number in \"" + value + "\"");
+            }
+            result = result * RADIX + (c - '0');
+        }
+
+        return negative ? -result : result;
+    }
+}
@@ -5,10 +5,21 @@ import com.microsoft.azure.eventprocessorhost.Checkpoint;
 import com.microsoft.azure.eventprocessorhost.CompleteLease;
 import com.microsoft.azure.eventprocessorhost.ICheckpointManager;
 import com.microsoft.azure.eventprocessorhost.ILeaseManager;
+import java.time.Clock;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,6 +32,22 @@ public class RedisCheckpointLeaseManager implements ICheckpointManager, ILeaseMa
 
     private final RedisCheckpointOptions options;
     private final CheckpointStore store;
+    private final PartitionAffinity affinity;
+    private final LeaseTracer tracer;
+    private final LeaseDurationTuner leaseDuration;
+    private final CheckpointPolicy checkpointPolicy;
+    private final Clock clock;
+    private final AtomicReference<List<BaseLease>> bootstrapLeases = new AtomicReference<>();
+    private final Map<String, Checkpoint> bootstrapCheckpoints = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> partitionStates = new ConcurrentHashMap<>();
+
+    private volatile Executor executor;
+    private volatile LeaseSnapshot leaseSnapshot;
+    private volatile HostRegistry hostRegistry;
+    private volatile OrphanSweeper sweeper;
+    private volatile Set<String> livePartitionIds = Collections.emptySet();
+    private volatile long bootstrappedAtMillis;
+    private volatile Set<String> bootstrappedPartitions = Collections.emptySet();
 
     /**
      * Construct a new RedisCheckpointLeaseManager with the processor and redis hostnames.
@@ -40,10 +67,33 @@ public class RedisCheckpointLeaseManager implements ICheckpointManager, ILeaseMa
         this(options, new RedisCheckpointStore(options));
     }
 
-    // This is only used in testing to pass in a mock checkpoint store.
-    RedisCheckpointLeaseManager(RedisCheckpointOptions options, CheckpointStore store) {
+    /**
+     * Construct a new RedisCheckpointLeaseManager that keeps checkpoints and leases in another store, like a
+     * {@link FileCheckpointStore}.
+     * @param options The options object
+     * @param store The checkpoint store
+     */
+    public RedisCheckpointLeaseManager(RedisCheckpointOptions options, CheckpointStore store) {
         this.options = options;
         this.store = store;
+        this.executor = createExecutor(options);
+        this.affinity = options != null && options.isPartitionAffinityEnabled()
+            ? new PartitionAffinity(options.getProcessorHostname(), options.getPartitionAffinityGracePeriodInMillis(),
+                options.getPartitionAffinityMaxReleases())
+            : null;
+        this.tracer = options != null && options.isLeaseTraceEnabled()
+            ? new LeaseTracer(options.getLeaseTraceBufferSize())
+            : null;
+        this.leaseDuration = options != null && options.isAdaptiveLeaseDurationEnabled()
+            ? new LeaseDurationTuner(options.getLeaseRenewIntervalInMillis(), options.getMinLeaseDurationInMillis(),
+                options.getLeaseDurationInMillis())
+            : null;
+        this.clock = options != null && options.getClock() != null ? options.getClock() : CoarseClock.INSTANCE;
+        this.checkpointPolicy = options != null
+            && (options.getAutoCheckpointEventCount() > 0 || options.getAutoCheckpointIntervalInMillis() > 0)
+            ? new CheckpointPolicy(store, options.getAutoCheckpointEventCount(),
+                options.getAutoCheckpointIntervalInMillis(), this::ownsStoredLease, this.clock)
+            : null;
     }
 
     @Override
@@ -57,51 +107,104 @@ public class RedisCheckpointLeaseManager implements ICheckpointManager, ILeaseMa
             LOG.debug("Connecting to redis checkpoint store");
             this.store.connect();
         }
+        restartExecutor();
+
+        if (this.checkpointPolicy != null) {
+            this.checkpointPolicy.start();
+        }
 
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public CompletableFuture<Void> deleteCheckpointStore() {
+        stopHeartbeats();
+        stopSweeper();
+        closeCheckpointPolicy();
         this.store.close();
+        shutdownExecutor();
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public CompletableFuture<Checkpoint> getCheckpoint(String partitionId) {
-        return CompletableFuture.completedFuture(this.store.getCheckpoint(partitionId));
+        return supply(() -> {
+            // Each checkpoint read at startup is used once, the next read goes to the store.
+            Checkpoint checkpoint = bootstrapCheckpoints.remove(partitionId);
+            if (checkpoint != null && isBootstrapFresh()) {
+                return this.options.isPartitionStateEnabled()
+                    ? new StatefulCheckpoint(partitionId, checkpoint.getOffset(), checkpoint.getSequenceNumber(),
+                        () -> this.store.getPartitionState(partitionId))
+                    : checkpoint;
+            }
+
+            // A checkpoint the policy has not written yet is newer than the stored one.
+            Checkpoint pending = this.checkpointPolicy == null ? null : this.checkpointPolicy.getPending(partitionId);
+            if (pending != null) {
+                return pending;
+            }
+
+            return this.store.getCheckpoint(partitionId);
+        });
     }
 
     @Override
     public CompletableFuture<Void> createAllCheckpointsIfNotExists(List<String> partitionIds) {
-        Map<String, Checkpoint> checkpoints = this.store.getAllCheckpoints();
-
-        partitionIds.forEach(id -> {
-            if (checkpoints.containsKey(id)) {
-                return;
+        return supply(() -> {
+            // The bootstrap already created them.
+            if (this.bootstrappedPartitions.containsAll(partitionIds)) {
+                return null;
             }
 
-            LOG.debug("creating checkpoint for partition {}", id);
-            this.store.setCheckpoint(new Checkpoint(id, options.getInitialCheckpointOffset(), 0));
-        });
+            Map<String, Checkpoint> checkpoints = this.store.getAllCheckpoints();
 
-        return CompletableFuture.completedFuture(null);
+            partitionIds.forEach(id -> {
+                if (checkpoints.containsKey(id)) {
+                    return;
+                }
+
+                LOG.debug("creating checkpoint for partition {}", id);
+                this.store.setCheckpoint(new Checkpoint(id, options.getInitialCheckpointOffset(), 0));
+            });
+
+            return null;
+        });
     }
 
     @Override
     public CompletableFuture<Void> updateCheckpoint(CompleteLease lease, Checkpoint checkpoint) {
-        this.store.setCheckpoint(checkpoint);
-        return CompletableFuture.completedFuture(null);
+        return supply(() -> {
+            // The state last set for the partition is written in the same step as the checkpoint.
+            byte[] state = this.partitionStates.get(checkpoint.getPartitionId());
+            Checkpoint checkpointToWrite = state == null ? checkpoint : new StatefulCheckpoint(checkpoint, state);
+
+            if (this.checkpointPolicy != null) {
+                this.checkpointPolicy.update(checkpointToWrite);
+            } else {
+                this.store.setCheckpoint(checkpointToWrite);
+            }
+            return null;
+        });
     }
 
     @Override
     public CompletableFuture<Void> deleteCheckpoint(String partitionId) {
-        this.store.deleteCheckpoint(partitionId);
-        return CompletableFuture.completedFuture(null);
+        return supply(() -> {
+            if (this.checkpointPolicy != null) {
+                this.checkpointPolicy.discard(partitionId);
+            }
+            this.partitionStates.remove(partitionId);
+            this.store.deleteCheckpoint(partitionId);
+            return null;
+        });
     }
 
     @Override
     public int getLeaseDurationInMilliseconds() {
+        if (this.leaseDuration != null) {
+            return (int) this.leaseDuration.getDurationMillis();
+        }
+
         return this.options.getLeaseDurationInMillis();
     }
 
@@ -116,138 +219,589 @@ public class RedisCheckpointLeaseManager implements ICheckpointManager, ILeaseMa
             LOG.debug("Connecting to redis lease store");
             this.store.connect();
         }
+        restartExecutor();
+
+        // Lease expiry is checked on every lease read from here on, so read the time from the cached clock.
+        if (this.clock == CoarseClock.INSTANCE) {
+            CoarseClock.start();
+        }
+
+        if (this.options != null && this.options.isHeartbeatEnabled() && this.hostRegistry == null) {
+            LOG.debug("Starting heartbeats for {}", this.options.getProcessorHostname());
+            this.hostRegistry = new HostRegistry(this.store, this.options.getProcessorHostname(),
+                this.options.getHeartbeatIntervalInMillis(), this.options.getHeartbeatTimeoutInMillis(), this.clock);
+            this.hostRegistry.start();
+        }
+
+        if (this.options != null && (this.options.isOrphanSweepEnabled() || this.options.getKeyTtlInMillis() > 0)
+            && this.sweeper == null) {
+            LOG.debug("Starting orphan sweeper");
+            this.sweeper = new OrphanSweeper(this.store, () -> this.livePartitionIds, this.options, this.clock);
+            this.sweeper.start();
+        }
 
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public CompletableFuture<Void> deleteLeaseStore() {
+        stopHeartbeats();
+        stopSweeper();
+        closeCheckpointPolicy();
         this.store.close();
+        shutdownExecutor();
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public CompletableFuture<CompleteLease> getLease(String partitionId) {
-        CompleteLease lease = this.store.getLease(partitionId);
-        return CompletableFuture.completedFuture(lease);
+        return supply(() -> {
+            LeaseSnapshot snapshot = getFreshLeaseSnapshot();
+            CompleteLease lease = snapshot == null ? null : snapshot.getLease(partitionId);
+
+            // EPH only uses this lease to decide what to do next, and acquiring re-checks the stored lease, so a hedged
+            // or cached read is fine here.
+            if (lease == null) {
+                lease = this.store.getLeaseHedged(partitionId);
+            }
+
+            if (lease != null && isOwnerDead((RedisLease) lease)) {
+                lease.setIsOwned(false);
+            }
+
+            return lease;
+        });
     }
 
     @Override
     public CompletableFuture<List<BaseLease>> getAllLeases() {
-        return CompletableFuture.completedFuture(this.store.getBaseLeases());
+        return supply(() -> {
+            List<BaseLease> leases = takeBootstrapLeases();
+            if (leases == null) {
+                leases = this.store.getBaseLeases();
+            }
+
+            // Leases of dead hosts are free to take, even though they have not expired yet.
+            leases.forEach(lease -> {
+                if (isOwnerDead((RedisLease) lease)) {
+                    lease.setIsOwned(false);
+                }
+            });
+
+            if (this.options != null && this.options.isUseLeaseSnapshot()) {
+                this.leaseSnapshot = new LeaseSnapshot(leases, this.clock.millis());
+            }
+            if (this.affinity != null && this.hostRegistry != null) {
+                Set<String> liveHosts = this.hostRegistry.getLiveHosts(this.clock.millis());
+                liveHosts.add(this.options.getProcessorHostname());
+                this.affinity.update(liveHosts);
+            } else if (this.affinity != null) {
+                this.affinity.update(leases, this.clock.millis());
+            }
+
+            return leases;
+        });
     }
 
     @Override
     public CompletableFuture<Void> createAllLeasesIfNotExists(List<String> partitionIds) {
-        Map<String, CompleteLease> leases = this.store.getAllLeases();
+        // These are all partitions of the event hub. Leases of any other partition are stale.
+        this.livePartitionIds = Collections.unmodifiableSet(new HashSet<>(partitionIds));
 
-        partitionIds.forEach(id -> {
-            if (leases.containsKey(id)) {
-                return;
+        return supply(() -> {
+            if (this.options != null && this.options.isBootstrapOnStartup() && this.bootstrappedAtMillis == 0) {
+                bootstrap(partitionIds);
+                return null;
             }
 
-            LOG.debug("Creating lease for partition {}", id);
-            RedisLease lease = new RedisLease(id, 0, 0);
-            lease.setOwner("");
-            lease.setIsOwned(false);
-            this.store.setLease(lease);
-        });
+            Map<String, CompleteLease> leases = this.store.getAllLeases();
 
-        return CompletableFuture.completedFuture(null);
+            partitionIds.forEach(id -> {
+                if (leases.containsKey(id)) {
+                    return;
+                }
+
+                LOG.debug("Creating lease for partition {}", id);
+                RedisLease lease = new RedisLease(id, "", 0, 0, this.clock);
+                lease.setOwner("");
+                lease.setIsOwned(false);
+                this.store.setLease(lease);
+            });
+
+            return null;
+        });
     }
 
     @Override
     public CompletableFuture<Void> deleteLease(CompleteLease lease) {
-        RedisLease leaseToDelete = (RedisLease) lease;
-        RedisLease storedLease = (RedisLease) this.store.getLease(leaseToDelete.getPartitionId());
-
-        if (hasLeaseBeenStolen(storedLease)) {
-            // Don't delete the lease because another host may have claimed it.
-            return CompletableFuture.completedFuture(null);
-        }
+        return supply(() -> {
+            long start = startTimer();
+            RedisLease leaseToDelete = (RedisLease) lease;
+            RedisLease storedLease = (RedisLease) this.store.getLease(leaseToDelete.getPartitionId());
+            long read = elapsedSince(start);
+
+            if (hasLeaseBeenStolen(storedLease)) {
+                // Don't delete the lease because another host may have claimed it.
+                discardCheckpoint(leaseToDelete.getPartitionId());
+                trace(LeaseTraceEvent.Type.STEAL_DETECTED, start, read, leaseToDelete, storedLease, false, "delete");
+                return null;
+            }
 
-        this.store.deleteLease(leaseToDelete.getPartitionId());
-        return CompletableFuture.completedFuture(null);
+            flushCheckpoint(leaseToDelete.getPartitionId());
+            this.store.deleteLease(leaseToDelete.getPartitionId());
+            invalidateSnapshotLease(leaseToDelete.getPartitionId());
+            trace(LeaseTraceEvent.Type.DELETE, start, read, leaseToDelete, storedLease, true, "deleted");
+            return null;
+        });
     }
 
     @Override
     public CompletableFuture<Boolean> acquireLease(CompleteLease lease) {
-        RedisLease leaseToAcquire = (RedisLease) lease;
-        RedisLease storedLease = (RedisLease) this.store.getLease(leaseToAcquire.getPartitionId());
-
-        LOG.debug("acquiring lease for partition {}", leaseToAcquire.getPartitionId());
+        return supply(() -> {
+            long start = startTimer();
+            RedisLease leaseToAcquire = (RedisLease) lease;
+            LeaseSnapshot snapshot = getFreshLeaseSnapshot();
+            RedisLease snapshotLease = snapshot == null ? null : snapshot.getLease(leaseToAcquire.getPartitionId());
+            RedisLease storedLease = snapshotLease != null
+                ? snapshotLease
+                : (RedisLease) this.store.getLease(leaseToAcquire.getPartitionId());
+            long read = elapsedSince(start);
+
+            LOG.debug("acquiring lease for partition {}", leaseToAcquire.getPartitionId());
+
+            // Leave the lease to the host it belongs to.
+            if (this.affinity != null && !this.affinity.shouldAcquire(storedLease, this.clock.millis())) {
+                LOG.debug("partition {} is preferred by {}. skipping acquire", leaseToAcquire.getPartitionId(),
+                    this.affinity.preferredOwner(leaseToAcquire.getPartitionId()));
+                trace(LeaseTraceEvent.Type.SKIP, start, read, leaseToAcquire, storedLease, false,
+                    "preferred by another host");
+                return false;
+            }
 
-        // If we already own this lease and it is not expired, then don't re-acquire it
-        if (storedLease.isOwnedBy(this.options.getProcessorHostname()) && !storedLease.isExpired()) {
-            LOG.debug("lease already owned. skipping acquire for partition {}", leaseToAcquire.getPartitionId());
-            return CompletableFuture.completedFuture(false);
-        }
+            // If we already own this lease and it is not expired, then don't re-acquire it
+            if (storedLease.isOwnedBy(this.options.getProcessorHostname()) && !isExpired(storedLease)) {
+                LOG.debug("lease already owned. skipping acquire for partition {}", leaseToAcquire.getPartitionId());
+                trace(LeaseTraceEvent.Type.SKIP, start, read, leaseToAcquire, storedLease, false, "already owned");
+                return false;
+            }
 
-        // If this lease is not already owned by us, then increment the epoch because we are claiming it.
-        // We only increment the epoch on first acquisition, or else it seems to breaks the event hub processor host.
-        if (!storedLease.isOwnedBy(this.options.getProcessorHostname())) {
-            LOG.debug("incrementing epoch for lease for partition {}", leaseToAcquire.getPartitionId());
-            leaseToAcquire.incrementEpoch();
-        }
+            // If this lease is not already owned by us, then increment the epoch because we are claiming it.
+            // We only increment the epoch on first acquisition, or else it seems to breaks the event hub processor
+            // host.
+            if (!storedLease.isOwnedBy(this.options.getProcessorHostname())) {
+                LOG.debug("incrementing epoch for lease for partition {}", leaseToAcquire.getPartitionId());
+                leaseToAcquire.incrementEpoch();
+            }
 
-        leaseToAcquire.setOwner(this.options.getProcessorHostname());
-        leaseToAcquire.setIsOwned(true);
-        leaseToAcquire.setExpireMillis(Instant.now().toEpochMilli() + getLeaseDurationInMilliseconds());
-        this.store.setLease(leaseToAcquire);
+            leaseToAcquire.setOwner(this.options.getProcessorHostname());
+            leaseToAcquire.setIsOwned(true);
+            leaseToAcquire.setExpireMillis(this.clock.millis() + getLeaseDurationInMilliseconds());
+
+            // When the decision was made from a snapshot, only write the lease if nobody else has changed it since.
+            if (snapshotLease == null) {
+                this.store.setLease(leaseToAcquire);
+            } else if (this.store.compareAndSetLease(snapshotLease, leaseToAcquire)) {
+                snapshot.leaseWritten(leaseToAcquire);
+            } else {
+                LOG.debug("lease changed since snapshot. skipping acquire for partition {}",
+                    leaseToAcquire.getPartitionId());
+                snapshot.invalidate(leaseToAcquire.getPartitionId());
+                trace(LeaseTraceEvent.Type.SKIP, start, read, leaseToAcquire, storedLease, false,
+                    "changed since snapshot");
+                return false;
+            }
 
-        return CompletableFuture.completedFuture(true);
+            // Checking for a steal may ask the host registry, so only do it when the acquire is traced.
+            if (this.tracer != null) {
+                trace(LeaseTraceEvent.Type.ACQUIRE, start, read, leaseToAcquire, storedLease, true,
+                    hasLeaseBeenStolen(storedLease) ? "stolen" : "acquired");
+            }
+            return true;
+        });
     }
 
     @Override
     public CompletableFuture<Boolean> renewLease(CompleteLease lease) {
-        RedisLease leaseToRenew = (RedisLease) lease;
-        RedisLease storedLease = (RedisLease) this.store.getLease(leaseToRenew.getPartitionId());
-
-        LOG.debug("renewing lease for partition {}", leaseToRenew.getPartitionId());
-        if (hasLeaseBeenStolen(storedLease)) {
-            LOG.debug("lease stolen. skipping renew for partition {}", leaseToRenew.getPartitionId());
-            // Don't renew the lease because another may have host claimed it.
-            return CompletableFuture.completedFuture(false);
-        }
+        return supply(() -> {
+            long start = startTimer();
+            RedisLease leaseToRenew = (RedisLease) lease;
+            RedisLease storedLease = (RedisLease) this.store.getLease(leaseToRenew.getPartitionId());
+            long read = elapsedSince(start);
+
+            LOG.debug("renewing lease for partition {}", leaseToRenew.getPartitionId());
+            if (hasLeaseBeenStolen(storedLease)) {
+                LOG.debug("lease stolen. skipping renew for partition {}", leaseToRenew.getPartitionId());
+                discardCheckpoint(leaseToRenew.getPartitionId());
+                // Don't renew the lease because another may have host claimed it.
+                trace(LeaseTraceEvent.Type.STEAL_DETECTED, start, read, leaseToRenew, storedLease, false, "renew");
+                return false;
+            }
 
-        // If the stored release has no owner, then most likely it has been released, so don't renew it.
-        // (i.e. return false)
-        if (storedLease.getOwner().trim().isEmpty()) {
-            LOG.debug("lease released. skipping renew for partition {}", leaseToRenew.getPartitionId());
-            return CompletableFuture.completedFuture(false);
-        }
+            // If the stored release has no owner, then most likely it has been released, so don't renew it.
+            // (i.e. return false)
+            if (storedLease.getOwner().trim().isEmpty()) {
+                LOG.debug("lease released. skipping renew for partition {}", leaseToRenew.getPartitionId());
+                discardCheckpoint(leaseToRenew.getPartitionId());
+                trace(LeaseTraceEvent.Type.SKIP, start, read, leaseToRenew, storedLease, false, "released");
+                return false;
+            }
 
-        // Update the expiry on renewal
-        leaseToRenew.setExpireMillis(Instant.now().toEpochMilli() + getLeaseDurationInMilliseconds());
-        this.store.setLease(leaseToRenew);
+            // Hand the lease over to the host it belongs to. EPH closes the partition when the renew fails.
+            if (this.affinity != null && this.affinity.shouldRelease(leaseToRenew.getPartitionId())) {
+                LOG.debug("releasing lease for partition {} to {}", leaseToRenew.getPartitionId(),
+                    this.affinity.preferredOwner(leaseToRenew.getPartitionId()));
+                flushCheckpoint(leaseToRenew.getPartitionId());
+                leaseToRenew.setOwner("");
+                leaseToRenew.setIsOwned(false);
+                leaseToRenew.setExpireMillis(this.clock.millis());
+                this.store.setLease(leaseToRenew);
+                invalidateSnapshotLease(leaseToRenew.getPartitionId());
+                trace(LeaseTraceEvent.Type.RELEASE, start, read, leaseToRenew, storedLease, false,
+                    "released to preferred host");
+                return false;
+            }
+
+            // Update the expiry on renewal
+            leaseToRenew.setExpireMillis(this.clock.millis() + getLeaseDurationInMilliseconds());
+            this.store.setLease(leaseToRenew);
+            invalidateSnapshotLease(leaseToRenew.getPartitionId());
+            if (this.leaseDuration != null) {
+                this.leaseDuration.record(TimeUnit.NANOSECONDS.toMillis(elapsedSince(start)));
+            }
+            trace(LeaseTraceEvent.Type.RENEW, start, read, leaseToRenew, storedLease, true, "renewed");
 
-        return CompletableFuture.completedFuture(true);
+            return true;
+        });
     }
 
     @Override
     public CompletableFuture<Void> releaseLease(CompleteLease lease) {
         LOG.debug("releasing lease for partition {}", lease.getPartitionId());
 
-        // No need to do anything here. The old lease will expire and eventually get picked up again by a new host.
+        // No need to do anything else here. The old lease will expire and eventually get picked up again by a new host.
+        if (this.checkpointPolicy != null) {
+            return supply(() -> {
+                flushCheckpoint(lease.getPartitionId());
+                return null;
+            });
+        }
+
+        this.partitionStates.remove(lease.getPartitionId());
+
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public CompletableFuture<Boolean> updateLease(CompleteLease lease) {
-        RedisLease leaseToUpdate = (RedisLease) lease;
-        RedisLease storedLease = (RedisLease) this.store.getLease(leaseToUpdate.getPartitionId());
+        return supply(() -> {
+            long start = startTimer();
+            RedisLease leaseToUpdate = (RedisLease) lease;
+            RedisLease storedLease = (RedisLease) this.store.getLease(leaseToUpdate.getPartitionId());
+            long read = elapsedSince(start);
+
+            LOG.debug("updating lease for partition {}", leaseToUpdate.getPartitionId());
+            if (hasLeaseBeenStolen(storedLease)) {
+                LOG.debug("lease stolen. skipping update for partition {}", leaseToUpdate.getPartitionId());
+                trace(LeaseTraceEvent.Type.STEAL_DETECTED, start, read, leaseToUpdate, storedLease, false, "update");
+
+                // Don't update the lease because another host may have claimed it.
+                return false;
+            }
+
+            this.store.setLease(new CompleteLease(leaseToUpdate));
+            invalidateSnapshotLease(leaseToUpdate.getPartitionId());
+            trace(LeaseTraceEvent.Type.UPDATE, start, read, leaseToUpdate, storedLease, true, "updated");
+
+            return true;
+        });
+    }
+
+    /**
+     * Set the application state of a partition, like a dedup watermark or an aggregate. The state is written with
+     * every following checkpoint of the partition, in the same atomic step, so the host that takes the partition over
+     * gets back the state that goes with the offset it starts from. Set it before calling checkpoint on the
+     * partition context. See {@link RedisCheckpointOptions#isPartitionStateEnabled()}.
+     * @param partitionId The partition id
+     * @param state The state, or null to stop writing a state with the checkpoints
+     * @throws IllegalStateException If partition state is not enabled
+     * @throws IllegalArgumentException If the state is larger than the maximum partition state size
+     */
+    public void setPartitionState(String partitionId, byte[] state) {
+        if (this.options == null || !this.options.isPartitionStateEnabled()) {
+            throw new IllegalStateException("Partition state is not enabled");
+        }
+        if (state == null) {
+            this.partitionStates.remove(partitionId);
+            return;
+        }
+        if (state.length > this.options.getMaxPartitionStateBytes()) {
+            throw new IllegalArgumentException("The state of partition " + partitionId + " is " + state.length
+                + " bytes, which is more than the limit of " + this.options.getMaxPartitionStateBytes());
+        }
+
+        this.partitionStates.put(partitionId, state);
+    }
+
+    /**
+     * Get the application state written with the last checkpoint of a partition, for a host that has just taken the
+     * partition over. See {@link #setPartitionState(String, byte[])}.
+     * @param partitionId The partition id
+     * @return The state, or null if the partition has none
+     */
+    public CompletableFuture<byte[]> getPartitionState(String partitionId) {
+        return supply(() -> {
+            Checkpoint pending = this.checkpointPolicy == null ? null : this.checkpointPolicy.getPending(partitionId);
+            if (pending instanceof StatefulCheckpoint) {
+                return ((StatefulCheckpoint) pending).getState();
+            }
+
+            return this.store.getPartitionState(partitionId);
+        });
+    }
+
+    /**
+     * Rewind the checkpoints of all partitions to the last checkpoint written before a point in time, using the
+     * checkpoint history. All checkpoints are changed in one atomic write. Partitions without any history before
+     * that time keep their current checkpoint. Stop the event processors before rewinding, or their next checkpoint
+     * will overwrite the rewound one. See {@link RedisCheckpointOptions#isCheckpointHistoryEnabled()}.
+     * @param timestamp The point in time to rewind to
+     * @return A map of partition id to the rewound checkpoints
+     */
+    public Map<String, Checkpoint> rewindCheckpoints(Instant timestamp) {
+        LOG.debug("rewinding checkpoints to {}", timestamp);
+        return this.store.rewindCheckpoints(timestamp);
+    }
+
+    /**
+     * Switch over to the secondary Redis, for when the primary is lost. Everything written to the primary that has
+     * not been copied to the secondary yet is copied first, and checkpoints on the secondary only go back to an
+     * older one when they were rewound or reset on the primary. From then on all reads and writes go to the
+     * secondary. Every host has to be switched over. See {@link RedisCheckpointOptions#getSecondaryHostname()}.
+     * @throws IllegalStateException If no secondary Redis is configured
+     */
+    public void promoteSecondary() {
+        LOG.debug("promoting secondary checkpoint store");
+        this.store.promoteSecondary();
+    }
+
+    /**
+     * Get how far the secondary Redis is behind the primary. See {@link RedisCheckpointOptions#getSecondaryHostname()}.
+     * @return A {@link ReplicationStats} object, or null if no secondary Redis is configured
+     */
+    public ReplicationStats getReplicationStats() {
+        return this.store.getReplicationStats();
+    }
+
+    /**
+     * Get the most recent lease decisions made by this host. See {@link RedisCheckpointOptions#isLeaseTraceEnabled()}.
+     * @return A list of {@link LeaseTraceEvent}, oldest first. Empty if lease tracing is not enabled
+     */
+    public List<LeaseTraceEvent> getLeaseTrace() {
+        return this.tracer == null ? Collections.emptyList() : this.tracer.dump();
+    }
+
+    /**
+     * Export the most recent lease decisions made by this host in the Chrome trace event format, which can be opened
+     * in chrome://tracing or Perfetto. See {@link RedisCheckpointOptions#isLeaseTraceEnabled()}.
+     * @return A JSON string
+     */
+    public String exportLeaseTrace() {
+        return LeaseTracer.toChromeTrace(getLeaseTrace(),
+            this.options == null ? "" : this.options.getProcessorHostname());
+    }
+
+    /**
+     * Get how far the checkpoint persisted in Redis for each partition is behind the last checkpoint set on this
+     * host. This is how much would be processed again if the partition moved to another host. Reading it does not
+     * take any locks, so it can be sampled often.
+     * @return A list of {@link CheckpointLagStats}, one for each partition checkpoints have been set or read for
+     */
+    public List<CheckpointLagStats> getCheckpointLagStats() {
+        return this.store.getCheckpointLagStats();
+    }
+
+    /**
+     * Get the hit and miss counts of the checkpoint near cache.
+     * See {@link RedisCheckpointOptions#isNearCacheEnabled()}.
+     * @return A {@link NearCacheStats} object, or null if the near cache is not enabled
+     */
+    public NearCacheStats getCheckpointCacheStats() {
+        return this.store.getCheckpointCacheStats();
+    }
+
+    /**
+     * Get the hit and miss counts of the lease near cache.
+     * See {@link RedisCheckpointOptions#isNearCacheEnabled()}.
+     * @return A {@link NearCacheStats} object, or null if the near cache is not enabled
+     */
+    public NearCacheStats getLeaseCacheStats() {
+        return this.store.getLeaseCacheStats();
+    }
 
-        LOG.debug("updating lease for partition {}", leaseToUpdate.getPartitionId());
-        if (hasLeaseBeenStolen(storedLease)) {
-            LOG.debug("lease stolen. skipping update for partition {}", leaseToUpdate.getPartitionId());
+    // Creates all leases and checkpoints and reads them all back in one go, so the reads EPH makes right after
+    // starting up do not each need a round trip.
+    private void bootstrap(List<String> partitionIds) {
+        LOG.debug("bootstrapping {} partitions", partitionIds.size());
+        StoreBootstrap result = this.store.bootstrap(partitionIds, this.options.getInitialCheckpointOffset(),
+            this.clock);
+
+        this.bootstrapCheckpoints.putAll(result.getCheckpoints());
+        this.bootstrapLeases.set(result.getLeases());
+        this.bootstrappedPartitions = new HashSet<>(partitionIds);
+        this.bootstrappedAtMillis = result.getTakenAtMillis();
+    }
 
-            // Don't update the lease because another host may have claimed it.
-            return CompletableFuture.completedFuture(false);
+    // Returns the leases read by the bootstrap the first time it is called, if they are still recent enough.
+    private List<BaseLease> takeBootstrapLeases() {
+        List<BaseLease> leases = this.bootstrapLeases.getAndSet(null);
+        return leases != null && isBootstrapFresh() ? leases : null;
+    }
+
+    // The bootstrap is used for as long as a lease snapshot would be.
+    private boolean isBootstrapFresh() {
+        return this.clock.millis() - this.bootstrappedAtMillis
+            <= this.options.getLeaseSnapshotMaxAgeInMillis();
+    }
+
+    // Reading the clock is skipped when nothing uses the timings, so tracing costs nothing when it is not used.
+    private long startTimer() {
+        return this.tracer == null && this.leaseDuration == null ? 0 : System.nanoTime();
+    }
+
+    private long elapsedSince(long startNanos) {
+        return this.tracer == null && this.leaseDuration == null ? 0 : System.nanoTime() - startNanos;
+    }
+
+    private void trace(LeaseTraceEvent.Type type, long startNanos, long readNanos, RedisLease requested,
+                       RedisLease stored, boolean result, String detail) {
+        if (this.tracer != null) {
+            this.tracer.record(type, startNanos, readNanos, requested, stored, result, detail);
         }
+    }
 
-        this.store.setLease(new CompleteLease(leaseToUpdate));
+    // Runs a store call on the store executor, or right away on the calling thread when there is none.
+    private <T> CompletableFuture<T> supply(Supplier<T> call) {
+        Executor storeExecutor = this.executor;
+        if (storeExecutor == null) {
+            return CompletableFuture.completedFuture(call.get());
+        }
 
-        return CompletableFuture.completedFuture(true);
+        try {
+            return CompletableFuture.supplyAsync(call, storeExecutor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    // The built in executor is shut down with the store, and a new one is created when the store is used again.
+    // An executor set in the options belongs to the application and is left alone.
+    private synchronized void restartExecutor() {
+        if (this.executor instanceof ExecutorService && ((ExecutorService) this.executor).isShutdown()
+            && this.options.getStoreExecutor() == null) {
+            this.executor = createExecutor(this.options);
+        }
+    }
+
+    private synchronized void shutdownExecutor() {
+        if (this.executor instanceof ExecutorService && this.options.getStoreExecutor() == null) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+
+    private static Executor createExecutor(RedisCheckpointOptions options) {
+        if (options == null || !options.isAsyncStoreOperations()) {
+            return null;
+        }
+        if (options.getStoreExecutor() != null) {
+            return options.getStoreExecutor();
+        }
+
+        return StoreExecutors.newExecutor(options.getStoreThreadPoolSize());
+    }
+
+    private boolean isExpired(RedisLease lease) {
+        return this.clock.millis() >= lease.getExpireMillis();
+    }
+
+    // Check if the owner of a lease is known to be dead because its heartbeat ran out.
+    private boolean isOwnerDead(RedisLease lease) {
+        HostRegistry registry = this.hostRegistry;
+
+        return registry != null
+            && !lease.getOwner().trim().isEmpty()
+            && !lease.isOwnedBy(this.options.getProcessorHostname())
+            && registry.isDead(lease.getOwner(), this.clock.millis());
+    }
+
+    // Writes a partition's checkpoint the policy has not written yet, before its lease moves to another host. The
+    // partition's state goes with the lease, the next host reads it from the store. Only called while this host still
+    // owns the lease.
+    private void flushCheckpoint(String partitionId) {
+        if (this.checkpointPolicy != null) {
+            this.checkpointPolicy.flush(partitionId);
+        }
+        this.partitionStates.remove(partitionId);
+    }
+
+    // Drops a partition's checkpoint the policy has not written yet, once its lease has been lost. The host that owns
+    // the lease now may already have checkpointed further, and writing would move its checkpoint back.
+    private void discardCheckpoint(String partitionId) {
+        if (this.checkpointPolicy != null) {
+            this.checkpointPolicy.discard(partitionId);
+        }
+        this.partitionStates.remove(partitionId);
+    }
+
+    // Reads the lease from the store, since it may have moved to another host since this host last renewed it.
+    private boolean ownsStoredLease(String partitionId) {
+        CompleteLease lease = this.store.getLease(partitionId);
+        return lease != null && lease.isOwnedBy(this.options.getProcessorHostname());
+    }
+
+    private void closeCheckpointPolicy() {
+        if (this.checkpointPolicy != null) {
+            this.checkpointPolicy.close();
+        }
+    }
+
+    private void stopSweeper() {
+        OrphanSweeper current = this.sweeper;
+
+        if (current != null) {
+            this.sweeper = null;
+            current.close();
+        }
+    }
+
+    private void stopHeartbeats() {
+        HostRegistry registry = this.hostRegistry;
+
+        if (registry != null) {
+            this.hostRegistry = null;
+            registry.close();
+        }
+    }
+
+    // Returns the last lease snapshot if snapshots are enabled and it is recent enough to use. null otherwise.
+    private LeaseSnapshot getFreshLeaseSnapshot() {
+        LeaseSnapshot snapshot = this.leaseSnapshot;
+
+        if (snapshot == null
+            || !snapshot.isFresh(this.clock.millis(), this.options.getLeaseSnapshotMaxAgeInMillis())) {
+            return null;
+        }
+
+        return snapshot;
+    }
+
+    private void invalidateSnapshotLease(String partitionId) {
+        LeaseSnapshot snapshot = this.leaseSnapshot;
+
+        if (snapshot != null) {
+            snapshot.invalidate(partitionId);
+        }
     }
 
     // Check if a lease has been stolen.
@@ -263,8 +817,8 @@ public class RedisCheckpointLeaseManager implements ICheckpointManager, ILeaseMa
             return false;
         }
 
-        // If the lease in store is not expired, then another host owns it or has stolen it.
-        return !leaseInStore.isExpired();
+        // If the lease in store is not expired, then another host owns it or has stolen it. Unless that host is dead.
+        return !isExpired(leaseInStore) && !isOwnerDead(leaseInStore);
     }
 }
 
@@ -1,5 +1,8 @@
 package com.github.davesters;
 
+import java.time.Clock;
+import java.util.concurrent.Executor;
+
 /**
  * The options object that is optionally passed into the RedisCheckpointLeaseManager constructor.
  */
@@ -17,6 +20,61 @@ public class RedisCheckpointOptions {
     private String checkpointKeyName;
     private boolean batchCheckpointWrites;
     private long batchIntervalInMillis = 2000;
+    private boolean useLeaseSnapshot;
+    private long leaseSnapshotMaxAgeInMillis = 5000;
+    private boolean nearCacheEnabled;
+    private boolean nearCacheTracking;
+    private long nearCacheTtlInMillis = 1000;
+    private int operationTimeoutInMillis = 10000;
+    private int retryAttempts;
+    private long retryBackoffInMillis = 50;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenInMillis = 5000;
+    private String replicaHostname;
+    private int replicaPort = 6379;
+    private long hedgeDelayInMillis = 50;
+    private boolean checkpointHistoryEnabled;
+    private long checkpointHistoryMaxLength = 10000;
+    private boolean asyncStoreOperations;
+    private Executor storeExecutor;
+    private int storeThreadPoolSize = 16;
+    private boolean partitionAffinityEnabled;
+    private long partitionAffinityGracePeriodInMillis = 10000;
+    private int partitionAffinityMaxReleases = 1;
+    private boolean heartbeatEnabled;
+    private long heartbeatIntervalInMillis = 2000;
+    private long heartbeatTimeoutInMillis = 6000;
+    private int hashShardCount = 1;
+    private boolean bootstrapOnStartup;
+    private boolean checkpointAdmissionEnabled;
+    private long checkpointAdmissionThresholdInMillis = 50;
+    private int leasePoolSize;
+    private boolean jmxEnabled;
+    private boolean leaseTraceEnabled;
+    private int leaseTraceBufferSize = 4096;
+    private boolean autoPipelineEnabled;
+    private int autoPipelineThreads = 2;
+    private boolean adaptiveLeaseDurationEnabled;
+    private long leaseRenewIntervalInMillis = 10000;
+    private long minLeaseDurationInMillis = 15000;
+    private String secondaryHostname;
+    private int secondaryPort = 6379;
+    private long replicationIntervalInMillis = 1000;
+    private int replicationQueueSize = 10000;
+    private long autoCheckpointEventCount;
+    private long autoCheckpointIntervalInMillis;
+    private int adminOperationsPerSecond = 5000;
+    private boolean orphanSweepEnabled;
+    private long orphanSweepIntervalInMillis = 60000;
+    private int orphanSweepBatchSize = 100;
+    private long orphanRetentionInMillis = 604800000;
+    private long keyTtlInMillis;
+    private Clock clock;
+    private boolean partitionStateEnabled;
+    private int maxPartitionStateBytes = 65536;
+    private int partitionStateInlineBytes = 4096;
+    private int fileCheckpointMaxPartitions = 1024;
+    private boolean fileCheckpointSync;
 
     public RedisCheckpointOptions(String processorHostname, String redisHostname) {
         this.processorHostname = processorHostname;
@@ -239,4 +297,1088 @@ public class RedisCheckpointOptions {
     public void setBatchIntervalInMillis(long batchIntervalInMillis) {
         this.batchIntervalInMillis = batchIntervalInMillis;
     }
+
+    /**
+     * If the lease manager should keep the result of reading all leases as a snapshot, and use it for the lease
+     * lookups and acquisitions EPH makes right after. This saves a round trip to Redis per partition during
+     * rebalancing. Acquisitions made from the snapshot are checked against the stored lease with a compare-and-set,
+     * so a lease that changed since the snapshot was taken is never overwritten. Defaults to false.
+     * @return boolean
+     */
+    public boolean isUseLeaseSnapshot() {
+        return useLeaseSnapshot;
+    }
+
+    /**
+     * If the lease manager should keep the result of reading all leases as a snapshot, and use it for the lease
+     * lookups and acquisitions EPH makes right after. This saves a round trip to Redis per partition during
+     * rebalancing. Acquisitions made from the snapshot are checked against the stored lease with a compare-and-set,
+     * so a lease that changed since the snapshot was taken is never overwritten. Defaults to false.
+     * @param useLeaseSnapshot true to use lease snapshots, false otherwise.
+     */
+    public void setUseLeaseSnapshot(boolean useLeaseSnapshot) {
+        this.useLeaseSnapshot = useLeaseSnapshot;
+    }
+
+    /**
+     * How long a lease snapshot can be used after it was read. After this, leases are read from Redis again.
+     * Defaults to 5 seconds.
+     * @return long in milliseconds
+     */
+    public long getLeaseSnapshotMaxAgeInMillis() {
+        return leaseSnapshotMaxAgeInMillis;
+    }
+
+    /**
+     * How long a lease snapshot can be used after it was read. After this, leases are read from Redis again.
+     * Defaults to 5 seconds.
+     * @param leaseSnapshotMaxAgeInMillis max age in milliseconds
+     */
+    public void setLeaseSnapshotMaxAgeInMillis(long leaseSnapshotMaxAgeInMillis) {
+        this.leaseSnapshotMaxAgeInMillis = leaseSnapshotMaxAgeInMillis;
+    }
+
+    /**
+     * If checkpoints and leases read from Redis should be kept in a local cache. This is good for partition open
+     * storms after rebalancing, where many checkpoints are read at once. Redis 6 or newer can tell the cache when
+     * values change (see {@link #isNearCacheTracking()}). Defaults to false.
+     * @return boolean
+     */
+    public boolean isNearCacheEnabled() {
+        return nearCacheEnabled;
+    }
+
+    /**
+     * If checkpoints and leases read from Redis should be kept in a local cache. This is good for partition open
+     * storms after rebalancing, where many checkpoints are read at once. Redis 6 or newer can tell the cache when
+     * values change (see {@link #isNearCacheTracking()}). Defaults to false.
+     * @param nearCacheEnabled true to enable the near cache, false otherwise.
+     */
+    public void setNearCacheEnabled(boolean nearCacheEnabled) {
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    /**
+     * If the near cache should use Redis server-assisted client side caching to find out when cached values change.
+     * This needs Redis 6 or newer and uses two extra connections. If it is off, or the server does not support it,
+     * cached values expire after {@link #getNearCacheTtlInMillis()} instead. Redis tracks whole keys, so every
+     * checkpoint write drops every cached checkpoint, and every lease renewal drops every cached lease. Only turn
+     * this on if {@link RedisCheckpointLeaseManager#getCheckpointCacheStats()} shows a useful hit rate with it.
+     * Defaults to false.
+     * @return boolean
+     */
+    public boolean isNearCacheTracking() {
+        return nearCacheTracking;
+    }
+
+    /**
+     * If the near cache should use Redis server-assisted client side caching to find out when cached values change.
+     * This needs Redis 6 or newer and uses two extra connections. If it is off, or the server does not support it,
+     * cached values expire after {@link #getNearCacheTtlInMillis()} instead. Redis tracks whole keys, so every
+     * checkpoint write drops every cached checkpoint, and every lease renewal drops every cached lease. Only turn
+     * this on if {@link RedisCheckpointLeaseManager#getCheckpointCacheStats()} shows a useful hit rate with it.
+     * Defaults to false.
+     * @param nearCacheTracking true to use tracking, false to only use the TTL.
+     */
+    public void setNearCacheTracking(boolean nearCacheTracking) {
+        this.nearCacheTracking = nearCacheTracking;
+    }
+
+    /**
+     * How long values stay in the near cache when Redis is not tracking them for us. Keep this short, since
+     * another host may change a lease at any time. Defaults to 1 second.
+     * @return long in milliseconds
+     */
+    public long getNearCacheTtlInMillis() {
+        return nearCacheTtlInMillis;
+    }
+
+    /**
+     * How long values stay in the near cache when Redis is not tracking them for us. Keep this short, since
+     * another host may change a lease at any time. Defaults to 1 second.
+     * @param nearCacheTtlInMillis TTL in milliseconds
+     */
+    public void setNearCacheTtlInMillis(long nearCacheTtlInMillis) {
+        this.nearCacheTtlInMillis = nearCacheTtlInMillis;
+    }
+
+    /**
+     * The timeout of a single Redis command and of waiting for a free connection. It is also the retry budget of
+     * an operation: no retry is started after this much time has passed since the operation began. It is not a
+     * deadline for the whole operation, which can take up to {@link #getRetryAttempts()} + 1 times as long.
+     * Defaults to 10 seconds.
+     * @return int in milliseconds
+     */
+    public int getOperationTimeoutInMillis() {
+        return operationTimeoutInMillis;
+    }
+
+    /**
+     * The timeout of a single Redis command and of waiting for a free connection. It is also the retry budget of
+     * an operation: no retry is started after this much time has passed since the operation began. It is not a
+     * deadline for the whole operation, which can take up to {@link #getRetryAttempts()} + 1 times as long.
+     * Defaults to 10 seconds.
+     * @param operationTimeoutInMillis timeout length in milliseconds
+     */
+    public void setOperationTimeoutInMillis(int operationTimeoutInMillis) {
+        this.operationTimeoutInMillis = operationTimeoutInMillis;
+    }
+
+    /**
+     * How many times an operation that is safe to repeat is retried after a connection error. Retries wait a random,
+     * exponentially growing time starting at {@link #getRetryBackoffInMillis()}, and are not started once the
+     * operation timeout has passed. Defaults to 0 (no retries).
+     * @return int
+     */
+    public int getRetryAttempts() {
+        return retryAttempts;
+    }
+
+    /**
+     * How many times an operation that is safe to repeat is retried after a connection error. Retries wait a random,
+     * exponentially growing time starting at {@link #getRetryBackoffInMillis()}, and are not started once the
+     * operation timeout has passed. Defaults to 0 (no retries).
+     * @param retryAttempts the number of retries
+     */
+    public void setRetryAttempts(int retryAttempts) {
+        this.retryAttempts = retryAttempts;
+    }
+
+    /**
+     * The base wait time between retries. Defaults to 50 milliseconds.
+     * @return long in milliseconds
+     */
+    public long getRetryBackoffInMillis() {
+        return retryBackoffInMillis;
+    }
+
+    /**
+     * The base wait time between retries. Defaults to 50 milliseconds.
+     * @param retryBackoffInMillis wait time in milliseconds
+     */
+    public void setRetryBackoffInMillis(long retryBackoffInMillis) {
+        this.retryBackoffInMillis = retryBackoffInMillis;
+    }
+
+    /**
+     * How many Redis connection errors in a row open the circuit breaker. While it is open, operations fail fast
+     * instead of waiting on Redis, and checkpoints are kept locally and written in a batch once Redis is back.
+     * Defaults to 0 (no circuit breaker).
+     * @return int
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * How many Redis connection errors in a row open the circuit breaker. While it is open, operations fail fast
+     * instead of waiting on Redis, and checkpoints are kept locally and written in a batch once Redis is back.
+     * Defaults to 0 (no circuit breaker).
+     * @param circuitBreakerFailureThreshold the number of failures
+     */
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * How long the circuit breaker stays open before trying Redis again. Defaults to 5 seconds.
+     * @return long in milliseconds
+     */
+    public long getCircuitBreakerOpenInMillis() {
+        return circuitBreakerOpenInMillis;
+    }
+
+    /**
+     * How long the circuit breaker stays open before trying Redis again. Defaults to 5 seconds.
+     * @param circuitBreakerOpenInMillis open time in milliseconds
+     */
+    public void setCircuitBreakerOpenInMillis(long circuitBreakerOpenInMillis) {
+        this.circuitBreakerOpenInMillis = circuitBreakerOpenInMillis;
+    }
+
+    /**
+     * The host name of a Redis replica of the main database. When set, lease reads for EPH that take longer than
+     * {@link #getHedgeDelayInMillis()} are also sent to the replica, and the first answer wins. The replica may be
+     * slightly behind, so it is never used for the reads that decide whether a lease can be written.
+     * Defaults to null (no replica).
+     * @return string
+     */
+    public String getReplicaHostname() {
+        return replicaHostname;
+    }
+
+    /**
+     * The host name of a Redis replica of the main database. When set, lease reads for EPH that take longer than
+     * {@link #getHedgeDelayInMillis()} are also sent to the replica, and the first answer wins. The replica may be
+     * slightly behind, so it is never used for the reads that decide whether a lease can be written.
+     * Defaults to null (no replica).
+     * @param replicaHostname Redis replica hostname
+     */
+    public void setReplicaHostname(String replicaHostname) {
+        this.replicaHostname = replicaHostname;
+    }
+
+    /**
+     * The port of the Redis replica. Defaults to 6379.
+     * @return int
+     */
+    public int getReplicaPort() {
+        return replicaPort;
+    }
+
+    /**
+     * The port of the Redis replica. Defaults to 6379.
+     * @param replicaPort The Redis replica port.
+     */
+    public void setReplicaPort(int replicaPort) {
+        this.replicaPort = replicaPort;
+    }
+
+    /**
+     * How long to wait for the main database before also sending a lease read to the replica.
+     * Defaults to 50 milliseconds.
+     * @return long in milliseconds
+     */
+    public long getHedgeDelayInMillis() {
+        return hedgeDelayInMillis;
+    }
+
+    /**
+     * How long to wait for the main database before also sending a lease read to the replica.
+     * Defaults to 50 milliseconds.
+     * @param hedgeDelayInMillis delay in milliseconds
+     */
+    public void setHedgeDelayInMillis(long hedgeDelayInMillis) {
+        this.hedgeDelayInMillis = hedgeDelayInMillis;
+    }
+
+    /**
+     * If every checkpoint write should also be appended to a Redis stream, keeping a history of checkpoints for
+     * the consumer group. The history can be used to rewind all checkpoints to a point in time with
+     * {@link RedisCheckpointLeaseManager#rewindCheckpoints(java.time.Instant)}. The history entry is written in the
+     * same round trip as the checkpoints. Defaults to false.
+     * @return boolean
+     */
+    public boolean isCheckpointHistoryEnabled() {
+        return checkpointHistoryEnabled;
+    }
+
+    /**
+     * If every checkpoint write should also be appended to a Redis stream, keeping a history of checkpoints for
+     * the consumer group. The history can be used to rewind all checkpoints to a point in time with
+     * {@link RedisCheckpointLeaseManager#rewindCheckpoints(java.time.Instant)}. The history entry is written in the
+     * same round trip as the checkpoints. Defaults to false.
+     * @param checkpointHistoryEnabled true to keep a checkpoint history, false otherwise
+     */
+    public void setCheckpointHistoryEnabled(boolean checkpointHistoryEnabled) {
+        this.checkpointHistoryEnabled = checkpointHistoryEnabled;
+    }
+
+    /**
+     * The number of entries to keep in the checkpoint history. Older entries are trimmed. Trimming is approximate,
+     * so Redis may keep a few more entries than this. With batched writes there is one entry per batch, otherwise
+     * one per checkpoint. Defaults to 10000.
+     * @return long
+     */
+    public long getCheckpointHistoryMaxLength() {
+        return checkpointHistoryMaxLength;
+    }
+
+    /**
+     * The number of entries to keep in the checkpoint history. Older entries are trimmed. Trimming is approximate,
+     * so Redis may keep a few more entries than this. With batched writes there is one entry per batch, otherwise
+     * one per checkpoint. Defaults to 10000.
+     * @param checkpointHistoryMaxLength the number of history entries to keep
+     */
+    public void setCheckpointHistoryMaxLength(long checkpointHistoryMaxLength) {
+        this.checkpointHistoryMaxLength = checkpointHistoryMaxLength;
+    }
+
+    /**
+     * If the lease manager should run its Redis calls on a separate executor, instead of on the EPH thread that
+     * called it. The returned futures then complete asynchronously, so slow Redis calls do not hold up the EPH
+     * threads. Unless {@link #getStoreExecutor()} is set, virtual threads are used on Java 21 and later, and a pool
+     * of {@link #getStoreThreadPoolSize()} threads on older versions. Defaults to false.
+     * @return boolean
+     */
+    public boolean isAsyncStoreOperations() {
+        return asyncStoreOperations;
+    }
+
+    /**
+     * If the lease manager should run its Redis calls on a separate executor, instead of on the EPH thread that
+     * called it. The returned futures then complete asynchronously, so slow Redis calls do not hold up the EPH
+     * threads. Unless {@link #getStoreExecutor()} is set, virtual threads are used on Java 21 and later, and a pool
+     * of {@link #getStoreThreadPoolSize()} threads on older versions. Defaults to false.
+     * @param asyncStoreOperations true to run Redis calls on a separate executor, false otherwise
+     */
+    public void setAsyncStoreOperations(boolean asyncStoreOperations) {
+        this.asyncStoreOperations = asyncStoreOperations;
+    }
+
+    /**
+     * The executor to run Redis calls on when {@link #isAsyncStoreOperations()} is true. The lease manager does not
+     * shut it down. Defaults to null (use the built in executor).
+     * @return Executor
+     */
+    public Executor getStoreExecutor() {
+        return storeExecutor;
+    }
+
+    /**
+     * The executor to run Redis calls on when {@link #isAsyncStoreOperations()} is true. The lease manager does not
+     * shut it down. Defaults to null (use the built in executor).
+     * @param storeExecutor the executor to run Redis calls on
+     */
+    public void setStoreExecutor(Executor storeExecutor) {
+        this.storeExecutor = storeExecutor;
+    }
+
+    /**
+     * The maximum number of threads running Redis calls when {@link #isAsyncStoreOperations()} is true and the
+     * built in executor is used on a Java version without virtual threads. Defaults to 16.
+     * @return int
+     */
+    public int getStoreThreadPoolSize() {
+        return storeThreadPoolSize;
+    }
+
+    /**
+     * The maximum number of threads running Redis calls when {@link #isAsyncStoreOperations()} is true and the
+     * built in executor is used on a Java version without virtual threads. Defaults to 16.
+     * @param storeThreadPoolSize the maximum number of threads
+     */
+    public void setStoreThreadPoolSize(int storeThreadPoolSize) {
+        this.storeThreadPoolSize = storeThreadPoolSize;
+    }
+
+    /**
+     * If partitions should stick to a preferred host, so fewer partitions move between hosts when hosts are added or
+     * removed. Every partition is assigned a preferred host from the hosts that currently own leases, using
+     * rendezvous hashing. A host does not steal leases preferred by another host, leaves free leases preferred by
+     * another host to that host for {@link #getPartitionAffinityGracePeriodInMillis()}, and gradually releases the
+     * leases it owns that are preferred by another host. Defaults to false.
+     * @return boolean
+     */
+    public boolean isPartitionAffinityEnabled() {
+        return partitionAffinityEnabled;
+    }
+
+    /**
+     * If partitions should stick to a preferred host, so fewer partitions move between hosts when hosts are added or
+     * removed. Every partition is assigned a preferred host from the hosts that currently own leases, using
+     * rendezvous hashing. A host does not steal leases preferred by another host, leaves free leases preferred by
+     * another host to that host for {@link #getPartitionAffinityGracePeriodInMillis()}, and gradually releases the
+     * leases it owns that are preferred by another host. Defaults to false.
+     * @param partitionAffinityEnabled true to keep partitions with their preferred host, false otherwise
+     */
+    public void setPartitionAffinityEnabled(boolean partitionAffinityEnabled) {
+        this.partitionAffinityEnabled = partitionAffinityEnabled;
+    }
+
+    /**
+     * How long a free lease is left for its preferred host before any other host may acquire it, when partition
+     * affinity is enabled. Counted from the time the lease expired. Defaults to 10 seconds.
+     * @return long in milliseconds
+     */
+    public long getPartitionAffinityGracePeriodInMillis() {
+        return partitionAffinityGracePeriodInMillis;
+    }
+
+    /**
+     * How long a free lease is left for its preferred host before any other host may acquire it, when partition
+     * affinity is enabled. Counted from the time the lease expired. Defaults to 10 seconds.
+     * @param partitionAffinityGracePeriodInMillis grace period in milliseconds
+     */
+    public void setPartitionAffinityGracePeriodInMillis(long partitionAffinityGracePeriodInMillis) {
+        this.partitionAffinityGracePeriodInMillis = partitionAffinityGracePeriodInMillis;
+    }
+
+    /**
+     * How many leases preferred by another host this host releases between two reads of all leases, when partition
+     * affinity is enabled. Keeping this low moves partitions over gradually. Defaults to 1.
+     * @return int
+     */
+    public int getPartitionAffinityMaxReleases() {
+        return partitionAffinityMaxReleases;
+    }
+
+    /**
+     * How many leases preferred by another host this host releases between two reads of all leases, when partition
+     * affinity is enabled. Keeping this low moves partitions over gradually. Defaults to 1.
+     * @param partitionAffinityMaxReleases the number of leases to release
+     */
+    public void setPartitionAffinityMaxReleases(int partitionAffinityMaxReleases) {
+        this.partitionAffinityMaxReleases = partitionAffinityMaxReleases;
+    }
+
+    /**
+     * If this host should send heartbeats, and treat the leases of hosts whose heartbeats have run out as expired.
+     * When a host crashes, its partitions are then picked up after {@link #getHeartbeatTimeoutInMillis()}, instead of
+     * after the lease duration. Hosts that never sent a heartbeat fall back to the lease expiry. Defaults to false.
+     * @return boolean
+     */
+    public boolean isHeartbeatEnabled() {
+        return heartbeatEnabled;
+    }
+
+    /**
+     * If this host should send heartbeats, and treat the leases of hosts whose heartbeats have run out as expired.
+     * When a host crashes, its partitions are then picked up after {@link #getHeartbeatTimeoutInMillis()}, instead of
+     * after the lease duration. Hosts that never sent a heartbeat fall back to the lease expiry. Defaults to false.
+     * @param heartbeatEnabled true to send heartbeats, false otherwise
+     */
+    public void setHeartbeatEnabled(boolean heartbeatEnabled) {
+        this.heartbeatEnabled = heartbeatEnabled;
+    }
+
+    /**
+     * How often this host sends a heartbeat. Defaults to 2 seconds.
+     * @return long in milliseconds
+     */
+    public long getHeartbeatIntervalInMillis() {
+        return heartbeatIntervalInMillis;
+    }
+
+    /**
+     * How often this host sends a heartbeat. Defaults to 2 seconds.
+     * @param heartbeatIntervalInMillis heartbeat interval in milliseconds
+     */
+    public void setHeartbeatIntervalInMillis(long heartbeatIntervalInMillis) {
+        this.heartbeatIntervalInMillis = heartbeatIntervalInMillis;
+    }
+
+    /**
+     * How long after its last heartbeat a host is considered dead. This should be a few times the heartbeat
+     * interval, so a single slow heartbeat does not mark a host as dead. Defaults to 6 seconds.
+     * @return long in milliseconds
+     */
+    public long getHeartbeatTimeoutInMillis() {
+        return heartbeatTimeoutInMillis;
+    }
+
+    /**
+     * How long after its last heartbeat a host is considered dead. This should be a few times the heartbeat
+     * interval, so a single slow heartbeat does not mark a host as dead. Defaults to 6 seconds.
+     * @param heartbeatTimeoutInMillis heartbeat timeout in milliseconds
+     */
+    public void setHeartbeatTimeoutInMillis(long heartbeatTimeoutInMillis) {
+        this.heartbeatTimeoutInMillis = heartbeatTimeoutInMillis;
+    }
+
+    /**
+     * The number of hashes the checkpoints and leases are each split into. With thousands of partitions, a single
+     * hash gets large, and every read of all checkpoints or leases returns all of it. Split into shards, each hash
+     * stays small enough for Redis to store it compactly, and the shards are read together in one transaction.
+     * Shards are stored under the key name followed by a colon and the shard number. When set above 1, checkpoints
+     * and leases in the unsharded hashes are moved into the shards on connect. All hosts of a consumer group must
+     * use the same number, so stop every host before changing it; a rolling upgrade would leave old hosts owning
+     * partitions in the unsharded hash that the new hosts cannot see. If the unsharded hash shows up again after the
+     * move, hosts with sharding refuse to read all leases or checkpoints until they are restarted. Changing it from
+     * one number above 1 to another is not supported. Defaults to 1 (not sharded).
+     * @return int
+     */
+    public int getHashShardCount() {
+        return hashShardCount;
+    }
+
+    /**
+     * The number of hashes the checkpoints and leases are each split into. With thousands of partitions, a single
+     * hash gets large, and every read of all checkpoints or leases returns all of it. Split into shards, each hash
+     * stays small enough for Redis to store it compactly, and the shards are read together in one transaction.
+     * Shards are stored under the key name followed by a colon and the shard number. When set above 1, checkpoints
+     * and leases in the unsharded hashes are moved into the shards on connect. All hosts of a consumer group must
+     * use the same number, so stop every host before changing it; a rolling upgrade would leave old hosts owning
+     * partitions in the unsharded hash that the new hosts cannot see. If the unsharded hash shows up again after the
+     * move, hosts with sharding refuse to read all leases or checkpoints until they are restarted. Changing it from
+     * one number above 1 to another is not supported. Defaults to 1 (not sharded).
+     * @param hashShardCount the number of shards
+     */
+    public void setHashShardCount(int hashShardCount) {
+        this.hashShardCount = hashShardCount;
+    }
+
+    /**
+     * If the lease manager should create all leases and checkpoints and read them all back in a single round trip
+     * when the host starts. The leases and checkpoints read are then used for the first read of all leases and the
+     * first read of each checkpoint, as long as they are no older than {@link #getLeaseSnapshotMaxAgeInMillis()}.
+     * This makes starting a host with many partitions much faster. Defaults to false.
+     * @return boolean
+     */
+    public boolean isBootstrapOnStartup() {
+        return bootstrapOnStartup;
+    }
+
+    /**
+     * If the lease manager should create all leases and checkpoints and read them all back in a single round trip
+     * when the host starts. The leases and checkpoints read are then used for the first read of all leases and the
+     * first read of each checkpoint, as long as they are no older than {@link #getLeaseSnapshotMaxAgeInMillis()}.
+     * This makes starting a host with many partitions much faster. Defaults to false.
+     * @param bootstrapOnStartup true to bootstrap in one round trip, false otherwise
+     */
+    public void setBootstrapOnStartup(boolean bootstrapOnStartup) {
+        this.bootstrapOnStartup = bootstrapOnStartup;
+    }
+
+    /**
+     * If checkpoint writes should switch from being written right away to being batched for partitions whose writes
+     * have become slow. The write latency is averaged per partition, and a partition switches to batched writes once
+     * the average is above the threshold, and back once it is below half of it. This keeps a slow Redis from slowing
+     * down event processing. Only used when batchCheckpointWrites is off. Defaults to false.
+     * @return boolean
+     */
+    public boolean isCheckpointAdmissionEnabled() {
+        return checkpointAdmissionEnabled;
+    }
+
+    /**
+     * If checkpoint writes should switch from being written right away to being batched for partitions whose writes
+     * have become slow. The write latency is averaged per partition, and a partition switches to batched writes once
+     * the average is above the threshold, and back once it is below half of it. This keeps a slow Redis from slowing
+     * down event processing. Only used when batchCheckpointWrites is off. Defaults to false.
+     * @param checkpointAdmissionEnabled true to batch the checkpoints of slow partitions, false otherwise
+     */
+    public void setCheckpointAdmissionEnabled(boolean checkpointAdmissionEnabled) {
+        this.checkpointAdmissionEnabled = checkpointAdmissionEnabled;
+    }
+
+    /**
+     * The average checkpoint write latency above which a partition switches to batched writes, when
+     * checkpointAdmissionEnabled is on. Defaults to 50.
+     * @return long in milliseconds
+     */
+    public long getCheckpointAdmissionThresholdInMillis() {
+        return checkpointAdmissionThresholdInMillis;
+    }
+
+    /**
+     * The average checkpoint write latency above which a partition switches to batched writes, when
+     * checkpointAdmissionEnabled is on. Defaults to 50.
+     * @param checkpointAdmissionThresholdInMillis latency threshold in milliseconds
+     */
+    public void setCheckpointAdmissionThresholdInMillis(long checkpointAdmissionThresholdInMillis) {
+        this.checkpointAdmissionThresholdInMillis = checkpointAdmissionThresholdInMillis;
+    }
+
+    /**
+     * The number of Redis connections kept apart for lease operations and heartbeats. When Redis slows down, checkpoint
+     * writes can take up every connection in the pool, and lease renewals waiting for a connection time out, which
+     * makes partitions move between hosts. With a separate pool for leases, lease operations never wait behind
+     * checkpoint writes. 0 or less makes leases share the pool with checkpoints. Defaults to 0.
+     * @return int
+     */
+    public int getLeasePoolSize() {
+        return leasePoolSize;
+    }
+
+    /**
+     * The number of Redis connections kept apart for lease operations and heartbeats. When Redis slows down, checkpoint
+     * writes can take up every connection in the pool, and lease renewals waiting for a connection time out, which
+     * makes partitions move between hosts. With a separate pool for leases, lease operations never wait behind
+     * checkpoint writes. 0 or less makes leases share the pool with checkpoints. Defaults to 0.
+     * @param leasePoolSize the number of connections for leases
+     */
+    public void setLeasePoolSize(int leasePoolSize) {
+        this.leasePoolSize = leasePoolSize;
+    }
+
+    /**
+     * If the checkpoint lag of each partition should be registered as an MBean on the platform MBean server, under
+     * com.github.davesters:type=CheckpointTelemetry with the checkpoint key name as the name. The same numbers are
+     * always available from RedisCheckpointLeaseManager.getCheckpointLagStats(). Defaults to false.
+     * @return boolean
+     */
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * If the checkpoint lag of each partition should be registered as an MBean on the platform MBean server, under
+     * com.github.davesters:type=CheckpointTelemetry with the checkpoint key name as the name. The same numbers are
+     * always available from RedisCheckpointLeaseManager.getCheckpointLagStats(). Defaults to false.
+     * @param jmxEnabled true to register the MBean, false otherwise
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * If every lease decision should be recorded with its timings, the stored and requested epoch and the stored owner.
+     * The most recent decisions are kept in a ring buffer and can be read with
+     * RedisCheckpointLeaseManager.getLeaseTrace(), or exported in the Chrome trace event format with
+     * exportLeaseTrace(). Recording never blocks, and nothing is recorded or timed when this is off. Defaults to false.
+     * @return boolean
+     */
+    public boolean isLeaseTraceEnabled() {
+        return leaseTraceEnabled;
+    }
+
+    /**
+     * If every lease decision should be recorded with its timings, the stored and requested epoch and the stored owner.
+     * The most recent decisions are kept in a ring buffer and can be read with
+     * RedisCheckpointLeaseManager.getLeaseTrace(), or exported in the Chrome trace event format with
+     * exportLeaseTrace(). Recording never blocks, and nothing is recorded or timed when this is off. Defaults to false.
+     * @param leaseTraceEnabled true to record lease decisions, false otherwise
+     */
+    public void setLeaseTraceEnabled(boolean leaseTraceEnabled) {
+        this.leaseTraceEnabled = leaseTraceEnabled;
+    }
+
+    /**
+     * The number of lease decisions kept when leaseTraceEnabled is on. Rounded up to a power of two. Defaults to 4096.
+     * @return int
+     */
+    public int getLeaseTraceBufferSize() {
+        return leaseTraceBufferSize;
+    }
+
+    /**
+     * The number of lease decisions kept when leaseTraceEnabled is on. Rounded up to a power of two. Defaults to 4096.
+     * @param leaseTraceBufferSize the number of lease decisions to keep
+     */
+    public void setLeaseTraceBufferSize(int leaseTraceBufferSize) {
+        this.leaseTraceBufferSize = leaseTraceBufferSize;
+    }
+
+    /**
+     * If single reads and writes of checkpoints and leases issued by many threads at the same time should be sent to
+     * Redis together as one pipeline. Each calling thread still waits for its own reply, but with many partitions on
+     * one host, many round trips and pool checkouts become one. Defaults to false.
+     * @return boolean
+     */
+    public boolean isAutoPipelineEnabled() {
+        return autoPipelineEnabled;
+    }
+
+    /**
+     * If single reads and writes of checkpoints and leases issued by many threads at the same time should be sent to
+     * Redis together as one pipeline. Each calling thread still waits for its own reply, but with many partitions on
+     * one host, many round trips and pool checkouts become one. Defaults to false.
+     * @param autoPipelineEnabled true to pipeline commands across threads, false otherwise
+     */
+    public void setAutoPipelineEnabled(boolean autoPipelineEnabled) {
+        this.autoPipelineEnabled = autoPipelineEnabled;
+    }
+
+    /**
+     * The number of threads sending pipelined commands when autoPipelineEnabled is on. Each one uses one connection
+     * from the pool while it sends a batch. Defaults to 2.
+     * @return int
+     */
+    public int getAutoPipelineThreads() {
+        return autoPipelineThreads;
+    }
+
+    /**
+     * The number of threads sending pipelined commands when autoPipelineEnabled is on. Each one uses one connection
+     * from the pool while it sends a batch. Defaults to 2.
+     * @param autoPipelineThreads the number of pipeline threads
+     */
+    public void setAutoPipelineThreads(int autoPipelineThreads) {
+        this.autoPipelineThreads = autoPipelineThreads;
+    }
+
+    /**
+     * If the lease duration should be tuned to how long lease renewals take, instead of always being
+     * leaseDurationInMillis. The duration used is the renew interval plus twice the 99th percentile of recent renewal
+     * times and their jitter, kept between minLeaseDurationInMillis and leaseDurationInMillis. This gives the shortest
+     * lease that is still safe, so partitions of a host that is gone move sooner, while a slow Redis makes leases
+     * longer instead of letting them run out. Defaults to false.
+     * @return boolean
+     */
+    public boolean isAdaptiveLeaseDurationEnabled() {
+        return adaptiveLeaseDurationEnabled;
+    }
+
+    /**
+     * If the lease duration should be tuned to how long lease renewals take, instead of always being
+     * leaseDurationInMillis. The duration used is the renew interval plus twice the 99th percentile of recent renewal
+     * times and their jitter, kept between minLeaseDurationInMillis and leaseDurationInMillis. This gives the shortest
+     * lease that is still safe, so partitions of a host that is gone move sooner, while a slow Redis makes leases
+     * longer instead of letting them run out. Defaults to false.
+     * @param adaptiveLeaseDurationEnabled true to tune the lease duration, false otherwise
+     */
+    public void setAdaptiveLeaseDurationEnabled(boolean adaptiveLeaseDurationEnabled) {
+        this.adaptiveLeaseDurationEnabled = adaptiveLeaseDurationEnabled;
+    }
+
+    /**
+     * How often the Event Processor Host renews its leases, used when adaptiveLeaseDurationEnabled is on. This must
+     * match the lease renew interval set in the Event Processor Host's partition manager options. Defaults to 10000,
+     * the Event Processor Host default.
+     * @return long in milliseconds
+     */
+    public long getLeaseRenewIntervalInMillis() {
+        return leaseRenewIntervalInMillis;
+    }
+
+    /**
+     * How often the Event Processor Host renews its leases, used when adaptiveLeaseDurationEnabled is on. This must
+     * match the lease renew interval set in the Event Processor Host's partition manager options. Defaults to 10000,
+     * the Event Processor Host default.
+     * @param leaseRenewIntervalInMillis lease renew interval in milliseconds
+     */
+    public void setLeaseRenewIntervalInMillis(long leaseRenewIntervalInMillis) {
+        this.leaseRenewIntervalInMillis = leaseRenewIntervalInMillis;
+    }
+
+    /**
+     * The shortest lease duration used when adaptiveLeaseDurationEnabled is on. leaseDurationInMillis is the longest.
+     * Defaults to 15000.
+     * @return long in milliseconds
+     */
+    public long getMinLeaseDurationInMillis() {
+        return minLeaseDurationInMillis;
+    }
+
+    /**
+     * The shortest lease duration used when adaptiveLeaseDurationEnabled is on. leaseDurationInMillis is the longest.
+     * Defaults to 15000.
+     * @param minLeaseDurationInMillis shortest lease duration in milliseconds
+     */
+    public void setMinLeaseDurationInMillis(long minLeaseDurationInMillis) {
+        this.minLeaseDurationInMillis = minLeaseDurationInMillis;
+    }
+
+    /**
+     * The hostname of a secondary Redis to copy checkpoints and leases to, for disaster recovery. Writes to the primary
+     * are copied in the background, so the primary write path does not wait on the secondary. Checkpoints and leases
+     * on the secondary only move forward, except for rewinds and deletes, which are copied as they are. Partition
+     * states are copied with their checkpoints. The secondary can be made the primary with
+     * RedisCheckpointLeaseManager.promoteSecondary(). Unlike the replica, this is a separate Redis that is not kept in
+     * sync by Redis itself. Defaults to null, for no secondary.
+     * @return string
+     */
+    public String getSecondaryHostname() {
+        return secondaryHostname;
+    }
+
+    /**
+     * The hostname of a secondary Redis to copy checkpoints and leases to, for disaster recovery. Writes to the primary
+     * are copied in the background, so the primary write path does not wait on the secondary. Checkpoints and leases
+     * on the secondary only move forward, except for rewinds and deletes, which are copied as they are. Partition
+     * states are copied with their checkpoints. The secondary can be made the primary with
+     * RedisCheckpointLeaseManager.promoteSecondary(). Unlike the replica, this is a separate Redis that is not kept in
+     * sync by Redis itself. Defaults to null, for no secondary.
+     * @param secondaryHostname secondary redis hostname
+     */
+    public void setSecondaryHostname(String secondaryHostname) {
+        this.secondaryHostname = secondaryHostname;
+    }
+
+    /**
+     * The port of the secondary Redis. Defaults to 6379.
+     * @return int
+     */
+    public int getSecondaryPort() {
+        return secondaryPort;
+    }
+
+    /**
+     * The port of the secondary Redis. Defaults to 6379.
+     * @param secondaryPort secondary redis port
+     */
+    public void setSecondaryPort(int secondaryPort) {
+        this.secondaryPort = secondaryPort;
+    }
+
+    /**
+     * How often writes are copied to the secondary Redis. Defaults to 1000.
+     * @return long in milliseconds
+     */
+    public long getReplicationIntervalInMillis() {
+        return replicationIntervalInMillis;
+    }
+
+    /**
+     * How often writes are copied to the secondary Redis. Defaults to 1000.
+     * @param replicationIntervalInMillis replication interval in milliseconds
+     */
+    public void setReplicationIntervalInMillis(long replicationIntervalInMillis) {
+        this.replicationIntervalInMillis = replicationIntervalInMillis;
+    }
+
+    /**
+     * The number of partitions whose writes can wait to be copied to the secondary Redis. Several writes of the same
+     * partition only take one place. Once it is full, everything is read from the primary and copied again. Defaults to
+     * 10000.
+     * @return int
+     */
+    public int getReplicationQueueSize() {
+        return replicationQueueSize;
+    }
+
+    /**
+     * The number of partitions whose writes can wait to be copied to the secondary Redis. Several writes of the same
+     * partition only take one place. Once it is full, everything is read from the primary and copied again. Defaults to
+     * 10000.
+     * @param replicationQueueSize the number of partitions that can wait
+     */
+    public void setReplicationQueueSize(int replicationQueueSize) {
+        this.replicationQueueSize = replicationQueueSize;
+    }
+
+    /**
+     * Only write a partition's checkpoint to Redis once it is this many events past the last written one. Checkpoints
+     * in between are kept in memory, and the latest is always written before the lease is released, deleted or lost,
+     * and when the lease manager is closed. 0 to not count events. When this or the auto checkpoint interval is set,
+     * checkpoints are only written when one of them is due. Defaults to 0.
+     * @return long
+     */
+    public long getAutoCheckpointEventCount() {
+        return autoCheckpointEventCount;
+    }
+
+    /**
+     * Only write a partition's checkpoint to Redis once it is this many events past the last written one. Checkpoints
+     * in between are kept in memory, and the latest is always written before the lease is released, deleted or lost,
+     * and when the lease manager is closed. 0 to not count events. When this or the auto checkpoint interval is set,
+     * checkpoints are only written when one of them is due. Defaults to 0.
+     * @param autoCheckpointEventCount the number of events between checkpoint writes
+     */
+    public void setAutoCheckpointEventCount(long autoCheckpointEventCount) {
+        this.autoCheckpointEventCount = autoCheckpointEventCount;
+    }
+
+    /**
+     * Only write a partition's checkpoint to Redis once the last written one is this old. Checkpoints that have waited
+     * this long are also written in the background, for partitions that stopped receiving events. 0 to not wait on
+     * time. Defaults to 0.
+     * @return long in milliseconds
+     */
+    public long getAutoCheckpointIntervalInMillis() {
+        return autoCheckpointIntervalInMillis;
+    }
+
+    /**
+     * Only write a partition's checkpoint to Redis once the last written one is this old. Checkpoints that have waited
+     * this long are also written in the background, for partitions that stopped receiving events. 0 to not wait on
+     * time. Defaults to 0.
+     * @param autoCheckpointIntervalInMillis auto checkpoint interval in milliseconds
+     */
+    public void setAutoCheckpointIntervalInMillis(long autoCheckpointIntervalInMillis) {
+        this.autoCheckpointIntervalInMillis = autoCheckpointIntervalInMillis;
+    }
+
+    /**
+     * The number of hash fields and keys a CheckpointAdmin reads or writes per second, so it can be run against a
+     * production Redis without adding latency for the hosts. 0 or less to not limit. Defaults to 5000.
+     * @return int
+     */
+    public int getAdminOperationsPerSecond() {
+        return adminOperationsPerSecond;
+    }
+
+    /**
+     * The number of hash fields and keys a CheckpointAdmin reads or writes per second, so it can be run against a
+     * production Redis without adding latency for the hosts. 0 or less to not limit. Defaults to 5000.
+     * @param adminOperationsPerSecond the number of operations per second
+     */
+    public void setAdminOperationsPerSecond(int adminOperationsPerSecond) {
+        this.adminOperationsPerSecond = adminOperationsPerSecond;
+    }
+
+    /**
+     * Remove the leases and checkpoints of partitions that are no longer in the event hub in the background, once their
+     * lease has been expired for the orphan retention time. Only a page of leases is looked at each run. Defaults to
+     * false.
+     * @return boolean
+     */
+    public boolean isOrphanSweepEnabled() {
+        return orphanSweepEnabled;
+    }
+
+    /**
+     * Remove the leases and checkpoints of partitions that are no longer in the event hub in the background, once their
+     * lease has been expired for the orphan retention time. Only a page of leases is looked at each run. Defaults to
+     * false.
+     * @param orphanSweepEnabled true to enable the orphan sweeper
+     */
+    public void setOrphanSweepEnabled(boolean orphanSweepEnabled) {
+        this.orphanSweepEnabled = orphanSweepEnabled;
+    }
+
+    /**
+     * How often the orphan sweeper runs. It also refreshes the key time to live when that is set. Defaults to 60000.
+     * @return long in milliseconds
+     */
+    public long getOrphanSweepIntervalInMillis() {
+        return orphanSweepIntervalInMillis;
+    }
+
+    /**
+     * How often the orphan sweeper runs. It also refreshes the key time to live when that is set. Defaults to 60000.
+     * @param orphanSweepIntervalInMillis orphan sweep interval in milliseconds
+     */
+    public void setOrphanSweepIntervalInMillis(long orphanSweepIntervalInMillis) {
+        this.orphanSweepIntervalInMillis = orphanSweepIntervalInMillis;
+    }
+
+    /**
+     * The number of leases the orphan sweeper looks at each run. Defaults to 100.
+     * @return int
+     */
+    public int getOrphanSweepBatchSize() {
+        return orphanSweepBatchSize;
+    }
+
+    /**
+     * The number of leases the orphan sweeper looks at each run. Defaults to 100.
+     * @param orphanSweepBatchSize the number of leases to look at each run
+     */
+    public void setOrphanSweepBatchSize(int orphanSweepBatchSize) {
+        this.orphanSweepBatchSize = orphanSweepBatchSize;
+    }
+
+    /**
+     * How long the lease of a partition that is no longer in the event hub has to be expired before the orphan sweeper
+     * removes it. Defaults to 604800000 (7 days).
+     * @return long in milliseconds
+     */
+    public long getOrphanRetentionInMillis() {
+        return orphanRetentionInMillis;
+    }
+
+    /**
+     * How long the lease of a partition that is no longer in the event hub has to be expired before the orphan sweeper
+     * removes it. Defaults to 604800000 (7 days).
+     * @param orphanRetentionInMillis orphan retention in milliseconds
+     */
+    public void setOrphanRetentionInMillis(long orphanRetentionInMillis) {
+        this.orphanRetentionInMillis = orphanRetentionInMillis;
+    }
+
+    /**
+     * Set a time to live on all keys of the consumer group, refreshed by every host each orphan sweep interval, so the
+     * keys are removed once no host has run for that long. Must be well above the orphan sweep interval. 0 to not set a
+     * time to live. Defaults to 0.
+     * @return long in milliseconds
+     */
+    public long getKeyTtlInMillis() {
+        return keyTtlInMillis;
+    }
+
+    /**
+     * Set a time to live on all keys of the consumer group, refreshed by every host each orphan sweep interval, so the
+     * keys are removed once no host has run for that long. Must be well above the orphan sweep interval. 0 to not set a
+     * time to live. Defaults to 0.
+     * @param keyTtlInMillis key time to live in milliseconds
+     */
+    public void setKeyTtlInMillis(long keyTtlInMillis) {
+        this.keyTtlInMillis = keyTtlInMillis;
+    }
+
+    /**
+     * The clock lease expiry times are set and checked against. Tests can set a clock they move forward themselves, to
+     * run through many lease periods without waiting. Defaults to a clock that reads a cached time, updated every few
+     * milliseconds by a thread the lease manager starts.
+     * @return clock
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * The clock lease expiry times are set and checked against. Tests can set a clock they move forward themselves, to
+     * run through many lease periods without waiting. Defaults to a clock that reads a cached time, updated every few
+     * milliseconds by a thread the lease manager starts.
+     * @param clock clock
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Whether each partition can keep a small state blob, like a dedup watermark, that is written in the same atomic
+     * step as its checkpoint (see {@link RedisCheckpointLeaseManager#setPartitionState(String, byte[])}). When enabled,
+     * getCheckpoint returns a {@link StatefulCheckpoint}, and a checkpoint written without a state, or rewound,
+     * removes the partition's state, so a state is never read with a checkpoint it was not written with. Defaults to
+     * false.
+     * @return true if partition state is enabled
+     */
+    public boolean isPartitionStateEnabled() {
+        return partitionStateEnabled;
+    }
+
+    /**
+     * Whether each partition can keep a small state blob, like a dedup watermark, that is written in the same atomic
+     * step as its checkpoint (see {@link RedisCheckpointLeaseManager#setPartitionState(String, byte[])}). When enabled,
+     * getCheckpoint returns a {@link StatefulCheckpoint}, and a checkpoint written without a state, or rewound,
+     * removes the partition's state, so a state is never read with a checkpoint it was not written with. Defaults to
+     * false.
+     * @param partitionStateEnabled true to enable partition state
+     */
+    public void setPartitionStateEnabled(boolean partitionStateEnabled) {
+        this.partitionStateEnabled = partitionStateEnabled;
+    }
+
+    /**
+     * The largest partition state that can be set, in bytes. Defaults to 65536.
+     * @return max partition state size in bytes
+     */
+    public int getMaxPartitionStateBytes() {
+        return maxPartitionStateBytes;
+    }
+
+    /**
+     * The largest partition state that can be set, in bytes. Defaults to 65536.
+     * @param maxPartitionStateBytes max partition state size in bytes
+     */
+    public void setMaxPartitionStateBytes(int maxPartitionStateBytes) {
+        this.maxPartitionStateBytes = maxPartitionStateBytes;
+    }
+
+    /**
+     * Partition states up to this many bytes are read in the same round trip as their checkpoint. Larger ones are only
+     * read the first time {@link StatefulCheckpoint#getState()} is called. Defaults to 4096.
+     * @return inline partition state size in bytes
+     */
+    public int getPartitionStateInlineBytes() {
+        return partitionStateInlineBytes;
+    }
+
+    /**
+     * Partition states up to this many bytes are read in the same round trip as their checkpoint. Larger ones are only
+     * read the first time {@link StatefulCheckpoint#getState()} is called. Defaults to 4096.
+     * @param partitionStateInlineBytes inline partition state size in bytes
+     */
+    public void setPartitionStateInlineBytes(int partitionStateInlineBytes) {
+        this.partitionStateInlineBytes = partitionStateInlineBytes;
+    }
+
+    /**
+     * The number of partitions a {@link FileCheckpointStore} file has room for. The file is laid out for this many
+     * partitions when it is created, and has to be opened with the same number. Defaults to 1024.
+     * @return max partitions of a checkpoint file
+     */
+    public int getFileCheckpointMaxPartitions() {
+        return fileCheckpointMaxPartitions;
+    }
+
+    /**
+     * The number of partitions a {@link FileCheckpointStore} file has room for. The file is laid out for this many
+     * partitions when it is created, and has to be opened with the same number. Defaults to 1024.
+     * @param fileCheckpointMaxPartitions max partitions of a checkpoint file
+     */
+    public void setFileCheckpointMaxPartitions(int fileCheckpointMaxPartitions) {
+        this.fileCheckpointMaxPartitions = fileCheckpointMaxPartitions;
+    }
+
+    /**
+     * Whether a {@link FileCheckpointStore} flushes every write to disk before returning. Without it, writes survive
+     * the process crashing, but not the machine. Defaults to false.
+     * @return true if file checkpoint writes are synced
+     */
+    public boolean isFileCheckpointSync() {
+        return fileCheckpointSync;
+    }
+
+    /**
+     * Whether a {@link FileCheckpointStore} flushes every write to disk before returning. Without it, writes survive
+     * the process crashing, but not the machine. Defaults to false.
+     * @param fileCheckpointSync true to sync file checkpoint writes
+     */
+    public void setFileCheckpointSync(boolean fileCheckpointSync) {
+        this.fileCheckpointSync = fileCheckpointSync;
+    }
 }
@@ -3,30 +3,118 @@ package com.github.davesters;
 import com.microsoft.azure.eventprocessorhost.BaseLease;
 import com.microsoft.azure.eventprocessorhost.Checkpoint;
 import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 /**
  * A checkpoint store that stores data in Redis.
  */
 class RedisCheckpointStore implements CheckpointStore {
 
+    // Sets a hash field only if its current value matches the expected value. An empty expected value matches a
+    // missing field.
+    static final RedisScript COMPARE_AND_SET = new RedisScript(
+        "local current = redis.call('HGET', KEYS[1], ARGV[1]) "
+            + "if (current == false and ARGV[2] == '') or current == ARGV[2] then "
+            + "redis.call('HSET', KEYS[1], ARGV[1], ARGV[3]) return 1 end "
+            + "return 0");
+
     private static final Logger LOG = LoggerFactory.getLogger(RedisCheckpointStore.class.getSimpleName());
 
+    // Deletes a partition's lease, checkpoint and state, but only if the lease still has the value it was read with.
+    // KEYS are the lease, checkpoint and state hash keys, ARGV the partition id and the lease value.
+    private static final RedisScript DELETE_ORPHAN = new RedisScript(
+        "if redis.call('HGET', KEYS[1], ARGV[1]) ~= ARGV[2] then return 0 end "
+            + "redis.call('HDEL', KEYS[1], ARGV[1]) "
+            + "redis.call('HDEL', KEYS[2], ARGV[1]) "
+            + "redis.call('HDEL', KEYS[3], ARGV[1]) "
+            + "return 1");
+
+    // Reads a partition's checkpoint and the stored size of its state, and the state itself when its stored size is no
+    // larger than ARGV[2]. KEYS are the checkpoint and state hash keys, ARGV[1] the partition id.
+    private static final RedisScript READ_WITH_STATE = new RedisScript(
+        "local checkpoint = redis.call('HGET', KEYS[1], ARGV[1]) "
+            + "local length = redis.call('HSTRLEN', KEYS[2], ARGV[1]) "
+            + "if length > 0 and length <= tonumber(ARGV[2]) then "
+            + "return {checkpoint, length, redis.call('HGET', KEYS[2], ARGV[1])} end "
+            + "return {checkpoint, length}");
+
+    // Reads a partition's checkpoint and its state together. KEYS are the checkpoint and state hash keys, ARGV[1] the
+    // partition id.
+    private static final RedisScript READ_STATE = new RedisScript(
+        "return {redis.call('HGET', KEYS[1], ARGV[1]), redis.call('HGET', KEYS[2], ARGV[1])}");
+
+    private static final int MAX_HEDGE_THREADS = 16;
+    private static final int HISTORY_PAGE_SIZE = 100;
+    private static final StreamEntryID HISTORY_START = new StreamEntryID(0, 0);
+    private static final long STALE_HEARTBEAT_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MIGRATION_ATTEMPTS = 5;
+    private static final int HISTORY_XADD_ARGUMENTS = 6;
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
     private final RedisCheckpointOptions options;
     private final String hashKey;
     private final String leaseHashKey;
-    private final Map<String, String> checkpoints = new HashMap<>();
+    private final String historyKey;
+    private final String hostsKey;
+    private final String stateKey;
+    private final int shardCount;
+    private final PartitionTable table;
     private final Object sync = new Object();
+    private final Object sweepLock = new Object();
+    private final RespWriter flushWriter = new RespWriter();
+    private final CheckpointTelemetry telemetry = new CheckpointTelemetry();
 
     private Timer writeTimer = new Timer();
-    private JedisPool pool;
+    private volatile ResilientPool pool;
+    private volatile ResilientPool leasePool;
+    private ResilientPool replicaPool;
+    private ResilientPool secondaryPool;
+    private volatile CheckpointReplicator replicator;
+    private CheckpointAdmission admission;
+    private AutoPipeline autoPipeline;
+    private AutoPipeline leaseAutoPipeline;
+    private ExecutorService hedgeExecutor;
+    private NearCache checkpointCache;
+    private NearCache leaseCache;
+    private CacheInvalidationListener invalidationListener;
+    private String sweepCursor = ScanParams.SCAN_POINTER_START;
+    private int sweepShard;
 
     /**
      * Creates a new instance of RedisCheckpointStore.
@@ -36,6 +124,11 @@ class RedisCheckpointStore implements CheckpointStore {
         this.options = options;
         this.hashKey = options.getCheckpointKeyName();
         this.leaseHashKey = this.hashKey + "_lease";
+        this.historyKey = this.hashKey + "_history";
+        this.hostsKey = this.hashKey + "_hosts";
+        this.stateKey = this.hashKey + "_state";
+        this.shardCount = Math.max(1, options.getHashShardCount());
+        this.table = options.getClock() != null ? new PartitionTable(options.getClock()) : new PartitionTable();
     }
 
     @Override
@@ -44,17 +137,46 @@ class RedisCheckpointStore implements CheckpointStore {
             return;
         }
 
-        this.pool = new JedisPool(
-            new JedisPoolConfig(),
-            this.options.getRedisHostname(),
-            this.options.getPort(),
-            this.options.getConnectTimeout(),
-            this.options.getPassword(),
-            this.options.getDatabase(),
-            this.hashKey,
-            this.options.isSsl());
+        this.pool = createPool(this.options.getRedisHostname(), this.options.getPort(), 0);
+        this.leasePool = this.options.getLeasePoolSize() > 0
+            ? createPool(this.options.getRedisHostname(), this.options.getPort(), this.options.getLeasePoolSize())
+            : this.pool;
+
+        if (this.options.isAutoPipelineEnabled()) {
+            startAutoPipelines();
+        }
 
-        if (this.options.isBatchCheckpointWrites()) {
+        if (this.shardCount > 1) {
+            migrateToShards(this.hashKey);
+            migrateToShards(this.leaseHashKey);
+        }
+
+        if (this.options.getReplicaHostname() != null && !this.options.getReplicaHostname().trim().isEmpty()) {
+            this.replicaPool = createPool(this.options.getReplicaHostname(), this.options.getReplicaPort(), 0);
+            this.hedgeExecutor = new ThreadPoolExecutor(0, MAX_HEDGE_THREADS, 1, TimeUnit.MINUTES,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "redis-checkpoint-hedged-read");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+
+        if (this.options.getSecondaryHostname() != null && !this.options.getSecondaryHostname().trim().isEmpty()) {
+            this.secondaryPool = createPool(this.options.getSecondaryHostname(), this.options.getSecondaryPort(), 0);
+            this.replicator = new CheckpointReplicator(this.secondaryPool, this::checkpointKey, this::leaseKey,
+                this.options.isPartitionStateEnabled() ? this.stateKey : null, this::readPrimary,
+                this.options.getReplicationQueueSize());
+            this.replicator.start(this.options.getReplicationIntervalInMillis());
+        }
+
+        if (this.options.isCheckpointAdmissionEnabled() && !this.options.isBatchCheckpointWrites()) {
+            this.admission = new CheckpointAdmission(this.options.getCheckpointAdmissionThresholdInMillis());
+        }
+
+        // While the circuit breaker is open, or while a partition's writes are slow, checkpoints are kept locally and
+        // written by the batch writer, so it needs to run even when batching is off.
+        if (this.options.isBatchCheckpointWrites() || this.options.getCircuitBreakerFailureThreshold() > 0
+            || this.admission != null) {
             this.writeTimer = new Timer();
             this.writeTimer.scheduleAtFixedRate(new TimerTask() {
                 @Override
@@ -63,6 +185,21 @@ class RedisCheckpointStore implements CheckpointStore {
                 }
             }, this.options.getBatchIntervalInMillis(), this.options.getBatchIntervalInMillis());
         }
+
+        if (this.options.isJmxEnabled()) {
+            registerTelemetry();
+        }
+
+        if (this.options.isNearCacheEnabled()) {
+            this.checkpointCache = new NearCache(this.options.getNearCacheTtlInMillis());
+            this.leaseCache = new NearCache(this.options.getNearCacheTtlInMillis());
+
+            if (this.options.isNearCacheTracking()) {
+                this.invalidationListener = new CacheInvalidationListener(
+                    this::createConnection, this.hashKey, this::keyInvalidated, this::trackingChanged);
+                this.invalidationListener.start();
+            }
+        }
     }
 
     @Override
@@ -72,138 +209,1301 @@ class RedisCheckpointStore implements CheckpointStore {
 
     @Override
     public Checkpoint getCheckpoint(String partitionId) {
-        String result;
-
-        try (Jedis jedis = pool.getResource()) {
-            result = jedis.hget(hashKey, partitionId);
+        if (this.options.isPartitionStateEnabled()) {
+            return getStatefulCheckpoint(partitionId);
         }
 
+        String result = readField(checkpointKey(partitionId), partitionId, checkpointCache, false);
+
         if (result == null) {
             return null;
         }
+        return checkpointRead(partitionId, result);
+    }
+
+    // Reads a checkpoint with its state in one script call, unless the state is large, in which case it is only read
+    // when it is first used. The state is stored base64 encoded, so the inline limit is compared to the encoded size.
+    private Checkpoint getStatefulCheckpoint(String partitionId) {
+        long inlineLength = StatefulCheckpoint.encodedLength(this.options.getPartitionStateInlineBytes());
+        List<?> result = (List<?>) pool.execute(true, jedis -> READ_WITH_STATE.eval(jedis,
+            Arrays.asList(checkpointKey(partitionId), stateKey),
+            Arrays.asList(partitionId, String.valueOf(inlineLength))));
+
+        if (result.get(0) == null) {
+            return null;
+        }
+
+        Checkpoint checkpoint = checkpointRead(partitionId, (String) result.get(0));
+        if ((Long) result.get(1) == 0) {
+            return new StatefulCheckpoint(checkpoint, null);
+        }
+        if (result.size() > 2) {
+            return new StatefulCheckpoint(checkpoint, StatefulCheckpoint.decode((String) result.get(2)));
+        }
+        String value = (String) result.get(0);
+        return new StatefulCheckpoint(partitionId, checkpoint.getOffset(), checkpoint.getSequenceNumber(),
+            () -> readState(partitionId, value));
+    }
+
+    // Reads the state that goes with a checkpoint. The checkpoint is read again in the same script call, and if it
+    // changed, the state in Redis belongs to a later checkpoint.
+    private byte[] readState(String partitionId, String checkpointValue) {
+        List<?> result = (List<?>) pool.execute(true, jedis -> READ_STATE.eval(jedis,
+            Arrays.asList(checkpointKey(partitionId), stateKey), Collections.singletonList(partitionId)));
+
+        if (!checkpointValue.equals(result.get(0))) {
+            throw new IllegalStateException("The checkpoint of partition " + partitionId + " changed after it was "
+                + "read, so its state is no longer stored");
+        }
+        return StatefulCheckpoint.decode((String) result.get(1));
+    }
 
-        String[] segments = result.split(",");
+    private Checkpoint checkpointRead(String partitionId, String result) {
+        synchronized (sync) {
+            int index = table.indexOf(partitionId);
 
-        return new Checkpoint(partitionId, segments[0], Long.parseLong(segments[1]));
+            // A pending batched write is newer than what is in Redis, so keep it in the table.
+            if (table.isDirty(index)) {
+                return PartitionTable.parseCheckpoint(partitionId, result);
+            }
+
+            table.putCheckpointValue(index, result);
+            telemetry.checkpointPersisted(index, partitionId, table.offsetAt(index), table.sequenceNumberAt(index),
+                Instant.now().toEpochMilli());
+            return table.toCheckpoint(index);
+        }
     }
 
+    // With partition state enabled, a checkpoint without a state deletes the stored state, so a later read never gets
+    // a state with a checkpoint it was not written with. An empty state stands for that delete.
     @Override
     public void setCheckpoint(Checkpoint checkpoint) {
-        String value = String.format("%s,%d", checkpoint.getOffset(), checkpoint.getSequenceNumber());
+        boolean stateEnabled = this.options.isPartitionStateEnabled();
+        String encoded = encodeState(checkpoint);
+        String state = encoded == null && stateEnabled ? "" : encoded;
 
-        if (this.options.isBatchCheckpointWrites()) {
+        if (this.options.isBatchCheckpointWrites() || pool.isCircuitOpen() || isSlow(checkpoint.getPartitionId())) {
             synchronized (sync) {
-                checkpoints.put(checkpoint.getPartitionId(), value);
+                int index = table.indexOf(checkpoint.getPartitionId());
+                table.putCheckpoint(index, checkpoint.getOffset(), checkpoint.getSequenceNumber());
+                if (state != null) {
+                    table.putPendingState(index, state);
+                }
+                table.markDirty(index);
+                telemetry.checkpointSet(index, checkpoint.getPartitionId(), checkpoint.getOffset(),
+                    checkpoint.getSequenceNumber(), Instant.now().toEpochMilli());
             }
         } else {
-            try (Jedis jedis = pool.getResource()) {
-                jedis.hset(hashKey, checkpoint.getPartitionId(), value);
+            String partitionId = checkpoint.getPartitionId();
+            String key = checkpointKey(partitionId);
+            String value = checkpoint.getOffset() + ',' + checkpoint.getSequenceNumber();
+            long start = System.nanoTime();
+
+            try {
+                if (this.options.isCheckpointHistoryEnabled() || state != null) {
+                    pool.execute(!this.options.isCheckpointHistoryEnabled(), jedis -> {
+                        Pipeline pipeline = jedis.pipelined();
+                        if (state == null) {
+                            pipeline.hset(key, partitionId, value);
+                        } else {
+                            pipeline.multi();
+                            pipeline.hset(key, partitionId, value);
+                            if (state.isEmpty()) {
+                                pipeline.hdel(stateKey, partitionId);
+                            } else {
+                                pipeline.hset(stateKey, partitionId, state);
+                            }
+                            pipeline.exec();
+                        }
+                        if (this.options.isCheckpointHistoryEnabled()) {
+                            appendHistory(pipeline, Collections.singletonMap(partitionId, value));
+                        }
+                        pipeline.sync();
+                        return null;
+                    });
+                } else {
+                    hset(key, partitionId, value);
+                }
+            } finally {
+                recordLatency(start, partitionId);
+            }
+            invalidateField(checkpointCache, checkpoint.getPartitionId());
+            replicate(secondary -> secondary.checkpointWritten(partitionId, value, state));
+
+            synchronized (sync) {
+                int index = table.indexOf(partitionId);
+                long now = Instant.now().toEpochMilli();
+
+                String offset = checkpoint.getOffset();
+                long sequenceNumber = checkpoint.getSequenceNumber();
+
+                table.putCheckpoint(index, offset, sequenceNumber);
+                telemetry.checkpointSet(index, partitionId, offset, sequenceNumber, now);
+                telemetry.checkpointPersisted(index, partitionId, offset, sequenceNumber, now);
             }
         }
     }
 
     @SuppressWarnings("checkstyle:IllegalCatch")
     private void writeCheckpoints() {
-        if (pool == null || pool.isClosed() || checkpoints.size() == 0) {
+        if (pool == null || pool.isClosed() || pool.isCircuitOpen()) {
             return;
         }
 
-        try (Jedis jedis = pool.getResource()) {
-            Pipeline pipeline = jedis.pipelined();
-            LOG.debug("writing {} checkpoints to redis", checkpoints.size());
+        int[] indexes;
+        String[] fields;
+        String[] offsets;
+        long[] sequenceNumbers;
+        String[] states;
 
-            synchronized (sync) {
-                checkpoints.forEach((key, value) -> pipeline.hset(hashKey, key, value));
-                checkpoints.clear();
+        synchronized (sync) {
+            int count = table.dirtyCount();
+            if (count == 0) {
+                return;
             }
 
-            if (pool != null && !pool.isClosed()) {
-                pipeline.sync();
+            indexes = new int[count];
+            fields = new String[count];
+            offsets = new String[count];
+            sequenceNumbers = new long[count];
+            states = new String[count];
+
+            int n = 0;
+            for (int i = table.nextDirty(0); i >= 0; i = table.nextDirty(i + 1)) {
+                indexes[n] = i;
+                fields[n] = table.partitionIdAt(i);
+                offsets[n] = table.offsetAt(i);
+                sequenceNumbers[n] = table.sequenceNumberAt(i);
+                states[n] = table.pendingStateAt(i);
+                n++;
             }
+            table.clearDirty();
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            LOG.debug("writing {} checkpoints to redis", fields.length);
+            pool.execute(!this.options.isCheckpointHistoryEnabled(), jedis -> {
+                flushCheckpoints(jedis, fields, offsets, sequenceNumbers, states);
+                return null;
+            });
+
+            synchronized (sync) {
+                long now = Instant.now().toEpochMilli();
+                for (int n = 0; n < indexes.length; n++) {
+                    telemetry.checkpointPersisted(indexes[n], fields[n], offsets[n], sequenceNumbers[n], now);
+                    table.clearPendingState(indexes[n], states[n]);
+                }
+            }
+
+            replicate(secondary -> {
+                for (int n = 0; n < fields.length; n++) {
+                    secondary.checkpointWritten(fields[n], offsets[n] + ',' + sequenceNumbers[n], states[n]);
+                }
+            });
         } catch (Exception e) {
             LOG.error("Error writing checkpoints to Redis", e);
+
+            // Keep the checkpoints so they are written with the next batch. Newer values set in the meantime are
+            // already in the table, and deleted checkpoints are not brought back.
+            synchronized (sync) {
+                for (int index : indexes) {
+                    if (table.hasCheckpoint(index)) {
+                        table.markDirty(index);
+                    }
+                }
+            }
+        } finally {
+            recordLatency(start, fields);
+        }
+    }
+
+    // Writes a batch of checkpoints with one multi-field HSET per hash, followed by the history entry. Partition states
+    // are written with one more HSET, and empty ones deleted with an HDEL, in a MULTI with the checkpoints. The
+    // commands are encoded straight into a reused buffer and written to the connection's socket, and then every reply
+    // is read so the connection is left in a clean state, even when one of the commands failed.
+    private void flushCheckpoints(Jedis jedis, String[] fields, String[] offsets, long[] sequenceNumbers,
+                                  String[] states) {
+        synchronized (flushWriter) {
+            RespWriter out = flushWriter;
+            out.reset();
+
+            int commands = 0;
+            int stateCount = 0;
+            int deleteCount = 0;
+            for (String state : states) {
+                stateCount += state != null && !state.isEmpty() ? 1 : 0;
+                deleteCount += state != null && state.isEmpty() ? 1 : 0;
+            }
+            if (stateCount + deleteCount > 0) {
+                out.command(1).argument("MULTI");
+                commands++;
+            }
+
+            int[] shards = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                shards[i] = shardCount == 1 ? 0 : PartitionTable.shardOf(fields[i], shardCount);
+            }
+
+            for (int shard = 0; shard < shardCount; shard++) {
+                int count = 0;
+                for (int s : shards) {
+                    count += s == shard ? 1 : 0;
+                }
+                if (count == 0) {
+                    continue;
+                }
+
+                out.command(2 + count * 2).argument("HSET").argument(shardCount == 1 ? hashKey : hashKey + ':' + shard);
+                for (int i = 0; i < fields.length; i++) {
+                    if (shards[i] == shard) {
+                        out.argument(fields[i]).checkpointArgument(offsets[i], sequenceNumbers[i]);
+                    }
+                }
+                commands++;
+            }
+
+            if (stateCount > 0) {
+                out.command(2 + stateCount * 2).argument("HSET").argument(stateKey);
+                for (int i = 0; i < fields.length; i++) {
+                    if (states[i] != null && !states[i].isEmpty()) {
+                        out.argument(fields[i]).argument(states[i]);
+                    }
+                }
+                commands++;
+            }
+            if (deleteCount > 0) {
+                out.command(2 + deleteCount).argument("HDEL").argument(stateKey);
+                for (int i = 0; i < fields.length; i++) {
+                    if (states[i] != null && states[i].isEmpty()) {
+                        out.argument(fields[i]);
+                    }
+                }
+                commands++;
+            }
+            if (stateCount + deleteCount > 0) {
+                out.command(1).argument("EXEC");
+                commands++;
+            }
+
+            if (this.options.isCheckpointHistoryEnabled()) {
+                out.command(HISTORY_XADD_ARGUMENTS + fields.length * 2)
+                    .argument("XADD").argument(historyKey)
+                    .argument("MAXLEN").argument("~").argument(this.options.getCheckpointHistoryMaxLength())
+                    .argument("*");
+                for (int i = 0; i < fields.length; i++) {
+                    out.argument(fields[i]).checkpointArgument(offsets[i], sequenceNumbers[i]);
+                }
+                commands++;
+            }
+
+            Client client = jedis.getClient();
+            try {
+                client.connect();
+                out.writeTo(client.getSocket().getOutputStream());
+            } catch (IOException e) {
+                // The connection is in an unknown state. Jedis reconnects it the next time it is used.
+                client.disconnect();
+                throw new JedisConnectionException(e);
+            }
+
+            JedisDataException error = null;
+            for (int i = 0; i < commands; i++) {
+                try {
+                    Object reply = client.getOne();
+
+                    // The replies of the commands in a MULTI come back in the reply to EXEC, errors included.
+                    if (reply instanceof List) {
+                        for (Object result : (List<?>) reply) {
+                            if (result instanceof JedisDataException && error == null) {
+                                error = (JedisDataException) result;
+                            }
+                        }
+                    }
+                } catch (JedisDataException e) {
+                    error = error == null ? e : error;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
         }
     }
 
     @Override
     public void deleteCheckpoint(String partitionId) {
-        try (Jedis jedis = pool.getResource()) {
-            jedis.hdel(hashKey, partitionId);
+        hdel(checkpointKey(partitionId), partitionId);
+        if (this.options.isPartitionStateEnabled()) {
+            hdel(stateKey, partitionId);
+        }
+        invalidateField(checkpointCache, partitionId);
+        replicate(secondary -> secondary.checkpointDeleted(partitionId));
+
+        synchronized (sync) {
+            int index = table.indexOf(partitionId);
+            table.removeCheckpoint(index);
+            telemetry.remove(index);
         }
     }
 
     @Override
     public Map<String, Checkpoint> getAllCheckpoints() {
-        try (Jedis jedis = pool.getResource()) {
-            Map<String, String> values = jedis.hgetAll(hashKey);
+        return loadAllCheckpoints(readAll(hashKey, checkpointCache));
+    }
+
+    @Override
+    public StoreBootstrap bootstrap(List<String> partitionIds, String initialCheckpointOffset, Clock clock) {
+        String leaseValue = new RedisLease("", "", 0, 0).getRedisValue();
+        String checkpointValue = initialCheckpointOffset + ",0";
+
+        // Creating the missing entries and reading everything back happens in one transaction, in one round trip.
+        List<Map<String, String>> values = pool.execute(true, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
 
-            return values.entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, entry -> {
-                    String[] segments = entry.getValue().split(",");
-                    return new Checkpoint(entry.getKey(), segments[0], Long.parseLong(segments[1]));
-                }));
+            pipeline.multi();
+            for (String partitionId : partitionIds) {
+                pipeline.hsetnx(leaseKey(partitionId), partitionId, leaseValue);
+                pipeline.hsetnx(checkpointKey(partitionId), partitionId, checkpointValue);
+            }
+            List<Response<Map<String, String>>> leaseShards = queueReadAll(pipeline, leaseHashKey);
+            List<Response<Map<String, String>>> checkpointShards = queueReadAll(pipeline, hashKey);
+            pipeline.exec();
+            pipeline.sync();
+
+            return Arrays.asList(mergeShards(leaseShards), mergeShards(checkpointShards));
+        });
+        long takenAtMillis = clock.millis();
+        LOG.debug("bootstrapped {} leases and {} checkpoints", values.get(0).size(), values.get(1).size());
+
+        Map<String, Checkpoint> checkpoints = loadAllCheckpoints(values.get(1));
+        List<BaseLease> leases = new ArrayList<>();
+        synchronized (sync) {
+            loadAllLeases(values.get(0));
+            for (int i = 0; i < table.size(); i++) {
+                if (table.hasLease(i)) {
+                    leases.add(table.toLease(i));
+                }
+            }
         }
+
+        return new StoreBootstrap(leases, checkpoints, takenAtMillis);
+    }
+
+    // Replaces all checkpoints in the table with the given stored values, except for pending batched writes, which
+    // are newer.
+    private Map<String, Checkpoint> loadAllCheckpoints(Map<String, String> values) {
+        Map<String, Checkpoint> checkpoints = new HashMap<>();
+
+        synchronized (sync) {
+            table.clearCheckpoints();
+            values.forEach((key, value) -> {
+                int index = table.indexOf(key);
+
+                if (table.isDirty(index)) {
+                    checkpoints.put(key, PartitionTable.parseCheckpoint(key, value));
+                } else {
+                    table.putCheckpointValue(index, value);
+                    checkpoints.put(key, table.toCheckpoint(index));
+                }
+            });
+        }
+
+        return checkpoints;
     }
 
     @Override
-    public CompleteLease getLease(String partitionId) {
-        String result;
+    public Map<String, Checkpoint> rewindCheckpoints(Instant timestamp) {
+        if (!this.options.isCheckpointHistoryEnabled()) {
+            throw new IllegalStateException("Checkpoint history is not enabled");
+        }
+
+        Set<String> partitionIds = readAll(hashKey, null).keySet();
+        Map<String, String> values = new HashMap<>();
+
+        // Walk the history backwards from the timestamp. Each entry only has the partitions written in that batch,
+        // so keep going until the latest value of every partition has been found, or the history runs out.
+        StreamEntryID end = new StreamEntryID(timestamp.toEpochMilli() - 1, Long.MAX_VALUE);
+        while (end != null && values.size() < partitionIds.size()) {
+            StreamEntryID pageEnd = end;
+            List<StreamEntry> entries = pool.execute(true,
+                jedis -> jedis.xrevrange(historyKey, pageEnd, HISTORY_START, HISTORY_PAGE_SIZE));
 
-        try (Jedis jedis = pool.getResource()) {
-            result = jedis.hget(leaseHashKey, partitionId);
+            for (StreamEntry entry : entries) {
+                entry.getFields().forEach((partitionId, value) -> {
+                    if (partitionIds.contains(partitionId)) {
+                        values.putIfAbsent(partitionId, value);
+                    }
+                });
+            }
+
+            end = entries.size() < HISTORY_PAGE_SIZE ? null : previousId(entries.get(entries.size() - 1).getID());
         }
 
-        if (result == null) {
+        if (values.isEmpty()) {
+            LOG.warn("No checkpoint history found before {}", timestamp);
+            return Collections.emptyMap();
+        }
+        if (values.size() < partitionIds.size()) {
+            LOG.warn("No checkpoint history found before {} for {} partitions. Their checkpoints are not changed",
+                timestamp, partitionIds.size() - values.size());
+        }
+
+        // All partitions are rewound in one transaction, and the rewind itself is recorded in the history. The states
+        // belong to the checkpoints that were rewound, so they are deleted.
+        LOG.info("rewinding {} checkpoints to {}", values.size(), timestamp);
+        boolean stateEnabled = this.options.isPartitionStateEnabled();
+        pool.execute(false, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.multi();
+            groupByShard(hashKey, values).forEach(pipeline::hset);
+            if (stateEnabled) {
+                pipeline.hdel(stateKey, values.keySet().toArray(new String[0]));
+            }
+            appendHistory(pipeline, values);
+            pipeline.exec();
+            pipeline.sync();
             return null;
+        });
+
+        if (checkpointCache != null) {
+            checkpointCache.invalidateAll();
+        }
+        replicate(secondary -> values.forEach((partitionId, value) ->
+            secondary.checkpointRewound(partitionId, value, stateEnabled ? "" : null)));
+
+        Map<String, Checkpoint> checkpoints = new HashMap<>();
+        synchronized (sync) {
+            values.forEach((partitionId, value) -> {
+                int index = table.indexOf(partitionId);
+
+                // Pending batched writes are older than the rewind, so they are dropped.
+                table.clearDirty(index);
+                table.putPendingState(index, null);
+                table.putCheckpointValue(index, value);
+                checkpoints.put(partitionId, table.toCheckpoint(index));
+            });
+        }
+
+        return checkpoints;
+    }
+
+    @Override
+    public int importCheckpoints(Map<String, Checkpoint> checkpoints) {
+        Map<String, String> values = new HashMap<>();
+        checkpoints.forEach((partitionId, checkpoint) ->
+            values.put(partitionId, checkpoint.getOffset() + ',' + checkpoint.getSequenceNumber()));
+
+        List<String> imported = setIfAbsent(values, this::checkpointKey);
+        if (checkpointCache != null) {
+            checkpointCache.invalidateAll();
+        }
+
+        replicate(secondary ->
+            imported.forEach(partitionId -> secondary.checkpointWritten(partitionId, values.get(partitionId), null)));
+        return imported.size();
+    }
+
+    @Override
+    public int importLeases(Map<String, CompleteLease> leases) {
+        Map<String, String> values = new HashMap<>();
+        leases.forEach((partitionId, lease) -> values.put(partitionId, ((RedisLease) lease).getRedisValue()));
+
+        List<String> imported = setIfAbsent(values, this::leaseKey);
+        if (leaseCache != null) {
+            leaseCache.invalidateAll();
+        }
+
+        replicate(secondary -> imported.forEach(partitionId -> secondary.leaseWritten(partitionId,
+            values.get(partitionId))));
+        return imported.size();
+    }
+
+    // Sets each value with HSETNX, IMPORT_BATCH_SIZE commands per round trip, and returns the partition ids that were
+    // not already set.
+    private List<String> setIfAbsent(Map<String, String> values, Function<String, String> keyOf) {
+        List<String> partitionIds = new ArrayList<>(values.keySet());
+        List<String> imported = new ArrayList<>();
+
+        for (int start = 0; start < partitionIds.size(); start += IMPORT_BATCH_SIZE) {
+            List<String> batch = partitionIds.subList(start, Math.min(partitionIds.size(), start + IMPORT_BATCH_SIZE));
+            List<Response<Long>> results = pool.execute(true, jedis -> {
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<Long>> responses = new ArrayList<>();
+                for (String partitionId : batch) {
+                    responses.add(pipeline.hsetnx(keyOf.apply(partitionId), partitionId, values.get(partitionId)));
+                }
+                pipeline.sync();
+                return responses;
+            });
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (results.get(i).get() == 1) {
+                    imported.add(batch.get(i));
+                }
+            }
+        }
+
+        return imported;
+    }
+
+    @Override
+    public byte[] getPartitionState(String partitionId) {
+        synchronized (sync) {
+            // An empty pending state is a pending delete.
+            String pending = table.pendingStateAt(table.indexOf(partitionId));
+            if (pending != null) {
+                return StatefulCheckpoint.decode(pending);
+            }
         }
 
-        return new RedisLease(partitionId, result);
+        return StatefulCheckpoint.decode(hget(stateKey, partitionId));
+    }
+
+    // Lease reads that decide ownership always go to the primary. Only getLeaseHedged may be answered from the near
+    // cache. getAllLeases and getBaseLeases read the whole hash from Redis and only fill the cache.
+    @Override
+    public CompleteLease getLease(String partitionId) {
+        return toLease(partitionId, hget(leaseKey(partitionId), partitionId));
+    }
+
+    @Override
+    public CompleteLease getLeaseHedged(String partitionId) {
+        return toLease(partitionId, readField(leaseKey(partitionId), partitionId, leaseCache, replicaPool != null));
+    }
+
+    private CompleteLease toLease(String partitionId, String result) {
+        synchronized (sync) {
+            int index = table.indexOf(partitionId);
+
+            if (result == null) {
+                table.removeLease(index);
+                return null;
+            }
+
+            table.putLeaseValue(index, result);
+            return table.toLease(index);
+        }
     }
 
     @Override
     public void setLease(CompleteLease lease) {
         RedisLease leaseToSet = (RedisLease) lease;
 
-        try (Jedis jedis = pool.getResource()) {
-            jedis.hset(leaseHashKey, lease.getPartitionId(), leaseToSet.getRedisValue());
+        hset(leaseKey(lease.getPartitionId()), lease.getPartitionId(), leaseToSet.getRedisValue());
+        invalidateField(leaseCache, lease.getPartitionId());
+        leaseReplicated(leaseToSet);
+
+        synchronized (sync) {
+            table.putLease(table.indexOf(lease.getPartitionId()), leaseToSet.getOwner(), leaseToSet.getEpoch(),
+                leaseToSet.getExpireMillis());
+        }
+    }
+
+    @Override
+    public boolean compareAndSetLease(CompleteLease expected, CompleteLease lease) {
+        RedisLease leaseToSet = (RedisLease) lease;
+        String expectedValue = expected == null ? "" : ((RedisLease) expected).getRedisValue();
+        // Not idempotent. A retry after a write that made it to Redis would fail the compare.
+        Object result = leasePool.execute(false, jedis -> COMPARE_AND_SET.eval(jedis,
+            Collections.singletonList(leaseKey(lease.getPartitionId())),
+            Arrays.asList(lease.getPartitionId(), expectedValue, leaseToSet.getRedisValue())));
+        invalidateField(leaseCache, lease.getPartitionId());
+
+        if (!Long.valueOf(1).equals(result)) {
+            return false;
+        }
+        leaseReplicated(leaseToSet);
+
+        synchronized (sync) {
+            table.putLease(table.indexOf(lease.getPartitionId()), leaseToSet.getOwner(), leaseToSet.getEpoch(),
+                leaseToSet.getExpireMillis());
         }
+
+        return true;
     }
 
     @Override
     public void deleteLease(String partitionId) {
-        try (Jedis jedis = pool.getResource()) {
-            jedis.hdel(leaseHashKey, partitionId);
+        hdel(leaseKey(partitionId), partitionId);
+        invalidateField(leaseCache, partitionId);
+        replicate(secondary -> secondary.leaseDeleted(partitionId));
+
+        synchronized (sync) {
+            table.removeLease(table.indexOf(partitionId));
         }
     }
 
     @Override
     public Map<String, CompleteLease> getAllLeases() {
-        try (Jedis jedis = pool.getResource()) {
-            Map<String, String> values = jedis.hgetAll(leaseHashKey);
+        Map<String, String> values = readAllLeases();
+        Map<String, CompleteLease> leases = new HashMap<>();
 
-            return values.entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey,
-                    entry -> new RedisLease(entry.getKey(), entry.getValue())));
+        synchronized (sync) {
+            loadAllLeases(values);
+            for (int i = 0; i < table.size(); i++) {
+                if (table.hasLease(i)) {
+                    leases.put(table.partitionIdAt(i), table.toLease(i));
+                }
+            }
         }
+
+        return leases;
     }
 
     @Override
     public List<BaseLease> getBaseLeases() {
-        try (Jedis jedis = pool.getResource()) {
-            Map<String, String> values = jedis.hgetAll(leaseHashKey);
+        Map<String, String> values = readAllLeases();
+        List<BaseLease> leases = new ArrayList<>();
+
+        synchronized (sync) {
+            loadAllLeases(values);
+            for (int i = 0; i < table.size(); i++) {
+                if (table.hasLease(i)) {
+                    leases.add(table.toLease(i));
+                }
+            }
+        }
+
+        return leases;
+    }
+
+    @Override
+    public Map<String, Long> heartbeat(String hostname, long expireMillis) {
+        Map<String, String> values = leasePool.execute(true, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.hset(hostsKey, hostname, Long.toString(expireMillis));
+            Response<Map<String, String>> all = pipeline.hgetAll(hostsKey);
+            pipeline.sync();
+            return all.get();
+        });
 
-            return values.entrySet()
-                .stream()
-                .map(entry -> new RedisLease(entry.getKey(), entry.getValue()))
-                .collect(Collectors.toList());
+        Map<String, Long> heartbeats = new HashMap<>();
+        List<String> stale = new ArrayList<>();
+        values.forEach((host, value) -> {
+            try {
+                long hostExpireMillis = Long.parseLong(value);
+                heartbeats.put(host, hostExpireMillis);
+
+                if (hostExpireMillis < expireMillis - STALE_HEARTBEAT_MILLIS) {
+                    stale.add(host);
+                }
+            } catch (NumberFormatException e) {
+                stale.add(host);
+            }
+        });
+
+        // Hosts that have been gone for a long time are removed, so the hash does not keep growing.
+        if (!stale.isEmpty()) {
+            LOG.debug("removing {} stale heartbeats", stale.size());
+            leasePool.execute(true, jedis -> jedis.hdel(hostsKey, stale.toArray(new String[0])));
         }
+
+        return heartbeats;
+    }
+
+    @Override
+    public int sweepOrphans(Set<String> livePartitionIds, long expiredBeforeMillis, int budget) {
+        Map<String, String> orphans = new HashMap<>();
+
+        // One page of one lease hash is read per call. The cursor moves on to the next shard once a hash is done.
+        synchronized (sweepLock) {
+            String key = shardCount == 1 ? leaseHashKey : leaseHashKey + ':' + sweepShard;
+            String cursor = sweepCursor;
+            ScanResult<Map.Entry<String, String>> page = leasePool.execute(true,
+                jedis -> jedis.hscan(key, cursor, new ScanParams().count(budget)));
+
+            sweepCursor = page.getCursor();
+            if (ScanParams.SCAN_POINTER_START.equals(sweepCursor)) {
+                sweepShard = (sweepShard + 1) % shardCount;
+            }
+
+            for (Map.Entry<String, String> entry : page.getResult()) {
+                if (livePartitionIds.contains(entry.getKey())) {
+                    continue;
+                }
+
+                long expireMillis;
+                try {
+                    expireMillis = PartitionTable.parseLease(entry.getKey(), entry.getValue()).getExpireMillis();
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    continue;
+                }
+                if (expireMillis > 0 && expireMillis < expiredBeforeMillis) {
+                    orphans.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        int removed = 0;
+        for (Map.Entry<String, String> orphan : orphans.entrySet()) {
+            String partitionId = orphan.getKey();
+            Object result = pool.execute(false, jedis -> DELETE_ORPHAN.eval(jedis,
+                Arrays.asList(leaseKey(partitionId), checkpointKey(partitionId), stateKey),
+                Arrays.asList(partitionId, orphan.getValue())));
+
+            if (Long.valueOf(1).equals(result)) {
+                LOG.info("removed lease and checkpoint of partition {}, which is no longer in the event hub",
+                    partitionId);
+                invalidateField(leaseCache, partitionId);
+                invalidateField(checkpointCache, partitionId);
+                replicate(secondary -> {
+                    secondary.leaseDeleted(partitionId);
+                    secondary.checkpointDeleted(partitionId);
+                });
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    @Override
+    public void refreshExpiry(long ttlMillis) {
+        List<String> keys = new ArrayList<>(Arrays.asList(hashKey, leaseHashKey, historyKey, hostsKey, stateKey));
+        if (shardCount > 1) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                keys.add(hashKey + ':' + shard);
+                keys.add(leaseHashKey + ':' + shard);
+            }
+        }
+
+        pool.execute(true, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            keys.forEach(key -> pipeline.pexpire(key, ttlMillis));
+            pipeline.sync();
+            return null;
+        });
+    }
+
+    @Override
+    public List<CheckpointLagStats> getCheckpointLagStats() {
+        return telemetry.snapshot(Instant.now().toEpochMilli());
+    }
+
+    @Override
+    public void promoteSecondary() {
+        CheckpointReplicator secondary = this.replicator;
+        if (secondary == null) {
+            throw new IllegalStateException("No secondary Redis is configured");
+        }
+
+        // Stop copying in the background, then copy whatever is still queued. If the primary is gone the batched
+        // checkpoints stay dirty in the table, and are written to the secondary once it has taken over.
+        secondary.close();
+        writeCheckpoints();
+        secondary.replicate(!this.pool.isCircuitOpen());
+
+        LOG.info("promoting secondary Redis {}:{}", this.options.getSecondaryHostname(),
+            this.options.getSecondaryPort());
+
+        ResilientPool primary = this.pool;
+        ResilientPool primaryLeases = this.leasePool;
+        this.replicator = null;
+        this.pool = this.secondaryPool;
+        this.leasePool = this.secondaryPool;
+
+        if (this.autoPipeline != null) {
+            this.autoPipeline.close();
+            this.leaseAutoPipeline.close();
+            startAutoPipelines();
+        }
+
+        // The invalidation listener is connected to the primary. Cached entries expire after the TTL instead.
+        if (this.invalidationListener != null) {
+            this.invalidationListener.close();
+            this.invalidationListener = null;
+            trackingChanged(false);
+        }
+
+        primary.close();
+        if (primaryLeases != primary) {
+            primaryLeases.close();
+        }
+    }
+
+    @Override
+    public ReplicationStats getReplicationStats() {
+        CheckpointReplicator secondary = this.replicator;
+        return secondary == null ? null : secondary.getStats();
+    }
+
+    @Override
+    public NearCacheStats getCheckpointCacheStats() {
+        return checkpointCache == null ? null : checkpointCache.getStats();
+    }
+
+    @Override
+    public NearCacheStats getLeaseCacheStats() {
+        return leaseCache == null ? null : leaseCache.getStats();
     }
 
     @Override
     public void close() {
+        if (this.options.isJmxEnabled()) {
+            unregisterTelemetry();
+        }
+        if (this.autoPipeline != null) {
+            this.autoPipeline.close();
+            this.leaseAutoPipeline.close();
+        }
+        if (this.replicator != null) {
+            this.replicator.close();
+        }
+        if (this.invalidationListener != null) {
+            this.invalidationListener.close();
+        }
+        if (this.replicaPool != null) {
+            this.hedgeExecutor.shutdownNow();
+            this.replicaPool.close();
+        }
+
         this.writeTimer.cancel();
         this.pool.close();
+        if (this.leasePool != this.pool) {
+            this.leasePool.close();
+        }
+        if (this.secondaryPool != null && this.secondaryPool != this.pool) {
+            this.secondaryPool.close();
+        }
+    }
+
+    private Map<String, String> readAllLeases() {
+        return readAll(leaseHashKey, leaseCache);
+    }
+
+    // Reads a single hash field, going through the near cache when it is enabled.
+    private String readField(String key, String field, NearCache cache, boolean hedged) {
+        long now = Instant.now().toEpochMilli();
+        long version = 0;
+
+        if (cache != null) {
+            String cached = cache.get(field, now);
+            if (cached != null) {
+                return cached;
+            }
+            version = cache.version();
+        }
+
+        String result = hedged ? hedgedGet(key, field) : hget(key, field);
+
+        if (cache != null) {
+            cache.put(field, result, version, now);
+        }
+
+        return result;
+    }
+
+    // Reads a whole hash from Redis. The near cache is never used for this, but it is filled from the result.
+    // A sharded hash is read in one transaction, so the result is as consistent as reading a single hash.
+    // If the unsharded hash is back after it was moved into shards, a host without sharding is still running and
+    // owns partitions that this host cannot see. Reading fails then, instead of handing out leases twice.
+    private Map<String, String> readAll(String key, NearCache cache) {
+        long version = cache == null ? 0 : cache.version();
+        ResilientPool keyPool = poolFor(key);
+        Map<String, String> values = shardCount == 1
+            ? keyPool.execute(true, jedis -> jedis.hgetAll(key))
+            : keyPool.execute(true, jedis -> {
+                Pipeline pipeline = jedis.pipelined();
+
+                pipeline.multi();
+                List<Response<Map<String, String>>> shards = queueReadAll(pipeline, key);
+                Response<Boolean> unsharded = pipeline.exists(key);
+                pipeline.exec();
+                pipeline.sync();
+
+                if (unsharded.get()) {
+                    throw new IllegalStateException(key + " was written by a host that does not use "
+                        + shardCount + " hash shards. Stop every host before changing the hash shard count");
+                }
+                return mergeShards(shards);
+            });
+
+        if (cache != null) {
+            long now = Instant.now().toEpochMilli();
+            values.forEach((field, value) -> cache.put(field, value, version, now));
+        }
+
+        return values;
+    }
+
+    // Reads a hash field from the primary. If the primary has not answered within the hedge delay, the same read
+    // is sent to the replica as well, and whichever answers first successfully wins. The replica may be slightly
+    // behind the primary, so this is only used where a slightly stale answer is acceptable.
+    private String hedgedGet(String key, String field) {
+        CompletableFuture<String> primary;
+
+        try {
+            primary = CompletableFuture.supplyAsync(
+                () -> poolFor(key).execute(true, jedis -> jedis.hget(key, field)), hedgeExecutor);
+        } catch (RejectedExecutionException e) {
+            return poolFor(key).execute(true, jedis -> jedis.hget(key, field));
+        }
+
+        try {
+            try {
+                return primary.get(this.options.getHedgeDelayInMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LOG.debug("hedging read of {} {} to the replica", key, field);
+            }
+
+            // The first successful read wins. Only fail once every read that was started has failed.
+            CompletableFuture<String> first = new CompletableFuture<>();
+            AtomicInteger pending = new AtomicInteger(1);
+            BiConsumer<String, Throwable> completeFirst = (result, err) -> {
+                if (err == null) {
+                    first.complete(result);
+                } else if (pending.decrementAndGet() == 0) {
+                    first.completeExceptionally(err);
+                }
+            };
+
+            CompletableFuture<String> replica = null;
+            try {
+                replica = CompletableFuture.supplyAsync(
+                    () -> replicaPool.execute(true, jedis -> jedis.hget(key, field)), hedgeExecutor);
+                pending.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                LOG.debug("no thread available to hedge read of {} {}", key, field);
+            }
+
+            primary.whenComplete(completeFirst);
+            if (replica != null) {
+                replica.whenComplete(completeFirst);
+            }
+
+            return first.get(this.options.getOperationTimeoutInMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new JedisConnectionException(cause);
+        } catch (TimeoutException e) {
+            throw new JedisConnectionException("Timed out reading " + key + " " + field, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException("Interrupted reading " + key + " " + field, e);
+        }
+    }
+
+    // Adds the checkpoints to the history stream, trimming it to roughly the configured length. XADD with an
+    // automatic id adds a second entry when it is repeated, so pipelines that call this must not be retried.
+    private void appendHistory(PipelineBase pipeline, Map<String, String> values) {
+        pipeline.xadd(historyKey, StreamEntryID.NEW_ENTRY, values, this.options.getCheckpointHistoryMaxLength(), true);
+    }
+
+    /**
+     * Get the stream entry id right before the given one.
+     * @param id The stream entry id
+     * @return The previous id, or null if there is none
+     */
+    static StreamEntryID previousId(StreamEntryID id) {
+        if (id.getSequence() > 0) {
+            return new StreamEntryID(id.getTime(), id.getSequence() - 1);
+        }
+        if (id.getTime() > 0) {
+            return new StreamEntryID(id.getTime() - 1, Long.MAX_VALUE);
+        }
+        return null;
+    }
+
+    // Encodes the state of a checkpoint the way it is stored, or returns null if the checkpoint has no state.
+    private String encodeState(Checkpoint checkpoint) {
+        byte[] state = checkpoint instanceof StatefulCheckpoint ? ((StatefulCheckpoint) checkpoint).getState() : null;
+        if (state == null) {
+            return null;
+        }
+
+        if (!this.options.isPartitionStateEnabled()) {
+            throw new IllegalStateException("Partition state is not enabled");
+        }
+        if (state.length > this.options.getMaxPartitionStateBytes()) {
+            throw new IllegalArgumentException("The state of partition " + checkpoint.getPartitionId() + " is "
+                + state.length + " bytes, which is more than the limit of " + this.options.getMaxPartitionStateBytes());
+        }
+        return StatefulCheckpoint.encode(state);
+    }
+
+    private static void invalidateField(NearCache cache, String field) {
+        if (cache != null) {
+            cache.invalidate(field);
+        }
+    }
+
+    // Called by the invalidation listener for every tracked key that changed. A null key means everything changed.
+    private void keyInvalidated(String key) {
+        if (key == null || isHashOrShard(key, leaseHashKey)) {
+            leaseCache.invalidateAll();
+        }
+        if (key == null || isHashOrShard(key, hashKey)) {
+            checkpointCache.invalidateAll();
+        }
+    }
+
+    // Adds reads of a whole hash, or of all of its shards, to a pipeline.
+    private List<Response<Map<String, String>>> queueReadAll(PipelineBase pipeline, String key) {
+        if (shardCount == 1) {
+            return Collections.singletonList(pipeline.hgetAll(key));
+        }
+
+        List<Response<Map<String, String>>> shards = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards.add(pipeline.hgetAll(key + ':' + shard));
+        }
+        return shards;
+    }
+
+    private static Map<String, String> mergeShards(List<Response<Map<String, String>>> shards) {
+        Map<String, String> all = new HashMap<>();
+        shards.forEach(response -> all.putAll(response.get()));
+        return all;
+    }
+
+    // Lease reads go through the lease pool, so they do not wait behind checkpoint writes.
+    private ResilientPool poolFor(String key) {
+        return isHashOrShard(key, leaseHashKey) ? leasePool : pool;
+    }
+
+    private void startAutoPipelines() {
+        this.autoPipeline = new AutoPipeline(this.pool, this.options.getAutoPipelineThreads(),
+            "redis-checkpoint-pipeline", this.options.getOperationTimeoutInMillis());
+        this.autoPipeline.start();
+        this.leaseAutoPipeline = this.autoPipeline;
+
+        if (this.leasePool != this.pool) {
+            this.leaseAutoPipeline = new AutoPipeline(this.leasePool, this.options.getAutoPipelineThreads(),
+                "redis-checkpoint-lease-pipeline", this.options.getOperationTimeoutInMillis());
+            this.leaseAutoPipeline.start();
+        }
+    }
+
+    private void leaseReplicated(RedisLease lease) {
+        replicate(secondary -> secondary.leaseWritten(lease.getPartitionId(), lease.getRedisValue()));
+    }
+
+    // Queues a write for the secondary, if there is one.
+    private void replicate(Consumer<CheckpointReplicator> write) {
+        CheckpointReplicator secondary = this.replicator;
+        if (secondary != null) {
+            write.accept(secondary);
+        }
+    }
+
+    // Reads all values of one kind from the primary, for copying everything to the secondary.
+    private Map<String, String> readPrimary(String kind) {
+        switch (kind) {
+            case CheckpointReplicator.LEASES:
+                return readAll(this.leaseHashKey, null);
+            case CheckpointReplicator.STATES:
+                return pool.execute(true, jedis -> jedis.hgetAll(this.stateKey));
+            default:
+                return readAll(this.hashKey, null);
+        }
+    }
+
+    // Single commands go through the auto pipeline when it is enabled, so commands from many threads share round
+    // trips.
+    private String hget(String key, String field) {
+        AutoPipeline target = autoPipelineFor(key);
+        return target == null
+            ? poolFor(key).execute(true, jedis -> jedis.hget(key, field))
+            : target.execute(pipeline -> pipeline.hget(key, field));
+    }
+
+    private void hset(String key, String field, String value) {
+        AutoPipeline target = autoPipelineFor(key);
+        if (target == null) {
+            poolFor(key).execute(true, jedis -> jedis.hset(key, field, value));
+        } else {
+            target.execute(pipeline -> pipeline.hset(key, field, value));
+        }
+    }
+
+    private void hdel(String key, String field) {
+        AutoPipeline target = autoPipelineFor(key);
+        if (target == null) {
+            poolFor(key).execute(true, jedis -> jedis.hdel(key, field));
+        } else {
+            target.execute(pipeline -> pipeline.hdel(key, field));
+        }
+    }
+
+    private AutoPipeline autoPipelineFor(String key) {
+        return isHashOrShard(key, leaseHashKey) ? leaseAutoPipeline : autoPipeline;
+    }
+
+    private boolean isSlow(String partitionId) {
+        if (admission == null) {
+            return false;
+        }
+
+        synchronized (sync) {
+            return admission.shouldCoalesce(table.indexOf(partitionId));
+        }
+    }
+
+    // Records how long a write of the given partitions' checkpoints took, for deciding which ones to batch.
+    private void recordLatency(long startNanos, String... partitionIds) {
+        if (admission == null) {
+            return;
+        }
+
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        synchronized (sync) {
+            for (String partitionId : partitionIds) {
+                admission.record(table.indexOf(partitionId), latencyMillis);
+            }
+        }
+    }
+
+    private static boolean isHashOrShard(String key, String hash) {
+        return key.startsWith(hash) && (key.length() == hash.length() || key.charAt(hash.length()) == ':');
+    }
+
+    // The hash key a checkpoint is stored under. With sharding, this is the checkpoint hash key with the shard
+    // number after a colon.
+    private String checkpointKey(String partitionId) {
+        return shardKey(hashKey, partitionId);
+    }
+
+    private String leaseKey(String partitionId) {
+        return shardKey(leaseHashKey, partitionId);
+    }
+
+    private String shardKey(String key, String partitionId) {
+        return shardCount == 1 ? key : key + ':' + PartitionTable.shardOf(partitionId, shardCount);
+    }
+
+    private Map<String, Map<String, String>> groupByShard(String key, Map<String, String> values) {
+        Map<String, Map<String, String>> shards = new HashMap<>();
+        values.forEach((field, value) -> shards.computeIfAbsent(shardKey(key, field), k -> new HashMap<>())
+            .put(field, value));
+        return shards;
+    }
+
+    // Moves the fields of an unsharded hash into its shards. Fields that are already in a shard were written by
+    // an upgraded host and are newer, so they are kept. The hash is watched, so a write to it by a host that has not
+    // been upgraded yet makes the move start over instead of being lost.
+    // Only safe while no host without sharding is running. A host that still uses the unsharded hash would keep
+    // writing to it after the move, see readAll.
+    private void migrateToShards(String key) {
+        for (int attempt = 0; attempt < MIGRATION_ATTEMPTS; attempt++) {
+            boolean done = pool.execute(false, jedis -> {
+                jedis.watch(key);
+                Map<String, String> values = jedis.hgetAll(key);
+
+                if (values.isEmpty()) {
+                    jedis.unwatch();
+                    return true;
+                }
+
+                LOG.info("moving {} fields of {} into {} shards", values.size(), key, shardCount);
+                Transaction transaction = jedis.multi();
+                values.forEach((field, value) -> transaction.hsetnx(shardKey(key, field), field, value));
+                transaction.del(key);
+                return transaction.exec() != null;
+            });
+
+            if (done) {
+                return;
+            }
+        }
+
+        LOG.warn("{} is still being written to. It will be moved into shards on the next connect", key);
+    }
+
+    private void trackingChanged(boolean tracking) {
+        checkpointCache.setTracking(tracking);
+        leaseCache.setTracking(tracking);
+    }
+
+    private ResilientPool createPool(String hostname, int port, int maxTotal) {
+        return createPool(this.options, this.hashKey, hostname, port, maxTotal);
+    }
+
+    /**
+     * Create a connection pool with the connection settings, timeouts and circuit breaker from the options.
+     * @param options The options object
+     * @param clientName The client name connections are given
+     * @param hostname The hostname of the Redis server
+     * @param port The port of the Redis server
+     * @param maxTotal The maximum number of connections. 0 or less keeps the Jedis default
+     * @return A {@link ResilientPool}
+     */
+    static ResilientPool createPool(RedisCheckpointOptions options, String clientName, String hostname, int port,
+                                    int maxTotal) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxWaitMillis(options.getOperationTimeoutInMillis());
+        if (maxTotal > 0) {
+            poolConfig.setMaxTotal(maxTotal);
+            poolConfig.setMaxIdle(maxTotal);
+        }
+
+        JedisPool jedisPool = new JedisPool(
+            poolConfig,
+            hostname,
+            port,
+            options.getConnectTimeout(),
+            options.getOperationTimeoutInMillis(),
+            options.getPassword(),
+            options.getDatabase(),
+            clientName,
+            options.isSsl(),
+            null,
+            null,
+            null);
+
+        CircuitBreaker breaker = new CircuitBreaker(
+            options.getCircuitBreakerFailureThreshold(),
+            options.getCircuitBreakerOpenInMillis());
+
+        return new ResilientPool(jedisPool, breaker, options);
+    }
+
+    // Registers the checkpoint lag over JMX, named after the checkpoint key so several stores can be registered.
+    private void registerTelemetry() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(telemetry, telemetryName());
+        } catch (JMException e) {
+            LOG.warn("Error registering checkpoint telemetry MBean", e);
+        }
+    }
+
+    private void unregisterTelemetry() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(telemetryName());
+        } catch (JMException e) {
+            LOG.warn("Error unregistering checkpoint telemetry MBean", e);
+        }
+    }
+
+    private ObjectName telemetryName() throws MalformedObjectNameException {
+        return new ObjectName("com.github.davesters:type=CheckpointTelemetry,name=" + ObjectName.quote(hashKey));
+    }
+
+    // Creates a connection outside of the pool for long lived, dedicated uses.
+    private Jedis createConnection() {
+        Jedis jedis = new Jedis(
+            this.options.getRedisHostname(),
+            this.options.getPort(),
+            this.options.getConnectTimeout(),
+            this.options.getConnectTimeout(),
+            this.options.isSsl());
+
+        if (this.options.getPassword() != null) {
+            jedis.auth(this.options.getPassword());
+        }
+        if (this.options.getDatabase() != 0) {
+            jedis.select(this.options.getDatabase());
+        }
+
+        return jedis;
+    }
+
+    // Replaces all leases in the table with the given stored values. Must be called while holding the sync lock.
+    private void loadAllLeases(Map<String, String> values) {
+        table.clearLeases();
+        values.forEach((key, value) -> table.putLeaseValue(table.indexOf(key), value));
     }
 }
@@ -1,38 +1,36 @@
 package com.github.davesters;
 
 import com.microsoft.azure.eventprocessorhost.CompleteLease;
-import java.time.Instant;
+import java.time.Clock;
 
 /**
- * A CompleteLease object wrapped in additional context for storing them in Redis.
+ * A CompleteLease object wrapped in additional context for storing them in Redis. Every {@link CheckpointStore} reads
+ * and writes its leases as RedisLease objects, whatever it keeps them in.
  */
-class RedisLease extends CompleteLease {
+public class RedisLease extends CompleteLease {
 
+    private final Clock clock;
     private long expireMillis;
 
     /**
      * Create a new RedisLease object.
      * @param partitionId The partition id of the lease
-     * @param redisValue The value to be written to Redis
+     * @param epoch The epoch to be written to Redis
+     * @param expireMillis The expiration time in millis to be written to Redis
      */
-    RedisLease(String partitionId, String redisValue) {
-        super(partitionId);
-        String[] segments = redisValue.split(",");
-
-        this.setOwner(segments[0]);
-        this.epoch = Long.parseLong(segments[1]);
-        this.expireMillis = Long.parseLong(segments[2]);
-        this.setIsOwned(!isExpired() && !segments[0].trim().isEmpty());
+    public RedisLease(String partitionId, long epoch, long expireMillis) {
+        this(partitionId, "", epoch, expireMillis);
     }
 
     /**
      * Create a new RedisLease object.
      * @param partitionId The partition id of the lease
+     * @param owner The owner name to be written to Redis
      * @param epoch The epoch to be written to Redis
      * @param expireMillis The expiration time in millis to be written to Redis
      */
-    RedisLease(String partitionId, long epoch, long expireMillis) {
-        this(partitionId, "", epoch, expireMillis);
+    public RedisLease(String partitionId, String owner, long epoch, long expireMillis) {
+        this(partitionId, owner, epoch, expireMillis, CoarseClock.INSTANCE);
     }
 
     /**
@@ -41,26 +39,44 @@ class RedisLease extends CompleteLease {
      * @param owner The owner name to be written to Redis
      * @param epoch The epoch to be written to Redis
      * @param expireMillis The expiration time in millis to be written to Redis
+     * @param clock The clock to check the expiration time against
      */
-    RedisLease(String partitionId, String owner, long epoch, long expireMillis) {
+    public RedisLease(String partitionId, String owner, long epoch, long expireMillis, Clock clock) {
         super(partitionId);
 
         this.setOwner(owner);
         this.epoch = epoch;
         this.expireMillis = expireMillis;
+        this.clock = clock;
         this.setIsOwned(!isExpired() && !owner.trim().isEmpty());
     }
 
+    /**
+     * Get the time the lease expires at.
+     * @return The expiration time in epoch millis
+     */
     public long getExpireMillis() {
         return expireMillis;
     }
 
+    /**
+     * Set the time the lease expires at.
+     * @param expireMillis The expiration time in epoch millis
+     */
     public void setExpireMillis(long expireMillis) {
         this.expireMillis = expireMillis;
     }
 
+    /**
+     * Check if the lease has expired, against the clock it was created with.
+     * @return True if the expiration time has passed
+     */
     public boolean isExpired() {
-        return Instant.now().toEpochMilli() >= expireMillis;
+        return clock.millis() >= expireMillis;
+    }
+
+    Clock getClock() {
+        return clock;
     }
 
     /**
@@ -70,6 +86,6 @@ class RedisLease extends CompleteLease {
      * @return A concatenated string.
      */
     public String getRedisValue() {
-        return String.format("%s,%d,%d", getOwner(), epoch, expireMillis);
+        return getOwner() + ',' + epoch + ',' + expireMillis;
     }
 }
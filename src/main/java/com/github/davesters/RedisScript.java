@@ -0,0 +1,68 @@
+package com.github.davesters;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * A Lua script that is run with EVALSHA so the script body is only sent to Redis the first time it is used.
+ */
+final class RedisScript {
+
+    private static final int HEX_RADIX = 16;
+    private static final int NIBBLE_MASK = 0xf;
+
+    private final String script;
+    private final String sha1;
+
+    /**
+     * Create a new RedisScript.
+     * @param script The Lua source of the script
+     */
+    RedisScript(String script) {
+        this.script = script;
+        this.sha1 = sha1Hex(script);
+    }
+
+    /**
+     * Run the script. If Redis does not have the script cached yet, it is sent in full.
+     * @param jedis The connection to run the script on
+     * @param keys The keys the script accesses
+     * @param args The arguments to the script
+     * @return The result of the script
+     */
+    Object eval(Jedis jedis, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(sha1, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+
+            return jedis.eval(script, keys, args);
+        }
+    }
+
+    String getScript() {
+        return script;
+    }
+
+    private static String sha1Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & NIBBLE_MASK, HEX_RADIX))
+                    .append(Character.forDigit(b & NIBBLE_MASK, HEX_RADIX));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
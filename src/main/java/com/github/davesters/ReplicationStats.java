@@ -0,0 +1,68 @@
+package com.github.davesters;
+
+/**
+ * How far the secondary Redis is behind the primary. See {@link RedisCheckpointOptions#getSecondaryHostname()}.
+ */
+public final class ReplicationStats {
+
+    private final int pendingUpdates;
+    private final long lagMillis;
+    private final long lastReplicatedAtMillis;
+    private final long resyncs;
+    private final long failures;
+
+    ReplicationStats(int pendingUpdates, long lagMillis, long lastReplicatedAtMillis, long resyncs, long failures) {
+        this.pendingUpdates = pendingUpdates;
+        this.lagMillis = lagMillis;
+        this.lastReplicatedAtMillis = lastReplicatedAtMillis;
+        this.resyncs = resyncs;
+        this.failures = failures;
+    }
+
+    /**
+     * The number of checkpoints and leases written to the primary that have not been copied to the secondary yet.
+     * Several writes of the same partition count once.
+     * @return int
+     */
+    public int getPendingUpdates() {
+        return pendingUpdates;
+    }
+
+    /**
+     * How long the oldest write that has not been copied to the secondary yet has been waiting, or 0 if there is none.
+     * @return long in milliseconds
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * When writes were last copied to the secondary, or 0 if they never were.
+     * @return long in epoch milliseconds
+     */
+    public long getLastReplicatedAtMillis() {
+        return lastReplicatedAtMillis;
+    }
+
+    /**
+     * The number of times everything was copied over again, on start up and after the queue of writes was full.
+     * @return long
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * The number of times copying to the secondary failed. Failed writes are tried again with the next copy.
+     * @return long
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pending=%d, lag=%dms, lastReplicatedAt=%d, resyncs=%d, failures=%d",
+            pendingUpdates, lagMillis, lastReplicatedAtMillis, resyncs, failures);
+    }
+}
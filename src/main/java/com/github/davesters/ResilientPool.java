@@ -0,0 +1,129 @@
+package com.github.davesters;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Runs commands against a Redis connection pool with retries and a circuit breaker.
+ * Idempotent operations that fail with a connection error are retried with jittered exponential backoff, as long
+ * as the retry starts within the retry budget. The budget is not a deadline: an attempt that is already running is
+ * only bounded by the socket timeout. Every connection failure counts towards the circuit breaker, and while it is
+ * open operations fail fast with a {@link JedisConnectionException}, the same exception a lost connection throws.
+ * While the breaker is open, any error from the probe call keeps it open, since a Redis that is still loading its
+ * data or busy with a script answers with an error rather than dropping the connection.
+ */
+class ResilientPool implements NoExceptionAutoClosable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResilientPool.class.getSimpleName());
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final JedisPool pool;
+    private final CircuitBreaker breaker;
+    private final int retryAttempts;
+    private final long retryBackoffMillis;
+    private final long retryBudgetMillis;
+
+    /**
+     * Create a new ResilientPool.
+     * @param pool The connection pool to take connections from
+     * @param breaker The circuit breaker to guard the pool with
+     * @param options The options object
+     */
+    ResilientPool(JedisPool pool, CircuitBreaker breaker, RedisCheckpointOptions options) {
+        this.pool = pool;
+        this.breaker = breaker;
+        this.retryAttempts = options.getRetryAttempts();
+        this.retryBackoffMillis = options.getRetryBackoffInMillis();
+        this.retryBudgetMillis = options.getOperationTimeoutInMillis();
+    }
+
+    /**
+     * Run an operation with a connection from the pool.
+     * @param idempotent True if the operation can safely be run again after a failure
+     * @param operation The operation to run
+     * @param <T> The result type of the operation
+     * @return The result of the operation
+     */
+    <T> T execute(boolean idempotent, Function<Jedis, T> operation) {
+        long start = Instant.now().toEpochMilli();
+        long lastRetryStart = start + retryBudgetMillis;
+
+        boolean probe = breaker.isTripped();
+        if (probe && !breaker.tryProbe(start)) {
+            throw new JedisConnectionException("Redis circuit breaker is open");
+        }
+
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try (Jedis jedis = pool.getResource()) {
+                    T result = operation.apply(jedis);
+                    breaker.recordSuccess();
+                    probe = false;
+                    return result;
+                } catch (JedisConnectionException e) {
+                    long now = Instant.now().toEpochMilli();
+                    breaker.recordFailure(now);
+                    probe = false;
+
+                    long backoff = backoff(attempt);
+                    if (!idempotent || attempt >= retryAttempts || now + backoff >= lastRetryStart) {
+                        throw e;
+                    }
+
+                    LOG.debug("Redis operation failed. Retrying in {}ms", backoff, e);
+                    sleep(backoff, e);
+                } catch (JedisException e) {
+                    if (probe) {
+                        breaker.recordFailure(Instant.now().toEpochMilli());
+                        probe = false;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            // The probe ended with an error that is not about Redis, like a bug in the operation.
+            if (probe) {
+                breaker.releaseProbe();
+            }
+        }
+    }
+
+    /**
+     * Check if the circuit breaker is open, meaning Redis is currently considered unavailable.
+     * @return boolean
+     */
+    boolean isCircuitOpen() {
+        return breaker.isOpen(Instant.now().toEpochMilli());
+    }
+
+    boolean isClosed() {
+        return pool.isClosed();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    // Full jitter: a random wait between 0 and the exponential backoff for this attempt.
+    private long backoff(int attempt) {
+        long max = retryBackoffMillis << Math.min(attempt, MAX_BACKOFF_SHIFT);
+        return ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    private static void sleep(long millis, JedisConnectionException cause) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.davesters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes Redis commands in the RESP wire format into a reusable buffer.
+ * Strings are encoded straight into the buffer, so building a large command does not create a byte array per
+ * argument the way going through Jedis does. The buffer grows to fit the largest command written and is kept
+ * for the next one. Not thread safe.
+ */
+final class RespWriter {
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int MAX_LONG_DIGITS = 20;
+    private static final int ASCII_LIMIT = 0x80;
+    private static final int RADIX = 10;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+
+    /**
+     * Clear the buffer, keeping its capacity.
+     */
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * Start a command.
+     * @param argumentCount The number of arguments that follow, including the command name
+     * @return this
+     */
+    RespWriter command(int argumentCount) {
+        ensureCapacity(1 + MAX_LONG_DIGITS + CRLF.length);
+        buffer[length++] = '*';
+        writeLong(argumentCount);
+        writeCrlf();
+        return this;
+    }
+
+    /**
+     * Add a string argument.
+     * @param value The argument
+     * @return this
+     */
+    RespWriter argument(String value) {
+        int byteLength = utf8Length(value);
+        header(byteLength);
+
+        if (byteLength == value.length()) {
+            for (int i = 0; i < value.length(); i++) {
+                buffer[length++] = (byte) value.charAt(i);
+            }
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        writeCrlf();
+        return this;
+    }
+
+    /**
+     * Add a number argument.
+     * @param value The argument
+     * @return this
+     */
+    RespWriter argument(long value) {
+        header(digits(value));
+        writeLong(value);
+        writeCrlf();
+        return this;
+    }
+
+    /**
+     * Add a checkpoint value argument, in the same "offset,sequenceNumber" format the store uses everywhere else.
+     * @param offset The checkpoint offset
+     * @param sequenceNumber The checkpoint sequence number
+     * @return this
+     */
+    RespWriter checkpointArgument(String offset, long sequenceNumber) {
+        int offsetLength = utf8Length(offset);
+        if (offsetLength != offset.length()) {
+            return argument(offset + ',' + sequenceNumber);
+        }
+
+        header(offsetLength + 1 + digits(sequenceNumber));
+        for (int i = 0; i < offset.length(); i++) {
+            buffer[length++] = (byte) offset.charAt(i);
+        }
+        buffer[length++] = ',';
+        writeLong(sequenceNumber);
+        writeCrlf();
+        return this;
+    }
+
+    /**
+     * Write everything in the buffer to a stream.
+     * @param out The stream to write to
+     * @throws IOException If writing fails
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+
+    int size() {
+        return length;
+    }
+
+    // Writes the bulk string header and makes room for the value and the CRLF after it.
+    private void header(int byteLength) {
+        ensureCapacity(1 + MAX_LONG_DIGITS + CRLF.length + byteLength + CRLF.length);
+        buffer[length++] = '$';
+        writeLong(byteLength);
+        writeCrlf();
+    }
+
+    private void writeCrlf() {
+        buffer[length++] = CRLF[0];
+        buffer[length++] = CRLF[1];
+    }
+
+    // Writes the decimal digits of a number without creating a string.
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] bytes = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            return;
+        }
+
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[length++] = '-';
+            remaining = -remaining;
+        }
+
+        int end = length + digits(remaining);
+        int position = end;
+        do {
+            buffer[--position] = (byte) ('0' + remaining % RADIX);
+            remaining /= RADIX;
+        } while (remaining > 0);
+        length = end;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private static int digits(long value) {
+        if (value == Long.MIN_VALUE) {
+            return Long.toString(value).length();
+        }
+
+        int count = value < 0 ? 2 : 1;
+        for (long remaining = Math.abs(value); remaining >= RADIX; remaining /= RADIX) {
+            count++;
+        }
+        return count;
+    }
+
+    // The number of bytes a string takes in UTF-8, which is the string length for plain ASCII.
+    private static int utf8Length(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= ASCII_LIMIT) {
+                return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return value.length();
+    }
+}
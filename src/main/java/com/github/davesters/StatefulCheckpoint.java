@@ -0,0 +1,88 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.util.Base64;
+import java.util.function.Supplier;
+
+/**
+ * A checkpoint with the application state of its partition, like a dedup watermark or an aggregate, that was written
+ * in the same atomic step as the checkpoint. After a partition moves to another host, the new host gets back the
+ * state that goes with the offset it starts from.
+ * Large states are only read from Redis the first time {@link #getState()} is called.
+ * See {@link RedisCheckpointOptions#isPartitionStateEnabled()}.
+ */
+public class StatefulCheckpoint extends Checkpoint {
+
+    private Supplier<byte[]> loader;
+    private byte[] state;
+
+    /**
+     * Create a new StatefulCheckpoint.
+     * @param partitionId The partition id of the checkpoint
+     * @param offset The event hub offset
+     * @param sequenceNumber The event hub sequence number
+     * @param state The application state of the partition, or null if it has none
+     */
+    public StatefulCheckpoint(String partitionId, String offset, long sequenceNumber, byte[] state) {
+        super(partitionId, offset, sequenceNumber);
+        this.state = state;
+    }
+
+    /**
+     * Create a new StatefulCheckpoint from a checkpoint.
+     * @param checkpoint The checkpoint to copy
+     * @param state The application state of the partition, or null if it has none
+     */
+    public StatefulCheckpoint(Checkpoint checkpoint, byte[] state) {
+        this(checkpoint.getPartitionId(), checkpoint.getOffset(), checkpoint.getSequenceNumber(), state);
+    }
+
+    /**
+     * Create a new StatefulCheckpoint whose state is read the first time it is needed.
+     * @param partitionId The partition id of the checkpoint
+     * @param offset The event hub offset
+     * @param sequenceNumber The event hub sequence number
+     * @param loader Reads the state of the partition
+     */
+    StatefulCheckpoint(String partitionId, String offset, long sequenceNumber, Supplier<byte[]> loader) {
+        super(partitionId, offset, sequenceNumber);
+        this.loader = loader;
+    }
+
+    /**
+     * Get the application state of the partition, reading it from the store if it has not been read yet.
+     * @return The state, or null if the partition has none
+     * @throws IllegalStateException If the state has to be read, but the partition was checkpointed again since this
+     *     checkpoint was read, so the state that goes with it is gone
+     */
+    public synchronized byte[] getState() {
+        if (loader != null) {
+            state = loader.get();
+            loader = null;
+        }
+        return state;
+    }
+
+    /**
+     * Check if the state has been read from the store yet.
+     * @return True if {@link #getState()} will not have to go to the store
+     */
+    public synchronized boolean isStateLoaded() {
+        return loader == null;
+    }
+
+    // The state as it is stored in Redis.
+    static String encode(byte[] state) {
+        return Base64.getEncoder().encodeToString(state);
+    }
+
+    // An empty stored state is the same as no state.
+    static byte[] decode(String value) {
+        return value == null || value.isEmpty() ? null : Base64.getDecoder().decode(value);
+    }
+
+    // The number of characters a state of the given number of bytes takes up once encoded.
+    static long encodedLength(int bytes) {
+        return (bytes + 2L) / 3 * 4;
+    }
+}
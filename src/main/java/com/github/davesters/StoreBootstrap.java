@@ -0,0 +1,42 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.BaseLease;
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All leases and checkpoints of a consumer group, as read by
+ * {@link CheckpointStore#bootstrap(List, String, java.time.Clock)} right after making sure every partition has an
+ * entry.
+ */
+public final class StoreBootstrap {
+
+    private final List<BaseLease> leases;
+    private final Map<String, Checkpoint> checkpoints;
+    private final long takenAtMillis;
+
+    /**
+     * Create a new StoreBootstrap.
+     * @param leases All leases in the store
+     * @param checkpoints All checkpoints in the store, by partition id
+     * @param takenAtMillis The time the leases and checkpoints were read
+     */
+    public StoreBootstrap(List<BaseLease> leases, Map<String, Checkpoint> checkpoints, long takenAtMillis) {
+        this.leases = leases;
+        this.checkpoints = checkpoints;
+        this.takenAtMillis = takenAtMillis;
+    }
+
+    public List<BaseLease> getLeases() {
+        return leases;
+    }
+
+    public Map<String, Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.davesters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor that Redis calls run on when the lease manager runs them asynchronously.
+ * This is the version for Java 8 to 20, which uses a bounded pool of daemon threads with a bounded queue. When the
+ * queue is full, the call runs on the calling thread instead, which slows callers down rather than letting the queue
+ * grow without limit. The jar has a Java 21 version of this class that uses virtual threads instead.
+ */
+final class StoreExecutors {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final int QUEUED_CALLS_PER_THREAD = 64;
+
+    private StoreExecutors() {
+    }
+
+    /**
+     * Create a new executor for Redis calls. Shut it down when the store it runs calls for is closed.
+     * @param maxThreads The maximum number of threads running Redis calls at the same time
+     * @return ExecutorService
+     */
+    static ExecutorService newExecutor(int maxThreads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxThreads * QUEUED_CALLS_PER_THREAD), runnable -> {
+                Thread thread = new Thread(runnable, "redis-checkpoint-io-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, (runnable, pool) -> {
+                // Unlike CallerRunsPolicy, fail instead of silently dropping the call once shut down.
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("The Redis store executor is shut down");
+                }
+                runnable.run();
+            });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+}
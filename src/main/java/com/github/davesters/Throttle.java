@@ -0,0 +1,47 @@
+package com.github.davesters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many operations per second a single thread runs, by sleeping once it gets ahead of the rate.
+ * Operations are paid for after they have run, so the first batch never waits and a batch larger than a second's
+ * worth of operations is still allowed, it just makes the next batch wait longer.
+ */
+final class Throttle {
+
+    private final long nanosPerOperation;
+
+    private long nextFreeNanos;
+
+    /**
+     * Create a new Throttle.
+     * @param operationsPerSecond The number of operations allowed per second. 0 or less to not limit
+     */
+    Throttle(int operationsPerSecond) {
+        this.nanosPerOperation = operationsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / operationsPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Record operations that were run, waiting first if the operations before them went over the rate.
+     * @param operations The number of operations
+     * @throws IllegalStateException If the thread is interrupted while waiting
+     */
+    void acquire(int operations) {
+        if (nanosPerOperation == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (nextFreeNanos - now > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nextFreeNanos - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while throttling", e);
+            }
+        }
+
+        nextFreeNanos = Math.max(nextFreeNanos, now) + operations * nanosPerOperation;
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.davesters;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor that Redis calls run on when the lease manager runs them asynchronously.
+ * This is the version for Java 21 and later, which runs every call on its own virtual thread. Blocking on Redis
+ * then does not tie up a platform thread, and the number of calls in flight is limited by the connection pool.
+ */
+final class StoreExecutors {
+
+    private StoreExecutors() {
+    }
+
+    /**
+     * Create a new executor for Redis calls. Shut it down when the store it runs calls for is closed.
+     * @param maxThreads Not used, virtual threads are not pooled
+     * @return ExecutorService
+     */
+    static ExecutorService newExecutor(int maxThreads) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("redis-checkpoint-io-", 0).factory());
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.davesters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AutoPipelineTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private ResilientPool pool;
+    private Jedis jedis;
+    private Pipeline pipeline;
+    private ExecutorService callers;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void init() {
+        pool = mock(ResilientPool.class);
+        jedis = mock(Jedis.class);
+        pipeline = mock(Pipeline.class);
+        callers = Executors.newCachedThreadPool();
+
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pool.execute(eq(true), any())).thenAnswer(invocation -> {
+            Function<Jedis, Object> operation = invocation.getArgument(1);
+            return operation.apply(jedis);
+        });
+    }
+
+    @AfterEach
+    void cleanup() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void execute_sendsCommandsQueuedTogetherAsOnePipeline() {
+        Response<String> first = response("1");
+        Response<String> second = response("2");
+        Response<String> third = response("3");
+        when(pipeline.hget("key", "1")).thenReturn(first);
+        when(pipeline.hget("key", "2")).thenReturn(second);
+        when(pipeline.hget("key", "3")).thenReturn(third);
+
+        try (AutoPipeline autoPipeline = new AutoPipeline(pool, 1, "test", TIMEOUT_MILLIS)) {
+            List<CompletableFuture<String>> replies = queueTogether(autoPipeline,
+                p -> p.hget("key", "1"), p -> p.hget("key", "2"), p -> p.hget("key", "3"));
+
+            assertEquals("1", replies.get(0).join());
+            assertEquals("2", replies.get(1).join());
+            assertEquals("3", replies.get(2).join());
+        }
+
+        verify(pool, times(1)).execute(eq(true), any());
+        verify(pipeline, times(1)).sync();
+    }
+
+    @Test
+    void execute_failsOnlyTheCallerWhoseCommandFailed() {
+        Response<String> failed = response(null);
+        when(failed.get()).thenThrow(new JedisDataException("WRONGTYPE"));
+        Response<String> ok = response("value");
+        when(pipeline.hget("key", "bad")).thenReturn(failed);
+        when(pipeline.hget("key", "good")).thenReturn(ok);
+
+        try (AutoPipeline autoPipeline = new AutoPipeline(pool, 1, "test", TIMEOUT_MILLIS)) {
+            List<CompletableFuture<String>> replies = queueTogether(autoPipeline,
+                p -> p.hget("key", "bad"), p -> p.hget("key", "good"));
+
+            assertCause(JedisDataException.class, replies.get(0));
+            assertEquals("value", replies.get(1).join());
+        }
+    }
+
+    @Test
+    void execute_failsEveryCallerWhenTheBatchFails() {
+        doThrow(new JedisConnectionException("connection refused")).when(pool).execute(eq(true), any());
+
+        try (AutoPipeline autoPipeline = new AutoPipeline(pool, 1, "test", TIMEOUT_MILLIS)) {
+            List<CompletableFuture<String>> replies = queueTogether(autoPipeline,
+                p -> p.hget("key", "1"), p -> p.hget("key", "2"));
+
+            assertCause(JedisConnectionException.class, replies.get(0));
+            assertCause(JedisConnectionException.class, replies.get(1));
+        }
+    }
+
+    @Test
+    void close_failsQueuedCommandsAndRejectsNewOnes() {
+        AutoPipeline autoPipeline = new AutoPipeline(pool, 1, "test", TIMEOUT_MILLIS);
+        CompletableFuture<String> queued = submit(autoPipeline, p -> p.hget("key", "1"));
+        awaitQueued(autoPipeline, 1);
+
+        autoPipeline.close();
+
+        assertCause(JedisConnectionException.class, queued);
+        assertThrows(JedisConnectionException.class, () -> autoPipeline.execute(p -> p.hget("key", "2")));
+        verify(pool, never()).execute(eq(true), any());
+    }
+
+    @Test
+    void execute_timesOutWhenNoWriterTakesTheCommand() {
+        final long timeoutMillis = 10;
+
+        // The writers are never started, like when they have all died.
+        try (AutoPipeline autoPipeline = new AutoPipeline(pool, 1, "test", timeoutMillis)) {
+            assertThrows(JedisConnectionException.class, () -> autoPipeline.execute(p -> p.hget("key", "1")));
+            assertEquals(0, autoPipeline.getQueuedCommands());
+        }
+    }
+
+    // Queues every command before the writer starts, so they all go out in the same batch.
+    @SafeVarargs
+    private final List<CompletableFuture<String>> queueTogether(AutoPipeline autoPipeline,
+                                                                Function<PipelineBase, Response<String>>... commands) {
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (Function<PipelineBase, Response<String>> command : commands) {
+            replies.add(submit(autoPipeline, command));
+            awaitQueued(autoPipeline, replies.size());
+        }
+
+        autoPipeline.start();
+        return replies;
+    }
+
+    private CompletableFuture<String> submit(AutoPipeline autoPipeline,
+                                             Function<PipelineBase, Response<String>> command) {
+        return CompletableFuture.supplyAsync(() -> autoPipeline.execute(command), callers);
+    }
+
+    private static void awaitQueued(AutoPipeline autoPipeline, int commands) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (autoPipeline.getQueuedCommands() < commands) {
+            assertTrue(System.currentTimeMillis() < deadline, "commands were not queued");
+            Thread.yield();
+        }
+    }
+
+    private static void assertCause(Class<? extends Throwable> expected, CompletableFuture<?> reply) {
+        CompletionException e = assertThrows(CompletionException.class, reply::join);
+        assertTrue(expected.isInstance(e.getCause()), "unexpected failure " + e.getCause());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<String> response(String value) {
+        Response<String> response = mock(Response.class);
+        when(response.get()).thenReturn(value);
+        return response;
+    }
+}
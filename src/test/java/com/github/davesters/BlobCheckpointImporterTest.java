@@ -0,0 +1,95 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlobCheckpointImporterTest {
+
+    private Path directory;
+    private InMemoryCheckpointStore store;
+    private BlobCheckpointImporter importer;
+
+    @BeforeEach
+    void init() throws IOException {
+        directory = Files.createTempDirectory("leases");
+        store = new InMemoryCheckpointStore();
+        importer = new BlobCheckpointImporter(store, false);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void importDirectory_importsLeasesAndCheckpoints() throws IOException {
+        final long expectedSequenceNumber = 42;
+        final long expectedEpoch = 7;
+        Files.createDirectories(directory.resolve("$default"));
+        write("$default/0", "{\"offset\":\"4000\",\"sequenceNumber\":42,\"partitionId\":\"0\",\"epoch\":7,"
+            + "\"owner\":\"host1\",\"token\":\"abc\"}");
+        write("$default/1", "{\"offset\":null,\"sequenceNumber\":0,\"partitionId\":\"1\",\"epoch\":2,"
+            + "\"owner\":\"\",\"token\":\"\"}");
+
+        ImportResult result = importer.importDirectory(directory);
+
+        assertEquals(2, result.getDocumentsRead());
+        assertEquals(0, result.getDocumentsSkipped());
+        assertEquals(1, result.getCheckpointsImported());
+        assertEquals(2, result.getLeasesImported());
+
+        assertEquals("4000", store.getCheckpoint("0").getOffset());
+        assertEquals(expectedSequenceNumber, store.getCheckpoint("0").getSequenceNumber());
+        assertNull(store.getCheckpoint("1"));
+
+        CompleteLease lease = store.getLease("0");
+        assertEquals("host1", lease.getOwner());
+        assertEquals(expectedEpoch, lease.getEpoch());
+        assertTrue(((RedisLease) lease).isExpired());
+    }
+
+    @Test
+    void importDirectory_keepsExistingEntries() throws IOException {
+        final long storedSequenceNumber = 90;
+        store.setCheckpoint(new Checkpoint("0", "9000", storedSequenceNumber));
+        write("0", "{\"offset\":\"4000\",\"sequenceNumber\":42,\"partitionId\":\"0\",\"epoch\":7,\"owner\":\"host1\"}");
+
+        ImportResult result = importer.importDirectory(directory);
+
+        assertEquals(0, result.getCheckpointsImported());
+        assertEquals(1, result.getLeasesImported());
+        assertEquals("9000", store.getCheckpoint("0").getOffset());
+    }
+
+    @Test
+    void importDirectory_skipsOtherDocuments() throws IOException {
+        write("eventhub.info", "{\"eventHubPath\":\"hub\",\"consumerGroupName\":\"$default\"}");
+        write("broken", "{\"offset\":");
+        write("2", "{\"offset\":\"10\",\"sequenceNumber\":\"abc\",\"epoch\":1}");
+        write("3", "{\"offset\":\"10\",\"sequenceNumber\":1,\"epoch\":1}");
+
+        ImportResult result = importer.importDirectory(directory);
+
+        assertEquals(1, result.getDocumentsRead());
+        assertEquals(3, result.getDocumentsSkipped());
+        assertEquals("10", store.getCheckpoint("3").getOffset());
+        assertNull(store.getLease("2"));
+    }
+
+    private void write(String name, String json) throws IOException {
+        Files.write(directory.resolve(name), json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.davesters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CheckpointAdminTest {
+
+    private static final int HISTORY_PAGE_SIZE = 100;
+    private static final StreamEntryID HISTORY_START = new StreamEntryID(0, 0);
+
+    private RedisCheckpointOptions options;
+    private ResilientPool pool;
+    private Jedis jedis;
+    private Pipeline pipeline;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void init() {
+        options = new RedisCheckpointOptions("admin", "");
+        options.setAdminOperationsPerSecond(0);
+        pool = mock(ResilientPool.class);
+        jedis = mock(Jedis.class);
+        pipeline = mock(Pipeline.class);
+
+        when(jedis.pipelined()).thenReturn(pipeline);
+        when(pool.execute(anyBoolean(), any())).thenAnswer(invocation -> {
+            Function<Jedis, Object> operation = invocation.getArgument(1);
+            return operation.apply(jedis);
+        });
+        when(jedis.hscan(anyString(), anyString(), any(ScanParams.class))).thenReturn(page());
+    }
+
+    @Test
+    void checkpointKeyNameOf_removesShardsAndSuffixes() {
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph"));
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph:3"));
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph_lease"));
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph_lease:12"));
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph_history"));
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph_hosts"));
+        assertEquals("eph", CheckpointAdmin.checkpointKeyNameOf("eph_state"));
+        assertEquals("eph:group", CheckpointAdmin.checkpointKeyNameOf("eph:group"));
+    }
+
+    @Test
+    void cli_rejectsInvalidArguments() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output);
+
+        assertEquals(2, CheckpointAdminCli.run(new String[0], out));
+        assertEquals(2, CheckpointAdminCli.run(new String[] {"drop", "eph"}, out));
+        assertEquals(2, CheckpointAdminCli.run(new String[] {"reset", "eph"}, out));
+        assertEquals(2, CheckpointAdminCli.run(new String[] {"reset", "eph", "yesterday"}, out));
+        assertEquals(2, CheckpointAdminCli.run(new String[] {"--port"}, out));
+        assertEquals(2, CheckpointAdminCli.run(new String[] {"--port", "abc", "list"}, out));
+        assertTrue(output.toString().contains("usage:"));
+    }
+
+    @Test
+    void resetCheckpoints_writesEveryShardAndDeletesTheStates() {
+        options.setHashShardCount(2);
+        when(jedis.hscan(eq("eph:0"), anyString(), any(ScanParams.class))).thenReturn(page(entry("0", "100,1")));
+        when(jedis.hscan(eq("eph:1"), anyString(), any(ScanParams.class))).thenReturn(page(entry("1", "200,2")));
+
+        try (CheckpointAdmin admin = new CheckpointAdmin(options, pool, null)) {
+            assertEquals(2, admin.resetCheckpoints("eph", InitialCheckpointOffset.START_OF_STREAM));
+        }
+
+        String reset = InitialCheckpointOffset.START_OF_STREAM + ",0";
+        verify(pipeline).hset("eph:0", Collections.singletonMap("0", reset));
+        verify(pipeline).hset("eph:1", Collections.singletonMap("1", reset));
+        verify(pipeline).hdel("eph_state", "0");
+        verify(pipeline).hdel("eph_state", "1");
+        verify(pipeline, never()).hset(eq("eph"), anyMap());
+    }
+
+    @Test
+    void resetCheckpoints_pagesBackThroughTheHistory() {
+        final long timestampMillis = 1_000_000;
+        when(jedis.hscan(eq("eph"), anyString(), any(ScanParams.class)))
+            .thenReturn(page(entry("0", "900,9"), entry("1", "900,9")));
+
+        // The first page only has partition 0, so the next page has to be read for partition 1.
+        List<StreamEntry> newest = new ArrayList<>();
+        for (int i = 0; i < HISTORY_PAGE_SIZE; i++) {
+            newest.add(new StreamEntry(new StreamEntryID(timestampMillis - 1 - i, 0),
+                Collections.singletonMap("0", "50" + i + "," + (HISTORY_PAGE_SIZE - i))));
+        }
+        StreamEntryID oldestOfNewest = newest.get(HISTORY_PAGE_SIZE - 1).getID();
+        List<StreamEntry> older = Arrays.asList(
+            new StreamEntry(new StreamEntryID(oldestOfNewest.getTime() - 1, 0), Collections.singletonMap("1", "300,3")),
+            new StreamEntry(new StreamEntryID(oldestOfNewest.getTime() - 2, 0), Collections.singletonMap("1", "200,2")));
+
+        when(jedis.xrevrange("eph_history", new StreamEntryID(timestampMillis - 1, Long.MAX_VALUE), HISTORY_START,
+            HISTORY_PAGE_SIZE)).thenReturn(newest);
+        when(jedis.xrevrange("eph_history", RedisCheckpointStore.previousId(oldestOfNewest), HISTORY_START,
+            HISTORY_PAGE_SIZE)).thenReturn(older);
+
+        try (CheckpointAdmin admin = new CheckpointAdmin(options, pool, null)) {
+            assertEquals(2, admin.resetCheckpoints("eph", Instant.ofEpochMilli(timestampMillis)));
+        }
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("0", "500," + HISTORY_PAGE_SIZE);
+        expected.put("1", "300,3");
+        verify(pipeline).hset("eph", expected);
+    }
+
+    @Test
+    void releaseLeases_skipsLeasesThatChanged() {
+        final long nowMillis = 1_000_000;
+        final long expireMillis = nowMillis + 30_000;
+        options.setClock(new VirtualClock(nowMillis));
+        String renewed = "host-a,1," + expireMillis;
+        String changed = "host-a,2," + expireMillis;
+        when(jedis.hscan(eq("eph_lease"), anyString(), any(ScanParams.class)))
+            .thenReturn(page(entry("0", renewed), entry("1", changed), entry("2", "host-b,3," + expireMillis)));
+        when(jedis.scriptLoad(anyString())).thenReturn("sha");
+        List<String> keys = Collections.singletonList("eph_lease");
+        Response<Object> released = response(1L);
+        Response<Object> notReleased = response(0L);
+        when(pipeline.evalsha("sha", keys, Arrays.asList("0", renewed, ",1," + nowMillis))).thenReturn(released);
+        when(pipeline.evalsha("sha", keys, Arrays.asList("1", changed, ",2," + nowMillis))).thenReturn(notReleased);
+
+        try (CheckpointAdmin admin = new CheckpointAdmin(options, pool, null)) {
+            assertEquals(1, admin.releaseLeases("eph", "host-a"));
+        }
+
+        verify(pipeline, times(2)).evalsha(eq("sha"), eq(keys), anyList());
+    }
+
+    @Test
+    void export_writesOneJsonLinePerCheckpointAndLease() throws IOException {
+        final long expireMillis = 1000;
+        when(jedis.scan(anyString(), any(ScanParams.class)))
+            .thenReturn(new ScanResult<>(ScanParams.SCAN_POINTER_START, Arrays.asList("eph", "eph_lease")));
+        when(jedis.hscan(eq("eph"), anyString(), any(ScanParams.class))).thenReturn(page(entry("0", "100,5")));
+        when(jedis.hscan(eq("eph_lease"), anyString(), any(ScanParams.class)))
+            .thenReturn(page(entry("0", "host-\"a\",2," + expireMillis)));
+        Path file = Files.createTempFile("export", ".json");
+
+        try (CheckpointAdmin admin = new CheckpointAdmin(options, pool, null)) {
+            assertEquals(2, admin.export("eph*", file));
+
+            assertEquals(Arrays.asList(
+                "{\"checkpointKeyName\":\"eph\",\"type\":\"checkpoint\",\"partitionId\":\"0\",\"offset\":\"100\","
+                    + "\"sequenceNumber\":5}",
+                "{\"checkpointKeyName\":\"eph\",\"type\":\"lease\",\"partitionId\":\"0\","
+                    + "\"owner\":\"host-\\\"a\\\"\",\"epoch\":2,\"expireMillis\":1000}"),
+                Files.readAllLines(file, StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @SafeVarargs
+    private static ScanResult<Map.Entry<String, String>> page(Map.Entry<String, String>... entries) {
+        return new ScanResult<>(ScanParams.SCAN_POINTER_START, Arrays.asList(entries));
+    }
+
+    private static Map.Entry<String, String> entry(String field, String value) {
+        return new AbstractMap.SimpleEntry<>(field, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response<Object> response(Object value) {
+        Response<Object> response = mock(Response.class);
+        when(response.get()).thenReturn(value);
+        return response;
+    }
+}
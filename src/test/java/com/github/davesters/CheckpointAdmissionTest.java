@@ -0,0 +1,48 @@
+package com.github.davesters;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointAdmissionTest {
+
+    private static final long THRESHOLD_MILLIS = 50;
+    private static final long SLOW_WRITE_MILLIS = 500;
+
+    @Test
+    void shouldCoalesce_falseForUnknownPartition() {
+        final int unknownIndex = 100;
+        CheckpointAdmission admission = new CheckpointAdmission(THRESHOLD_MILLIS);
+
+        assertFalse(admission.shouldCoalesce(unknownIndex));
+    }
+
+    @Test
+    void shouldCoalesce_switchesOnlySlowPartition() {
+        final long fastWriteMillis = 10;
+        CheckpointAdmission admission = new CheckpointAdmission(THRESHOLD_MILLIS);
+
+        admission.record(0, SLOW_WRITE_MILLIS);
+        admission.record(1, fastWriteMillis);
+
+        assertTrue(admission.shouldCoalesce(0));
+        assertFalse(admission.shouldCoalesce(1));
+    }
+
+    @Test
+    void shouldCoalesce_switchesBackBelowHalfThreshold() {
+        final int index = 3;
+        final int writesAboveHalfThreshold = 6;
+        CheckpointAdmission admission = new CheckpointAdmission(THRESHOLD_MILLIS);
+        admission.record(index, SLOW_WRITE_MILLIS);
+
+        // The average goes 80, 64, 51, 41, 33, 26, 21.
+        for (int i = 0; i < writesAboveHalfThreshold; i++) {
+            admission.record(index, 0);
+            assertTrue(admission.shouldCoalesce(index));
+        }
+
+        admission.record(index, 0);
+        assertFalse(admission.shouldCoalesce(index));
+    }
+}
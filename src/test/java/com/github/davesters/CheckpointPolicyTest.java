@@ -0,0 +1,102 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.time.Clock;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointPolicyTest {
+
+    private static final long EVENT_COUNT = 100;
+    private static final Predicate<String> OWNED = partitionId -> true;
+
+    @Test
+    void update_writesEveryEventCount() {
+        final long written = 10;
+        final long halfway = 60;
+        final long notDue = written + EVENT_COUNT - 1;
+        final long due = written + EVENT_COUNT;
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CheckpointPolicy policy = new CheckpointPolicy(store, EVENT_COUNT, 0, OWNED, Clock.systemUTC());
+
+        policy.update(new Checkpoint("0", "10", written));
+        assertEquals(written, store.getCheckpoint("0").getSequenceNumber());
+
+        policy.update(new Checkpoint("0", "60", halfway));
+        policy.update(new Checkpoint("0", "109", notDue));
+        assertEquals(written, store.getCheckpoint("0").getSequenceNumber());
+        assertEquals(notDue, policy.getPending("0").getSequenceNumber());
+
+        policy.update(new Checkpoint("0", "110", due));
+        assertEquals(due, store.getCheckpoint("0").getSequenceNumber());
+        assertNull(policy.getPending("0"));
+    }
+
+    @Test
+    void update_writesAfterInterval() {
+        final long intervalMillis = 20;
+        VirtualClock clock = new VirtualClock(0);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CheckpointPolicy policy = new CheckpointPolicy(store, 0, intervalMillis, OWNED, clock);
+
+        policy.update(new Checkpoint("0", "1", 1));
+        policy.update(new Checkpoint("0", "2", 2));
+        assertEquals(1, store.getCheckpoint("0").getSequenceNumber());
+
+        clock.advance(intervalMillis);
+        policy.update(new Checkpoint("0", "3", 3));
+        assertEquals(3, store.getCheckpoint("0").getSequenceNumber());
+    }
+
+    @Test
+    void flush_writesPendingCheckpoint() {
+        final long firstOfOther = 7;
+        final long latestOfOther = 8;
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CheckpointPolicy policy = new CheckpointPolicy(store, EVENT_COUNT, 0, OWNED, Clock.systemUTC());
+
+        policy.update(new Checkpoint("0", "1", 1));
+        policy.update(new Checkpoint("0", "5", 5));
+        policy.update(new Checkpoint("1", "7", firstOfOther));
+        policy.update(new Checkpoint("1", "8", latestOfOther));
+
+        policy.flush("0");
+        assertEquals(5, store.getCheckpoint("0").getSequenceNumber());
+        assertEquals(firstOfOther, store.getCheckpoint("1").getSequenceNumber());
+
+        policy.close();
+        assertEquals(latestOfOther, store.getCheckpoint("1").getSequenceNumber());
+    }
+
+    @Test
+    void discard_dropsPendingCheckpoint() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CheckpointPolicy policy = new CheckpointPolicy(store, EVENT_COUNT, 0, OWNED, Clock.systemUTC());
+
+        policy.update(new Checkpoint("0", "1", 1));
+        policy.update(new Checkpoint("0", "5", 5));
+        policy.discard("0");
+        policy.flush("0");
+
+        assertEquals(1, store.getCheckpoint("0").getSequenceNumber());
+        assertNull(policy.getPending("0"));
+    }
+
+    @Test
+    void close_discardsPendingCheckpointsOfLeasesThatAreNoLongerOwned() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        CheckpointPolicy policy = new CheckpointPolicy(store, EVENT_COUNT, 0, "0"::equals, Clock.systemUTC());
+
+        policy.update(new Checkpoint("0", "1", 1));
+        policy.update(new Checkpoint("0", "5", 5));
+        policy.update(new Checkpoint("1", "1", 1));
+        policy.update(new Checkpoint("1", "5", 5));
+        policy.close();
+
+        assertEquals(5, store.getCheckpoint("0").getSequenceNumber());
+        assertEquals(1, store.getCheckpoint("1").getSequenceNumber());
+        assertNull(policy.getPending("1"));
+    }
+}
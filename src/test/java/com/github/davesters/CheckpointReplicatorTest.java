@@ -0,0 +1,70 @@
+package com.github.davesters;
+
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointReplicatorTest {
+
+    private static final int MAX_PENDING = 10;
+
+    private static final Function<String, Map<String, String>> PRIMARY_DOWN = kind -> {
+        throw new JedisConnectionException("primary is down");
+    };
+
+    @Test
+    void checkpointWritten_coalescesByPartition() {
+        CheckpointReplicator replicator = new CheckpointReplicator(null, id -> "key", id -> "key_lease", null,
+            PRIMARY_DOWN, MAX_PENDING);
+
+        replicator.checkpointWritten("partition_1", "100,1", null);
+        replicator.checkpointWritten("partition_1", "200,2", null);
+        replicator.leaseWritten("partition_1", "host,1,1000");
+
+        assertEquals(2, replicator.getStats().getPendingUpdates());
+    }
+
+    @Test
+    void checkpointWritten_dropsNewPartitionsWhenFull() {
+        CheckpointReplicator replicator = new CheckpointReplicator(null, id -> "key", id -> "key_lease", null,
+            PRIMARY_DOWN, 2);
+
+        replicator.checkpointWritten("partition_1", "100,1", null);
+        replicator.checkpointWritten("partition_2", "100,1", null);
+        replicator.checkpointWritten("partition_3", "100,1", null);
+        replicator.checkpointWritten("partition_1", "200,2", null);
+
+        assertEquals(2, replicator.getStats().getPendingUpdates());
+    }
+
+    @Test
+    void checkpointRewound_isKeptWhenFull() {
+        CheckpointReplicator replicator = new CheckpointReplicator(null, id -> "key", id -> "key_lease", null,
+            PRIMARY_DOWN, 1);
+
+        replicator.checkpointWritten("partition_1", "200,2", null);
+        replicator.checkpointRewound("partition_2", "100,1", null);
+        replicator.checkpointDeleted("partition_3");
+        replicator.leaseDeleted("partition_3");
+
+        assertEquals(4, replicator.getStats().getPendingUpdates());
+    }
+
+    @Test
+    void replicate_keepsWritesQueuedWhenItFails() {
+        CheckpointReplicator replicator = new CheckpointReplicator(null, id -> "key", id -> "key_lease", null,
+            PRIMARY_DOWN, MAX_PENDING);
+        replicator.checkpointWritten("partition_1", "100,1", null);
+        replicator.checkpointDeleted("partition_2");
+
+        assertThrows(JedisConnectionException.class, () -> replicator.replicate(true));
+
+        ReplicationStats stats = replicator.getStats();
+        assertEquals(2, stats.getPendingUpdates());
+        assertEquals(1, stats.getFailures());
+        assertEquals(0, stats.getLastReplicatedAtMillis());
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.davesters;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTelemetryTest {
+
+    private static final long START_MILLIS = 1000;
+
+    @Test
+    void snapshot_reportsLagUntilPersisted() {
+        final long firstSetAt = 2000;
+        final long lastSetAt = 2500;
+        final long firstSnapshotAt = 3000;
+        final long persistedAt = 3500;
+        final long secondSnapshotAt = 4000;
+        final long persistedSequenceNumber = 10;
+        final long firstSequenceNumber = 15;
+        final long lastSequenceNumber = 20;
+        CheckpointTelemetry telemetry = new CheckpointTelemetry();
+        telemetry.checkpointPersisted(0, "partition_0", "100", persistedSequenceNumber, START_MILLIS);
+        telemetry.checkpointSet(0, "partition_0", "150", firstSequenceNumber, firstSetAt);
+        telemetry.checkpointSet(0, "partition_0", "200", lastSequenceNumber, lastSetAt);
+
+        CheckpointLagStats stats = telemetry.snapshot(firstSnapshotAt).get(0);
+        assertEquals("200", stats.getOffset());
+        assertEquals("100", stats.getPersistedOffset());
+        assertEquals(lastSequenceNumber - persistedSequenceNumber, stats.getSequenceNumberLag());
+        assertEquals(firstSnapshotAt - firstSetAt, stats.getPendingAgeMillis());
+
+        telemetry.checkpointPersisted(0, "partition_0", "200", lastSequenceNumber, persistedAt);
+        stats = telemetry.snapshot(secondSnapshotAt).get(0);
+        assertEquals(0, stats.getSequenceNumberLag());
+        assertEquals(0, stats.getPendingAgeMillis());
+        assertEquals(persistedAt, stats.getPersistedAtMillis());
+    }
+
+    @Test
+    void snapshot_keepsValuesWhenGrowing() {
+        final int farIndex = 100;
+        CheckpointTelemetry telemetry = new CheckpointTelemetry();
+        telemetry.checkpointSet(1, "partition_1", "10", 1, START_MILLIS);
+        telemetry.checkpointSet(farIndex, "partition_100", "20", 2, START_MILLIS);
+
+        List<CheckpointLagStats> stats = telemetry.snapshot(START_MILLIS);
+        assertEquals(2, stats.size());
+        assertEquals("partition_1", stats.get(0).getPartitionId());
+        assertEquals("partition_100", stats.get(1).getPartitionId());
+        assertEquals(2, telemetry.getPartitionCount());
+    }
+
+    @Test
+    void remove_dropsPartition() {
+        CheckpointTelemetry telemetry = new CheckpointTelemetry();
+        telemetry.checkpointSet(0, "partition_0", "10", 1, START_MILLIS);
+        telemetry.remove(0);
+
+        assertTrue(telemetry.snapshot(START_MILLIS).isEmpty());
+        assertEquals(0, telemetry.getMaxPendingAgeMillis());
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.davesters;
+
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void tryProbe_opensAfterFailureThreshold() {
+        final long openMillis = 1000;
+        CircuitBreaker breaker = new CircuitBreaker(2, openMillis);
+
+        breaker.recordFailure(0);
+        assertFalse(breaker.isTripped());
+
+        breaker.recordFailure(0);
+        assertTrue(breaker.isTripped());
+        assertFalse(breaker.tryProbe(openMillis - 1));
+        assertTrue(breaker.isOpen(openMillis - 1));
+    }
+
+    @Test
+    void tryProbe_letsOneProbeThroughAfterOpenPeriod() {
+        final long openMillis = 1000;
+        CircuitBreaker breaker = new CircuitBreaker(1, openMillis);
+        breaker.recordFailure(0);
+
+        assertTrue(breaker.tryProbe(openMillis));
+        assertFalse(breaker.tryProbe(openMillis));
+
+        breaker.recordSuccess();
+        assertFalse(breaker.isTripped());
+        assertFalse(breaker.isOpen(openMillis));
+    }
+
+    @Test
+    void tryProbe_staysOpenWhenProbeFails() {
+        final long openMillis = 1000;
+        CircuitBreaker breaker = new CircuitBreaker(1, openMillis);
+        breaker.recordFailure(0);
+
+        assertTrue(breaker.tryProbe(openMillis));
+        breaker.recordFailure(openMillis);
+
+        assertFalse(breaker.tryProbe(openMillis * 2 - 1));
+        assertTrue(breaker.tryProbe(openMillis * 2));
+    }
+
+    @Test
+    void releaseProbe_letsTheNextCallProbe() {
+        final long openMillis = 1000;
+        CircuitBreaker breaker = new CircuitBreaker(1, openMillis);
+        breaker.recordFailure(0);
+        assertTrue(breaker.tryProbe(openMillis));
+
+        breaker.releaseProbe();
+
+        assertTrue(breaker.isTripped());
+        assertTrue(breaker.tryProbe(openMillis));
+    }
+
+    @Test
+    void isTripped_neverWhenDisabled() {
+        final long openMillis = 1000;
+        CircuitBreaker breaker = new CircuitBreaker(0, openMillis);
+
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+
+        assertFalse(breaker.isTripped());
+        assertFalse(breaker.isOpen(0));
+    }
+
+    @Test
+    void execute_keepsBreakerOpenWhenProbeFailsWithDataError() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.recordFailure(0);
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenThrow(new JedisDataException("LOADING Redis is loading the dataset"));
+        ResilientPool pool = new ResilientPool(jedisPool, breaker, new RedisCheckpointOptions("", ""));
+
+        assertThrows(JedisDataException.class, () -> pool.execute(true, jedis -> jedis.get("key")));
+
+        assertTrue(breaker.isTripped());
+        assertTrue(breaker.tryProbe(Long.MAX_VALUE));
+    }
+
+    @Test
+    void execute_releasesProbeWhenOperationFails() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.recordFailure(0);
+        JedisPool jedisPool = mock(JedisPool.class);
+        ResilientPool pool = new ResilientPool(jedisPool, breaker, new RedisCheckpointOptions("", ""));
+
+        assertThrows(IllegalStateException.class, () -> pool.execute(true, jedis -> {
+            throw new IllegalStateException("bug");
+        }));
+
+        assertTrue(breaker.tryProbe(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileCheckpointStoreTest {
+
+    private static final int MAX_PARTITIONS = 8;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 512;
+    private static final long EXPIRE_MILLIS = 1000;
+
+    private Path file;
+    private RedisCheckpointOptions options;
+
+    @BeforeEach
+    void init() throws IOException {
+        file = Files.createTempFile("checkpoints", ".dat");
+        options = new RedisCheckpointOptions("host-a", "");
+        options.setFileCheckpointMaxPartitions(MAX_PARTITIONS);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void setCheckpointAndLease_survivesReopening() {
+        final long sequenceNumber = 42;
+
+        try (FileCheckpointStore store = open()) {
+            store.setCheckpoint(new Checkpoint("0", "4000", sequenceNumber));
+            store.setLease(new RedisLease("0", "host-a", 3, EXPIRE_MILLIS));
+            store.setCheckpoint(new Checkpoint("1", "-1", 0));
+            store.deleteLease("1");
+        }
+
+        try (FileCheckpointStore store = open()) {
+            assertEquals("4000", store.getCheckpoint("0").getOffset());
+            assertEquals(sequenceNumber, store.getCheckpoint("0").getSequenceNumber());
+            assertEquals("host-a,3,1000", ((RedisLease) store.getLease("0")).getRedisValue());
+            assertEquals(2, store.getAllCheckpoints().size());
+            assertEquals(Collections.singleton("0"), store.getAllLeases().keySet());
+            assertNull(store.getLease("1"));
+            assertNull(store.getCheckpoint("2"));
+        }
+    }
+
+    @Test
+    void getCheckpoint_fallsBackToThePreviousSlotWhenTheLatestIsTorn() throws IOException {
+        final long first = 100;
+        final long second = 200;
+        final long third = 300;
+        final int payloadByte = 20;
+        final int garbage = 0xff;
+
+        try (FileCheckpointStore store = open()) {
+            store.setCheckpoint(new Checkpoint("0", "100", first));
+            store.setCheckpoint(new Checkpoint("0", "200", second));
+        }
+
+        // The record was created in slot 1, then written to slot 0 and slot 1 again.
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(HEADER_SIZE + SLOT_SIZE + payloadByte);
+            raw.write(garbage);
+        }
+
+        try (FileCheckpointStore store = open()) {
+            assertEquals("100", store.getCheckpoint("0").getOffset());
+
+            store.setCheckpoint(new Checkpoint("0", "300", third));
+            assertEquals("300", store.getCheckpoint("0").getOffset());
+        }
+    }
+
+    @Test
+    void compareAndSetLease_seesWritesOfOtherHostsSharingTheFile() {
+        final long renewedExpireMillis = 2000;
+        final long staleExpireMillis = 3000;
+
+        try (FileCheckpointStore hostA = open(); FileCheckpointStore hostB = open()) {
+            RedisLease first = new RedisLease("0", "host-a", 1, EXPIRE_MILLIS);
+            assertTrue(hostA.compareAndSetLease(null, first));
+
+            assertFalse(hostB.compareAndSetLease(null, new RedisLease("0", "host-b", 1, EXPIRE_MILLIS)));
+            assertTrue(hostB.compareAndSetLease(hostB.getLease("0"),
+                new RedisLease("0", "host-b", 2, renewedExpireMillis)));
+
+            assertFalse(hostA.compareAndSetLease(first, new RedisLease("0", "host-a", 1, staleExpireMillis)));
+            assertEquals("host-b", hostA.getLease("0").getOwner());
+        }
+    }
+
+    @Test
+    void connect_failsWhenTheFileHasADifferentLayout() {
+        open().close();
+        options.setFileCheckpointMaxPartitions(MAX_PARTITIONS * 2);
+
+        assertThrows(IllegalStateException.class, this::open);
+    }
+
+    @Test
+    void leaseManager_acquiresLeasesInTheFile() {
+        try (FileCheckpointStore store = new FileCheckpointStore(file, options)) {
+            RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+            manager.createLeaseStoreIfNotExists().join();
+            manager.createAllLeasesIfNotExists(Collections.singletonList("0")).join();
+
+            assertTrue(manager.acquireLease(manager.getLease("0").join()).join());
+            assertEquals("host-a", store.getLease("0").getOwner());
+        }
+    }
+
+    private FileCheckpointStore open() {
+        FileCheckpointStore store = new FileCheckpointStore(file, options);
+        store.connect();
+        return store;
+    }
+}
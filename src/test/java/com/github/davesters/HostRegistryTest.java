@@ -0,0 +1,60 @@
+package com.github.davesters;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostRegistryTest {
+
+    private static final long INTERVAL_MILLIS = 1000;
+    private static final long TIMEOUT_MILLIS = 3000;
+
+    @Test
+    void isDead_onlyWhenHeartbeatRanOut() {
+        final long now = 4000;
+        HostRegistry registry = new HostRegistry(new InMemoryCheckpointStore(), "host-a", INTERVAL_MILLIS,
+            TIMEOUT_MILLIS, new VirtualClock(now));
+        Map<String, Long> heartbeats = new HashMap<>();
+        heartbeats.put("host-a", now + INTERVAL_MILLIS);
+        heartbeats.put("Host-B", now - INTERVAL_MILLIS);
+        registry.update(heartbeats);
+
+        assertFalse(registry.isDead("host-a", now));
+        assertTrue(registry.isDead("host-b", now));
+        assertTrue(registry.isDead("HOST-B", now - INTERVAL_MILLIS));
+        assertFalse(registry.isDead("host-c", now));
+    }
+
+    @Test
+    void getLiveHosts_returnsHostsWithCurrentHeartbeat() {
+        final long now = 4000;
+        HostRegistry registry = new HostRegistry(new InMemoryCheckpointStore(), "host-a", INTERVAL_MILLIS,
+            TIMEOUT_MILLIS, new VirtualClock(now));
+        Map<String, Long> heartbeats = new HashMap<>();
+        heartbeats.put("host-a", now + INTERVAL_MILLIS);
+        heartbeats.put("host-b", now - INTERVAL_MILLIS);
+        registry.update(heartbeats);
+
+        assertEquals(1, registry.getLiveHosts(now).size());
+        assertTrue(registry.getLiveHosts(now).contains("host-a"));
+    }
+
+    @Test
+    void close_leavesAHeartbeatThatRanOut() {
+        final long now = 4000;
+        VirtualClock clock = new VirtualClock(now);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        HostRegistry stopping = new HostRegistry(store, "host-a", INTERVAL_MILLIS, TIMEOUT_MILLIS, clock);
+        HostRegistry other = new HostRegistry(store, "host-b", INTERVAL_MILLIS, TIMEOUT_MILLIS, clock);
+
+        stopping.start();
+        other.update(store.heartbeat("host-b", now + TIMEOUT_MILLIS));
+        assertFalse(other.isDead("host-a", clock.millis()));
+
+        stopping.close();
+        other.update(store.heartbeat("host-b", now + TIMEOUT_MILLIS));
+        assertTrue(other.isDead("host-a", clock.millis()));
+    }
+}
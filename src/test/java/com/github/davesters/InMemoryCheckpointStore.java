@@ -0,0 +1,150 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.BaseLease;
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A checkpoint store that keeps everything in memory, in the same value format the Redis store uses.
+ * Several instances can share the same maps to simulate several hosts sharing one Redis database.
+ * Checkpoint writes that move a partition's sequence number backwards are counted as regressions.
+ */
+class InMemoryCheckpointStore implements CheckpointStore {
+
+    private final ConcurrentMap<String, String> checkpoints;
+    private final ConcurrentMap<String, String> leases;
+    private final AtomicLong regressions;
+    private final ConcurrentMap<String, byte[]> states = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> heartbeats = new ConcurrentHashMap<>();
+
+    private volatile boolean connected;
+
+    /**
+     * Create a store with its own, empty data.
+     */
+    InMemoryCheckpointStore() {
+        this(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new AtomicLong());
+    }
+
+    /**
+     * Create a store that shares its data with other stores.
+     * @param checkpoints The shared checkpoint values
+     * @param leases The shared lease values
+     * @param regressions The shared checkpoint regression counter
+     */
+    InMemoryCheckpointStore(ConcurrentMap<String, String> checkpoints, ConcurrentMap<String, String> leases,
+                            AtomicLong regressions) {
+        this.checkpoints = checkpoints;
+        this.leases = leases;
+        this.regressions = regressions;
+    }
+
+    @Override
+    public void connect() {
+        connected = true;
+    }
+
+    @Override
+    public boolean connected() {
+        return connected;
+    }
+
+    @Override
+    public Checkpoint getCheckpoint(String partitionId) {
+        String value = checkpoints.get(partitionId);
+        return value == null ? null : PartitionTable.parseCheckpoint(partitionId, value);
+    }
+
+    @Override
+    public void setCheckpoint(Checkpoint checkpoint) {
+        String value = checkpoint.getOffset() + ',' + checkpoint.getSequenceNumber();
+        String previous = checkpoints.put(checkpoint.getPartitionId(), value);
+        // Like the Redis store, a checkpoint without a state removes the state.
+        if (checkpoint instanceof StatefulCheckpoint && ((StatefulCheckpoint) checkpoint).getState() != null) {
+            states.put(checkpoint.getPartitionId(), ((StatefulCheckpoint) checkpoint).getState());
+        } else {
+            states.remove(checkpoint.getPartitionId());
+        }
+
+        if (previous != null && PartitionTable.parseCheckpoint(checkpoint.getPartitionId(), previous)
+            .getSequenceNumber() > checkpoint.getSequenceNumber()) {
+            regressions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public byte[] getPartitionState(String partitionId) {
+        return states.get(partitionId);
+    }
+
+    @Override
+    public void deleteCheckpoint(String partitionId) {
+        checkpoints.remove(partitionId);
+    }
+
+    @Override
+    public Map<String, Checkpoint> getAllCheckpoints() {
+        Map<String, Checkpoint> result = new HashMap<>();
+        checkpoints.forEach((key, value) -> result.put(key, PartitionTable.parseCheckpoint(key, value)));
+        return result;
+    }
+
+    @Override
+    public CompleteLease getLease(String partitionId) {
+        String value = leases.get(partitionId);
+        return value == null ? null : PartitionTable.parseLease(partitionId, value);
+    }
+
+    @Override
+    public void setLease(CompleteLease lease) {
+        leases.put(lease.getPartitionId(), ((RedisLease) lease).getRedisValue());
+    }
+
+    @Override
+    public boolean compareAndSetLease(CompleteLease expected, CompleteLease lease) {
+        String value = ((RedisLease) lease).getRedisValue();
+
+        if (expected == null) {
+            return leases.putIfAbsent(lease.getPartitionId(), value) == null;
+        }
+
+        return leases.replace(lease.getPartitionId(), ((RedisLease) expected).getRedisValue(), value);
+    }
+
+    @Override
+    public void deleteLease(String partitionId) {
+        leases.remove(partitionId);
+    }
+
+    @Override
+    public Map<String, CompleteLease> getAllLeases() {
+        Map<String, CompleteLease> result = new HashMap<>();
+        leases.forEach((key, value) -> result.put(key, PartitionTable.parseLease(key, value)));
+        return result;
+    }
+
+    @Override
+    public List<BaseLease> getBaseLeases() {
+        List<BaseLease> result = new ArrayList<>();
+        leases.forEach((key, value) -> result.add(PartitionTable.parseLease(key, value)));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> heartbeat(String hostname, long expireMillis) {
+        heartbeats.put(hostname, expireMillis);
+        return new HashMap<>(heartbeats);
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.davesters;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonObjectReaderTest {
+
+    @Test
+    void parse_readsFlatObject() {
+        Map<String, String> values = JsonObjectReader.parse(
+            "{ \"partitionId\": \"3\", \"epoch\": 12, \"owner\": \"host\\u0041\\n\", "
+                + "\"token\": null, \"valid\": true }");
+
+        assertEquals("3", values.get("partitionId"));
+        assertEquals("12", values.get("epoch"));
+        assertEquals("hostA\n", values.get("owner"));
+        assertTrue(values.containsKey("token"));
+        assertNull(values.get("token"));
+        assertEquals("true", values.get("valid"));
+    }
+
+    @Test
+    void parse_skipsNestedValues() {
+        Map<String, String> values = JsonObjectReader.parse(
+            "{\"a\":{\"b\":[1,\"}]\",{}]},\"c\":[],\"offset\":\"100\"}");
+
+        assertEquals(1, values.size());
+        assertEquals("100", values.get("offset"));
+    }
+
+    @Test
+    void parse_rejectsInvalidJson() {
+        assertThrows(IllegalArgumentException.class, () -> JsonObjectReader.parse("not json"));
+        assertThrows(IllegalArgumentException.class, () -> JsonObjectReader.parse("{\"a\":1"));
+        assertThrows(IllegalArgumentException.class, () -> JsonObjectReader.parse("{\"a\":1} extra"));
+        assertThrows(IllegalArgumentException.class, () -> JsonObjectReader.parse("{\"a\":\"\\u12\"}"));
+    }
+}
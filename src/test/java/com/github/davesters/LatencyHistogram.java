@@ -0,0 +1,69 @@
+package com.github.davesters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two microsecond buckets. Good enough to see tail latency in a soak
+ * run without pulling in a metrics library.
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+    private static final double PERCENT = 100.0;
+    private static final double P50 = 50;
+    private static final double P99 = 99;
+    private static final double P999 = 99.9;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one operation.
+     * @param nanos How long the operation took
+     */
+    void record(long nanos) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(Math.min(BUCKETS - 1, Long.SIZE - 1 - Long.numberOfLeadingZeros(micros)));
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * The number of operations recorded.
+     * @return long
+     */
+    long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * The upper bound of the bucket a percentile falls in.
+     * @param percentile The percentile, 0 to 100
+     * @return The latency in microseconds
+     */
+    long percentileMicros(double percentile) {
+        long total = count();
+        long target = (long) Math.ceil(total * percentile / PERCENT);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target && seen > 0) {
+                return Math.min(max.get(), (2L << i) - 1);
+            }
+        }
+
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%dus p99=%dus p99.9=%dus max=%dus",
+            count(), percentileMicros(P50), percentileMicros(P99), percentileMicros(P999), max.get());
+    }
+}
@@ -0,0 +1,317 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.BaseLease;
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives {@link RedisCheckpointLeaseManager} the way the EPH partition manager does, with several simulated hosts
+ * renewing, acquiring, stealing and checkpointing partitions while hosts are killed and restarted.
+ * This is a long running test and is excluded from the normal build. Run it with {@code mvn test -Psoak}.
+ * Everything is configured with system properties (see the constants below). By default the hosts share an in-memory
+ * store. Set {@code soak.redisHost} to run against a real Redis instead.
+ */
+@Tag("soak")
+class LeaseChurnSoakTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeaseChurnSoakTest.class.getSimpleName());
+    private static final int HOSTS = Integer.getInteger("soak.hosts", 4);
+    private static final int PARTITIONS = Integer.getInteger("soak.partitions", 32);
+    private static final long DURATION_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("soak.durationSeconds", 60));
+    private static final int LEASE_DURATION_MILLIS = Integer.getInteger("soak.leaseDurationMillis", 3000);
+    private static final long RENEW_INTERVAL_MILLIS = Long.getLong("soak.renewIntervalMillis", 1000);
+    private static final long CHECKPOINT_INTERVAL_MILLIS = Long.getLong("soak.checkpointIntervalMillis", 100);
+    private static final long KILL_INTERVAL_MILLIS = Long.getLong("soak.killIntervalMillis", 7000);
+    private static final long RESTART_DELAY_MILLIS = Long.getLong("soak.restartDelayMillis", 2000);
+    private static final long SAMPLE_INTERVAL_MILLIS = 50;
+    private static final String REDIS_HOST = System.getProperty("soak.redisHost");
+    private static final int REDIS_PORT = Integer.getInteger("soak.redisPort", 6379);
+    private static final boolean LEASE_SNAPSHOT =
+        Boolean.parseBoolean(System.getProperty("soak.leaseSnapshot", "true"));
+    // A host that lost a lease only finds out at its next renew, so two hosts may briefly think they own the same
+    // partition. Only overlaps that last longer than this count as duplicate ownership.
+    private static final long DUPLICATE_GRACE_MILLIS = RENEW_INTERVAL_MILLIS * 2;
+
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> checkpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> leases = new ConcurrentHashMap<>();
+    private final AtomicLong regressions = new AtomicLong();
+    private final AtomicLong duplicateOwnership = new AtomicLong();
+    private final Map<String, Long> duplicateSince = new ConcurrentHashMap<>();
+    private final String keyName = "soak-" + Instant.now().toEpochMilli();
+    private final List<String> partitionIds = IntStream.range(0, PARTITIONS)
+        .mapToObj(Integer::toString)
+        .collect(Collectors.toList());
+
+    private volatile long lastChurnMillis = Instant.now().toEpochMilli();
+    private volatile long lastUnbalancedMillis = Instant.now().toEpochMilli();
+    private volatile long worstConvergenceMillis;
+
+    @Test
+    void leaseChurn() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(HOSTS * 2 + 2);
+        List<SimulatedHost> hosts = new ArrayList<>();
+
+        for (int i = 0; i < HOSTS; i++) {
+            SimulatedHost host = new SimulatedHost("host-" + i);
+            hosts.add(host);
+            host.start(scheduler);
+        }
+
+        scheduler.scheduleWithFixedDelay(() -> sample(hosts), SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> killer = scheduler.scheduleWithFixedDelay(() -> killAndRestart(hosts, scheduler),
+            KILL_INTERVAL_MILLIS, KILL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(DURATION_MILLIS);
+
+        // Stop the churn and give the hosts time to settle, so the last convergence is measured too.
+        killer.cancel(false);
+        lastChurnMillis = Instant.now().toEpochMilli();
+        long settleDeadline = lastChurnMillis + LEASE_DURATION_MILLIS * 4L;
+        while (!isBalanced(hosts) && Instant.now().toEpochMilli() < settleDeadline) {
+            Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+        }
+        long finalConvergence = Instant.now().toEpochMilli() - lastChurnMillis;
+        boolean converged = isBalanced(hosts);
+
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(LEASE_DURATION_MILLIS, TimeUnit.MILLISECONDS);
+        hosts.forEach(SimulatedHost::kill);
+
+        LOG.info("soak: {} hosts x {} partitions for {}s", HOSTS, PARTITIONS,
+            TimeUnit.MILLISECONDS.toSeconds(DURATION_MILLIS));
+        LOG.info("soak: convergence after churn: last={}ms worst={}ms",
+            finalConvergence, Math.max(worstConvergenceMillis, finalConvergence));
+        LOG.info("soak: duplicate ownership samples={} checkpoint regressions={}",
+            duplicateOwnership.get(), regressions.get());
+        new TreeMap<>(latencies).forEach((op, histogram) -> LOG.info("soak: {} {}", String.format("%-14s", op),
+            histogram));
+
+        assertTrue(converged, "hosts did not converge within 4 lease durations after the churn stopped");
+        assertEquals(0, duplicateOwnership.get(), "a partition was owned by two hosts for longer than the grace time");
+        assertEquals(0, regressions.get(), "a checkpoint moved backwards");
+    }
+
+    private void killAndRestart(List<SimulatedHost> hosts, ScheduledExecutorService scheduler) {
+        List<SimulatedHost> alive = hosts.stream().filter(SimulatedHost::isAlive).collect(Collectors.toList());
+        if (alive.size() < 2) {
+            return;
+        }
+
+        SimulatedHost victim = alive.get(ThreadLocalRandom.current().nextInt(alive.size()));
+        victim.kill();
+        lastChurnMillis = Instant.now().toEpochMilli();
+        scheduler.schedule(() -> {
+            victim.start(scheduler);
+            lastChurnMillis = Instant.now().toEpochMilli();
+        }, RESTART_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Counts partitions that more than one live host has thought it owns for longer than the grace period, and
+    // tracks how long it takes to rebalance.
+    private void sample(List<SimulatedHost> hosts) {
+        Map<String, Integer> owners = new HashMap<>();
+        hosts.stream()
+            .filter(SimulatedHost::isAlive)
+            .forEach(host -> host.owned.keySet().forEach(id -> owners.merge(id, 1, Integer::sum)));
+
+        long now = Instant.now().toEpochMilli();
+        duplicateSince.keySet().removeIf(id -> owners.getOrDefault(id, 0) < 2);
+        owners.forEach((id, count) -> {
+            if (count > 1 && now - duplicateSince.computeIfAbsent(id, key -> now) > DUPLICATE_GRACE_MILLIS) {
+                duplicateOwnership.incrementAndGet();
+            }
+        });
+
+        if (!isBalanced(hosts)) {
+            lastUnbalancedMillis = now;
+        } else if (lastUnbalancedMillis >= lastChurnMillis) {
+            worstConvergenceMillis = Math.max(worstConvergenceMillis, lastUnbalancedMillis - lastChurnMillis);
+        }
+    }
+
+    // Every partition is owned by exactly one live host, and no host has more than one partition above another.
+    private boolean isBalanced(List<SimulatedHost> hosts) {
+        List<SimulatedHost> alive = hosts.stream().filter(SimulatedHost::isAlive).collect(Collectors.toList());
+        Set<String> seen = new HashSet<>();
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+
+        for (SimulatedHost host : alive) {
+            Set<String> owned = new HashSet<>(host.owned.keySet());
+            for (String id : owned) {
+                if (!seen.add(id)) {
+                    return false;
+                }
+            }
+            min = Math.min(min, owned.size());
+            max = Math.max(max, owned.size());
+        }
+
+        return seen.size() == PARTITIONS && max - min <= 1;
+    }
+
+    private <T> T timed(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            latencies.computeIfAbsent(operation, op -> new LatencyHistogram()).record(System.nanoTime() - start);
+        }
+    }
+
+    private CheckpointStore createStore(RedisCheckpointOptions options) {
+        if (REDIS_HOST != null) {
+            return new RedisCheckpointStore(options);
+        }
+
+        return new InMemoryCheckpointStore(checkpoints, leases, regressions);
+    }
+
+    // A host that follows the same steps as the EPH partition manager: renew what it owns, read all leases, then
+    // take expired leases or steal from the busiest host until it has its fair share.
+    private final class SimulatedHost {
+
+        private final String name;
+        private final Map<String, CompleteLease> owned = new ConcurrentHashMap<>();
+        private final Map<String, Long> sequenceNumbers = new ConcurrentHashMap<>();
+
+        private volatile boolean alive;
+        private volatile RedisCheckpointLeaseManager manager;
+        private volatile CheckpointStore store;
+        private volatile List<ScheduledFuture<?>> loops = Collections.emptyList();
+
+        private SimulatedHost(String name) {
+            this.name = name;
+        }
+
+        private boolean isAlive() {
+            return alive;
+        }
+
+        private void start(ScheduledExecutorService scheduler) {
+            RedisCheckpointOptions options = new RedisCheckpointOptions(name, REDIS_HOST);
+            options.setPort(REDIS_PORT);
+            options.setCheckpointKeyName(keyName);
+            options.setLeaseDurationInMillis(LEASE_DURATION_MILLIS);
+            options.setUseLeaseSnapshot(LEASE_SNAPSHOT);
+
+            store = createStore(options);
+            manager = new RedisCheckpointLeaseManager(options, store);
+            manager.createLeaseStoreIfNotExists().join();
+            manager.createAllLeasesIfNotExists(partitionIds).join();
+            manager.createAllCheckpointsIfNotExists(partitionIds).join();
+
+            alive = true;
+            loops = Arrays.asList(
+                scheduler.scheduleWithFixedDelay(this::rebalance, 0, RENEW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS),
+                scheduler.scheduleWithFixedDelay(this::checkpoint, CHECKPOINT_INTERVAL_MILLIS,
+                    CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        // A crash: stop everything without releasing any leases.
+        private void kill() {
+            alive = false;
+            loops.forEach(loop -> loop.cancel(false));
+            owned.clear();
+            manager.deleteLeaseStore().join();
+        }
+
+        private void rebalance() {
+            if (!alive) {
+                return;
+            }
+
+            owned.forEach((id, lease) -> {
+                if (!timed("renewLease", () -> manager.renewLease(lease).join())) {
+                    owned.remove(id);
+                }
+            });
+
+            List<BaseLease> all = timed("getAllLeases", () -> manager.getAllLeases().join());
+            Map<String, Integer> counts = new HashMap<>();
+            List<String> free = new ArrayList<>();
+
+            for (BaseLease baseLease : all) {
+                RedisLease lease = (RedisLease) baseLease;
+                if (lease.isExpired() || lease.getOwner().trim().isEmpty()) {
+                    free.add(lease.getPartitionId());
+                } else {
+                    counts.merge(lease.getOwner(), 1, Integer::sum);
+                }
+            }
+
+            counts.putIfAbsent(name, 0);
+            int target = (PARTITIONS + counts.size() - 1) / counts.size();
+            Collections.shuffle(free);
+
+            for (String id : free) {
+                if (owned.size() >= target) {
+                    return;
+                }
+                acquire(id);
+            }
+
+            // Nothing free, so steal one lease from the busiest host if it has more than its share.
+            if (owned.size() < target) {
+                counts.entrySet().stream()
+                    .filter(entry -> !entry.getKey().equals(name) && entry.getValue() > target)
+                    .max(Map.Entry.comparingByValue())
+                    .flatMap(busiest -> all.stream()
+                        .map(lease -> (RedisLease) lease)
+                        .filter(lease -> lease.isOwnedBy(busiest.getKey()) && !lease.isExpired())
+                        .findAny())
+                    .ifPresent(lease -> acquire(lease.getPartitionId()));
+            }
+        }
+
+        private void acquire(String partitionId) {
+            CompleteLease lease = timed("getLease", () -> manager.getLease(partitionId).join());
+
+            if (lease != null && timed("acquireLease", () -> manager.acquireLease(lease).join())) {
+                Checkpoint checkpoint = timed("getCheckpoint", () -> manager.getCheckpoint(partitionId).join());
+                sequenceNumbers.put(partitionId, checkpoint == null ? 0 : checkpoint.getSequenceNumber());
+                owned.put(partitionId, lease);
+            }
+        }
+
+        // Like the Azure Storage checkpoint manager, a checkpoint is only written while the stored lease still names
+        // this host. A host that lost a lease would otherwise keep writing until its next renew.
+        private void checkpoint() {
+            if (!alive) {
+                return;
+            }
+
+            owned.forEach((id, lease) -> {
+                CompleteLease stored = store.getLease(id);
+                if (stored == null || !name.equals(stored.getOwner())) {
+                    return;
+                }
+
+                long sequenceNumber = sequenceNumbers.merge(id, 1L, Long::sum);
+                Checkpoint checkpoint = new Checkpoint(id, Long.toString(sequenceNumber), sequenceNumber);
+                timed("updateCheckpoint", () -> manager.updateCheckpoint(lease, checkpoint).join());
+            });
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.davesters;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaseDurationTunerTest {
+
+    private static final long RENEW_INTERVAL_MILLIS = 10000;
+    private static final long MAX_DURATION_MILLIS = 30000;
+    private static final int MIN_SAMPLES = 20;
+
+    @Test
+    void getDurationMillis_usesLongestUntilEnoughSamples() {
+        final long minDuration = 5000;
+        final long latency = 100;
+        LeaseDurationTuner tuner = new LeaseDurationTuner(RENEW_INTERVAL_MILLIS, minDuration, MAX_DURATION_MILLIS);
+
+        for (int i = 0; i < MIN_SAMPLES - 1; i++) {
+            tuner.record(latency);
+        }
+        assertEquals(MAX_DURATION_MILLIS, tuner.getDurationMillis());
+
+        // p99 and median are both 100, so 10000 + 2 * (100 + 0).
+        tuner.record(latency);
+        assertEquals(RENEW_INTERVAL_MILLIS + 2 * latency, tuner.getDurationMillis());
+    }
+
+    @Test
+    void getDurationMillis_growsWithLatencySpikes() {
+        final long minDuration = 5000;
+        final long latency = 10;
+        final long spike = 5000;
+        final int spikes = 5;
+        LeaseDurationTuner tuner = new LeaseDurationTuner(RENEW_INTERVAL_MILLIS, minDuration, MAX_DURATION_MILLIS);
+
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            tuner.record(latency);
+        }
+        for (int i = 0; i < spikes; i++) {
+            tuner.record(spike);
+        }
+
+        // p99 5000, median 10, so 10000 + 2 * (5000 + 4990).
+        assertEquals(RENEW_INTERVAL_MILLIS + 2 * (spike + spike - latency), tuner.getDurationMillis());
+    }
+
+    @Test
+    void getDurationMillis_staysWithinBounds() {
+        final long minDuration = 15000;
+        final long hugeLatency = 60000;
+        LeaseDurationTuner tuner = new LeaseDurationTuner(RENEW_INTERVAL_MILLIS, minDuration, MAX_DURATION_MILLIS);
+
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            tuner.record(1);
+        }
+        assertEquals(minDuration, tuner.getDurationMillis());
+
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            tuner.record(hugeLatency);
+        }
+        assertEquals(MAX_DURATION_MILLIS, tuner.getDurationMillis());
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.davesters;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaseTracerTest {
+
+    @Test
+    void dump_returnsEventsOldestFirst() {
+        final int size = 8;
+        final long readNanos = 100;
+        final long storedEpoch = 3;
+        final long requestedEpoch = 4;
+        LeaseTracer tracer = new LeaseTracer(size);
+        RedisLease requested = new RedisLease("partition_1", "owned", requestedEpoch, 0);
+        RedisLease stored = new RedisLease("partition_1", "other", storedEpoch, 0);
+
+        tracer.record(LeaseTraceEvent.Type.ACQUIRE, System.nanoTime(), readNanos, requested, stored, true, "stolen");
+        tracer.record(LeaseTraceEvent.Type.RENEW, System.nanoTime(), 0, requested, null, true, "renewed");
+
+        List<LeaseTraceEvent> events = tracer.dump();
+        assertEquals(2, events.size());
+        assertEquals(LeaseTraceEvent.Type.ACQUIRE, events.get(0).getType());
+        assertEquals("partition_1", events.get(0).getPartitionId());
+        assertEquals("other", events.get(0).getStoredOwner());
+        assertEquals(storedEpoch, events.get(0).getStoredEpoch());
+        assertEquals(requestedEpoch, events.get(0).getRequestedEpoch());
+        assertEquals(readNanos, events.get(0).getReadNanos());
+        assertTrue(events.get(0).getResult());
+        assertEquals(-1, events.get(1).getStoredEpoch());
+    }
+
+    @Test
+    void dump_keepsOnlyMostRecentEvents() {
+        final int size = 5;
+        final int recorded = 20;
+        final int roundedSize = 8;
+        LeaseTracer tracer = new LeaseTracer(size);
+
+        for (int i = 0; i < recorded; i++) {
+            RedisLease requested = new RedisLease(Integer.toString(i), "owned", i, 0);
+            tracer.record(LeaseTraceEvent.Type.RENEW, System.nanoTime(), 0, requested, null, true, "");
+        }
+
+        List<LeaseTraceEvent> events = tracer.dump();
+        assertEquals(roundedSize, events.size());
+        assertEquals(recorded - roundedSize, events.get(0).getSequence());
+        assertEquals(Integer.toString(recorded - 1), events.get(roundedSize - 1).getPartitionId());
+    }
+
+    @Test
+    void toChromeTrace_escapesStrings() {
+        LeaseTracer tracer = new LeaseTracer(4);
+        RedisLease requested = new RedisLease("p\"1", "owned", 1, 0);
+        tracer.record(LeaseTraceEvent.Type.SKIP, System.nanoTime(), 0, requested, null, false, "a\\b");
+
+        String json = LeaseTracer.toChromeTrace(tracer.dump(), "host\n1");
+
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.contains("\"name\":\"host\\u000a1\""));
+        assertTrue(json.contains("\"name\":\"partition p\\\"1\""));
+        assertTrue(json.contains("\"detail\":\"a\\\\b\""));
+        assertTrue(json.contains("\"ph\":\"X\""));
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.davesters;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTest {
+
+    @Test
+    void get_returnsCachedValueUntilTtlExpires() {
+        final long ttl = 100;
+        final long now = 1000;
+        NearCache cache = new NearCache(ttl);
+        cache.put("0", "value", cache.version(), now);
+
+        assertEquals("value", cache.get("0", now + ttl - 1));
+        assertNull(cache.get("0", now + ttl));
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+
+    @Test
+    void get_keepsValueWhileTracking() {
+        final long ttl = 100;
+        final long now = 1000;
+        NearCache cache = new NearCache(ttl);
+        cache.setTracking(true);
+        cache.put("0", "value", cache.version(), now);
+
+        assertEquals("value", cache.get("0", Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    void put_ignoresValueReadBeforeInvalidation() {
+        final long ttl = 100;
+        final long now = 1000;
+        NearCache cache = new NearCache(ttl);
+        long version = cache.version();
+
+        cache.invalidateAll();
+        cache.put("0", "stale", version, now);
+
+        assertNull(cache.get("0", now));
+    }
+
+    @Test
+    void setTracking_dropsCachedValues() {
+        final long ttl = 100;
+        final long now = 1000;
+        NearCache cache = new NearCache(ttl);
+        cache.put("0", "value", cache.version(), now);
+
+        cache.setTracking(false);
+
+        assertNull(cache.get("0", now));
+        assertEquals(0, cache.getStats().getSize());
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrphanSweeperTest {
+
+    @Test
+    void sweep_removesLongExpiredPartitionsNoLongerInTheHub() {
+        final long retentionDays = 30;
+        final long recentlyExpiredMillis = 1000;
+        final long sequenceNumber = 10;
+        final long orphanSequenceNumber = 50;
+        final long now = 1_000_000_000_000L;
+        VirtualClock clock = new VirtualClock(now);
+        long longAgo = now - TimeUnit.DAYS.toMillis(retentionDays);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        store.setLease(new RedisLease("0", "host1", 1, longAgo));
+        store.setLease(new RedisLease("5", "renamed-host", 3, longAgo));
+        store.setLease(new RedisLease("6", "host1", 2, now - recentlyExpiredMillis));
+        store.setLease(new RedisLease("7", "", 0, 0));
+        store.setCheckpoint(new Checkpoint("0", "100", sequenceNumber));
+        store.setCheckpoint(new Checkpoint("5", "500", orphanSequenceNumber));
+
+        RedisCheckpointOptions options = new RedisCheckpointOptions("host1", "");
+        options.setOrphanSweepEnabled(true);
+        Set<String> live = new HashSet<>(Arrays.asList("0", "1"));
+        OrphanSweeper sweeper = new OrphanSweeper(store, () -> live, options, clock);
+
+        assertEquals(1, sweeper.sweep());
+        assertNull(store.getLease("5"));
+        assertNull(store.getCheckpoint("5"));
+        assertNotNull(store.getLease("0"));
+        assertNotNull(store.getCheckpoint("0"));
+        assertNotNull(store.getLease("6"));
+        assertNotNull(store.getLease("7"));
+    }
+
+    @Test
+    void sweep_removesNothingUntilLivePartitionsAreKnown() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        store.setLease(new RedisLease("5", "host1", 3, 1));
+
+        RedisCheckpointOptions options = new RedisCheckpointOptions("host1", "");
+        options.setOrphanSweepEnabled(true);
+        OrphanSweeper sweeper = new OrphanSweeper(store, Collections::emptySet, options, Clock.systemUTC());
+
+        assertEquals(0, sweeper.sweep());
+        assertNotNull(store.getLease("5"));
+    }
+
+    @Test
+    void sweep_staysWithinBudget() {
+        final int firstOrphan = 10;
+        final int orphans = 10;
+        final int budget = 4;
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        for (int i = firstOrphan; i < firstOrphan + orphans; i++) {
+            store.setLease(new RedisLease(Integer.toString(i), "host1", 1, 1));
+        }
+
+        RedisCheckpointOptions options = new RedisCheckpointOptions("host1", "");
+        options.setOrphanSweepEnabled(true);
+        options.setOrphanSweepBatchSize(budget);
+        OrphanSweeper sweeper = new OrphanSweeper(store, () -> Collections.singleton("0"), options,
+            Clock.systemUTC());
+
+        assertEquals(budget, sweeper.sweep());
+        assertEquals(orphans - budget, store.getAllLeases().size());
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.davesters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionAffinityTest {
+
+    @Test
+    void preferredOwner_movesFewPartitionsWhenHostIsAdded() {
+        final int hostCount = 20;
+        final int partitionCount = 1000;
+        final int expectedMoves = partitionCount / (hostCount + 1);
+        List<String> hosts = new ArrayList<>();
+        for (int i = 0; i < hostCount; i++) {
+            hosts.add("host-" + i);
+        }
+
+        PartitionAffinity before = new PartitionAffinity("host-0", 0, 1);
+        before.update(hosts);
+        String newHost = "host-" + hostCount;
+        hosts.add(newHost);
+        PartitionAffinity after = new PartitionAffinity("host-0", 0, 1);
+        after.update(hosts);
+
+        int moved = 0;
+        for (int partition = 0; partition < partitionCount; partition++) {
+            String ownerBefore = before.preferredOwner(Integer.toString(partition));
+            String ownerAfter = after.preferredOwner(Integer.toString(partition));
+
+            if (!ownerBefore.equals(ownerAfter)) {
+                assertEquals(newHost, ownerAfter);
+                moved++;
+            }
+        }
+
+        // About 1000 / 21 partitions should move, and only to the new host.
+        assertTrue(moved > expectedMoves / 2 && moved < expectedMoves * 2, "moved " + moved);
+    }
+
+    @Test
+    void preferredOwner_ignoresCase() {
+        PartitionAffinity affinity = new PartitionAffinity("host-a", 0, 1);
+        affinity.update(Arrays.asList("HOST-A", "host-b"));
+
+        PartitionAffinity other = new PartitionAffinity("host-b", 0, 1);
+        other.update(Arrays.asList("host-a", "host-B"));
+
+        final int partitionCount = 32;
+        for (int partition = 0; partition < partitionCount; partition++) {
+            String id = Integer.toString(partition);
+            assertEquals(affinity.preferredOwner(id), other.preferredOwner(id));
+        }
+    }
+
+    @Test
+    void shouldAcquire_leavesFreeLeaseToPreferredHostForGracePeriod() {
+        final long gracePeriod = 1000;
+        final long expiredAt = 5000;
+        final long stillValidUntil = 9000;
+        PartitionAffinity affinity = new PartitionAffinity("host-a", gracePeriod, 1);
+        affinity.update(Arrays.asList("host-a", "host-b"));
+        String partitionId = partitionPreferredBy(affinity, "host-b");
+
+        RedisLease expired = new RedisLease(partitionId, "host-c", 1, expiredAt);
+        assertFalse(affinity.shouldAcquire(expired, expiredAt + gracePeriod / 2));
+        assertTrue(affinity.shouldAcquire(expired, expiredAt + gracePeriod));
+        assertFalse(affinity.shouldAcquire(new RedisLease(partitionId, "host-b", 1, stillValidUntil),
+            stillValidUntil - gracePeriod));
+    }
+
+    @Test
+    void shouldRelease_releasesLimitedNumberOfLeases() {
+        PartitionAffinity affinity = new PartitionAffinity("host-a", 0, 1);
+        affinity.update(Arrays.asList("host-a", "host-b"));
+        String mine = partitionPreferredBy(affinity, "host-a");
+        String theirs = partitionPreferredBy(affinity, "host-b");
+
+        assertFalse(affinity.shouldRelease(mine));
+        assertTrue(affinity.shouldRelease(theirs));
+        assertFalse(affinity.shouldRelease(theirs));
+
+        affinity.update(Arrays.asList("host-a", "host-b"));
+        assertTrue(affinity.shouldRelease(theirs));
+    }
+
+    private static String partitionPreferredBy(PartitionAffinity affinity, String host) {
+        for (int partition = 0; ; partition++) {
+            if (affinity.preferredOwner(Integer.toString(partition)).equals(host)) {
+                return Integer.toString(partition);
+            }
+        }
+    }
+}
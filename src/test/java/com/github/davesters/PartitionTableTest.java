@@ -0,0 +1,94 @@
+package com.github.davesters;
+
+import com.microsoft.azure.eventprocessorhost.Checkpoint;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionTableTest {
+
+    @Test
+    void indexOf_usesNumericPartitionIdsAsIndex() {
+        PartitionTable table = new PartitionTable();
+
+        assertEquals(3, table.indexOf("3"));
+        assertEquals(0, table.indexOf("0"));
+        assertEquals(3, table.indexOf("3"));
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    void indexOf_assignsNextFreeIndexToNamedPartitionIds() {
+        PartitionTable table = new PartitionTable();
+
+        assertEquals(1, table.indexOf("1"));
+        assertEquals(2, table.indexOf("partition_id"));
+        assertEquals(3, table.indexOf("02"));
+        assertEquals(2, table.indexOf("partition_id"));
+        assertEquals("02", table.partitionIdAt(3));
+    }
+
+    @Test
+    void indexOf_movesNumericIdWhenSlotIsTaken() {
+        PartitionTable table = new PartitionTable();
+
+        assertEquals(0, table.indexOf("p0"));
+        assertEquals(1, table.indexOf("0"));
+        assertEquals(1, table.indexOf("0"));
+    }
+
+    @Test
+    void putCheckpointValue_parsesStoredValue() {
+        final long expectedSequenceNumber = 678;
+        PartitionTable table = new PartitionTable();
+        int index = table.indexOf("7");
+        table.putCheckpointValue(index, "12345,678");
+
+        Checkpoint checkpoint = table.toCheckpoint(index);
+
+        assertEquals("7", checkpoint.getPartitionId());
+        assertEquals("12345", checkpoint.getOffset());
+        assertEquals(expectedSequenceNumber, checkpoint.getSequenceNumber());
+        assertEquals("12345,678", table.checkpointValueAt(index));
+    }
+
+    @Test
+    void putLeaseValue_parsesStoredValue() {
+        PartitionTable table = new PartitionTable();
+        int index = table.indexOf("2");
+        table.putLeaseValue(index, "host,with,commas,4,-1");
+
+        RedisLease lease = table.toLease(index);
+
+        assertEquals("host,with,commas", lease.getOwner());
+        assertEquals(4, lease.getEpoch());
+        assertEquals(-1, lease.getExpireMillis());
+        assertEquals("host,with,commas,4,-1", lease.getRedisValue());
+    }
+
+    @Test
+    void clearCheckpoints_keepsDirtyCheckpoints() {
+        PartitionTable table = new PartitionTable();
+        table.putCheckpoint(table.indexOf("0"), "10", 1);
+        table.putCheckpoint(table.indexOf("1"), "20", 2);
+        table.markDirty(1);
+
+        table.clearCheckpoints();
+
+        assertNull(table.toCheckpoint(0));
+        assertEquals("20", table.toCheckpoint(1).getOffset());
+        assertEquals(1, table.nextDirty(0));
+        assertEquals(-1, table.nextDirty(2));
+    }
+
+    @Test
+    void shardOf_spreadsPartitionsOverShards() {
+        assertEquals(0, PartitionTable.shardOf("0", 4));
+        assertEquals(3, PartitionTable.shardOf("7", 4));
+        assertEquals(1, PartitionTable.shardOf("13", 4));
+
+        int shard = PartitionTable.shardOf("named-partition", 4);
+        assertTrue(shard >= 0 && shard < 4);
+        assertEquals(shard, PartitionTable.shardOf("named-partition", 4));
+    }
+}
@@ -3,6 +3,7 @@ package com.github.davesters;
 import com.microsoft.azure.eventprocessorhost.BaseLease;
 import com.microsoft.azure.eventprocessorhost.Checkpoint;
 import com.microsoft.azure.eventprocessorhost.CompleteLease;
+import java.time.Clock;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -13,6 +14,8 @@ import static org.mockito.Mockito.*;
 
 class RedisCheckpointLeaseManagerTest {
 
+    private static final int LEASE_DURATION_MILLIS = 30_000;
+
     @Test
     void checkpointStoreExists_returnsTrue() {
         CheckpointStore store = mock(CheckpointStore.class);
@@ -225,12 +228,12 @@ class RedisCheckpointLeaseManagerTest {
         CompleteLease lease = new CompleteLease("partition_id");
 
         CheckpointStore store = mock(CheckpointStore.class);
-        when(store.getLease("partition_id")).thenReturn(lease);
+        when(store.getLeaseHedged("partition_id")).thenReturn(lease);
 
         RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(null, store);
         CompletableFuture<CompleteLease> response = manager.getLease("partition_id");
 
-        verify(store, times(1)).getLease("partition_id");
+        verify(store, times(1)).getLeaseHedged("partition_id");
         response.whenComplete((result, err) -> {
             assertNull(err);
             assertEquals("partition_id", result.getPartitionId());
@@ -367,4 +370,364 @@ class RedisCheckpointLeaseManagerTest {
             assertFalse(result);
         });
     }
+
+    @Test
+    void acquireLease_usesLeaseSnapshotWithCompareAndSet() {
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setUseLeaseSnapshot(true);
+        RedisLease leaseInStore = new RedisLease("partition_id", "otherOwner", 3, 0);
+
+        CheckpointStore store = mock(CheckpointStore.class);
+        when(store.getBaseLeases()).thenReturn(Collections.singletonList(leaseInStore));
+        when(store.compareAndSetLease(any(), any())).thenReturn(true);
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        manager.getAllLeases();
+        CompleteLease lease = manager.getLease("partition_id").join();
+        boolean acquired = manager.acquireLease(lease).join();
+
+        assertTrue(acquired);
+        assertEquals(4, lease.getEpoch());
+        verify(store, never()).getLease(anyString());
+        verify(store, never()).getLeaseHedged(anyString());
+        verify(store, never()).setLease(any());
+        verify(store, times(1)).compareAndSetLease(any(), any());
+    }
+
+    @Test
+    void acquireLease_doesNotAcquireWhenLeaseChangedSinceSnapshot() {
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setUseLeaseSnapshot(true);
+        RedisLease leaseInStore = new RedisLease("partition_id", "otherOwner", 3, 0);
+
+        CheckpointStore store = mock(CheckpointStore.class);
+        when(store.getBaseLeases()).thenReturn(Collections.singletonList(leaseInStore));
+        when(store.compareAndSetLease(any(), any())).thenReturn(false);
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        manager.getAllLeases();
+        boolean acquired = manager.acquireLease(manager.getLease("partition_id").join()).join();
+
+        assertFalse(acquired);
+        verify(store, never()).setLease(any());
+    }
+
+    @Test
+    void rewindCheckpoints_rewindsInStore() {
+        final long secondsAgo = 600;
+        Instant timestamp = Instant.now().minusSeconds(secondsAgo);
+        Map<String, Checkpoint> rewound = Collections.singletonMap("partition_id",
+            new Checkpoint("partition_id", "offset", 1));
+
+        CheckpointStore store = mock(CheckpointStore.class);
+        when(store.rewindCheckpoints(timestamp)).thenReturn(rewound);
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(null, store);
+        Map<String, Checkpoint> result = manager.rewindCheckpoints(timestamp);
+
+        assertSame(rewound, result);
+        verify(store, times(1)).rewindCheckpoints(timestamp);
+    }
+
+    @Test
+    void getCheckpoint_runsOnStoreExecutorWhenAsync() {
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setAsyncStoreOperations(true);
+        List<Runnable> submitted = new ArrayList<>();
+        options.setStoreExecutor(submitted::add);
+        Checkpoint checkpoint = new Checkpoint("partition_id", "offset", 1);
+
+        CheckpointStore store = mock(CheckpointStore.class);
+        when(store.getCheckpoint("partition_id")).thenReturn(checkpoint);
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        CompletableFuture<Checkpoint> response = manager.getCheckpoint("partition_id");
+
+        assertFalse(response.isDone());
+        verify(store, never()).getCheckpoint(anyString());
+
+        submitted.forEach(Runnable::run);
+        assertSame(checkpoint, response.join());
+        verify(store, times(1)).getCheckpoint("partition_id");
+    }
+
+    @Test
+    void deleteLeaseStore_shutsDownTheBuiltInStoreExecutor() {
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setAsyncStoreOperations(true);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        store.setCheckpoint(new Checkpoint("partition_id", "offset", 1));
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        manager.createLeaseStoreIfNotExists().join();
+        manager.deleteLeaseStore().join();
+
+        CompletableFuture<Checkpoint> afterClose = manager.getCheckpoint("partition_id");
+        assertTrue(afterClose.isCompletedExceptionally());
+
+        manager.createLeaseStoreIfNotExists().join();
+        assertEquals("offset", manager.getCheckpoint("partition_id").join().getOffset());
+    }
+
+    @Test
+    void getAllLeases_freesLeasesOfHostsThatShutDown() {
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        RedisCheckpointLeaseManager stopped = heartbeatManager("stoppedHost", store);
+        RedisCheckpointLeaseManager live = heartbeatManager("liveHost", store);
+        stopped.createLeaseStoreIfNotExists().join();
+        live.createLeaseStoreIfNotExists().join();
+        stopped.createAllLeasesIfNotExists(Arrays.asList("partition_1", "partition_2")).join();
+        assertTrue(stopped.acquireLease(stopped.getLease("partition_1").join()).join());
+        assertTrue(live.acquireLease(live.getLease("partition_2").join()).join());
+
+        stopped.deleteLeaseStore().join();
+        RedisCheckpointLeaseManager manager = heartbeatManager("owned", store);
+        manager.createLeaseStoreIfNotExists().join();
+        Map<String, BaseLease> leases = new HashMap<>();
+        manager.getAllLeases().join().forEach(lease -> leases.put(lease.getPartitionId(), lease));
+
+        assertFalse(leases.get("partition_1").getIsOwned());
+        assertTrue(leases.get("partition_2").getIsOwned());
+        live.deleteLeaseStore().join();
+        manager.deleteLeaseStore().join();
+    }
+
+    @Test
+    void createAllLeasesIfNotExists_bootstrapsInOneCallWhenEnabled() {
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setBootstrapOnStartup(true);
+        options.setInitialCheckpointOffset(InitialCheckpointOffset.START_OF_STREAM);
+        List<String> partitionIds = Arrays.asList("partition_1", "partition_2");
+        Map<String, Checkpoint> checkpoints = new HashMap<>();
+        checkpoints.put("partition_1", new Checkpoint("partition_1", "-1", 0));
+        checkpoints.put("partition_2", new Checkpoint("partition_2", "-1", 0));
+        List<BaseLease> leases = Arrays.asList(
+            new RedisLease("partition_1", "", 0, 0), new RedisLease("partition_2", "", 0, 0));
+
+        CheckpointStore store = mock(CheckpointStore.class);
+        when(store.bootstrap(eq(partitionIds), eq(InitialCheckpointOffset.START_OF_STREAM), any(Clock.class)))
+            .thenReturn(new StoreBootstrap(leases, checkpoints, Instant.now().toEpochMilli()));
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        manager.createAllLeasesIfNotExists(partitionIds).join();
+        manager.createAllCheckpointsIfNotExists(partitionIds).join();
+
+        assertEquals(2, manager.getAllLeases().join().size());
+        assertEquals("-1", manager.getCheckpoint("partition_1").join().getOffset());
+        verify(store, times(1)).bootstrap(eq(partitionIds), eq("-1"), any(Clock.class));
+        verify(store, never()).getBaseLeases();
+        verify(store, never()).getAllCheckpoints();
+        verify(store, never()).getCheckpoint(anyString());
+
+        manager.getAllLeases().join();
+        verify(store, times(1)).getBaseLeases();
+    }
+
+    @Test
+    void updateCheckpoint_writesOnlyWhenPolicyIsDueAndFlushesOnRelease() {
+        final long eventCount = 100;
+        final long secondSequenceNumber = 50;
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setAutoCheckpointEventCount(eventCount);
+        Checkpoint first = new Checkpoint("partition_id", "1", 1);
+        Checkpoint second = new Checkpoint("partition_id", "50", secondSequenceNumber);
+
+        CheckpointStore store = mock(CheckpointStore.class);
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        manager.updateCheckpoint(null, first).join();
+        manager.updateCheckpoint(null, second).join();
+
+        verify(store, times(1)).setCheckpoint(first);
+        verify(store, never()).setCheckpoint(second);
+        assertEquals("50", manager.getCheckpoint("partition_id").join().getOffset());
+
+        manager.releaseLease(new RedisLease("partition_id", "owned", 0, 0)).join();
+        verify(store, times(1)).setCheckpoint(second);
+    }
+
+    @Test
+    void renewLease_discardsPendingCheckpointWhenAnotherHostOwnsTheLease() {
+        final long eventCount = 100;
+        final long secondSequenceNumber = 50;
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setAutoCheckpointEventCount(eventCount);
+        Checkpoint first = new Checkpoint("partition_id", "1", 1);
+        Checkpoint second = new Checkpoint("partition_id", "50", secondSequenceNumber);
+
+        CheckpointStore store = mock(CheckpointStore.class);
+        when(store.getLease("partition_id")).thenReturn(
+            new RedisLease("partition_id", "other", 2, Instant.now().toEpochMilli() + LEASE_DURATION_MILLIS));
+
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(options, store);
+        manager.updateCheckpoint(null, first).join();
+        manager.updateCheckpoint(null, second).join();
+
+        assertFalse(manager.renewLease(new RedisLease("partition_id", "owned", 1, 0)).join());
+        manager.deleteLeaseStore().join();
+
+        verify(store, times(1)).setCheckpoint(first);
+        verify(store, never()).setCheckpoint(second);
+    }
+
+    @Test
+    void deleteLease_doesNotMoveTheCheckpointOfAStolenLeaseBack() {
+        final long ownerPending = 50;
+        final long thiefWritten = 80;
+        VirtualClock clock = new VirtualClock(0);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        RedisCheckpointLeaseManager owner = new RedisCheckpointLeaseManager(autoCheckpointOptions("host-a", clock),
+            store);
+        RedisCheckpointLeaseManager thief = new RedisCheckpointLeaseManager(autoCheckpointOptions("host-b", clock),
+            store);
+        owner.createAllLeasesIfNotExists(Collections.singletonList("partition_id")).join();
+
+        CompleteLease ownerLease = owner.getLease("partition_id").join();
+        assertTrue(owner.acquireLease(ownerLease).join());
+        owner.updateCheckpoint(ownerLease, new Checkpoint("partition_id", "1", 1)).join();
+        owner.updateCheckpoint(ownerLease, new Checkpoint("partition_id", "50", ownerPending)).join();
+
+        clock.advance(LEASE_DURATION_MILLIS);
+        assertTrue(thief.acquireLease(thief.getLease("partition_id").join()).join());
+        thief.updateCheckpoint(null, new Checkpoint("partition_id", "80", thiefWritten)).join();
+
+        owner.deleteLease(ownerLease).join();
+        owner.deleteLeaseStore().join();
+
+        assertEquals(thiefWritten, store.getCheckpoint("partition_id").getSequenceNumber());
+        assertEquals("host-b", store.getLease("partition_id").getOwner());
+    }
+
+    @Test
+    void deleteLeaseStore_onlyWritesPendingCheckpointsOfLeasesItStillOwns() {
+        final long pending = 50;
+        final long thiefWritten = 80;
+        VirtualClock clock = new VirtualClock(0);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        RedisCheckpointLeaseManager owner = new RedisCheckpointLeaseManager(autoCheckpointOptions("host-a", clock),
+            store);
+        RedisCheckpointLeaseManager thief = new RedisCheckpointLeaseManager(autoCheckpointOptions("host-b", clock),
+            store);
+        owner.createAllLeasesIfNotExists(Arrays.asList("stolen", "kept")).join();
+
+        for (String partitionId : Arrays.asList("stolen", "kept")) {
+            assertTrue(owner.acquireLease(owner.getLease(partitionId).join()).join());
+            owner.updateCheckpoint(null, new Checkpoint(partitionId, "1", 1)).join();
+            owner.updateCheckpoint(null, new Checkpoint(partitionId, "50", pending)).join();
+        }
+
+        clock.advance(LEASE_DURATION_MILLIS);
+        assertTrue(thief.acquireLease(thief.getLease("stolen").join()).join());
+        thief.updateCheckpoint(null, new Checkpoint("stolen", "80", thiefWritten)).join();
+
+        owner.deleteLeaseStore().join();
+
+        assertEquals(thiefWritten, store.getCheckpoint("stolen").getSequenceNumber());
+        assertEquals(pending, store.getCheckpoint("kept").getSequenceNumber());
+    }
+
+    @Test
+    void renewLease_detectsStealsUsingTheConfiguredClock() {
+        final long startMillis = 1_000_000;
+        final int periods = 5000;
+        final long renewAfterMillis = 20_000;
+        VirtualClock clock = new VirtualClock(startMillis);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        RedisCheckpointLeaseManager hostA = new RedisCheckpointLeaseManager(clockOptions("host-a", clock), store);
+        RedisCheckpointLeaseManager hostB = new RedisCheckpointLeaseManager(clockOptions("host-b", clock), store);
+        hostA.createAllLeasesIfNotExists(Collections.singletonList("partition_id")).join();
+
+        for (int period = 0; period < periods; period++) {
+            RedisCheckpointLeaseManager owner = period % 2 == 0 ? hostA : hostB;
+            RedisCheckpointLeaseManager thief = period % 2 == 0 ? hostB : hostA;
+
+            CompleteLease ownerLease = owner.getLease("partition_id").join();
+            assertTrue(owner.acquireLease(ownerLease).join());
+            clock.advance(renewAfterMillis);
+            assertTrue(owner.renewLease(ownerLease).join());
+
+            // Once the owner stops renewing, its lease runs out and the other host steals it.
+            clock.advance(LEASE_DURATION_MILLIS);
+            CompleteLease thiefLease = thief.getLease("partition_id").join();
+            assertTrue(((RedisLease) thiefLease).getExpireMillis() <= clock.millis());
+            assertTrue(thief.acquireLease(thiefLease).join());
+            assertFalse(owner.renewLease(ownerLease).join());
+
+            // Let the thief's lease run out too, so the next period starts from a free lease.
+            clock.advance(LEASE_DURATION_MILLIS);
+        }
+
+        assertEquals(periods + 1, ((RedisLease) store.getLease("partition_id")).getEpoch());
+    }
+
+    @Test
+    void setPartitionState_isWrittenWithTheNextCheckpointAndReadByTheNextOwner() {
+        final long sequenceNumber = 10;
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setPartitionStateEnabled(true);
+        options.setMaxPartitionStateBytes(4);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+        byte[] state = {1, 2, 3};
+
+        RedisCheckpointLeaseManager owner = new RedisCheckpointLeaseManager(options, store);
+        owner.setPartitionState("partition_id", state);
+        assertNull(store.getPartitionState("partition_id"));
+        assertThrows(IllegalArgumentException.class, () -> owner.setPartitionState("partition_id", new byte[5]));
+
+        owner.updateCheckpoint(null, new Checkpoint("partition_id", "10", sequenceNumber)).join();
+        owner.releaseLease(new RedisLease("partition_id", "owned", 0, 0)).join();
+
+        RedisCheckpointLeaseManager nextOwner = new RedisCheckpointLeaseManager(options, store);
+        assertArrayEquals(state, nextOwner.getPartitionState("partition_id").join());
+        assertEquals("10", store.getCheckpoint("partition_id").getOffset());
+    }
+
+    @Test
+    void setPartitionState_isRemovedByACheckpointWithoutState() {
+        final long sequenceNumber = 10;
+        final long laterSequenceNumber = 20;
+        RedisCheckpointOptions options = new RedisCheckpointOptions("owned", "");
+        options.setPartitionStateEnabled(true);
+        InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+
+        RedisCheckpointLeaseManager owner = new RedisCheckpointLeaseManager(options, store);
+        owner.setPartitionState("partition_id", new byte[]{1, 2, 3});
+        owner.updateCheckpoint(null, new Checkpoint("partition_id", "10", sequenceNumber)).join();
+        owner.releaseLease(new RedisLease("partition_id", "owned", 0, 0)).join();
+        owner.updateCheckpoint(null, new Checkpoint("partition_id", "20", laterSequenceNumber)).join();
+
+        RedisCheckpointLeaseManager nextOwner = new RedisCheckpointLeaseManager(options, store);
+        assertNull(nextOwner.getPartitionState("partition_id").join());
+        assertEquals("20", store.getCheckpoint("partition_id").getOffset());
+    }
+
+    @Test
+    void setPartitionState_failsWhenNotEnabled() {
+        RedisCheckpointLeaseManager manager = new RedisCheckpointLeaseManager(
+            new RedisCheckpointOptions("owned", ""), new InMemoryCheckpointStore());
+
+        assertThrows(IllegalStateException.class, () -> manager.setPartitionState("partition_id", new byte[1]));
+    }
+
+    private static RedisCheckpointOptions clockOptions(String hostname, VirtualClock clock) {
+        RedisCheckpointOptions options = new RedisCheckpointOptions(hostname, "");
+        options.setLeaseDurationInMillis(LEASE_DURATION_MILLIS);
+        options.setClock(clock);
+        return options;
+    }
+
+    private static RedisCheckpointOptions autoCheckpointOptions(String hostname, VirtualClock clock) {
+        final long eventCount = 100;
+        RedisCheckpointOptions options = clockOptions(hostname, clock);
+        options.setAutoCheckpointEventCount(eventCount);
+        return options;
+    }
+
+    private static RedisCheckpointLeaseManager heartbeatManager(String hostname, CheckpointStore store) {
+        final long heartbeatInterval = 60000;
+        RedisCheckpointOptions options = new RedisCheckpointOptions(hostname, "");
+        options.setHeartbeatEnabled(true);
+        options.setHeartbeatIntervalInMillis(heartbeatInterval);
+        return new RedisCheckpointLeaseManager(options, store);
+    }
 }
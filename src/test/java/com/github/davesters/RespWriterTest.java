@@ -0,0 +1,57 @@
+package com.github.davesters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RespWriterTest {
+
+    @Test
+    void command_encodesMultiFieldHset() throws IOException {
+        final int arguments = 6;
+        final long firstSequenceNumber = 7;
+        final long secondSequenceNumber = -12;
+        RespWriter writer = new RespWriter();
+        writer.command(arguments).argument("HSET").argument("key")
+            .argument("0").checkpointArgument("1024", firstSequenceNumber)
+            .argument("1").checkpointArgument("-1", secondSequenceNumber);
+
+        assertEquals("*6\r\n$4\r\nHSET\r\n$3\r\nkey\r\n$1\r\n0\r\n$6\r\n1024,7\r\n$1\r\n1\r\n$6\r\n-1,-12\r\n",
+            written(writer));
+    }
+
+    @Test
+    void argument_encodesNumbersAndUtf8() throws IOException {
+        RespWriter writer = new RespWriter();
+        writer.argument(0).argument(Long.MIN_VALUE).argument("\u00e9").checkpointArgument("\u00fc", 3);
+
+        assertEquals("$1\r\n0\r\n$20\r\n-9223372036854775808\r\n$2\r\n\u00e9\r\n$4\r\n\u00fc,3\r\n", written(writer));
+    }
+
+    @Test
+    void reset_reusesBufferAndGrowsForLargeCommands() throws IOException {
+        final int length = 10000;
+        final int headerAndTrailer = "$10000\r\n".length() + "\r\n".length();
+        RespWriter writer = new RespWriter();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            large.append('x');
+        }
+
+        writer.argument(large.toString());
+        assertEquals(length + headerAndTrailer, writer.size());
+
+        writer.reset();
+        writer.argument("a");
+        assertEquals("$1\r\na\r\n", written(writer));
+    }
+
+    private static String written(RespWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.davesters;
+
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatefulCheckpointTest {
+
+    @Test
+    void getState_loadsLazilyOnce() {
+        final long sequenceNumber = 100;
+        AtomicInteger loads = new AtomicInteger();
+        StatefulCheckpoint checkpoint = new StatefulCheckpoint("0", "100", sequenceNumber, () -> {
+            loads.incrementAndGet();
+            return new byte[]{1, 2};
+        });
+
+        assertFalse(checkpoint.isStateLoaded());
+        assertEquals(0, loads.get());
+
+        assertArrayEquals(new byte[]{1, 2}, checkpoint.getState());
+        assertArrayEquals(new byte[]{1, 2}, checkpoint.getState());
+        assertTrue(checkpoint.isStateLoaded());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void encode_roundTrips() {
+        final byte maxByte = Byte.MAX_VALUE;
+        final byte minByte = Byte.MIN_VALUE;
+        final byte other = 42;
+        byte[] state = {0, -1, maxByte, minByte, other};
+
+        assertArrayEquals(state, StatefulCheckpoint.decode(StatefulCheckpoint.encode(state)));
+        assertNull(StatefulCheckpoint.decode(null));
+        assertNull(StatefulCheckpoint.decode(""));
+    }
+
+    @Test
+    void encodedLength_matchesBase64() {
+        final int maxBytes = 10;
+
+        for (int bytes = 0; bytes <= maxBytes; bytes++) {
+            assertEquals(Base64.getEncoder().encodeToString(new byte[bytes]).length(),
+                StatefulCheckpoint.encodedLength(bytes));
+        }
+    }
+}
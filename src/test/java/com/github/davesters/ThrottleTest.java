@@ -0,0 +1,40 @@
+package com.github.davesters;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThrottleTest {
+
+    private static final long NO_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    void acquire_waitsOnceOverTheRate() {
+        final int operationsPerSecond = 1000;
+        final int permits = 100;
+        final long expectedWaitMillis = 200;
+        Throttle throttle = new Throttle(operationsPerSecond);
+        long start = System.nanoTime();
+
+        throttle.acquire(permits);
+        assertTrue(System.nanoTime() - start < NO_WAIT_NANOS);
+
+        throttle.acquire(permits);
+        throttle.acquire(permits);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(expectedWaitMillis));
+    }
+
+    @Test
+    void acquire_doesNotWaitWhenUnlimited() {
+        final int calls = 100;
+        final int permits = 1000000;
+        Throttle throttle = new Throttle(0);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < calls; i++) {
+            throttle.acquire(permits);
+        }
+        assertTrue(System.nanoTime() - start < NO_WAIT_NANOS);
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.davesters;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when a test moves it, so lease expiry can be tested without waiting.
+ */
+class VirtualClock extends Clock {
+
+    private final AtomicLong nowMillis;
+
+    /**
+     * Create a clock set to a point in time.
+     * @param startMillis The time to start at
+     */
+    VirtualClock(long startMillis) {
+        this.nowMillis = new AtomicLong(startMillis);
+    }
+
+    /**
+     * Move the clock forward.
+     * @param millis The number of milliseconds to move forward
+     */
+    void advance(long millis) {
+        nowMillis.addAndGet(millis);
+    }
+
+    @Override
+    public long millis() {
+        return nowMillis.get();
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return this;
+    }
+}